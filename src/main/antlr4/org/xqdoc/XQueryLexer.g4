@@ -13,6 +13,60 @@ tokens {EscapeQuot, EscapeApos, DOUBLE_LBRACE, DOUBLE_RBRACE}
 
     // for counting braces inside string literals
     private int bracesInside = 0;
+
+    // Limits of a module, 0 for no limit (see ResourceLimits)
+    private long maxTokens = 0;
+    private int maxDepth = 0;
+    private long tokens = 0;
+
+    // The time by which the module has to be parsed, as System.currentTimeMillis(), looked at every 1024 tokens
+    private long deadline = Long.MAX_VALUE;
+    private long timeBudgetMillis = 0;
+
+    public void setLimits(long maxTokens, int maxDepth) {
+        this.maxTokens = maxTokens;
+        this.maxDepth = maxDepth;
+    }
+
+    public void setDeadline(long deadline, long timeBudgetMillis) {
+        this.deadline = deadline;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    // A lexer reused for another module (setInputStream) starts outside of any string literal
+    @Override
+    public void reset() {
+        super.reset();
+        bracesInside = 0;
+        tokens = 0;
+    }
+
+    @Override
+    public Token nextToken() {
+        tokens++;
+        if (maxTokens > 0 && tokens > maxTokens) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.TOKENS, maxTokens,
+                    "Module exceeds the limit of " + maxTokens + " tokens");
+        }
+        if (deadline != Long.MAX_VALUE && (tokens & 1023) == 0 && System.currentTimeMillis() > deadline) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.TIME, timeBudgetMillis,
+                    "Time budget of " + timeBudgetMillis + " ms exceeded");
+        }
+        if (maxDepth > 0 && bracesInside > maxDepth) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.DEPTH, maxDepth,
+                    "String interpolation exceeds the limit of " + maxDepth + " nested braces");
+        }
+        return super.nextToken();
+    }
+
+    @Override
+    public void pushMode(int m) {
+        if (maxDepth > 0 && _modeStack.size() >= maxDepth) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.DEPTH, maxDepth,
+                    "String literals and constructors exceed the limit of " + maxDepth + " nested levels");
+        }
+        super.pushMode(m);
+    }
 }
 
 IntegerLiteral: Digits ;
@@ -3,6 +3,69 @@ options {
   tokenVocab=XQueryLexer;
 }
 
+@members {
+    // The deepest nesting of rules of a module, 0 for no limit (see ResourceLimits)
+    private int maxDepth = 0;
+    private int depth = 0;
+
+    // The time by which the module has to be parsed, as System.currentTimeMillis(), looked at every 1024 rules
+    private long deadline = Long.MAX_VALUE;
+    private long timeBudgetMillis = 0;
+    private int rules = 0;
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public void setDeadline(long deadline, long timeBudgetMillis) {
+        this.deadline = deadline;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    // Called before the rule context is pushed, so a rule refused here is not exited
+    private void enterDepth() {
+        if (deadline != Long.MAX_VALUE && ++rules % 1024 == 0 && System.currentTimeMillis() > deadline) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.TIME, timeBudgetMillis,
+                    "Time budget of " + timeBudgetMillis + " ms exceeded");
+        }
+        if (maxDepth > 0 && depth >= maxDepth) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.DEPTH, maxDepth,
+                    "Parse tree exceeds the limit of " + maxDepth + " nested rules");
+        }
+        depth++;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        depth = 0;
+    }
+
+    @Override
+    public void enterRule(ParserRuleContext localctx, int state, int ruleIndex) {
+        enterDepth();
+        super.enterRule(localctx, state, ruleIndex);
+    }
+
+    @Override
+    public void exitRule() {
+        depth--;
+        super.exitRule();
+    }
+
+    @Override
+    public void enterRecursionRule(ParserRuleContext localctx, int state, int ruleIndex, int precedence) {
+        enterDepth();
+        super.enterRecursionRule(localctx, state, ruleIndex, precedence);
+    }
+
+    @Override
+    public void unrollRecursionContexts(ParserRuleContext parentctx) {
+        depth--;
+        super.unrollRecursionContexts(parentctx);
+    }
+}
+
 // Mostly taken from http://www.w3.org/TR/xquery/#id-grammar, with some
 // simplifications:
 //
@@ -18,6 +81,11 @@ options {
 
 module : xqDocComment? versionDecl? xqDocComment? (libraryModule | (mainModule (SEMICOLON versionDecl? mainModule)* )) ;
 
+// The declarations linking a module to the others.  There is no EOF: parsing
+// stops at the first variable, function or option declaration or the query body.
+moduleHeader : xqDocComment? versionDecl? xqDocComment? moduleDecl?
+               ((defaultNamespaceDecl | setter | namespaceDecl | schemaImport | moduleImport) SEMICOLON)* ;
+
 xqDocComment: XQDocComment ;
 
 versionDecl: KW_XQUERY KW_VERSION version=stringLiteral
@@ -240,35 +308,28 @@ existInsertExpr: KW_INSERT exprSingle (KW_INTO | KW_PRECEDING | KW_FOLLOWING) ex
 existDeleteExpr: KW_DELETE exprSingle;
 existRenameExpr: KW_RENAME exprSingle KW_AS exprSingle;
 
-orExpr: andExpr (KW_OR andExpr)* ;
-
-andExpr: comparisonExpr (KW_AND comparisonExpr)* ;
-
-comparisonExpr: stringConcatExpr ( (valueComp | generalComp | nodeComp) stringConcatExpr )? ;
-
-stringConcatExpr: rangeExpr (CONCATENATION rangeExpr)* ;
-
-rangeExpr: additiveExpr (KW_TO additiveExpr)? ;
-
-additiveExpr: multiplicativeExpr ( (PLUS | MINUS) multiplicativeExpr )* ;
-
-multiplicativeExpr: unionExpr ( (STAR | KW_DIV | KW_IDIV | KW_MOD) unionExpr )* ;
-
-unionExpr: intersectExceptExpr ( (KW_UNION | VBAR) intersectExceptExpr)* ;
-
-intersectExceptExpr: instanceOfExpr ( (KW_INTERSECT | KW_EXCEPT) instanceOfExpr)* ;
-
-instanceOfExpr: treatExpr ( KW_INSTANCE KW_OF sequenceType)? ;
-
-treatExpr: castableExpr ( KW_TREAT KW_AS sequenceType)? ;
-
-castableExpr: castExpr ( KW_CASTABLE KW_AS singleType)?;
-
-castExpr: arrowExpr (KW_CAST KW_AS singleType)? ;
-
-arrowExpr: unaryExpression (ARROW arrowFunctionSpecifier argumentList)* ;
-
-unaryExpression: (MINUS | PLUS)* valueExpr ;
+// The binary, cast and arrow operators are the alternatives of a single
+// left-recursive rule, from the tightest binding to the loosest, rather than a
+// chain of one rule per precedence level.  An operand without operators is one
+// orExpr node instead of fifteen nested ones.  Like the rest of the grammar the
+// rule accepts a little more than XQuery: comparisons and ranges may be chained.
+orExpr: valueExpr
+      | (MINUS | PLUS) orExpr
+      | orExpr ARROW arrowFunctionSpecifier argumentList
+      | orExpr KW_CAST KW_AS singleType
+      | orExpr KW_CASTABLE KW_AS singleType
+      | orExpr KW_TREAT KW_AS sequenceType
+      | orExpr KW_INSTANCE KW_OF sequenceType
+      | orExpr (KW_INTERSECT | KW_EXCEPT) orExpr
+      | orExpr (KW_UNION | VBAR) orExpr
+      | orExpr (STAR | KW_DIV | KW_IDIV | KW_MOD) orExpr
+      | orExpr (PLUS | MINUS) orExpr
+      | orExpr KW_TO orExpr
+      | orExpr CONCATENATION orExpr
+      | orExpr (valueComp | generalComp | nodeComp) orExpr
+      | orExpr KW_AND orExpr
+      | orExpr KW_OR orExpr
+      ;
 
 valueExpr: validateExpr | extensionExpr | simpleMapExpr ;
 
@@ -0,0 +1,153 @@
+package org.xqdoc;
+
+/**
+ * <p>AnalysisResult class.</p>
+ *
+ * A result of an {@link XQueryAnalyzer} kept in the {@link ModuleDeclaration}:
+ * either a metric, a named value such as the cyclomatic complexity of a
+ * function, or a finding, a problem at a position of the module such as an
+ * undocumented parameter.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class AnalysisResult {
+
+    private final String analyzer;
+    private final String subject;
+    private final String name;
+    private final long value;
+    private final int line;
+    private final int column;
+    private final String message;
+
+    /**
+     * @param analyzer The name of the analyzer
+     * @param subject The declaration the result is about, such as <code>m:f#2</code>, or null for the module
+     * @param name The name of the metric or of the rule the finding breaks
+     * @param value The value of the metric, 0 for a finding
+     * @param line The line of a finding, 0 for a metric
+     * @param column The column of a finding
+     * @param message The description of a finding, null for a metric
+     */
+    private AnalysisResult(String analyzer, String subject, String name, long value, int line, int column, String message)
+    {
+        this.analyzer = analyzer;
+        this.subject = subject;
+        this.name = name;
+        this.value = value;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    /**
+     * Create a metric.
+     *
+     * @param analyzer The name of the analyzer
+     * @param subject The declaration measured, or null for the module
+     * @param name The name of the metric
+     * @param value The value
+     * @return The metric
+     */
+    public static AnalysisResult metric(String analyzer, String subject, String name, long value)
+    {
+        return new AnalysisResult(analyzer, subject, name, value, 0, 0, null);
+    }
+
+    /**
+     * Create a finding.
+     *
+     * @param analyzer The name of the analyzer
+     * @param subject The declaration the finding is about, or null for the module
+     * @param name The name of the rule broken
+     * @param line The line of the problem in the module
+     * @param column The column of the problem
+     * @param message The description of the problem
+     * @return The finding
+     */
+    public static AnalysisResult finding(String analyzer, String subject, String name, int line, int column, String message)
+    {
+        return new AnalysisResult(analyzer, subject, name, 0, line, column, message);
+    }
+
+    /**
+     * @return The name of the analyzer
+     */
+    public String getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * @return The declaration the result is about, or null for the module
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @return The name of the metric or of the rule broken
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The value of a metric
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return The line of a finding
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return The column of a finding
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return The description of a finding, null for a metric
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return true for a finding, false for a metric
+     */
+    public boolean isFinding() {
+        return message != null;
+    }
+
+    /**
+     * Return the finding as a warning of a module.
+     *
+     * @param source The module source
+     * @return The diagnostic
+     */
+    public XQDocDiagnostic toDiagnostic(String source)
+    {
+        return new XQDocDiagnostic(XQDocDiagnostic.Severity.WARNING, source, line, column, null,
+                analyzer + " " + name + ": " + message);
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The analyzer, subject, name and value or message
+     */
+    @Override
+    public String toString()
+    {
+        return analyzer + " " + ((subject != null) ? subject + " " : "") + name + " "
+                + (isFinding() ? line + ":" + column + " " + message : String.valueOf(value));
+    }
+}
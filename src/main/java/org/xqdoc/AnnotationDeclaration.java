@@ -0,0 +1,60 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>AnnotationDeclaration class.</p>
+ *
+ * An annotation of a declared function or variable, such as
+ * <code>%rest:path("/users/{$id}")</code>.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class AnnotationDeclaration {
+
+    private final String name;
+    private final List<String> literals = new ArrayList<>();
+
+    /**
+     * <p>Constructor for AnnotationDeclaration.</p>
+     *
+     * @param name The name of the annotation without the '%'
+     */
+    public AnnotationDeclaration(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @return The name of the annotation without the '%'
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The literal values of the annotation, without quotes
+     */
+    public List<String> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * @param literal A literal value of the annotation, without quotes
+     */
+    public void addLiteral(String literal) {
+        literals.add(literal);
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The annotation as <code>%name</code>
+     */
+    public String toString()
+    {
+        return "%" + name;
+    }
+}
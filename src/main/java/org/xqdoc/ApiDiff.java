@@ -0,0 +1,468 @@
+package org.xqdoc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>ApiDiff class.</p>
+ *
+ * The differences between the public API of two versions of a repository:
+ * the functions and variables of the library modules that are not
+ * <code>%private</code>.  Each declaration is keyed by its namespace, local
+ * name and arity, and fingerprinted by its normalized signature and its
+ * annotations.  The two versions are compared with a hash join on the keys,
+ * in time linear in the number of declarations: a declaration found in both is
+ * reported when its fingerprint changed, when it became or stopped being
+ * <code>@deprecated</code> and when it moved to another module.  The
+ * declarations left over are joined a second time on their local name, arity
+ * and fingerprint, so that a declaration moved to another namespace is
+ * reported as moved rather than as removed and added.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ApiDiff {
+
+    /**
+     * The kinds of change.
+     */
+    public enum Kind {
+        /** A declaration only in the new version */
+        ADDED,
+        /** A declaration only in the old version */
+        REMOVED,
+        /** The signature or the annotations of a declaration changed */
+        SIGNATURE,
+        /** A declaration became <code>@deprecated</code> */
+        DEPRECATED,
+        /** A declaration is no longer <code>@deprecated</code> */
+        UNDEPRECATED,
+        /** A declaration moved to another module or namespace */
+        MOVED
+    }
+
+    private ApiDiff()
+    {
+        // Static methods only
+    }
+
+    /**
+     * Return the public API of a version of a repository.
+     *
+     * @param modules The modules of the version
+     * @return The public functions and variables of its library modules, in module order
+     */
+    public static List<Declaration> surface(Collection<ModuleDeclaration> modules)
+    {
+        List<Declaration> declarations = new ArrayList<>();
+        for (ModuleDeclaration module : modules) {
+            if (!module.isLibrary()) {
+                continue;
+            }
+            for (VariableDeclaration variable : module.getVariables()) {
+                if (!isPrivate(variable.getAnnotations())) {
+                    String signature = "declare variable $" + variable.getLocalName()
+                            + ((variable.getType() != null) ? " as " + variable.getType()
+                            + ((variable.getOccurrence() != null) ? variable.getOccurrence() : "") : "");
+                    declarations.add(new Declaration(module.getSource(), variable.getUri(), variable.getLocalName(), -1,
+                            signature, variable.getAnnotations(), variable.getComment()));
+                }
+            }
+            for (FunctionDeclaration function : module.getFunctions()) {
+                if (!isPrivate(function.getAnnotations())) {
+                    declarations.add(new Declaration(module.getSource(), function.getUri(), function.getLocalName(),
+                            function.getArity(), normalizeSignature(function.getSignature()), function.getAnnotations(),
+                            function.getComment()));
+                }
+            }
+        }
+        return declarations;
+    }
+
+    /**
+     * Compare the public API of two versions of a repository.
+     *
+     * @param oldModules The modules of the old version
+     * @param newModules The modules of the new version
+     * @return The changes, those of the declarations of the new version in
+     *         their order followed by the removed declarations
+     */
+    public static List<Change> diff(Collection<ModuleDeclaration> oldModules, Collection<ModuleDeclaration> newModules)
+    {
+        return diff(surface(oldModules), surface(newModules));
+    }
+
+    /**
+     * Compare two public APIs.  A key declared twice in a version, which the
+     * xqDoc of the version reports as a duplicate, is compared by its first
+     * declaration.
+     *
+     * @param oldSurface The declarations of the old version
+     * @param newSurface The declarations of the new version
+     * @return The changes
+     */
+    public static List<Change> diff(List<Declaration> oldSurface, List<Declaration> newSurface)
+    {
+        Map<String, Declaration> oldByKey = new LinkedHashMap<>();
+        for (Declaration declaration : oldSurface) {
+            if (!oldByKey.containsKey(declaration.getKey())) {
+                oldByKey.put(declaration.getKey(), declaration);
+            }
+        }
+        List<Change> changes = new ArrayList<>();
+        List<Declaration> added = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Declaration declaration : newSurface) {
+            if (!seen.add(declaration.getKey())) {
+                continue;
+            }
+            Declaration old = oldByKey.remove(declaration.getKey());
+            if (old == null) {
+                added.add(declaration);
+            } else {
+                compare(old, declaration, changes);
+            }
+        }
+
+        // Declarations moved to another namespace keep their local name, arity and fingerprint
+        Map<String, List<Declaration>> removedByShape = new LinkedHashMap<>();
+        for (Declaration declaration : oldByKey.values()) {
+            List<Declaration> list = removedByShape.get(declaration.getShape());
+            if (list == null) {
+                list = new ArrayList<>(1);
+                removedByShape.put(declaration.getShape(), list);
+            }
+            list.add(declaration);
+        }
+        for (Declaration declaration : added) {
+            List<Declaration> candidates = removedByShape.get(declaration.getShape());
+            if (candidates == null || candidates.isEmpty()) {
+                changes.add(new Change(Kind.ADDED, null, declaration));
+            } else {
+                Declaration old = candidates.remove(0);
+                oldByKey.remove(old.getKey());
+                compare(old, declaration, changes);
+            }
+        }
+        for (Declaration declaration : oldByKey.values()) {
+            changes.add(new Change(Kind.REMOVED, declaration, null));
+        }
+        return changes;
+    }
+
+    /**
+     *
+     * @param old A declaration of the old version
+     * @param declaration The same declaration in the new version
+     * @param changes The changes, added to
+     */
+    private static void compare(Declaration old, Declaration declaration, List<Change> changes)
+    {
+        if (!old.getFingerprint().equals(declaration.getFingerprint())) {
+            changes.add(new Change(Kind.SIGNATURE, old, declaration));
+        }
+        if (old.isDeprecated() != declaration.isDeprecated()) {
+            changes.add(new Change(declaration.isDeprecated() ? Kind.DEPRECATED : Kind.UNDEPRECATED, old, declaration));
+        }
+        if (!old.getSource().equals(declaration.getSource()) || !old.getUri().equals(declaration.getUri())) {
+            changes.add(new Change(Kind.MOVED, old, declaration));
+        }
+    }
+
+    /**
+     * Normalize the text of a signature, so that only changes to the
+     * signature itself are reported: comments are removed, white space is
+     * collapsed to a single space and dropped next to brackets and commas.
+     *
+     * @param signature The signature as written in the module, or null
+     * @return The normalized signature, empty for null
+     */
+    public static String normalizeSignature(String signature)
+    {
+        if (signature == null) {
+            return "";
+        }
+        StringBuilder buffer = new StringBuilder(signature.length());
+        int commentDepth = 0;
+        boolean space = false;
+        for (int i = 0; i < signature.length(); i++) {
+            char c = signature.charAt(i);
+            char next = (i + 1 < signature.length()) ? signature.charAt(i + 1) : 0;
+            if (c == '(' && next == ':') {
+                commentDepth++;
+                i++;
+            } else if (commentDepth > 0) {
+                if (c == ':' && next == ')') {
+                    commentDepth--;
+                    i++;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                char last = (buffer.length() > 0) ? buffer.charAt(buffer.length() - 1) : '(';
+                if (space && c != '(' && c != ')' && c != ',' && last != '(' && last != ',') {
+                    buffer.append(' ');
+                }
+                space = false;
+                buffer.append(c);
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     *
+     * @param annotations The annotations of a declaration
+     * @return true when one of them is <code>%private</code>
+     */
+    private static boolean isPrivate(List<AnnotationDeclaration> annotations)
+    {
+        for (AnnotationDeclaration annotation : annotations) {
+            if ("private".equals(annotation.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the changes as a JSON array of objects with the kind, the key and
+     * the old and new module and signature.
+     *
+     * @param changes The changes
+     * @param writer The writer receiving the JSON text
+     * @throws java.io.IOException when the changes can not be written
+     */
+    public static void writeJson(List<Change> changes, Writer writer) throws IOException
+    {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        for (Change change : changes) {
+            json.beginObject();
+            json.member("kind", change.getKind().name().toLowerCase(Locale.ROOT));
+            json.member("key", change.getDeclaration().getKey());
+            if (change.getOldDeclaration() != null) {
+                json.member("oldSource", change.getOldDeclaration().getSource());
+                json.member("oldSignature", change.getOldDeclaration().getSignature());
+            }
+            if (change.getNewDeclaration() != null) {
+                json.member("newSource", change.getNewDeclaration().getSource());
+                json.member("newSignature", change.getNewDeclaration().getSignature());
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.flush();
+    }
+
+    /**
+     * A public function or variable of a version.
+     */
+    public static final class Declaration {
+        private final String source;
+        private final String uri;
+        private final String localName;
+        private final int arity;
+        private final String signature;
+        private final String annotations;
+        private final boolean deprecated;
+        private final String key;
+        private final String fingerprint;
+
+        /**
+         * @param source The source of the declaring module
+         * @param uri The namespace
+         * @param localName The local name
+         * @param arity The arity of a function, -1 for a variable
+         * @param signature The normalized signature
+         * @param annotations The annotations
+         * @param comment The xqDoc comment or null
+         */
+        Declaration(String source, String uri, String localName, int arity, String signature,
+                    List<AnnotationDeclaration> annotations, CommentDeclaration comment)
+        {
+            this.source = source;
+            this.uri = (uri != null) ? uri : "";
+            this.localName = localName;
+            this.arity = arity;
+            this.signature = signature;
+            List<String> texts = new ArrayList<>(annotations.size());
+            for (AnnotationDeclaration annotation : annotations) {
+                texts.add(annotation.getLiterals().isEmpty() ? annotation.toString()
+                        : annotation + annotation.getLiterals().toString());
+            }
+            // The order of the annotations does not change the API
+            Collections.sort(texts);
+            StringBuilder buffer = new StringBuilder();
+            for (String text : texts) {
+                buffer.append((buffer.length() > 0) ? " " : "").append(text);
+            }
+            this.annotations = buffer.toString();
+            this.deprecated = (comment != null) && !comment.getEntries("deprecated").isEmpty();
+            this.key = "Q{" + this.uri + "}" + ((arity < 0) ? "$" + localName : localName + "#" + arity);
+            this.fingerprint = BatchProcessor.contentHash((signature + "\n" + this.annotations).getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return The source of the declaring module
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return The namespace
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return The local name
+         */
+        public String getLocalName() {
+            return localName;
+        }
+
+        /**
+         * @return The arity of a function, -1 for a variable
+         */
+        public int getArity() {
+            return arity;
+        }
+
+        /**
+         * @return The normalized signature
+         */
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * @return The annotations with their literals, sorted and separated by spaces, empty for none
+         */
+        public String getAnnotations() {
+            return annotations;
+        }
+
+        /**
+         * @return Whether the xqDoc comment has a <code>@deprecated</code> tag
+         */
+        public boolean isDeprecated() {
+            return deprecated;
+        }
+
+        /**
+         * @return The key joined on, <code>Q{uri}local#arity</code> or <code>Q{uri}$local</code>
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return The hash of the signature and annotations
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         *
+         * @return The key without the namespace, with the fingerprint
+         */
+        String getShape() {
+            return ((arity < 0) ? "$" + localName : localName + "#" + arity) + " " + fingerprint;
+        }
+
+        /**
+         * <p>toString.</p>
+         *
+         * @return The key and the module
+         */
+        @Override
+        public String toString()
+        {
+            return key + " (" + source + ")";
+        }
+    }
+
+    /**
+     * A change of a declaration between the versions.
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final Declaration oldDeclaration;
+        private final Declaration newDeclaration;
+
+        /**
+         * @param kind The kind of change
+         * @param oldDeclaration The declaration in the old version, null when added
+         * @param newDeclaration The declaration in the new version, null when removed
+         */
+        Change(Kind kind, Declaration oldDeclaration, Declaration newDeclaration)
+        {
+            this.kind = kind;
+            this.oldDeclaration = oldDeclaration;
+            this.newDeclaration = newDeclaration;
+        }
+
+        /**
+         * @return The kind of change
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The declaration in the old version, null when added
+         */
+        public Declaration getOldDeclaration() {
+            return oldDeclaration;
+        }
+
+        /**
+         * @return The declaration in the new version, null when removed
+         */
+        public Declaration getNewDeclaration() {
+            return newDeclaration;
+        }
+
+        /**
+         * @return The declaration in the new version, or in the old one when removed
+         */
+        public Declaration getDeclaration() {
+            return (newDeclaration != null) ? newDeclaration : oldDeclaration;
+        }
+
+        /**
+         * <p>toString.</p>
+         *
+         * @return The change as a line of a report
+         */
+        @Override
+        public String toString()
+        {
+            switch (kind) {
+                case SIGNATURE:
+                    return "signature " + newDeclaration.getKey() + ": " + oldDeclaration.getAnnotations()
+                            + (oldDeclaration.getAnnotations().isEmpty() ? "" : " ") + oldDeclaration.getSignature() + " -> "
+                            + newDeclaration.getAnnotations() + (newDeclaration.getAnnotations().isEmpty() ? "" : " ")
+                            + newDeclaration.getSignature();
+                case MOVED:
+                    return "moved " + oldDeclaration + " -> " + newDeclaration;
+                default:
+                    return kind.name().toLowerCase(Locale.ROOT) + " " + getDeclaration();
+            }
+        }
+    }
+}
@@ -2,18 +2,29 @@ package org.xqdoc;
 
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.apache.commons.cli.*;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * Hello world!
@@ -33,30 +44,6 @@ public class App
      * @throws org.apache.commons.cli.ParseException a
      */
     public static void main( String[] args ) throws ParserConfigurationException, IOException, SAXException, ParseException {
-        HashMap uriMap = new HashMap();
-        uriMap.put("fn", "http://www.w3.org/2003/05/xpath-functions");
-        uriMap.put("cts", "http://marklogic.com/cts"); // MarkLogic Server search functions (Core Text Services)
-        uriMap.put("dav", "DAV:"); // Used with WebDAV
-        uriMap.put("dbg", "http://marklogic.com/xdmp/debug"); // Debug Built-In functions
-        uriMap.put("dir", "http://marklogic.com/xdmp/directory"); // MarkLogic Server directory XML
-        uriMap.put("err", "http://www.w3.org/2005/xqt-errors"); // namespace for XQuery and XPath errors
-        uriMap.put("error", "http://marklogic.com/xdmp/error"); // MarkLogic Server error namespace
-        uriMap.put("local", "http://www.w3.org/2005/xquery-local-functions"); // local namespace for functions defined in main modules
-        uriMap.put("lock", "http://marklogic.com/xdmp/lock"); // MarkLogic Server locks
-        uriMap.put("map", "http://marklogic.com/xdmp/map"); // MarkLogic Server maps
-        uriMap.put("math", "http://marklogic.com/xdmp/math"); // math Built-In functions
-        uriMap.put("prof", "http://marklogic.com/xdmp/profile"); // profile Built-In functions
-        uriMap.put("prop", "http://marklogic.com/xdmp/property"); // MarkLogic Server properties
-        uriMap.put("sec", "http://marklogic.com/xdmp/security"); // security Built-In functions
-        uriMap.put("sem", "http://marklogic.com/semantics"); // semantic Built-In functions
-        uriMap.put("spell", "http://marklogic.com/xdmp/spell"); // spelling correction functions
-        uriMap.put("xdmp", "http://marklogic.com/xdmp"); // MarkLogic Server Built-In functions
-        uriMap.put("xml", "http://www.w3.org/XML/1998/namespace"); // XML namespace
-        uriMap.put("xmlns", "http://www.w3.org/2000/xmlns/"); // xmlns namespace
-        uriMap.put("xqe", "http://marklogic.com/xqe"); // deprecated MarkLogic Server xqe namespace
-        uriMap.put("xqterr", "http://www.w3.org/2005/xqt-errors"); // XQuery test suite errors (same as err)
-        uriMap.put("xs", "http://www.w3.org/2001/XMLSchema"); // XML Schema namespace
-
         if (true) {
 
         Options options = new Options();
@@ -72,35 +59,554 @@ public class App
 
         options.addOption(propertyOption);
         options.addOption("f", true, "file name");
+        options.addOption("profile", true, "namespace profile of the predefined function namespaces, xquery, xquery31, marklogic (default) or exist-db; several comma separated profiles are written to their own directories below -o from a single parse");
+        options.addOption("profiles", true, "directory of namespace profile property files, adding to or replacing the built-in profiles");
+        options.addOption("maxRecovery", true, "maximum number of syntax error recoveries per module (default " + ModuleParser.DEFAULT_MAX_RECOVERY_ATTEMPTS + ", 0 for no limit)");
+        options.addOption("timeBudget", true, "maximum time in milliseconds spent parsing and visiting a module (default no limit)");
+        options.addOption("untrusted", false, "apply the resource limits for untrusted modules (4 MB, 1000000 tokens, depth 1000, 10 s), which the other limit options override");
+        options.addOption("maxInputBytes", true, "maximum size of a module in bytes (default no limit)");
+        options.addOption("maxTokens", true, "maximum number of tokens of a module (default no limit)");
+        options.addOption("maxDepth", true, "maximum nesting depth of the parse tree of a module, in rules (default 1000 when another limit is set, else no limit)");
+        options.addOption("tokenCache", true, "directory caching the tokens of the modules, so that unchanged modules are not lexed again");
+        options.addOption("validate", false, "validate the xqDoc XML of every module against the xqDoc schema, reporting the violations as warnings");
+        options.addOption("schema", true, "schema the xqDoc XML is validated against instead of the xqDoc schema, implies -validate");
+        options.addOption("analyze", true, "comma separated analyzers run over every module while it is documented: complexity, params or the name of an analyzer service; findings are reported as warnings and metrics are written to the JSON output");
+        options.addOption("coverage", true, "file the documentation coverage report of the modules is written to in batch mode, as CSV when it ends with .csv and as JSON otherwise");
+        options.addOption("mergeCoverage", true, "comma separated CSV coverage reports of other shards of the repository merged into the -coverage report; without -d they are only merged");
+        options.addOption("diff", true, "old version of the -d repository, a directory or archive; the changes of the public functions and variables are printed instead of documenting the repository");
+        options.addOption("routes", false, "print the RESTXQ route table of the functions of the repository in batch mode, and its conflicting routes on standard error");
+        options.addOption("route", true, "print the function of the repository handling a request, given as the method and path, such as \"GET /users/42\"");
+        options.addOption("d", true, "repository directory, or zip or .xar archive, to document in batch mode");
+        options.addOption("o", true, "output directory for batch mode, or a .zip or .xar archive the output is written to");
+        options.addOption("threads", true, "number of modules processed at the same time in batch mode (default the number of processors)");
+        options.addOption("maxInFlight", true, "maximum number of modules held in memory at the same time in batch mode (default four per thread)");
+        options.addOption("maxInFlightBytes", true, "maximum source bytes of the modules held in memory at the same time in batch mode (default " + BatchProcessor.DEFAULT_MAX_BYTES_IN_FLIGHT + ")");
+        options.addOption("stream", false, "build the xqDoc of each declaration as soon as it is parsed and release its parse tree, in batch mode");
+        options.addOption("stats", false, "print the statistics of the batch pipeline stages");
+        options.addOption("format", true, "output format, xml (default) or json");
+        options.addOption("bundle", true, "file the xqDoc XML of every module is written to as a single bundle in batch mode, instead of the -o directory");
+        options.addOption("html", true, "directory the HTML documentation site is written to in batch mode");
+        options.addOption("index", true, "search index directory, updated in batch mode");
+        options.addOption("search", true, "print the functions of the -index directory having a term starting with the prefix");
+        options.addOption("types", true, "index directory of the parameter and return types of the functions, updated in batch mode");
+        options.addOption("typeQuery", true, "print the functions of the -types index matching a query such as \"returns element(*)* takes xs:string\"");
+        options.addOption("mergeTypes", true, "comma separated type index directories of other builds merged into the -types index");
+        options.addOption("files", true, "file listing the modules to document in batch mode (relative to the -d directory, default the current directory), one per line or NUL separated, - for standard input");
+        options.addOption("frames", false, "read modules as frames from standard input and write their documentation as frames to standard output");
+        options.addOption("changed", true, "comma separated modules (relative to the -d directory) that changed; only they and their dependents are documented");
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse( options, args);
 
+        NamespaceProfiles profiles = cmd.hasOption("profiles")
+                ? NamespaceProfiles.load(Paths.get(cmd.getOptionValue("profiles")))
+                : NamespaceProfiles.getDefault();
+        Map<String, String> overrides = new HashMap<>();
         if(cmd.hasOption("D")) {
             Properties properties = cmd.getOptionProperties("D");
             Enumeration<String> prefixes = (Enumeration<String>) properties.propertyNames();
             while (prefixes.hasMoreElements()) {
                 String prefix = prefixes.nextElement();
-                uriMap.put(prefix, properties.getProperty(prefix));
+                overrides.put(prefix, properties.getProperty(prefix));
             }
         }
+        // With several profiles the modules are documented for the first and written for each
+        Map<String, NamespaceProfile> profileOutputs = new LinkedHashMap<>();
+        for (String name : cmd.getOptionValue("profile", NamespaceProfiles.DEFAULT_PROFILE).split(",")) {
+            profileOutputs.put(name.trim(), profiles.get(name.trim()).withOverrides(overrides));
+        }
+        NamespaceProfile uriMap = profileOutputs.values().iterator().next();
+
+        ModuleParser moduleParser = new ModuleParser();
+        configureParser(moduleParser, cmd);
 
         if (cmd.hasOption("f")) {
-            InputStream is = Files.newInputStream(Paths.get(cmd.getOptionValue("f")));
+            String fileName = cmd.getOptionValue("f");
+            InputStream is = Files.newInputStream(Paths.get(fileName));
             CharStream inputStream = CharStreams.fromStream(is);
-            org.xqdoc.XQueryLexer markupLexer = new org.xqdoc.XQueryLexer(inputStream);
-            CommonTokenStream commonTokenStream = new CommonTokenStream(markupLexer);
-            org.xqdoc.XQueryParser markupParser = new org.xqdoc.XQueryParser(commonTokenStream);
-
-            org.xqdoc.XQueryParser.ModuleContext fileContext = markupParser.module();
+            org.xqdoc.XQueryParser.ModuleContext fileContext;
+            try {
+                fileContext = moduleParser.parse(inputStream, fileName);
+            } catch (XQDocParseAbortedException ex) {
+                printDiagnostics(moduleParser.getDiagnostics());
+                System.exit(1);
+                return;
+            }
+            printDiagnostics(moduleParser.getDiagnostics());
             StringBuilder buffer = new StringBuilder();
 
 
             XQueryVisitor visitor = new XQueryVisitor(buffer, uriMap);
-            visitor.visit(fileContext);
-            System.out.println(DocumentUtility.getStringFromDoc(DocumentUtility.getDocumentFromBuffer(buffer)));
+            visitor.setDeadline(moduleParser.getDeadline(), moduleParser.getTimeBudgetMillis());
+            visitor.setMaxDepth(moduleParser.getResourceLimits().getEffectiveMaxDepth());
+            visitor.setAnalyzers(analyzers(cmd));
+            try {
+                visitor.visit(fileContext);
+            } catch (XQDocLimitExceededException ex) {
+                System.err.println(fileName + ":0:0: FATAL " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+            for (AnalysisResult result : visitor.getModuleDeclaration().getAnalysisResults()) {
+                if (result.isFinding()) {
+                    System.err.println(result.toDiagnostic(fileName));
+                }
+            }
+            XQDocValidator validator = validator(cmd);
+            if (validator != null) {
+                printDiagnostics(validator.validate(fileName, buffer));
+            }
+            if (outputFormat(cmd) == OutputFormat.JSON) {
+                System.out.println(new JsonEmitter().toJson(visitor.getModuleDeclaration()));
+            } else {
+                System.out.println(DocumentUtility.getStringFromDoc(DocumentUtility.getDocumentFromBuffer(buffer)));
+            }
+        }
+
+        if (cmd.hasOption("frames")) {
+            BatchProcessor batchProcessor = newBatchProcessor(cmd, uriMap);
+            batchProcessor.processFrames(System.in, System.out, System.err);
+        }
+
+        if (cmd.hasOption("diff") && cmd.hasOption("d")) {
+            diffRepositories(cmd, uriMap);
+        } else if (cmd.hasOption("d") || cmd.hasOption("files")) {
+            processDirectory(cmd, uriMap, (profileOutputs.size() > 1) ? profileOutputs : Collections.<String, NamespaceProfile>emptyMap());
+        } else if (cmd.hasOption("coverage") && cmd.hasOption("mergeCoverage")) {
+            writeCoverage(cmd, new CoverageReport());
+        }
+
+        if (cmd.hasOption("types") && (cmd.hasOption("typeQuery") || cmd.hasOption("mergeTypes"))) {
+            TypeIndex typeIndex = TypeIndex.open(Paths.get(cmd.getOptionValue("types")));
+            if (cmd.hasOption("mergeTypes")) {
+                for (String other : cmd.getOptionValue("mergeTypes").split(",")) {
+                    typeIndex.merge(TypeIndex.open(Paths.get(other.trim())));
+                }
+            }
+            if (cmd.hasOption("typeQuery")) {
+                for (TypeIndex.Entry entry : typeIndex.search(cmd.getOptionValue("typeQuery"), 100)) {
+                    System.out.println(entry);
+                }
+            }
+        }
+
+        if (cmd.hasOption("search") && cmd.hasOption("index")) {
+            SearchIndex searchIndex = SearchIndex.open(Paths.get(cmd.getOptionValue("index")));
+            for (SearchHit hit : searchIndex.search(cmd.getOptionValue("search"), 100)) {
+                System.out.println(hit);
+            }
+        }
+        }
+
+    }
+
+    /**
+     * Document a repository directory, or the modules of a zip archive or
+     * <code>.xar</code> package read without extracting it.  The documentation
+     * is written to an archive when the <code>-o</code> name has an archive
+     * extension.
+     *
+     * @param cmd The command line
+     * @param uriMap The predefined function namespaces
+     * @param profileOutputs The profiles written to their own output directories, empty for none
+     * @throws java.io.IOException when a module can not be read or written
+     */
+    private static void processDirectory(CommandLine cmd, Map<String, String> uriMap, Map<String, NamespaceProfile> profileOutputs) throws IOException
+    {
+        // Absolute, so that absolute paths listed by -files are below it
+        Path root = Paths.get(cmd.getOptionValue("d", ".")).toAbsolutePath().normalize();
+        Path output = Paths.get(cmd.getOptionValue("o", "xqDoc"));
+        try (PackageArchive inputArchive = PackageArchive.isArchive(root) ? PackageArchive.open(root) : null;
+             PackageArchive outputArchive = PackageArchive.hasArchiveExtension(output) ? PackageArchive.create(output) : null) {
+            processRepository(cmd, (inputArchive != null) ? inputArchive.getRoot() : root,
+                    (outputArchive != null) ? outputArchive.getRoot() : output, uriMap, profileOutputs);
+        }
+    }
+
+    /**
+     * Print the changes of the public API between the <code>-diff</code>
+     * version of a repository and the <code>-d</code> version, as a line per
+     * change or, with <code>-format json</code>, as a JSON array.
+     *
+     * @param cmd The command line
+     * @param uriMap The predefined function namespaces
+     * @throws java.io.IOException when a module can not be read
+     */
+    private static void diffRepositories(CommandLine cmd, Map<String, String> uriMap) throws IOException
+    {
+        List<ApiDiff.Declaration> oldSurface = ApiDiff.surface(repositoryModules(cmd, uriMap, Paths.get(cmd.getOptionValue("diff"))));
+        List<ApiDiff.Declaration> newSurface = ApiDiff.surface(repositoryModules(cmd, uriMap, Paths.get(cmd.getOptionValue("d"))));
+        List<ApiDiff.Change> changes = ApiDiff.diff(oldSurface, newSurface);
+        if (outputFormat(cmd) == OutputFormat.JSON) {
+            Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            ApiDiff.writeJson(changes, writer);
+            writer.write('\n');
+            writer.flush();
+        } else {
+            for (ApiDiff.Change change : changes) {
+                System.out.println(change);
+            }
+        }
+    }
+
+    /**
+     * Analyze every module of a version of a repository without writing its documentation.
+     *
+     * @param cmd The command line
+     * @param uriMap The predefined function namespaces
+     * @param root The repository directory or archive
+     * @return The modules
+     * @throws java.io.IOException when a module can not be read
+     */
+    private static List<ModuleDeclaration> repositoryModules(CommandLine cmd, Map<String, String> uriMap, Path root) throws IOException
+    {
+        BatchProcessor batchProcessor = newBatchProcessor(cmd, uriMap);
+        batchProcessor.setRetainSourceText(false);
+        List<ModuleDeclaration> modules = PackageArchive.isArchive(root)
+                ? batchProcessor.processArchive(root) : batchProcessor.processAll(root);
+        for (ModuleDeclaration module : modules) {
+            printDiagnostics(module.getDiagnostics());
+        }
+        return modules;
+    }
+
+    /**
+     * Document a repository.  With <code>-changed</code>, only the headers of
+     * the modules are read to build the import graph, and only the changed
+     * modules and their dependents are parsed and written.  The other modules
+     * are analyzed without being written when the HTML site, the routes or the
+     * coverage need them.
+     *
+     * @param cmd The command line
+     * @param root The repository root
+     * @param output The output directory
+     * @param uriMap The predefined function namespaces
+     * @param profileOutputs The profiles written to their own output directories, empty for none
+     * @throws java.io.IOException when a module can not be read or written
+     */
+    private static void processRepository(CommandLine cmd, Path root, Path output, Map<String, String> uriMap,
+                                          Map<String, NamespaceProfile> profileOutputs) throws IOException
+    {
+        BatchProcessor batchProcessor = newBatchProcessor(cmd, uriMap);
+        // The documentation is written as each module completes; the model is only needed for linking
+        batchProcessor.setRetainSourceText(false);
+        // Without the HTML site or the route table only the links between the modules are needed
+        batchProcessor.setRetainDocumentation(cmd.hasOption("html") || cmd.hasOption("routes") || cmd.hasOption("route"));
+        batchProcessor.setProfileOutputs(profileOutputs);
+        if (!profileOutputs.isEmpty() && outputFormat(cmd) != OutputFormat.XML) {
+            System.err.println("WARNING several profiles are written as xqDoc XML");
+        }
+        if (cmd.hasOption("index")) {
+            batchProcessor.setSearchIndex(SearchIndex.open(Paths.get(cmd.getOptionValue("index"))));
+        }
+        if (cmd.hasOption("types")) {
+            batchProcessor.setTypeIndex(TypeIndex.open(Paths.get(cmd.getOptionValue("types"))));
+        }
+        if (cmd.hasOption("coverage")) {
+            batchProcessor.setCoverageReport(new CoverageReport());
+        }
+
+        List<ModuleDeclaration> modules;
+        ImportGraph importGraph;
+        if (cmd.hasOption("changed")) {
+            // Only the headers of the modules are read to find the affected ones, so every module is parsed once at most
+            importGraph = new ImportGraph(batchProcessor.processHeaders(root, batchProcessor.discover(root)));
+            List<ModuleDeclaration> changed = new ArrayList<>();
+            for (String source : cmd.getOptionValue("changed").split(",")) {
+                ModuleDeclaration module = importGraph.getModule(source.trim().replace('\\', '/'));
+                if (module == null) {
+                    System.err.println("WARNING unknown changed module " + source);
+                } else {
+                    changed.add(module);
+                }
+            }
+            Set<ModuleDeclaration> dependents = new HashSet<>(importGraph.getDependents(changed));
+            List<Path> affected = new ArrayList<>();
+            List<Path> unaffected = new ArrayList<>();
+            for (ModuleDeclaration module : importGraph.getProcessingOrder()) {
+                (dependents.contains(module) ? affected : unaffected).add(root.resolve(module.getSource()));
+            }
+            modules = new ArrayList<>();
+            if (cmd.hasOption("html") || cmd.hasOption("routes") || cmd.hasOption("route") || cmd.hasOption("coverage")) {
+                // The site, routes and coverage cover every module, so the others are analyzed but not written
+                modules.addAll(batchProcessor.process(root, unaffected));
+            }
+            batchProcessor.setOutputDirectory(output);
+            modules.addAll(processBundle(cmd, batchProcessor, root, affected));
+        } else {
+            batchProcessor.setOutputDirectory(output);
+            modules = processBundle(cmd, batchProcessor, root, cmd.hasOption("files")
+                    ? listedFiles(cmd, batchProcessor, root) : batchProcessor.discover(root));
+            importGraph = new ImportGraph(modules);
+        }
+        if (batchProcessor.getSearchIndex() != null) {
+            // Drop the modules that have been deleted from the repository
+            for (String source : batchProcessor.getSearchIndex().getSources()) {
+                if (importGraph.getModule(source) == null) {
+                    batchProcessor.getSearchIndex().remove(source);
+                }
+            }
+        }
+        if (batchProcessor.getTypeIndex() != null) {
+            for (String source : batchProcessor.getTypeIndex().getSources()) {
+                if (importGraph.getModule(source) == null) {
+                    batchProcessor.getTypeIndex().remove(source);
+                }
+            }
+        }
+
+        // Every module of the repository, with the modules processed replacing their headers
+        Map<String, ModuleDeclaration> allModules = new LinkedHashMap<>();
+        for (ModuleDeclaration module : importGraph.getModules()) {
+            allModules.put(module.getSource(), module);
+        }
+        for (ModuleDeclaration module : modules) {
+            allModules.put(module.getSource(), module);
+        }
+
+        for (ModuleDeclaration module : modules) {
+            printDiagnostics(module.getDiagnostics());
+        }
+        for (String unresolved : importGraph.getUnresolvedImports()) {
+            System.err.println("WARNING unresolved import " + unresolved);
+        }
+        for (List<ModuleDeclaration> cycle : importGraph.getCycles()) {
+            System.err.println("WARNING import cycle " + cycle);
+        }
+        Map<ModuleDeclaration, List<FunctionInvocation>> unresolvedCalls = batchProcessor.resolveCalls(allModules.values());
+        for (Map.Entry<ModuleDeclaration, List<FunctionInvocation>> entry : unresolvedCalls.entrySet()) {
+            for (FunctionInvocation invocation : entry.getValue()) {
+                System.err.println("WARNING unresolved call " + entry.getKey() + ": " + invocation);
+            }
+        }
+        for (FunctionDeclaration duplicate : batchProcessor.getFunctionTable().getDuplicates()) {
+            System.err.println("WARNING duplicate function " + duplicate.getModule() + ": " + duplicate);
+        }
+
+        if (cmd.hasOption("html")) {
+            HtmlGenerator htmlGenerator = new HtmlGenerator(Paths.get(cmd.getOptionValue("html")));
+            if (cmd.hasOption("threads")) {
+                htmlGenerator.setThreads(Integer.parseInt(cmd.getOptionValue("threads")));
+            }
+            htmlGenerator.generate(allModules.values());
+        }
+        if (cmd.hasOption("routes") || cmd.hasOption("route")) {
+            printRoutes(cmd, new RouteTable(allModules.values()));
         }
+        if (batchProcessor.getCoverageReport() != null) {
+            writeCoverage(cmd, batchProcessor.getCoverageReport());
         }
+        if (cmd.hasOption("stats")) {
+            System.err.println(batchProcessor.getStatistics());
+            TokenCache tokenCache = batchProcessor.getModuleParser().getTokenCache();
+            if (tokenCache != null) {
+                System.err.println("token cache: " + tokenCache.getHits() + " hits, " + tokenCache.getMisses() + " misses");
+            }
+        }
+    }
+
+    /**
+     * Print the route table with -routes, or the route handling the -route request.
+     *
+     * @param cmd The command line
+     * @param routeTable The RESTXQ routes of the repository
+     */
+    private static void printRoutes(CommandLine cmd, RouteTable routeTable)
+    {
+        for (String conflict : routeTable.getConflicts()) {
+            System.err.println("WARNING " + conflict);
+        }
+        if (cmd.hasOption("routes")) {
+            System.out.print(routeTable);
+        }
+        if (cmd.hasOption("route")) {
+            String[] request = cmd.getOptionValue("route").trim().split("\\s+", 2);
+            RouteTable.Match match = (request.length == 2) ? routeTable.lookup(request[0], request[1], null, null) : null;
+            System.out.println((match != null) ? match : "no route for " + cmd.getOptionValue("route"));
+        }
+    }
+
+    /**
+     * Write the -coverage report, merged with the reports of the other shards
+     * named by -mergeCoverage.
+     *
+     * @param cmd The command line
+     * @param report The coverage of the modules processed
+     * @throws java.io.IOException when a report can not be read or written
+     */
+    private static void writeCoverage(CommandLine cmd, CoverageReport report) throws IOException
+    {
+        CoverageReport merged = new CoverageReport();
+        if (cmd.hasOption("mergeCoverage")) {
+            for (String shard : cmd.getOptionValue("mergeCoverage").split(",")) {
+                merged.merge(CoverageReport.read(Paths.get(shard.trim())));
+            }
+        }
+        // The modules of this run replace those of the shards
+        merged.merge(report);
+        merged.write(Paths.get(cmd.getOptionValue("coverage")));
+        if (cmd.hasOption("stats")) {
+            System.err.println(merged);
+        }
+    }
 
+    /**
+     * Create a batch processor with the parser, thread, memory and format options.
+     *
+     * @param cmd The command line
+     * @param uriMap The predefined function namespaces
+     * @return The batch processor
+     * @throws java.net.MalformedURLException when the -schema file can not be named by a URL
+     */
+    private static BatchProcessor newBatchProcessor(CommandLine cmd, Map<String, String> uriMap) throws MalformedURLException
+    {
+        BatchProcessor batchProcessor = new BatchProcessor(uriMap);
+        configureParser(batchProcessor.getModuleParser(), cmd);
+        if (cmd.hasOption("threads")) {
+            batchProcessor.setThreads(Integer.parseInt(cmd.getOptionValue("threads")));
+        }
+        if (cmd.hasOption("maxInFlight")) {
+            batchProcessor.setMaxModulesInFlight(Integer.parseInt(cmd.getOptionValue("maxInFlight")));
+        }
+        if (cmd.hasOption("maxInFlightBytes")) {
+            batchProcessor.setMaxBytesInFlight(Long.parseLong(cmd.getOptionValue("maxInFlightBytes")));
+        }
+        batchProcessor.setStreamDeclarations(cmd.hasOption("stream"));
+        batchProcessor.setOutputFormat(outputFormat(cmd));
+        batchProcessor.setValidator(validator(cmd));
+        batchProcessor.setAnalyzers(analyzers(cmd));
+        return batchProcessor;
+    }
+
+    /**
+     * @param cmd The command line
+     * @return The analyzers named by -analyze, empty for none
+     */
+    private static List<XQueryAnalyzer> analyzers(CommandLine cmd)
+    {
+        List<XQueryAnalyzer> analyzers = new ArrayList<>();
+        if (cmd.hasOption("analyze")) {
+            for (String name : cmd.getOptionValue("analyze").split(",")) {
+                analyzers.add(XQueryAnalyzer.forName(name.trim()));
+            }
+        }
+        return analyzers;
+    }
+
+    /**
+     * @param cmd The command line
+     * @return The validator selected with -validate or -schema, or null
+     * @throws java.net.MalformedURLException when the -schema file can not be named by a URL
+     */
+    private static XQDocValidator validator(CommandLine cmd) throws MalformedURLException
+    {
+        if (cmd.hasOption("schema")) {
+            return new XQDocValidator(XQDocValidator.compile(Paths.get(cmd.getOptionValue("schema")).toUri().toURL()));
+        }
+        return cmd.hasOption("validate") ? XQDocValidator.getDefault() : null;
+    }
+
+    /**
+     * Read the modules listed by the <code>-files</code> file or standard input.
+     *
+     * @param cmd The command line
+     * @param batchProcessor The batch processor
+     * @param root The repository root the paths are relative to
+     * @return The module files, in the order of the list
+     * @throws java.io.IOException when the list can not be read
+     */
+    private static List<Path> listedFiles(CommandLine cmd, BatchProcessor batchProcessor, Path root) throws IOException
+    {
+        String list = cmd.getOptionValue("files");
+        List<String> paths;
+        if ("-".equals(list)) {
+            paths = BatchProcessor.readPathList(System.in);
+        } else {
+            try (InputStream in = Files.newInputStream(Paths.get(list))) {
+                paths = BatchProcessor.readPathList(in);
+            }
+        }
+        List<String> skipped = new ArrayList<>();
+        List<Path> files = batchProcessor.resolvePaths(root, paths, skipped);
+        for (String path : skipped) {
+            System.err.println("WARNING skipped " + path + ", not an XQuery module");
+        }
+        return files;
+    }
+
+    /**
+     * Process modules, writing their XML to the <code>-bundle</code> file when the option is given.
+     *
+     * @param cmd The command line
+     * @param batchProcessor The batch processor
+     * @param root The repository root
+     * @param files The module files
+     * @return The modules processed
+     * @throws java.io.IOException when a module or the bundle can not be read or written
+     */
+    private static List<ModuleDeclaration> processBundle(CommandLine cmd, BatchProcessor batchProcessor, Path root, List<Path> files) throws IOException
+    {
+        if (!cmd.hasOption("bundle")) {
+            return batchProcessor.process(root, files);
+        }
+        try (BundleWriter bundleWriter = new BundleWriter(Paths.get(cmd.getOptionValue("bundle")))) {
+            batchProcessor.setBundleWriter(bundleWriter);
+            return batchProcessor.process(root, files);
+        } finally {
+            batchProcessor.setBundleWriter(null);
+        }
+    }
+
+    /**
+     * @param cmd The command line
+     * @return The output format selected with -format
+     */
+    private static OutputFormat outputFormat(CommandLine cmd)
+    {
+        return cmd.hasOption("format") ? OutputFormat.forName(cmd.getOptionValue("format")) : OutputFormat.XML;
+    }
+
+    /**
+     * Apply the error recovery and resource limit options to a module parser.
+     *
+     * @param moduleParser The parser to configure
+     * @param cmd The command line
+     */
+    private static void configureParser(ModuleParser moduleParser, CommandLine cmd)
+    {
+        if (cmd.hasOption("untrusted")) {
+            moduleParser.setResourceLimits(ResourceLimits.untrusted());
+        }
+        ResourceLimits limits = moduleParser.getResourceLimits();
+        if (cmd.hasOption("maxInputBytes")) {
+            limits.setMaxInputBytes(Long.parseLong(cmd.getOptionValue("maxInputBytes")));
+        }
+        if (cmd.hasOption("maxTokens")) {
+            limits.setMaxTokens(Long.parseLong(cmd.getOptionValue("maxTokens")));
+        }
+        if (cmd.hasOption("maxDepth")) {
+            limits.setMaxDepth(Integer.parseInt(cmd.getOptionValue("maxDepth")));
+        }
+        if (cmd.hasOption("maxRecovery")) {
+            moduleParser.setMaxRecoveryAttempts(Integer.parseInt(cmd.getOptionValue("maxRecovery")));
+        }
+        if (cmd.hasOption("timeBudget")) {
+            moduleParser.setTimeBudgetMillis(Long.parseLong(cmd.getOptionValue("timeBudget")));
+        }
+        if (cmd.hasOption("tokenCache")) {
+            moduleParser.setTokenCache(new TokenCache(Paths.get(cmd.getOptionValue("tokenCache"))));
+        }
+    }
+
+    /**
+     * Print diagnostics to standard error.
+     *
+     * @param diagnostics The diagnostics
+     */
+    private static void printDiagnostics(List<XQDocDiagnostic> diagnostics)
+    {
+        for (XQDocDiagnostic diagnostic : diagnostics) {
+            System.err.println(diagnostic);
+        }
     }
 }
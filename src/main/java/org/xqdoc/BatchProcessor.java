@@ -0,0 +1,1307 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>BatchProcessor class.</p>
+ *
+ * Generates the xqDoc for every XQuery module below a repository root.  Each
+ * module is described by a {@link ModuleDeclaration} whose source is the path
+ * relative to the root; the modules can then be put into an {@link ImportGraph}
+ * to find cycles, the processing order and the modules affected by a change.
+ * Modules are processed on several threads; the functions they declare are
+ * registered in a shared {@link FunctionTable} against which the calls of every
+ * module are resolved once the batch is complete.  With a {@link BundleWriter}
+ * the XML of the modules is appended to the bundle, in the order of the files,
+ * instead of being written to the output directory.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class BatchProcessor {
+
+    /** The file extensions recognized as XQuery modules */
+    public static final String[] DEFAULT_EXTENSIONS = { ".xq", ".xql", ".xqm", ".xqy", ".xquery" };
+
+    /** The default limit of the source bytes of the modules in flight */
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 64L * 1024 * 1024;
+
+    private final Map uriMap;
+
+    private final ModuleParser moduleParser = new ModuleParser();
+
+    private final FunctionTable functionTable = new FunctionTable();
+
+    private Path outputDirectory = null;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private SearchIndex searchIndex = null;
+
+    private TypeIndex typeIndex = null;
+
+    private OutputFormat outputFormat = OutputFormat.XML;
+
+    private BundleWriter bundleWriter = null;
+
+    private int maxModulesInFlight = 0;
+
+    private long maxBytesInFlight = DEFAULT_MAX_BYTES_IN_FLIGHT;
+
+    private boolean retainSourceText = true;
+    private boolean retainDocumentation = true;
+
+    private boolean streamDeclarations = false;
+
+    private Map<String, ? extends Map> profileOutputs = Collections.emptyMap();
+
+    private XQDocValidator validator = null;
+
+    private List<XQueryAnalyzer> analyzers = Collections.emptyList();
+
+    // The copies of the analyzers used by each thread
+    private ThreadLocal<List<XQueryAnalyzer>> threadAnalyzers = newThreadAnalyzers();
+
+    // The visitor of each thread, reset for every module it visits
+    private ThreadLocal<XQueryVisitor> threadVisitors = newThreadVisitors();
+
+    private final PipelineStatistics statistics = new PipelineStatistics();
+
+    private CoverageReport coverageReport = null;
+
+    /**
+     * <p>Constructor for BatchProcessor.</p>
+     *
+     * @param uriMap The predefined function namespaces
+     */
+    public BatchProcessor(Map uriMap)
+    {
+        this.uriMap = uriMap;
+    }
+
+    /**
+     * @return The module parser, for setting the error recovery limits
+     */
+    public ModuleParser getModuleParser() {
+        return moduleParser;
+    }
+
+    /**
+     * Set the directory the xqDoc XML files are written to.  Without an output
+     * directory the modules are only analyzed.
+     *
+     * @param outputDirectory The output directory or null
+     */
+    public void setOutputDirectory(Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * @return The output directory or null
+     */
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Set the format of the documentation written to the output directory.
+     *
+     * @param outputFormat The format, XML by default
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * @return The format of the documentation written to the output directory
+     */
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Set the bundle the xqDoc XML of every module processed is appended to.
+     * The XML files are then not written to the output directory.
+     *
+     * @param bundleWriter The bundle or null
+     */
+    public void setBundleWriter(BundleWriter bundleWriter) {
+        this.bundleWriter = bundleWriter;
+    }
+
+    /**
+     * @return The bundle or null
+     */
+    public BundleWriter getBundleWriter() {
+        return bundleWriter;
+    }
+
+    /**
+     * Set the number of modules processed at the same time.
+     *
+     * @param threads The number of threads, defaults to the number of processors
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return The number of modules processed at the same time
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the highest number of modules read but not yet complete.  The sources,
+     * parse trees and xqDoc of these modules are held in memory.
+     *
+     * @param maxModulesInFlight The number of modules, 0 for four per thread
+     */
+    public void setMaxModulesInFlight(int maxModulesInFlight) {
+        this.maxModulesInFlight = Math.max(0, maxModulesInFlight);
+    }
+
+    /**
+     * @return The highest number of modules read but not yet complete
+     */
+    public int getMaxModulesInFlight() {
+        return (maxModulesInFlight > 0) ? maxModulesInFlight : 4 * threads;
+    }
+
+    /**
+     * Set the highest number of source bytes of the modules read but not yet
+     * complete.  A module larger than the limit is processed on its own.
+     *
+     * @param maxBytesInFlight The number of bytes
+     */
+    public void setMaxBytesInFlight(long maxBytesInFlight) {
+        this.maxBytesInFlight = Math.max(1, maxBytesInFlight);
+    }
+
+    /**
+     * @return The highest number of source bytes of the modules read but not yet complete
+     */
+    public long getMaxBytesInFlight() {
+        return maxBytesInFlight;
+    }
+
+    /**
+     * Keep the source text in the modules returned.  Without it only the
+     * declarations, comments and calls are kept once the documentation of a
+     * module has been written, which is what the import graph, the function
+     * table, the search index and the HTML site use.
+     *
+     * @param retainSourceText false to drop the source text, true by default
+     */
+    public void setRetainSourceText(boolean retainSourceText) {
+        this.retainSourceText = retainSourceText;
+    }
+
+    /**
+     * Keep the documentation in the modules returned.  Without it only what
+     * links the modules is kept once a module has been written and indexed:
+     * its imports and namespaces and the name, arity and calls of its
+     * functions, enough for the import graph and {@link #resolveCalls}
+     * but not for the HTML site, the route table or the API diff.
+     *
+     * @param retainDocumentation false to keep only the link data, true by default
+     */
+    public void setRetainDocumentation(boolean retainDocumentation) {
+        this.retainDocumentation = retainDocumentation;
+    }
+
+    /**
+     * Build the xqDoc of each declaration as soon as it has been parsed and
+     * detach it from the parse tree, so that the memory used by a module
+     * depends on its largest declaration.  The documentation is the same.
+     *
+     * @param streamDeclarations true to stream the declarations, false by default
+     */
+    public void setStreamDeclarations(boolean streamDeclarations) {
+        this.streamDeclarations = streamDeclarations;
+    }
+
+    /**
+     * @return true when the declarations are streamed out of the parser
+     */
+    public boolean isStreamDeclarations() {
+        return streamDeclarations;
+    }
+
+    /**
+     * Write the xqDoc XML of every module for several namespace profiles, each
+     * to the directory named after the profile below the output directory,
+     * instead of to the output directory itself.  A module is parsed and
+     * visited once: the calls, variable references and variables that depend
+     * on the profile are recorded in a {@link ProfileTemplate}, which is
+     * filled in for each profile as the XML is written.  The module
+     * declarations, the bundle, the function table and the search index use
+     * the predefined function namespaces of the processor.  The output format
+     * is not used; the profiles are written as XML.
+     *
+     * @param profileOutputs The predefined function namespaces by profile name, empty for none
+     */
+    public void setProfileOutputs(Map<String, ? extends Map> profileOutputs) {
+        this.profileOutputs = profileOutputs;
+    }
+
+    /**
+     * @return The predefined function namespaces by profile name written to the output directory
+     */
+    public Map<String, ? extends Map> getProfileOutputs() {
+        return profileOutputs;
+    }
+
+    /**
+     * Validate the xqDoc XML of every module against a schema, as it is
+     * written by the visitor.  The violations are added to the diagnostics of
+     * the module as warnings, at their line in that XML.  The entry of a
+     * module written to a bundle is validated as a bundle holding only that
+     * module, so the schema needs to describe the bundle.
+     *
+     * @param validator The validator, such as {@link XQDocValidator#getDefault()}, or null
+     */
+    public void setValidator(XQDocValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * @return The validator or null
+     */
+    public XQDocValidator getValidator() {
+        return validator;
+    }
+
+    /**
+     * Run analyzers over every module in the walk that builds its xqDoc.  Each
+     * thread uses copies of the analyzers.  Their results are kept in the
+     * module declarations, and their findings are also added to the
+     * diagnostics of the modules as warnings.
+     *
+     * @param analyzers The analyzers, empty for none
+     */
+    public void setAnalyzers(List<XQueryAnalyzer> analyzers) {
+        this.analyzers = new ArrayList<>(analyzers);
+        this.threadAnalyzers = newThreadAnalyzers();
+        this.threadVisitors = newThreadVisitors();
+    }
+
+    /**
+     * @return The analyzers
+     */
+    public List<XQueryAnalyzer> getAnalyzers() {
+        return analyzers;
+    }
+
+    /**
+     *
+     * @return Copies of the analyzers for each thread
+     */
+    private ThreadLocal<List<XQueryAnalyzer>> newThreadAnalyzers()
+    {
+        final List<XQueryAnalyzer> prototypes = analyzers;
+        return new ThreadLocal<List<XQueryAnalyzer>>() {
+            @Override
+            protected List<XQueryAnalyzer> initialValue() {
+                List<XQueryAnalyzer> copies = new ArrayList<>(prototypes.size());
+                for (XQueryAnalyzer analyzer : prototypes) {
+                    copies.add(analyzer.copy());
+                }
+                return copies;
+            }
+        };
+    }
+
+    /**
+     *
+     * @return A visitor for each thread, running the analyzers of that thread
+     */
+    private ThreadLocal<XQueryVisitor> newThreadVisitors()
+    {
+        final ThreadLocal<List<XQueryAnalyzer>> analyzerCopies = threadAnalyzers;
+        final boolean analyze = !analyzers.isEmpty();
+        return new ThreadLocal<XQueryVisitor>() {
+            @Override
+            protected XQueryVisitor initialValue() {
+                XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), uriMap);
+                if (analyze) {
+                    visitor.setAnalyzers(analyzerCopies.get());
+                }
+                return visitor;
+            }
+        };
+    }
+
+    /**
+     * @return The statistics of the stages of the runs so far
+     */
+    public PipelineStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Collect the documentation coverage of every module processed.  The
+     * statistics of a module are counted by the thread that visits it and
+     * added to the report, in the order of the files, as the module
+     * completes.
+     *
+     * @param coverageReport The report or null
+     */
+    public void setCoverageReport(CoverageReport coverageReport) {
+        this.coverageReport = coverageReport;
+    }
+
+    /**
+     * @return The coverage report or null
+     */
+    public CoverageReport getCoverageReport() {
+        return coverageReport;
+    }
+
+    /**
+     * Set the search index updated with every module processed.
+     *
+     * @param searchIndex The search index or null
+     */
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * @return The search index or null
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Set the index of the parameter and return types of the functions,
+     * updated with every module processed.
+     *
+     * @param typeIndex The type index or null
+     */
+    public void setTypeIndex(TypeIndex typeIndex) {
+        this.typeIndex = typeIndex;
+    }
+
+    /**
+     * @return The type index or null
+     */
+    public TypeIndex getTypeIndex() {
+        return typeIndex;
+    }
+
+    /**
+     * @return The functions declared by every module processed so far
+     */
+    public FunctionTable getFunctionTable() {
+        return functionTable;
+    }
+
+    /**
+     * Resolve the calls of the modules against the function table.  Each call
+     * that resolves has its declaration set.
+     *
+     * @param modules The modules, usually every module of the repository
+     * @return The calls into repository namespaces that match no declared function and arity, by module
+     */
+    public Map<ModuleDeclaration, List<FunctionInvocation>> resolveCalls(Collection<ModuleDeclaration> modules)
+    {
+        Map<ModuleDeclaration, List<FunctionInvocation>> unresolved = new LinkedHashMap<>();
+        for (ModuleDeclaration module : modules) {
+            List<FunctionInvocation> calls = functionTable.resolve(module);
+            if (!calls.isEmpty()) {
+                unresolved.put(module, calls);
+            }
+        }
+        return unresolved;
+    }
+
+    /**
+     * Find the XQuery modules below a directory.
+     *
+     * @param root The repository root
+     * @return The module files, sorted by path
+     * @throws java.io.IOException when the directory can not be read
+     */
+    public List<Path> discover(Path root) throws IOException
+    {
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isXQueryFile(file)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Process every module below a directory.
+     *
+     * @param root The repository root
+     * @return The modules processed
+     * @throws java.io.IOException when a module can not be read or written
+     */
+    public List<ModuleDeclaration> processAll(Path root) throws IOException
+    {
+        return process(root, discover(root));
+    }
+
+    /**
+     * Read the header of each module, without documenting it: the namespace
+     * of a library module, its namespace declarations and its imports, enough
+     * for an {@link ImportGraph}.  Only the start of each module is parsed,
+     * so this is much cheaper than processing it.  A module over the size
+     * limit or whose header can not be parsed is returned with its source
+     * and whatever was read before the problem; nothing is reported, as the
+     * module is reported when it is processed.
+     *
+     * @param root The repository root
+     * @param files The module files
+     * @return The headers of the modules, in the order of the files
+     * @throws java.io.IOException when a module can not be read
+     */
+    public List<ModuleDeclaration> processHeaders(Path root, Collection<Path> files) throws IOException
+    {
+        ModuleParser headerParser = moduleParser.copy();
+        // The tokens of a whole module are cached when it is processed
+        headerParser.setTokenCache(null);
+        XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), uriMap);
+        long maxInputBytes = headerParser.getResourceLimits().getMaxInputBytes();
+        List<ModuleDeclaration> headers = new ArrayList<>();
+        for (Path file : files) {
+            String name = relativeSource(root, file);
+            visitor.reset(new StringBuilder());
+            ModuleDeclaration module = visitor.getModuleDeclaration();
+            module.setSource(name);
+            headers.add(module);
+            if (maxInputBytes > 0 && Files.size(file) > maxInputBytes) {
+                continue;
+            }
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            try {
+                visitor.visit(headerParser.parseHeader(CharStreams.fromString(text, name), name));
+            } catch (RuntimeException ex) {
+                // The module keeps what was read of its header
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Process every module of a zip archive or <code>.xar</code> package,
+     * read through a {@link PackageArchive} without extracting it.  The
+     * sources of the modules are the paths of their entries.
+     *
+     * @param archive The archive file
+     * @return The modules processed
+     * @throws java.io.IOException when the archive can not be read or a module written
+     */
+    public List<ModuleDeclaration> processArchive(Path archive) throws IOException
+    {
+        try (PackageArchive packageArchive = PackageArchive.open(archive)) {
+            return processAll(packageArchive.getRoot());
+        }
+    }
+
+    /**
+     * Read a list of module paths, such as the files changed in a commit, one
+     * per line or separated by NUL characters as written by
+     * <code>git diff --name-only -z</code>.  Empty lines and, in a list of
+     * lines, lines starting with <code>#</code> are skipped.
+     *
+     * @param in The list, in UTF-8
+     * @return The paths, in the order of the list
+     * @throws java.io.IOException when the list can not be read
+     */
+    public static List<String> readPathList(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+            buffer.write(chunk, 0, n);
+        }
+        String text = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        boolean nulSeparated = text.indexOf('\0') >= 0;
+        List<String> paths = new ArrayList<>();
+        for (String path : text.split(nulSeparated ? "\0" : "\r?\n")) {
+            if (!nulSeparated) {
+                path = path.trim();
+                if (path.startsWith("#")) {
+                    continue;
+                }
+            }
+            if (!path.isEmpty()) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Resolve a list of module paths against the repository root, dropping
+     * the paths that are not XQuery modules below the root, such as the files
+     * deleted by a commit.
+     *
+     * @param root The repository root
+     * @param paths The paths, relative to the root or, when the root is, absolute
+     * @param skipped The paths dropped are added to this list
+     * @return The module files, in the order of the paths
+     */
+    public List<Path> resolvePaths(Path root, List<String> paths, List<String> skipped)
+    {
+        List<Path> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            Path file = root.resolve(path).normalize();
+            if (file.startsWith(root) && Files.isRegularFile(file) && isXQueryFile(file)) {
+                files.add(file);
+            } else {
+                skipped.add(path);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Process modules read as frames from a stream, writing the documentation
+     * of each as a frame to another stream, so that a single process serves
+     * any number of modules.  A module frame is a header line giving the
+     * length of the module in bytes and its name, followed by the module in
+     * UTF-8:
+     *
+     * <pre>
+     * 58 lib/a.xqm\n
+     * module namespace a="urn:a"; ...
+     * </pre>
+     *
+     * The documentation is written in the same order, as a header line giving
+     * its length in bytes, the status of the module and its name, followed by
+     * the documentation in the output format.  The status is <code>ok</code>,
+     * <code>error</code> when the module has syntax errors that the parser
+     * recovered from, or <code>fatal</code> when the module was abandoned, the
+     * documentation then being the reason.  The frames are parsed on the
+     * worker threads while the next are read, and written by a thread of
+     * their own, which flushes the output whenever it has caught up with the
+     * modules completed, so a client may wait for the documentation of each
+     * module before sending the next.  The modules are not kept once written.
+     *
+     * @param in The module frames, until the end of the stream
+     * @param out The documentation frames
+     * @param diagnostics The diagnostics of the modules are printed to this stream, may be null
+     * @return The number of modules processed
+     * @throws java.io.IOException when a frame can not be read or written
+     */
+    public long processFrames(InputStream in, OutputStream out, final PrintStream diagnostics) throws IOException
+    {
+        final InputStream input = new BufferedInputStream(in);
+        final OutputStream output = new BufferedOutputStream(out);
+        final ThreadLocal<ModuleParser> parsers = new ThreadLocal<ModuleParser>() {
+            @Override
+            protected ModuleParser initialValue() {
+                return moduleParser.copy();
+            }
+        };
+        // The end of the stream is marked by a future without a module
+        final Future<Processed> end = new FutureTask<>(new Callable<Processed>() {
+            @Override
+            public Processed call() {
+                return null;
+            }
+        });
+        // The queue bounds the modules in flight; the writer thread takes them in order
+        final BlockingQueue<Future<Processed>> pending = new ArrayBlockingQueue<>(getMaxModulesInFlight());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final AtomicLong written = new AtomicLong();
+        final Throwable[] failure = new Throwable[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Future<Processed> future = pending.take(); future != end; future = pending.take()) {
+                        writeFrame(future.get(), output, diagnostics);
+                        written.incrementAndGet();
+                        if (pending.isEmpty()) {
+                            output.flush();
+                        }
+                    }
+                    output.flush();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    failure[0] = ex.getCause();
+                } catch (IOException | RuntimeException ex) {
+                    failure[0] = ex;
+                } finally {
+                    // Do not leave the reader blocked on a full queue
+                    pending.clear();
+                }
+            }
+        }, "xqdoc-frame-writer");
+        writer.start();
+        try {
+            for (Source source = readFrame(input); source != null; source = readFrame(input)) {
+                final Source frame = source;
+                Future<Processed> future = executor.submit(new Callable<Processed>() {
+                    @Override
+                    public Processed call() throws IOException {
+                        return process(frame, parsers.get(), true);
+                    }
+                });
+                while (!pending.offer(future, 100, TimeUnit.MILLISECONDS)) {
+                    if (!writer.isAlive()) {
+                        break;
+                    }
+                }
+                if (!writer.isAlive()) {
+                    break;
+                }
+            }
+            while (writer.isAlive() && !pending.offer(end, 100, TimeUnit.MILLISECONDS)) {
+                // The writer is catching up
+            }
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing frames", ex);
+        } finally {
+            writer.interrupt();
+            executor.shutdownNow();
+        }
+        if (failure[0] instanceof IOException) {
+            throw (IOException) failure[0];
+        } else if (failure[0] != null) {
+            throw new XQDocRuntimeException("Failed to process frames", failure[0]);
+        }
+        return written.get();
+    }
+
+    /**
+     *
+     * @param in The module frames
+     * @return The module of the next frame, or null at the end of the stream
+     * @throws IOException when the frame is malformed or truncated
+     */
+    private Source readFrame(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                if (header.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Truncated frame header");
+            }
+            header.write(b);
+        }
+        String line = new String(header.toByteArray(), StandardCharsets.UTF_8).trim();
+        int space = line.indexOf(' ');
+        long length;
+        try {
+            length = Long.parseLong((space < 0) ? line : line.substring(0, space));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Malformed frame header: " + line, ex);
+        }
+        String name = (space < 0) ? "" : line.substring(space + 1).trim();
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Malformed frame header: " + line);
+        }
+        long maxInputBytes = moduleParser.getResourceLimits().getMaxInputBytes();
+        if (maxInputBytes > 0 && length > maxInputBytes) {
+            // The module is not read, only skipped
+            byte[] discarded = null;
+            for (long skipped = 0; skipped < length; ) {
+                long n = in.skip(length - skipped);
+                if (n <= 0) {
+                    // skip may stop early without being at the end, so read to tell them apart
+                    if (discarded == null) {
+                        discarded = new byte[(int) Math.min(8192, length - skipped)];
+                    }
+                    n = in.read(discarded, 0, (int) Math.min(discarded.length, length - skipped));
+                    if (n < 0) {
+                        throw new EOFException("Truncated frame " + name);
+                    }
+                }
+                skipped += n;
+            }
+            return new Source(name, new byte[0], length);
+        }
+        byte[] content = new byte[(int) length];
+        for (int offset = 0; offset < content.length; ) {
+            int n = in.read(content, offset, content.length - offset);
+            if (n < 0) {
+                throw new EOFException("Truncated frame " + name);
+            }
+            offset += n;
+        }
+        return new Source(name, content, 0);
+    }
+
+    /**
+     *
+     * @param processed A module processed from a frame
+     * @param out The documentation frames
+     * @param diagnostics The stream the diagnostics are printed to, may be null
+     * @throws IOException when the frame can not be written
+     */
+    private static void writeFrame(Processed processed, OutputStream out, PrintStream diagnostics) throws IOException
+    {
+        ModuleDeclaration module = processed.module;
+        String status = "ok";
+        String document = processed.output;
+        for (XQDocDiagnostic diagnostic : module.getDiagnostics()) {
+            if (diagnostic.getSeverity() == XQDocDiagnostic.Severity.FATAL) {
+                status = "fatal";
+                document = diagnostic.getMessage();
+            } else if (diagnostic.getSeverity() == XQDocDiagnostic.Severity.ERROR && "ok".equals(status)) {
+                status = "error";
+            }
+            if (diagnostics != null) {
+                diagnostics.println(diagnostic);
+            }
+        }
+        byte[] content = String.valueOf(document).getBytes(StandardCharsets.UTF_8);
+        out.write((content.length + " " + status + " " + module.getSource() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(content);
+    }
+
+    /**
+     * Process a selection of the modules below a directory.  The modules go
+     * through a pipeline: the sources are read on the calling thread, parsed
+     * and written on the worker threads and completed, in the order of the
+     * files, on the calling thread again.  A source is only read once the
+     * modules in flight are within {@link #getMaxModulesInFlight()} and
+     * {@link #getMaxBytesInFlight()}, so the sources and parse trees in memory
+     * do not grow with the size of the repository.  The model of every module
+     * is still kept for the result, reduced to its link data with
+     * {@link #setRetainDocumentation(boolean)}, and the function table and
+     * indexes grow with the functions, so the heap is not bounded;
+     * {@link PipelineStatistics#getRetainedModules()} and
+     * {@link PipelineStatistics#getHeapAtEnd()} report what is kept.
+     *
+     * @param root The repository root
+     * @param files The module files
+     * @return The modules processed, in the order of the files
+     * @throws java.io.IOException when a module can not be read or written
+     */
+    public List<ModuleDeclaration> process(final Path root, Collection<Path> files) throws IOException
+    {
+        List<ModuleDeclaration> modules = new ArrayList<>();
+        if (threads <= 1 || files.size() <= 1) {
+            for (Path file : files) {
+                modules.add(process(root, file));
+            }
+            statistics.endRun();
+            return modules;
+        }
+
+        final ThreadLocal<ModuleParser> parsers = new ThreadLocal<ModuleParser>() {
+            @Override
+            protected ModuleParser initialValue() {
+                return moduleParser.copy();
+            }
+        };
+        int maxModules = getMaxModulesInFlight();
+        int workers = Math.min(threads, files.size());
+        // No more than maxModules tasks are queued at any time, so the queue never rejects one
+        ExecutorService executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxModules));
+        Deque<Future<Processed>> pending = new ArrayDeque<>();
+        long bytesInFlight = 0;
+        try {
+            for (Path file : files) {
+                long size = Files.size(file);
+                while (!pending.isEmpty() && (pending.size() >= maxModules || bytesInFlight + size > maxBytesInFlight)) {
+                    bytesInFlight -= complete(pending.removeFirst(), modules);
+                }
+                final Source source = read(root, file);
+                bytesInFlight += source.content.length;
+                statistics.inFlight(pending.size() + 1, bytesInFlight);
+                pending.addLast(executor.submit(new Callable<Processed>() {
+                    @Override
+                    public Processed call() throws IOException {
+                        return process(source, parsers.get());
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                complete(pending.removeFirst(), modules);
+            }
+            statistics.endRun();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing " + root, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new XQDocRuntimeException("Failed to process " + root, ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return modules;
+    }
+
+    /**
+     * Process a single module.  Problems with the module itself are recorded as
+     * diagnostics of the returned module rather than thrown.
+     *
+     * @param root The repository root
+     * @param file The module file
+     * @return The module
+     * @throws java.io.IOException when the module can not be read or written
+     */
+    public ModuleDeclaration process(Path root, Path file) throws IOException
+    {
+        Processed processed = process(read(root, file), moduleParser);
+        statistics.inFlight(1, processed.size);
+        addToBundle(processed);
+        addToCoverage(processed);
+        statistics.retain(processed.module);
+        return processed.module;
+    }
+
+    /**
+     *
+     * @param future A module in flight
+     * @param modules The modules completed
+     * @return The source bytes of the module, no longer in flight
+     * @throws InterruptedException when the thread is interrupted
+     * @throws ExecutionException when the module failed
+     * @throws IOException when the bundle can not be written
+     */
+    private long complete(Future<Processed> future, List<ModuleDeclaration> modules)
+            throws InterruptedException, ExecutionException, IOException
+    {
+        Processed processed = future.get();
+        // Bundle entries are appended here so that they follow the order of the files
+        addToBundle(processed);
+        addToCoverage(processed);
+        statistics.retain(processed.module);
+        modules.add(processed.module);
+        return processed.size;
+    }
+
+    /**
+     *
+     * @param processed A module processed
+     */
+    private void addToCoverage(Processed processed)
+    {
+        if (coverageReport != null && processed.coverage != null) {
+            coverageReport.put(processed.module.getSource(), processed.coverage);
+        }
+    }
+
+    /**
+     *
+     * @param processed A module processed
+     * @throws IOException when the bundle can not be written
+     */
+    private void addToBundle(Processed processed) throws IOException
+    {
+        if (bundleWriter != null && processed.bundleEntry != null) {
+            long start = System.nanoTime();
+            bundleWriter.add(processed.module, processed.bundleEntry);
+            statistics.getStage(PipelineStatistics.WRITE).addTime(start);
+            processed.bundleEntry = null;
+        }
+    }
+
+    /**
+     *
+     * @param root The repository root
+     * @param file The module file
+     * @return The content of the module, empty when the module is over the size limit
+     * @throws IOException when the module can not be read
+     */
+    private Source read(Path root, Path file) throws IOException
+    {
+        long start = System.nanoTime();
+        long maxInputBytes = moduleParser.getResourceLimits().getMaxInputBytes();
+        long size = (maxInputBytes > 0) ? Files.size(file) : 0;
+        Source source = (size > maxInputBytes)
+                ? new Source(relativeSource(root, file), new byte[0], size)
+                : new Source(relativeSource(root, file), Files.readAllBytes(file), 0);
+        statistics.getStage(PipelineStatistics.READ).record(source.content.length, start);
+        return source;
+    }
+
+    /**
+     *
+     * @param source The content of the module
+     * @param moduleParser The parser owned by the calling thread
+     * @return The module, with its bundle entry when there is a bundle
+     * @throws IOException when the module can not be written
+     */
+    private Processed process(Source source, ModuleParser moduleParser) throws IOException
+    {
+        return process(source, moduleParser, false);
+    }
+
+    /**
+     *
+     * @param source The content of the module
+     * @param moduleParser The parser owned by the calling thread
+     * @param framed Whether the documentation is kept to be written as a frame,
+     *               rather than written to the output directory, and the module forgotten
+     * @return The module, with its bundle entry when there is a bundle
+     * @throws IOException when the module can not be written
+     */
+    private Processed process(Source source, ModuleParser moduleParser, boolean framed) throws IOException
+    {
+        String name = source.name;
+        byte[] content = source.content;
+        CharStream inputStream = CharStreams.fromString(new String(content, StandardCharsets.UTF_8), name);
+        // The buffer outlives the module as its bundle entry, so only the visitor is reused
+        StringBuilder buffer = new StringBuilder();
+        XQueryVisitor visitor = threadVisitors.get();
+        visitor.reset(buffer);
+        visitor.setNamespaceTable((bundleWriter != null) ? bundleWriter.getNamespaceTable() : null);
+        ProfileTemplate profileTemplate = null;
+        if (!profileOutputs.isEmpty()) {
+            profileTemplate = new ProfileTemplate();
+            visitor.setProfileTemplate(profileTemplate);
+        }
+        Processed processed = new Processed(visitor.getModuleDeclaration(), content.length);
+        ModuleDeclaration module = processed.module;
+        module.setSource(name);
+        module.setContentHash(contentHash(content));
+        if (source.oversize > 0) {
+            try {
+                moduleParser.getResourceLimits().checkInputSize(source.oversize);
+            } catch (XQDocLimitExceededException ex) {
+                // The module has not been read
+                module.setDiagnostics(fatal(Collections.<XQDocDiagnostic>emptyList(), name, ex.getMessage()));
+                return processed;
+            }
+        }
+        List<XQDocDiagnostic> violations = Collections.emptyList();
+        try {
+            // Streamed declarations are visited while the module is parsed, so the limits are set first
+            long timeBudget = moduleParser.getTimeBudgetMillis();
+            visitor.setDeadline((timeBudget > 0) ? System.currentTimeMillis() + timeBudget : Long.MAX_VALUE, timeBudget);
+            visitor.setMaxDepth(moduleParser.getResourceLimits().getEffectiveMaxDepth());
+            long start = System.nanoTime();
+            XQueryParser.ModuleContext fileContext = moduleParser.parse(inputStream, name,
+                    streamDeclarations ? new DeclarationEmitter(visitor) : null);
+            // With streamed declarations most of the visiting is counted as parsing
+            statistics.getStage(PipelineStatistics.PARSE).record(content.length, start);
+            start = System.nanoTime();
+            visitor.visit(fileContext);
+            statistics.getStage(PipelineStatistics.VISIT).record(content.length, start);
+            // With profiles the XML has holes; it is filled in once for the default profile, which is validated and kept
+            StringBuilder template = buffer;
+            if (profileTemplate != null) {
+                buffer = profileTemplate.fill(template, uriMap);
+            }
+            if (validator != null) {
+                start = System.nanoTime();
+                // A bundle entry is validated as a bundle holding only that module
+                violations = (bundleWriter != null)
+                        ? validator.validate(name, bundleWriter.getEntryDocumentStart(module), buffer, BundleWriter.ENTRY_DOCUMENT_END)
+                        : validator.validate(name, buffer);
+                statistics.getStage(PipelineStatistics.VALIDATE).record(content.length, start);
+            }
+            start = System.nanoTime();
+            if (profileTemplate != null && outputDirectory != null && bundleWriter == null) {
+                for (Map.Entry<String, ? extends Map> profile : profileOutputs.entrySet()) {
+                    write(outputDirectory.resolve(profile.getKey()), name, DocumentUtility.getStringFromDoc(
+                            DocumentUtility.getDocumentFromBuffer(profileTemplate.fill(template, profile.getValue()))));
+                }
+            }
+            if (framed) {
+                processed.output = (outputFormat == OutputFormat.JSON)
+                        ? new JsonEmitter().toJson(module)
+                        : DocumentUtility.getStringFromDoc(DocumentUtility.getDocumentFromBuffer(buffer));
+            } else if (bundleWriter != null) {
+                processed.bundleEntry = buffer;
+            }
+            if (outputDirectory != null && profileTemplate == null && !framed) {
+                if (outputFormat == OutputFormat.JSON) {
+                    writeJson(name, module);
+                } else if (bundleWriter == null) {
+                    write(outputDirectory, name, DocumentUtility.getStringFromDoc(DocumentUtility.getDocumentFromBuffer(buffer)));
+                }
+            }
+            statistics.getStage(PipelineStatistics.WRITE).record(content.length, start);
+        } catch (XQDocParseAbortedException ex) {
+            if (!isFatal(moduleParser.getDiagnostics())) {
+                // Over a limit while visiting, so not recorded by the parser
+                module.setDiagnostics(fatal(moduleParser.getDiagnostics(), name, ex.getMessage()));
+                processed.bundleEntry = null;
+                return processed;
+            }
+            // The FATAL diagnostic has been recorded by the parser
+        } catch (ParserConfigurationException | SAXException | RuntimeException ex) {
+            module.setDiagnostics(fatal(moduleParser.getDiagnostics(), name, String.valueOf(ex)));
+            processed.bundleEntry = null;
+            return processed;
+        }
+        if (violations.isEmpty() && module.getAnalysisResults().isEmpty()) {
+            module.setDiagnostics(moduleParser.getDiagnostics());
+        } else {
+            List<XQDocDiagnostic> diagnostics = new ArrayList<>(moduleParser.getDiagnostics());
+            for (AnalysisResult result : module.getAnalysisResults()) {
+                if (result.isFinding()) {
+                    diagnostics.add(result.toDiagnostic(name));
+                }
+            }
+            diagnostics.addAll(violations);
+            module.setDiagnostics(diagnostics);
+        }
+        if (framed) {
+            return processed;
+        }
+        if (coverageReport != null) {
+            processed.coverage = CoverageStatistics.of(module);
+        }
+        functionTable.register(module);
+        if (typeIndex != null) {
+            typeIndex.update(module);
+        }
+        if (searchIndex != null) {
+            searchIndex.update(module);
+        }
+        if (!retainDocumentation) {
+            module.releaseDocumentation();
+        } else if (!retainSourceText) {
+            module.releaseSourceText();
+        }
+        return processed;
+    }
+
+    /**
+     *
+     * @param diagnostics The diagnostics of a module
+     * @return Whether the module has been abandoned
+     */
+    private static boolean isFatal(List<XQDocDiagnostic> diagnostics)
+    {
+        for (XQDocDiagnostic diagnostic : diagnostics) {
+            if (diagnostic.getSeverity() == XQDocDiagnostic.Severity.FATAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param diagnostics The diagnostics of a module
+     * @param name The module source
+     * @param message Why the module is abandoned
+     * @return The diagnostics followed by a FATAL one
+     */
+    private static List<XQDocDiagnostic> fatal(List<XQDocDiagnostic> diagnostics, String name, String message)
+    {
+        List<XQDocDiagnostic> fatal = new ArrayList<>(diagnostics);
+        fatal.add(new XQDocDiagnostic(XQDocDiagnostic.Severity.FATAL, name, 0, 0, null, message));
+        return fatal;
+    }
+
+    /**
+     * Return the SHA-256 of a module source.
+     *
+     * @param content The content of the module
+     * @return The hash as lower case hex
+     */
+    public static String contentHash(byte[] content)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder buffer = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                buffer.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return buffer.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new XQDocRuntimeException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * Return the name of the xqDoc XML file for a module source.
+     *
+     * @param source The module source relative to the repository root
+     * @return The output file name relative to the output directory
+     */
+    public static String outputName(String source)
+    {
+        return outputName(source, OutputFormat.XML);
+    }
+
+    /**
+     * Return the name of the documentation file for a module source.
+     *
+     * @param source The module source relative to the repository root
+     * @param format The output format
+     * @return The output file name relative to the output directory
+     */
+    public static String outputName(String source, OutputFormat format)
+    {
+        int dot = source.lastIndexOf('.');
+        int slash = source.lastIndexOf('/');
+        return ((dot > slash) ? source.substring(0, dot) : source) + format.getExtension();
+    }
+
+    /**
+     *
+     * @param directory The output directory
+     * @param source The module source relative to the repository root
+     * @param xml The xqDoc XML
+     * @throws IOException when the file can not be written
+     */
+    private void write(Path directory, String source, String xml) throws IOException
+    {
+        try (Writer writer = newOutputWriter(directory, source, OutputFormat.XML)) {
+            writer.write(xml);
+        }
+    }
+
+    /**
+     *
+     * @param source The module source relative to the repository root
+     * @param module The module
+     * @throws IOException when the file can not be written
+     */
+    private void writeJson(String source, ModuleDeclaration module) throws IOException
+    {
+        try (Writer writer = newOutputWriter(outputDirectory, source, outputFormat)) {
+            new JsonEmitter().write(module, writer);
+        }
+    }
+
+    /**
+     *
+     * @param directory The output directory
+     * @param source The module source relative to the repository root
+     * @param format The output format
+     * @return A writer for the output file of the module
+     * @throws IOException when the file can not be created
+     */
+    private Writer newOutputWriter(Path directory, String source, OutputFormat format) throws IOException
+    {
+        Path target = directory.resolve(outputName(source, format));
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        return Files.newBufferedWriter(target, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *
+     * @param root The repository root
+     * @param file A file below the root
+     * @return The path of the file relative to the root with '/' separators
+     */
+    static String relativeSource(Path root, Path file)
+    {
+        Path relative = root.relativize(file);
+        StringBuilder buffer = new StringBuilder();
+        for (Path segment : relative) {
+            if (buffer.length() > 0) {
+                buffer.append('/');
+            }
+            buffer.append(segment.toString());
+        }
+        return buffer.toString();
+    }
+
+    /**
+     *
+     * @param file A file
+     * @return true when the file has one of the XQuery extensions
+     */
+    private static boolean isXQueryFile(Path file)
+    {
+        String name = file.getFileName().toString().toLowerCase();
+        for (String extension : DEFAULT_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The content of a module read.
+     */
+    private static final class Source {
+        private final String name;
+        private final byte[] content;
+        // The size of a module over the size limit, which is not read
+        private final long oversize;
+
+        Source(String name, byte[] content, long oversize)
+        {
+            this.name = name;
+            this.content = content;
+            this.oversize = oversize;
+        }
+    }
+
+    /**
+     * A module processed, with the xqDoc XML waiting to be appended to the bundle.
+     */
+    private static final class Processed {
+        private final ModuleDeclaration module;
+        private final long size;
+        private CharSequence bundleEntry = null;
+        // The documentation of a module read from a frame
+        private String output = null;
+        // The documentation coverage of the module, counted by the thread that visited it
+        private CoverageStatistics coverage = null;
+
+        Processed(ModuleDeclaration module, long size)
+        {
+            this.module = module;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.xqdoc;
+
+/**
+ * <p>BodyText class.</p>
+ *
+ * The source text of a section of a module with its character positions,
+ * as written to the <code>xqdoc:body</code> element.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class BodyText {
+
+    private final int start;
+    private final int end;
+    private final String text;
+
+    /**
+     * <p>Constructor for BodyText.</p>
+     *
+     * @param start The position of the first character, starting at 1
+     * @param end The position of the last character
+     * @param text The source text
+     */
+    public BodyText(int start, int end, String text)
+    {
+        this.start = start;
+        this.end = end;
+        this.text = text;
+    }
+
+    /**
+     * @return The position of the first character, starting at 1
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return The position of the last character
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The source text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The source text
+     */
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,260 @@
+package org.xqdoc;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>BundleWriter class.</p>
+ *
+ * Writes the xqDoc of every module of a batch into a single XML file, so that
+ * a repository can be loaded into a database in one bulk operation.  The
+ * modules are streamed into the bundle as they are processed; the parts that
+ * can only be known at the end are written after them:
+ *
+ * <pre>
+ * &lt;xqdoc:bundle&gt;
+ *   &lt;xqdoc:control&gt;      shared by every module
+ *   &lt;xqdoc:xqdoc source=".." hash=".."&gt;   one per module, namespaces as &lt;xqdoc:namespace ref=".."/&gt;
+ *   &lt;xqdoc:namespaces&gt;   the distinct namespace declarations, by id
+ *   &lt;xqdoc:index&gt;        the byte offset and length of every module element
+ * &lt;/xqdoc:bundle&gt;
+ * &lt;!-- index-offset=.. --&gt;
+ * </pre>
+ *
+ * The trailing comment has a fixed length ({@link #TRAILER_LENGTH} bytes) and
+ * holds the byte offset of the namespace table, so a loader can read the
+ * table and the index from the end of the file and then read any module
+ * element on its own.  Each module element declares the xqdoc namespace and
+ * is well-formed by itself.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class BundleWriter implements Closeable {
+
+    /** The xqDoc namespace */
+    public static final String XQDOC_NAMESPACE = "http://www.xqdoc.org/1.0";
+
+    /** The length in bytes of the comment ending the bundle */
+    public static final int TRAILER_LENGTH = trailer(0).length();
+
+    /** The end of the document standing for a module, after {@link #getEntryDocumentStart(ModuleDeclaration)} */
+    public static final String ENTRY_DOCUMENT_END = "</xqdoc:xqdoc></xqdoc:bundle>";
+
+    private final OutputStream out;
+
+    private final NamespaceTable namespaceTable = new NamespaceTable();
+
+    private final StringBuilder index = new StringBuilder();
+
+    private final String date = new DateTime().toString(ISODateTimeFormat.dateTime());
+
+    private long position = 0;
+
+    private int modules = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Create the bundle file and write its control block.
+     *
+     * @param file The bundle file, replaced if it exists
+     * @throws java.io.IOException when the file can not be written
+     */
+    public BundleWriter(Path file) throws IOException
+    {
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buffer.append("<xqdoc:bundle xmlns:xqdoc=\"").append(XQDOC_NAMESPACE).append("\">\n");
+        buffer.append("<xqdoc:control>\n");
+        buffer.append("<xqdoc:date>").append(date).append("</xqdoc:date>\n");
+        buffer.append("<xqdoc:version>").append(JsonEmitter.XQDOC_VERSION).append("</xqdoc:version>\n");
+        buffer.append("</xqdoc:control>\n");
+        write(buffer.toString());
+    }
+
+    /**
+     * @return The namespace table the module entries refer to
+     */
+    public NamespaceTable getNamespaceTable() {
+        return namespaceTable;
+    }
+
+    /**
+     * The start of a bundle holding only a module, to validate the entry of the
+     * module on its own.  It is on a single line, so the lines of the entry
+     * are those of the document.
+     *
+     * @param module The module
+     * @return The bundle element, the control block and the start of the module element
+     */
+    public String getEntryDocumentStart(ModuleDeclaration module)
+    {
+        StringBuilder buffer = new StringBuilder(256);
+        buffer.append("<xqdoc:bundle xmlns:xqdoc=\"").append(XQDOC_NAMESPACE).append("\">");
+        buffer.append("<xqdoc:control><xqdoc:date>").append(date).append("</xqdoc:date>");
+        buffer.append("<xqdoc:version>").append(JsonEmitter.XQDOC_VERSION).append("</xqdoc:version></xqdoc:control>");
+        entryStart(buffer, module);
+        return buffer.toString();
+    }
+
+    /**
+     * @return The number of modules written so far
+     */
+    public int getModuleCount() {
+        return modules;
+    }
+
+    /**
+     * Append a module to the bundle.
+     *
+     * @param module The module
+     * @param entry The xqDoc of the module written by an {@link XQueryVisitor} using the namespace table of this bundle
+     * @throws java.io.IOException when the bundle can not be written
+     */
+    public synchronized void add(ModuleDeclaration module, CharSequence entry) throws IOException
+    {
+        if (closed) {
+            throw new IllegalStateException("The bundle has been closed");
+        }
+        long offset = position;
+        StringBuilder buffer = new StringBuilder(entry.length() + 256);
+        entryStart(buffer, module);
+        buffer.append("\n");
+        buffer.append(entry);
+        buffer.append("</xqdoc:xqdoc>");
+        write(buffer.toString());
+        long length = position - offset;
+        write("\n");
+
+        index.append("<xqdoc:entry");
+        attribute(index, "source", module.getSource());
+        attribute(index, "uri", module.getUri());
+        attribute(index, "offset", Long.toString(offset));
+        attribute(index, "length", Long.toString(length));
+        index.append("/>\n");
+        modules++;
+    }
+
+    /**
+     * Write the namespace table, the module index and the trailer and close the file.
+     *
+     * @throws java.io.IOException when the bundle can not be written
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long tableOffset = position;
+            StringBuilder buffer = new StringBuilder();
+            buffer.append("<xqdoc:namespaces>\n");
+            for (NamespaceTable.Entry entry : namespaceTable.getEntries()) {
+                buffer.append("<xqdoc:namespace");
+                attribute(buffer, "id", entry.getId());
+                attribute(buffer, "prefix", entry.getPrefix());
+                attribute(buffer, "uri", entry.getUri());
+                buffer.append("/>\n");
+            }
+            buffer.append("</xqdoc:namespaces>\n");
+            buffer.append("<xqdoc:index modules=\"").append(modules).append("\">\n");
+            buffer.append(index);
+            buffer.append("</xqdoc:index>\n");
+            buffer.append("</xqdoc:bundle>\n");
+            buffer.append(trailer(tableOffset));
+            write(buffer.toString());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the offset of the namespace table from the end of a bundle.
+     *
+     * @param trailer The last {@link #TRAILER_LENGTH} bytes of the bundle
+     * @return The byte offset of the namespace table, followed by the index
+     */
+    public static long readIndexOffset(byte[] trailer)
+    {
+        String text = new String(trailer, StandardCharsets.US_ASCII);
+        String prefix = "<!-- index-offset=";
+        if (!text.startsWith(prefix)) {
+            throw new XQDocRuntimeException("Not an xqDoc bundle trailer: " + text.trim());
+        }
+        return Long.parseLong(text.substring(prefix.length(), text.indexOf(' ', prefix.length())));
+    }
+
+    /**
+     *
+     * @param offset The byte offset of the namespace table
+     * @return The comment ending the bundle
+     */
+    private static String trailer(long offset)
+    {
+        return "<!-- index-offset=" + String.format("%019d", offset) + " -->\n";
+    }
+
+    /**
+     *
+     * @param text The text to append to the file
+     * @throws IOException when the file can not be written
+     */
+    private void write(String text) throws IOException
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    /**
+     *
+     * @param buffer The buffer receiving the start tag of the module element
+     * @param module The module
+     */
+    private static void entryStart(StringBuilder buffer, ModuleDeclaration module)
+    {
+        buffer.append("<xqdoc:xqdoc xmlns:xqdoc=\"").append(XQDOC_NAMESPACE).append("\"");
+        attribute(buffer, "source", module.getSource());
+        attribute(buffer, "hash", module.getContentHash());
+        buffer.append(">");
+    }
+
+    /**
+     *
+     * @param buffer The element being written
+     * @param name The attribute name
+     * @param value The value, the attribute is left out when it is null
+     */
+    private static void attribute(StringBuilder buffer, String name, String value)
+    {
+        if (value == null) {
+            return;
+        }
+        buffer.append(' ').append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': buffer.append("&amp;"); break;
+                case '<': buffer.append("&lt;"); break;
+                case '"': buffer.append("&quot;"); break;
+                default: buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+}
@@ -0,0 +1,137 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * <p>CachedTokenSource class.</p>
+ *
+ * Replays the tokens of a module read from a {@link TokenCache} in place of
+ * the {@link XQueryLexer}.  The tokens refer to the source by their offsets,
+ * so their text comes from the source as it would from the lexer.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class CachedTokenSource implements TokenSource {
+
+    private final CharStream input;
+
+    private final String source;
+
+    private final Pair<TokenSource, CharStream> tokenSourcePair;
+
+    private final int[] types;
+
+    private final int[] channels;
+
+    private final int[] starts;
+
+    private final int[] stops;
+
+    private final int[] lines;
+
+    private final int[] columns;
+
+    private TokenFactory<?> tokenFactory = CommonTokenFactory.DEFAULT;
+
+    private long maxTokens = 0;
+
+    private int next = 0;
+
+    /**
+     * @param input The XQuery source
+     * @param source The name of the source (may be null)
+     * @param types The types of the tokens
+     * @param channels The channels of the tokens
+     * @param starts The offsets of the first code point of the tokens
+     * @param stops The offsets of the last code point of the tokens
+     * @param lines The lines of the tokens
+     * @param columns The columns of the tokens
+     */
+    CachedTokenSource(CharStream input, String source, int[] types, int[] channels, int[] starts, int[] stops,
+                      int[] lines, int[] columns)
+    {
+        this.input = input;
+        this.source = source;
+        this.tokenSourcePair = new Pair<TokenSource, CharStream>(this, input);
+        this.types = types;
+        this.channels = channels;
+        this.starts = starts;
+        this.stops = stops;
+        this.lines = lines;
+        this.columns = columns;
+    }
+
+    /**
+     * Set the maximum number of tokens, as the lexer enforces it.
+     *
+     * @param maxTokens the limit, 0 for no limit
+     */
+    public void setMaxTokens(long maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @return the number of tokens of the module, including EOF
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Token nextToken()
+    {
+        if (maxTokens > 0 && next >= maxTokens) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.TOKENS, maxTokens,
+                    "Module exceeds the limit of " + maxTokens + " tokens");
+        }
+        int i = Math.min(next, types.length - 1);
+        Token token = tokenFactory.create(tokenSourcePair, types[i], null, channels[i], starts[i], stops[i], lines[i], columns[i]);
+        if (next < types.length - 1) {
+            next++;
+        }
+        return token;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getLine() {
+        return lines[Math.min(next, lines.length - 1)];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getCharPositionInLine() {
+        return columns[Math.min(next, columns.length - 1)];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getSourceName() {
+        return (source != null) ? source : input.getSourceName();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.tokenFactory = factory;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return tokenFactory;
+    }
+}
@@ -0,0 +1,68 @@
+package org.xqdoc;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>CommentDeclaration class.</p>
+ *
+ * The entries of an xqDoc comment by tag, with the character positions of
+ * the comment.  The tags are those of the <code>xqdoc:comment</code> element
+ * (description, author, version, param, return, error, deprecated, see, since,
+ * format); custom tags are kept as <code>custom:</code><i>tag</i>.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class CommentDeclaration {
+
+    private final int start;
+    private final int end;
+    private final Map<String, List<String>> entries;
+
+    /**
+     * <p>Constructor for CommentDeclaration.</p>
+     *
+     * @param start The position of the first character of the comment, starting at 1
+     * @param end The position of the last character of the comment
+     * @param entries The text of the entries by tag, in source order
+     */
+    public CommentDeclaration(int start, int end, Map<String, List<String>> entries)
+    {
+        this.start = start;
+        this.end = end;
+        this.entries = entries;
+    }
+
+    /**
+     * @return The position of the first character of the comment, starting at 1
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return The position of the last character of the comment
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The text of the entries by tag, in source order
+     */
+    public Map<String, List<String>> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param tag A comment tag such as description or param
+     * @return The text of the entries for the tag, in source order
+     */
+    public List<String> getEntries(String tag)
+    {
+        List<String> list = entries.get(tag);
+        return (list != null) ? list : Collections.<String>emptyList();
+    }
+}
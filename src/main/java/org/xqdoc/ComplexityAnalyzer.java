@@ -0,0 +1,102 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.List;
+
+/**
+ * <p>ComplexityAnalyzer class.</p>
+ *
+ * Measures the cyclomatic complexity of every function and of the query body
+ * of a main module: one plus the number of decisions, each
+ * <code>if</code>, <code>switch</code> and <code>typeswitch</code> case,
+ * <code>catch</code> clause, <code>where</code> clause, quantified
+ * expression and <code>and</code> or <code>or</code> operator.  The decisions
+ * of inline functions count for the function declaring them.  The result is
+ * the metric <code>complexity</code> of each function, and of the module for
+ * its query body.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ComplexityAnalyzer extends XQueryAnalyzer {
+
+    /** The name of the analyzer */
+    public static final String NAME = "complexity";
+
+    /** The name of the metric */
+    public static final String COMPLEXITY = "complexity";
+
+    // The subject of the function or query body being measured
+    private String subject = null;
+
+    private int depth = 0;
+
+    private long complexity = 0;
+
+    /**
+     * <p>Constructor for ComplexityAnalyzer.</p>
+     */
+    public ComplexityAnalyzer()
+    {
+        super(NAME, "functionDecl", "queryBody", "ifExpr", "switchCaseClause", "caseClause", "catchClause",
+                "whereClause", "quantifiedExpr", "orExpr");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public XQueryAnalyzer copy()
+    {
+        return new ComplexityAnalyzer();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void startModule(ModuleDeclaration module)
+    {
+        subject = null;
+        depth = 0;
+        complexity = 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void enter(ParserRuleContext context, ModuleDeclaration module)
+    {
+        int rule = context.getRuleIndex();
+        if (rule == XQueryParser.RULE_functionDecl || rule == XQueryParser.RULE_queryBody) {
+            if (depth++ == 0) {
+                List<FunctionDeclaration> functions = module.getFunctions();
+                subject = (rule == XQueryParser.RULE_functionDecl && !functions.isEmpty())
+                        ? subject(functions.get(functions.size() - 1)) : null;
+                complexity = 1;
+            }
+        } else if (depth > 0 && isDecision(context)) {
+            complexity++;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void exit(ParserRuleContext context, ModuleDeclaration module)
+    {
+        int rule = context.getRuleIndex();
+        if ((rule == XQueryParser.RULE_functionDecl || rule == XQueryParser.RULE_queryBody) && --depth == 0) {
+            module.addAnalysisResult(AnalysisResult.metric(NAME, subject, COMPLEXITY, complexity));
+        }
+    }
+
+    /**
+     *
+     * @param context A node of one of the rules
+     * @return true when the node is a decision
+     */
+    private static boolean isDecision(ParserRuleContext context)
+    {
+        if (context instanceof XQueryParser.OrExprContext) {
+            XQueryParser.OrExprContext orExpr = (XQueryParser.OrExprContext) context;
+            return orExpr.KW_AND() != null || orExpr.KW_OR() != null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,337 @@
+package org.xqdoc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>CoverageReport class.</p>
+ *
+ * The documentation coverage of a repository: the {@link CoverageStatistics}
+ * of each module by source, and their total.  Reports are partial aggregates:
+ * the reports of the threads of a {@link BatchProcessor} run, or of the shards
+ * of a repository documented by separate runs, are combined with
+ * {@link #merge(CoverageReport)}.  A module counted twice, such as a module
+ * documented again after a change, is counted once with its latest
+ * statistics.
+ *
+ * The report is written as JSON, or as CSV with a row per module followed by
+ * the total, which {@link #readCsv(Reader)} reads back for merging.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class CoverageReport {
+
+    private static final String SOURCE = "source";
+
+    private static final String COVERAGE = "coverage";
+
+    private final SortedMap<String, CoverageStatistics> modules = new TreeMap<>();
+
+    /**
+     * Count a visited module, replacing its earlier statistics.
+     *
+     * @param module The module
+     */
+    public void add(ModuleDeclaration module)
+    {
+        modules.put(module.getSource(), CoverageStatistics.of(module));
+    }
+
+    /**
+     * Set the statistics of a module.
+     *
+     * @param source The module source
+     * @param statistics The statistics of the module
+     */
+    public void put(String source, CoverageStatistics statistics)
+    {
+        modules.put(source, statistics);
+    }
+
+    /**
+     * Add the modules of another report, replacing the statistics of the
+     * modules in both.
+     *
+     * @param other A partial report
+     * @return This report
+     */
+    public CoverageReport merge(CoverageReport other)
+    {
+        modules.putAll(other.modules);
+        return this;
+    }
+
+    /**
+     * @return The statistics of each module by source, in source order
+     */
+    public SortedMap<String, CoverageStatistics> getModules() {
+        return Collections.unmodifiableSortedMap(modules);
+    }
+
+    /**
+     * @return The sum of the statistics of the modules
+     */
+    public CoverageStatistics getTotal()
+    {
+        CoverageStatistics total = new CoverageStatistics();
+        for (CoverageStatistics statistics : modules.values()) {
+            total.add(statistics);
+        }
+        return total;
+    }
+
+    /**
+     * Write the report as a JSON object with the <code>total</code> and a
+     * <code>modules</code> array.
+     *
+     * @param writer The writer receiving the JSON text
+     * @throws java.io.IOException when the report can not be written
+     */
+    public void writeJson(Writer writer) throws IOException
+    {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("total");
+        writeJson(json, null, getTotal());
+        json.name("modules").beginArray();
+        for (Map.Entry<String, CoverageStatistics> entry : modules.entrySet()) {
+            writeJson(json, entry.getKey(), entry.getValue());
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param source The module source, or null for the total
+     * @param statistics The statistics
+     * @throws IOException when the statistics can not be written
+     */
+    private static void writeJson(JsonWriter json, String source, CoverageStatistics statistics) throws IOException
+    {
+        json.beginObject();
+        json.member(SOURCE, source);
+        json.name(COVERAGE).value(statistics.getCoverage());
+        long[] counts = statistics.getCounts();
+        for (int i = 0; i < counts.length; i++) {
+            json.member(CoverageStatistics.COUNTS.get(i), counts[i]);
+        }
+        json.endObject();
+    }
+
+    /**
+     * Write the report as CSV: a header, a row per module and a last row with
+     * an empty source for the total.
+     *
+     * @param writer The writer receiving the CSV text
+     * @throws java.io.IOException when the report can not be written
+     */
+    public void writeCsv(Writer writer) throws IOException
+    {
+        writer.write(SOURCE);
+        for (String name : CoverageStatistics.COUNTS) {
+            writer.write(',');
+            writer.write(name);
+        }
+        writer.write(',');
+        writer.write(COVERAGE);
+        writer.write('\n');
+        for (Map.Entry<String, CoverageStatistics> entry : modules.entrySet()) {
+            writeCsv(writer, entry.getKey(), entry.getValue());
+        }
+        writeCsv(writer, "", getTotal());
+        writer.flush();
+    }
+
+    /**
+     *
+     * @param writer The CSV writer
+     * @param source The module source, empty for the total
+     * @param statistics The statistics
+     * @throws IOException when the row can not be written
+     */
+    private static void writeCsv(Writer writer, String source, CoverageStatistics statistics) throws IOException
+    {
+        writer.write(csvField(source));
+        for (long count : statistics.getCounts()) {
+            writer.write(',');
+            writer.write(Long.toString(count));
+        }
+        writer.write(',');
+        writer.write(String.format(Locale.ROOT, "%.4f", statistics.getCoverage()));
+        writer.write('\n');
+    }
+
+    /**
+     *
+     * @param value A field value
+     * @return The value, quoted when it holds a separator, quote or line break
+     */
+    private static String csvField(String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Read the module rows of a report written by {@link #writeCsv(Writer)}.
+     * The total and the coverage column are computed again from the modules.
+     *
+     * @param reader The CSV text
+     * @return The report
+     * @throws java.io.IOException when the report can not be read
+     */
+    public static CoverageReport readCsv(Reader reader) throws IOException
+    {
+        BufferedReader in = new BufferedReader(reader);
+        List<String> header = readCsvRecord(in);
+        if (header == null || header.isEmpty() || !SOURCE.equals(header.get(0))) {
+            throw new XQDocRuntimeException("Not a coverage report, expected a header starting with " + SOURCE);
+        }
+        int[] columns = new int[CoverageStatistics.COUNTS.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = header.indexOf(CoverageStatistics.COUNTS.get(i));
+        }
+        CoverageReport report = new CoverageReport();
+        List<String> record;
+        while ((record = readCsvRecord(in)) != null) {
+            if (record.get(0).isEmpty()) {
+                // The total, or a blank line
+                continue;
+            }
+            long[] counts = new long[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] >= 0 && columns[i] < record.size()) {
+                    try {
+                        counts[i] = Long.parseLong(record.get(columns[i]).trim());
+                    } catch (NumberFormatException ex) {
+                        throw new XQDocRuntimeException("Bad " + header.get(columns[i]) + " of " + record.get(0) + " in the coverage report", ex);
+                    }
+                }
+            }
+            report.put(record.get(0), new CoverageStatistics(counts));
+        }
+        return report;
+    }
+
+    /**
+     *
+     * @param in The CSV text
+     * @return The fields of the next record, or null at the end
+     * @throws IOException when the text can not be read
+     */
+    private static List<String> readCsvRecord(BufferedReader in) throws IOException
+    {
+        int c = in.read();
+        if (c < 0) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (c >= 0) {
+            if (quoted) {
+                if (c == '"') {
+                    in.mark(1);
+                    int next = in.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        in.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = in.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Write the report to a file, as CSV when its name ends with
+     * <code>.csv</code> and as JSON otherwise.
+     *
+     * @param file The report file
+     * @throws java.io.IOException when the report can not be written
+     */
+    public void write(Path file) throws IOException
+    {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (isCsv(file)) {
+                writeCsv(writer);
+            } else {
+                writeJson(writer);
+            }
+        }
+    }
+
+    /**
+     * Read a CSV report from a file.
+     *
+     * @param file The report file
+     * @return The report
+     * @throws java.io.IOException when the report can not be read
+     */
+    public static CoverageReport read(Path file) throws IOException
+    {
+        if (!isCsv(file)) {
+            throw new XQDocRuntimeException("Coverage reports are merged from their CSV form, not " + file);
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return readCsv(reader);
+        }
+    }
+
+    /**
+     *
+     * @param file A report file
+     * @return true when the file is named as CSV
+     */
+    private static boolean isCsv(Path file)
+    {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The modules and the total coverage
+     */
+    @Override
+    public String toString()
+    {
+        return "coverage: " + modules.size() + " modules, " + getTotal();
+    }
+}
@@ -0,0 +1,257 @@
+package org.xqdoc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * <p>CoverageStatistics class.</p>
+ *
+ * The documentation coverage of a module, or the sum over several modules:
+ * the functions and variables declared and how many of them have an xqDoc
+ * comment, the parameters named by an <code>@param</code> tag, the documented
+ * functions without an <code>@return</code> and the declarations marked
+ * <code>@deprecated</code>.  The counts are sums, so the statistics of shards
+ * of a repository are combined with {@link #add(CoverageStatistics)}.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class CoverageStatistics {
+
+    /** The names of the counts, in the order of {@link #getCounts()} */
+    public static final List<String> COUNTS = Collections.unmodifiableList(Arrays.asList(
+            "modules", "documentedModules",
+            "functions", "documentedFunctions", "privateFunctions", "deprecatedFunctions",
+            "parameters", "documentedParameters", "functionsMissingParam", "functionsMissingReturn",
+            "variables", "documentedVariables", "deprecatedVariables"));
+
+    private static final int MODULES = 0;
+    private static final int DOCUMENTED_MODULES = 1;
+    private static final int FUNCTIONS = 2;
+    private static final int DOCUMENTED_FUNCTIONS = 3;
+    private static final int PRIVATE_FUNCTIONS = 4;
+    private static final int DEPRECATED_FUNCTIONS = 5;
+    private static final int PARAMETERS = 6;
+    private static final int DOCUMENTED_PARAMETERS = 7;
+    private static final int FUNCTIONS_MISSING_PARAM = 8;
+    private static final int FUNCTIONS_MISSING_RETURN = 9;
+    private static final int VARIABLES = 10;
+    private static final int DOCUMENTED_VARIABLES = 11;
+    private static final int DEPRECATED_VARIABLES = 12;
+
+    private final long[] counts;
+
+    /**
+     * <p>Constructor for CoverageStatistics, with every count 0.</p>
+     */
+    public CoverageStatistics()
+    {
+        this.counts = new long[COUNTS.size()];
+    }
+
+    /**
+     * @param counts The counts, in the order of {@link #COUNTS}
+     */
+    public CoverageStatistics(long[] counts)
+    {
+        if (counts.length != COUNTS.size()) {
+            throw new XQDocRuntimeException("Expected " + COUNTS.size() + " coverage counts, found " + counts.length);
+        }
+        this.counts = counts.clone();
+    }
+
+    /**
+     * Count the declarations of a visited module.
+     *
+     * @param module The module
+     * @return The coverage of the module
+     */
+    public static CoverageStatistics of(ModuleDeclaration module)
+    {
+        CoverageStatistics statistics = new CoverageStatistics();
+        long[] counts = statistics.counts;
+        counts[MODULES] = 1;
+        if (module.getComment() != null) {
+            counts[DOCUMENTED_MODULES] = 1;
+        }
+        for (FunctionDeclaration function : module.getFunctions()) {
+            counts[FUNCTIONS]++;
+            counts[PARAMETERS] += function.getParameters().size();
+            for (AnnotationDeclaration annotation : function.getAnnotations()) {
+                if ("private".equals(annotation.getName())) {
+                    counts[PRIVATE_FUNCTIONS]++;
+                    break;
+                }
+            }
+            CommentDeclaration comment = function.getComment();
+            if (comment == null) {
+                continue;
+            }
+            counts[DOCUMENTED_FUNCTIONS]++;
+            if (!comment.getEntries("deprecated").isEmpty()) {
+                counts[DEPRECATED_FUNCTIONS]++;
+            }
+            Set<String> documented = new HashSet<>();
+            for (String entry : comment.getEntries("param")) {
+                documented.add(ParamDocumentationAnalyzer.paramName(entry));
+            }
+            boolean missingParam = false;
+            for (ParameterDeclaration parameter : function.getParameters()) {
+                if (documented.contains(parameter.getName())) {
+                    counts[DOCUMENTED_PARAMETERS]++;
+                } else {
+                    missingParam = true;
+                }
+            }
+            if (missingParam) {
+                counts[FUNCTIONS_MISSING_PARAM]++;
+            }
+            // A function declared to return the empty sequence has nothing to describe
+            if (comment.getEntries("return").isEmpty() && !"empty-sequence()".equals(function.getReturnType())) {
+                counts[FUNCTIONS_MISSING_RETURN]++;
+            }
+        }
+        for (VariableDeclaration variable : module.getVariables()) {
+            counts[VARIABLES]++;
+            CommentDeclaration comment = variable.getComment();
+            if (comment != null) {
+                counts[DOCUMENTED_VARIABLES]++;
+                if (!comment.getEntries("deprecated").isEmpty()) {
+                    counts[DEPRECATED_VARIABLES]++;
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Add the counts of other statistics to these.
+     *
+     * @param other The statistics of other modules
+     * @return These statistics
+     */
+    public CoverageStatistics add(CoverageStatistics other)
+    {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        return this;
+    }
+
+    /**
+     * @return A copy of the counts, in the order of {@link #COUNTS}
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @param name One of the {@link #COUNTS}
+     * @return The count
+     */
+    public long getCount(String name)
+    {
+        int index = COUNTS.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown coverage count " + name);
+        }
+        return counts[index];
+    }
+
+    /**
+     * @return The modules counted
+     */
+    public long getModules() {
+        return counts[MODULES];
+    }
+
+    /**
+     * @return The functions declared
+     */
+    public long getFunctions() {
+        return counts[FUNCTIONS];
+    }
+
+    /**
+     * @return The functions with an xqDoc comment
+     */
+    public long getDocumentedFunctions() {
+        return counts[DOCUMENTED_FUNCTIONS];
+    }
+
+    /**
+     * @return The variables declared
+     */
+    public long getVariables() {
+        return counts[VARIABLES];
+    }
+
+    /**
+     * @return The variables with an xqDoc comment
+     */
+    public long getDocumentedVariables() {
+        return counts[DOCUMENTED_VARIABLES];
+    }
+
+    /**
+     * @return The documented functions with a parameter not named by an <code>@param</code>
+     */
+    public long getFunctionsMissingParam() {
+        return counts[FUNCTIONS_MISSING_PARAM];
+    }
+
+    /**
+     * @return The documented functions without an <code>@return</code>
+     */
+    public long getFunctionsMissingReturn() {
+        return counts[FUNCTIONS_MISSING_RETURN];
+    }
+
+    /**
+     * @return The functions and variables marked <code>@deprecated</code>
+     */
+    public long getDeprecated() {
+        return counts[DEPRECATED_FUNCTIONS] + counts[DEPRECATED_VARIABLES];
+    }
+
+    /**
+     * @return The share of the functions and variables with an xqDoc comment,
+     *         from 0 to 1, and 1 when there are none
+     */
+    public double getCoverage()
+    {
+        long declarations = counts[FUNCTIONS] + counts[VARIABLES];
+        return (declarations == 0) ? 1.0 : (double) (counts[DOCUMENTED_FUNCTIONS] + counts[DOCUMENTED_VARIABLES]) / declarations;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other)
+    {
+        return (other instanceof CoverageStatistics) && Arrays.equals(counts, ((CoverageStatistics) other).counts);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(counts);
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The coverage and the main counts
+     */
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ROOT, "%.1f%% documented, %d of %d functions, %d of %d variables, %d missing @param, %d missing @return, %d deprecated",
+                getCoverage() * 100, getDocumentedFunctions(), getFunctions(), getDocumentedVariables(), getVariables(),
+                getFunctionsMissingParam(), getFunctionsMissingReturn(), getDeprecated());
+    }
+}
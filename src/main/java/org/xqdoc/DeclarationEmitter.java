@@ -0,0 +1,79 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * <p>DeclarationEmitter class.</p>
+ *
+ * A parse listener handing every declaration of a prolog to an
+ * {@link XQueryVisitor} as soon as the parser has completed it, and then
+ * detaching the declaration from the parse tree so that its subtree can be
+ * garbage collected while the rest of the module is parsed.  The memory
+ * held by the parse tree then depends on the largest declaration rather
+ * than on the whole module.
+ *
+ * The declarations are handed over in source order, which is the order the
+ * visitor would visit them in.  Once parsing is complete the pruned module
+ * tree is visited as usual; it still has the module declaration, the xqDoc
+ * comments of the module and the query body.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class DeclarationEmitter implements ParseTreeListener {
+
+    private final XQueryVisitor visitor;
+
+    private int declarations = 0;
+
+    /**
+     * <p>Constructor for DeclarationEmitter.</p>
+     *
+     * @param visitor The visitor building the xqDoc of the module
+     */
+    public DeclarationEmitter(XQueryVisitor visitor)
+    {
+        this.visitor = visitor;
+    }
+
+    /**
+     * @return The number of declarations handed to the visitor and detached
+     */
+    public int getDeclarations() {
+        return declarations;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx)
+    {
+        if (ctx instanceof XQueryParser.ModuleDeclContext) {
+            // The module prefix is needed to resolve the names of the declarations that follow
+            visitor.declareModule((XQueryParser.ModuleDeclContext) ctx);
+        } else if (ctx.getParent() instanceof XQueryParser.PrologContext) {
+            visitor.visit(ctx);
+            // The declaration is the last child of the prolog until the parser moves on.  The
+            // parser still returns to the prolog through ctx.parent, so only the downward link is cut.
+            ((ParserRuleContext) ctx.getParent()).removeLastChild();
+            declarations++;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visitTerminal(TerminalNode node) {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+    }
+}
@@ -1,22 +1,42 @@
 package org.xqdoc;
 
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.List;
 
 /**
  * <p>ExistDBProcessor class.</p>
  *
+ * An instance may be shared by several threads.  Each thread reuses its own
+ * parser, visitor and buffers from one module to the next.
+ *
  * @author lcahlander
  * @version $Id: $Id
  */
 public class ExistDBProcessor
 {
+
+    private final ProfileProcessor processor = new ProfileProcessor(NamespaceProfiles.getDefault().get("exist-db"));
+
+    /**
+     * The parser settings (error recovery and resource limits) used for every
+     * module.
+     *
+     * @return The module parser holding the settings of this processor
+     */
+    public ModuleParser getModuleParser() {
+        return processor.getSettings();
+    }
+
+    /**
+     * @return The diagnostics of the last module processed by the calling thread
+     */
+    public List<XQDocDiagnostic> getDiagnostics() {
+        return processor.getDiagnostics();
+    }
+
     /**
      * <p>process.</p>
      *
@@ -25,41 +45,24 @@ public class ExistDBProcessor
      * @throws javax.xml.parsers.ParserConfigurationException a
      * @throws java.io.IOException a
      * @throws org.xml.sax.SAXException a
+     * @throws org.xqdoc.XQDocParseAbortedException when the module exceeds the error recovery or resource limits
      */
     public String process(String txt) throws ParserConfigurationException, IOException, SAXException {
-        HashMap uriMap = new HashMap();
-        uriMap.put("lucene", "http://exist-db.org/xquery/lucene");
-        uriMap.put("ngram", "http://exist-db.org/xquery/ngram");
-        uriMap.put("sort", "http://exist-db.org/xquery/sort");
-        uriMap.put("range", "http://exist-db.org/xquery/range");
-        uriMap.put("spatial", "http://exist-db.org/xquery/spatial");
-        uriMap.put("inspection", "http://exist-db.org/xquery/inspection");
-        uriMap.put("mail", "http://exist-db.org/xquery/mail");
-        uriMap.put("request", "http://exist-db.org/xquery/request");
-        uriMap.put("response", "http://exist-db.org/xquery/response");
-        uriMap.put("sm", "http://exist-db.org/xquery/securitymanager");
-        uriMap.put("session", "http://exist-db.org/xquery/session");
-        uriMap.put("system", "http://exist-db.org/xquery/system");
-        uriMap.put("transform", "http://exist-db.org/xquery/transform");
-        uriMap.put("util", "http://exist-db.org/xquery/util");
-        uriMap.put("validation", "http://exist-db.org/xquery/validation");
-        uriMap.put("xmldb", "http://exist-db.org/xquery/xmldb");
-        uriMap.put("map", "http://www.w3.org/2005/xpath-functions/map");
-        uriMap.put("math", "http://www.w3.org/2005/xpath-functions/math");
-        uriMap.put("array", "http://www.w3.org/2005/xpath-functions/array");
-        uriMap.put("process", "http://exist-db.org/xquery/process");
-        uriMap.put("xs", "http://www.w3.org/2001/XMLSchema"); // XML Schema namespace
-        CharStream inputStream = CharStreams.fromString(txt);
-        org.xqdoc.XQueryLexer markupLexer = new org.xqdoc.XQueryLexer(inputStream);
-        CommonTokenStream commonTokenStream = new CommonTokenStream(markupLexer);
-        org.xqdoc.XQueryParser markupParser = new org.xqdoc.XQueryParser(commonTokenStream);
-
-        org.xqdoc.XQueryParser.ModuleContext fileContext = markupParser.module();
-        StringBuilder buffer = new StringBuilder();
-
+        return process(txt, OutputFormat.XML);
+    }
 
-        XQueryVisitor visitor = new XQueryVisitor(buffer, uriMap);
-        visitor.visit(fileContext);
-        return DocumentUtility.getStringFromDoc(DocumentUtility.getDocumentFromBuffer(buffer));
+    /**
+     * <p>process.</p>
+     *
+     * @param txt The XQuery source as a String
+     * @param format The output format
+     * @return The xqDoc XML Document or its JSON equivalent as a String
+     * @throws javax.xml.parsers.ParserConfigurationException a
+     * @throws java.io.IOException a
+     * @throws org.xml.sax.SAXException a
+     * @throws org.xqdoc.XQDocParseAbortedException when the module exceeds the error recovery or resource limits
+     */
+    public String process(String txt, OutputFormat format) throws ParserConfigurationException, IOException, SAXException {
+        return processor.process(txt, format);
     }
 }
@@ -0,0 +1,246 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>FunctionDeclaration class.</p>
+ *
+ * A function declared in the prolog of a module: its signature, annotations
+ * and xqDoc comment, with the functions it calls.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class FunctionDeclaration {
+
+    private final String uri;
+    private final String prefix;
+    private final String localName;
+    private final int arity;
+    private ModuleDeclaration module = null;
+    private List<ParameterDeclaration> parameters = new ArrayList<>();
+    private String returnType = null;
+    private String returnOccurrence = null;
+    private List<AnnotationDeclaration> annotations = new ArrayList<>();
+    private CommentDeclaration comment = null;
+    private String signature = null;
+    private BodyText body = null;
+    private List<FunctionInvocation> invocations = new ArrayList<>();
+    private List<VariableReference> variableReferences = new ArrayList<>();
+
+    /**
+     * <p>Constructor for FunctionDeclaration.</p>
+     *
+     * @param uri The namespace of the function, or null when it can not be determined
+     * @param prefix The prefix of the function name, or null
+     * @param localName The local name of the function
+     * @param arity The number of parameters
+     */
+    public FunctionDeclaration(String uri, String prefix, String localName, int arity)
+    {
+        this.uri = uri;
+        this.prefix = prefix;
+        this.localName = localName;
+        this.arity = arity;
+    }
+
+    /**
+     * @return The namespace of the function, or null when it can not be determined
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The prefix of the function name, or null
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return The local name of the function
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return The number of parameters
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return The module declaring the function
+     */
+    public ModuleDeclaration getModule() {
+        return module;
+    }
+
+    /**
+     * @param module The module declaring the function
+     */
+    void setModule(ModuleDeclaration module) {
+        this.module = module;
+    }
+
+    /**
+     * @return The parameters of the function
+     */
+    public List<ParameterDeclaration> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @param parameter A parameter of the function
+     */
+    public void addParameter(ParameterDeclaration parameter) {
+        parameters.add(parameter);
+    }
+
+    /**
+     * @return The item type of the result, or null when not declared
+     */
+    public String getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * @return The occurrence indicator (?|*|+) of the result, or null
+     */
+    public String getReturnOccurrence() {
+        return returnOccurrence;
+    }
+
+    /**
+     * @param returnType The item type of the result
+     * @param returnOccurrence The occurrence indicator of the result, or null
+     */
+    public void setReturnType(String returnType, String returnOccurrence) {
+        this.returnType = returnType;
+        this.returnOccurrence = returnOccurrence;
+    }
+
+    /**
+     * @return The annotations of the function
+     */
+    public List<AnnotationDeclaration> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * @param annotation An annotation of the function
+     */
+    public void addAnnotation(AnnotationDeclaration annotation) {
+        annotations.add(annotation);
+    }
+
+    /**
+     * @return The xqDoc comment of the function, or null
+     */
+    public CommentDeclaration getComment() {
+        return comment;
+    }
+
+    /**
+     * @param tag A comment tag such as description or param
+     * @return The entries of the xqDoc comment for the tag, in source order
+     */
+    public List<String> getComment(String tag)
+    {
+        return (comment != null) ? comment.getEntries(tag) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @param comment The xqDoc comment of the function
+     */
+    public void setComment(CommentDeclaration comment) {
+        this.comment = comment;
+    }
+
+    /**
+     * @return The signature as written to the xqdoc:signature element
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @param signature The signature as written to the xqdoc:signature element
+     */
+    public void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * @return The source of the declaration
+     */
+    public BodyText getBody() {
+        return body;
+    }
+
+    /**
+     * @param body The source of the declaration
+     */
+    public void setBody(BodyText body) {
+        this.body = body;
+    }
+
+    /**
+     * @return The distinct calls made from the body of the function
+     */
+    public List<FunctionInvocation> getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @param invocation A call made from the body of the function
+     */
+    public void addInvocation(FunctionInvocation invocation) {
+        invocations.add(invocation);
+    }
+
+    /**
+     * @return The global variables referenced from the body of the function
+     */
+    public List<VariableReference> getVariableReferences() {
+        return variableReferences;
+    }
+
+    /**
+     * @param reference A global variable referenced from the body of the function
+     */
+    public void addVariableReference(VariableReference reference) {
+        variableReferences.add(reference);
+    }
+
+    /**
+     * Drop the documentation of the function, keeping its name, arity, module
+     * and calls.
+     */
+    void releaseDocumentation()
+    {
+        parameters = new ArrayList<>();
+        returnType = null;
+        returnOccurrence = null;
+        annotations = new ArrayList<>();
+        comment = null;
+        signature = null;
+        body = null;
+        variableReferences = new ArrayList<>();
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The function as <code>Q{uri}local#arity</code>
+     */
+    public String toString()
+    {
+        return "Q{" + uri + "}" + localName + "#" + arity;
+    }
+}
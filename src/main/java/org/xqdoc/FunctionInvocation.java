@@ -0,0 +1,109 @@
+package org.xqdoc;
+
+/**
+ * <p>FunctionInvocation class.</p>
+ *
+ * A static function call found in a function body or in the query body of a
+ * main module.  Two invocations are equal when they call the same namespace,
+ * local name and arity, so that each distinct call is reported once.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class FunctionInvocation {
+
+    private final String uri;
+    private final String prefix;
+    private final String localName;
+    private final int arity;
+    private FunctionDeclaration declaration = null;
+
+    /**
+     * <p>Constructor for FunctionInvocation.</p>
+     *
+     * @param uri The namespace of the called function
+     * @param prefix The prefix used in the call, or null
+     * @param localName The local name of the called function
+     * @param arity The number of arguments of the call
+     */
+    public FunctionInvocation(String uri, String prefix, String localName, int arity)
+    {
+        this.uri = uri;
+        this.prefix = prefix;
+        this.localName = localName;
+        this.arity = arity;
+    }
+
+    /**
+     * @return The namespace of the called function
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The prefix used in the call, or null
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return The local name of the called function
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return The number of arguments of the call
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return The declaration the call resolved to in batch mode, or null
+     */
+    public FunctionDeclaration getDeclaration() {
+        return declaration;
+    }
+
+    /**
+     * @param declaration The declaration the call resolved to
+     */
+    public void setDeclaration(FunctionDeclaration declaration) {
+        this.declaration = declaration;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof FunctionInvocation)) {
+            return false;
+        }
+        FunctionInvocation invocation = (FunctionInvocation) other;
+        return arity == invocation.arity
+                && uri.equals(invocation.uri)
+                && localName.equals(invocation.localName)
+                && ((prefix == null) ? invocation.prefix == null : prefix.equals(invocation.prefix));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode()
+    {
+        return (uri.hashCode() * 31 + localName.hashCode()) * 31 + arity;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The call as <code>Q{uri}local#arity</code>
+     */
+    public String toString()
+    {
+        return "Q{" + uri + "}" + localName + "#" + arity;
+    }
+}
@@ -0,0 +1,195 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>FunctionTable class.</p>
+ *
+ * The functions declared by all the modules of a batch run, keyed by
+ * (namespace id, local name, arity).  Namespaces are interned to small
+ * integer ids so that the keys are cheap to hash and compare.  Modules may be
+ * registered from several threads at once; once every module is registered,
+ * the calls of each module are resolved with one lookup per call, which keeps
+ * the whole pass linear in the size of the repository.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class FunctionTable {
+
+    private final ConcurrentMap<String, Integer> namespaceIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextNamespaceId = new AtomicInteger();
+    private final ConcurrentMap<Key, FunctionDeclaration> functions = new ConcurrentHashMap<>();
+    private final List<FunctionDeclaration> duplicates = new ArrayList<>();
+
+    /**
+     * Register the functions declared by a module.  Thread-safe.  Registering a
+     * module with the same source again replaces its functions.
+     *
+     * @param module The module
+     */
+    public void register(ModuleDeclaration module)
+    {
+        for (FunctionDeclaration function : module.getFunctions()) {
+            if (function.getUri() == null) {
+                continue;
+            }
+            Key key = new Key(namespaceId(function.getUri()), function.getLocalName(), function.getArity());
+            FunctionDeclaration existing = functions.putIfAbsent(key, function);
+            if (existing == null || existing == function) {
+                continue;
+            }
+            if (isSameSource(existing, function)) {
+                // The module has been processed again
+                functions.replace(key, existing, function);
+            } else {
+                synchronized (duplicates) {
+                    duplicates.add(function);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the declaration of a function.
+     *
+     * @param uri The namespace of the function
+     * @param localName The local name of the function
+     * @param arity The number of parameters
+     * @return The declaration, or null when no registered module declares it
+     */
+    public FunctionDeclaration lookup(String uri, String localName, int arity)
+    {
+        Integer id = namespaceIds.get(uri);
+        if (id == null) {
+            return null;
+        }
+        return functions.get(new Key(id, localName, arity));
+    }
+
+    /**
+     * @param uri A namespace
+     * @return true when a registered module declares functions in the namespace
+     */
+    public boolean isDeclaredNamespace(String uri)
+    {
+        return namespaceIds.containsKey(uri);
+    }
+
+    /**
+     * Resolve the calls of a module against the table.  A call into a namespace
+     * that no registered module declares functions in (such as the built-in
+     * functions of the XQuery processor) is not considered unresolved.
+     *
+     * @param module The module
+     * @return The calls into repository namespaces that match no declared function and arity
+     */
+    public List<FunctionInvocation> resolve(ModuleDeclaration module)
+    {
+        List<FunctionInvocation> unresolved = new ArrayList<>();
+        resolve(module.getInvocations(), unresolved);
+        for (FunctionDeclaration function : module.getFunctions()) {
+            resolve(function.getInvocations(), unresolved);
+        }
+        return unresolved;
+    }
+
+    /**
+     * @return The functions declared more than once; the first registration is kept in the table
+     */
+    public List<FunctionDeclaration> getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return The number of functions in the table
+     */
+    public int size() {
+        return functions.size();
+    }
+
+    /**
+     *
+     * @param invocations The calls to resolve
+     * @param unresolved The list receiving the unresolved calls
+     */
+    private void resolve(List<FunctionInvocation> invocations, List<FunctionInvocation> unresolved)
+    {
+        for (FunctionInvocation invocation : invocations) {
+            FunctionDeclaration declaration = lookup(invocation.getUri(), invocation.getLocalName(), invocation.getArity());
+            invocation.setDeclaration(declaration);
+            if (declaration == null && isDeclaredNamespace(invocation.getUri())) {
+                unresolved.add(invocation);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param first A function
+     * @param second Another function with the same key
+     * @return true when both come from the same module source
+     */
+    private static boolean isSameSource(FunctionDeclaration first, FunctionDeclaration second)
+    {
+        String firstSource = (first.getModule() != null) ? first.getModule().getSource() : null;
+        String secondSource = (second.getModule() != null) ? second.getModule().getSource() : null;
+        return firstSource != null && firstSource.equals(secondSource);
+    }
+
+    /**
+     *
+     * @param uri A namespace
+     * @return The id of the namespace, allocated on first use
+     */
+    private int namespaceId(String uri)
+    {
+        Integer id = namespaceIds.get(uri);
+        if (id == null) {
+            Integer allocated = nextNamespaceId.getAndIncrement();
+            id = namespaceIds.putIfAbsent(uri, allocated);
+            if (id == null) {
+                id = allocated;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * The key of a function: namespace id, local name and arity.
+     */
+    private static final class Key {
+        private final int namespaceId;
+        private final String localName;
+        private final int arity;
+        private final int hash;
+
+        Key(int namespaceId, String localName, int arity)
+        {
+            this.namespaceId = namespaceId;
+            this.localName = localName;
+            this.arity = arity;
+            this.hash = (namespaceId * 31 + localName.hashCode()) * 31 + arity;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return namespaceId == key.namespaceId && arity == key.arity && localName.equals(key.localName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,716 @@
+package org.xqdoc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>HtmlGenerator class.</p>
+ *
+ * Renders a static HTML site from the {@link ModuleDeclaration}s of a batch
+ * run: a page per module, a module index and a function index.  Calls that
+ * have been resolved against the {@link FunctionTable} are linked to the
+ * declaring function, and each function lists the functions calling it.
+ *
+ * Module pages are rendered in parallel and written straight to disk.  The
+ * fingerprint of each page (the content hash of the module and of the modules
+ * it links to) is kept in a manifest in the output directory, and a page whose
+ * fingerprint has not changed is not rendered again.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class HtmlGenerator {
+
+    /** The name of the manifest of the page fingerprints */
+    public static final String MANIFEST = ".xqdoc-html.properties";
+
+    // Changing the page layout must change the fingerprints
+    private static final String LAYOUT_VERSION = "1";
+
+    private static final String STYLESHEET = "xqdoc.css";
+
+    private final Path outputDirectory;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger pagesWritten = new AtomicInteger();
+
+    private final AtomicInteger pagesSkipped = new AtomicInteger();
+
+    /**
+     * <p>Constructor for HtmlGenerator.</p>
+     *
+     * @param outputDirectory The directory the site is written to
+     */
+    public HtmlGenerator(Path outputDirectory)
+    {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Set the number of pages rendered at the same time.
+     *
+     * @param threads The number of threads, defaults to the number of processors
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return The number of module pages written by the last run
+     */
+    public int getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * @return The number of module pages left unchanged by the last run
+     */
+    public int getPagesSkipped() {
+        return pagesSkipped.get();
+    }
+
+    /**
+     * Render the site.  The calls of the modules should have been resolved
+     * with {@link BatchProcessor#resolveCalls(Collection)} so that they can be linked.
+     *
+     * @param modules Every module of the repository
+     * @throws java.io.IOException when a page can not be written
+     */
+    public void generate(Collection<ModuleDeclaration> modules) throws IOException
+    {
+        pagesWritten.set(0);
+        pagesSkipped.set(0);
+        Files.createDirectories(outputDirectory);
+
+        final Map<FunctionDeclaration, List<FunctionDeclaration>> callers = callers(modules);
+        final Properties previous = readManifest();
+        final Properties manifest = new Properties();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final ModuleDeclaration module : modules) {
+            final String fingerprint = fingerprint(module, callers);
+            manifest.setProperty(module.getSource(), fingerprint);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    Path page = outputDirectory.resolve(pageName(module.getSource()));
+                    if (fingerprint.equals(previous.getProperty(module.getSource())) && Files.exists(page)) {
+                        pagesSkipped.incrementAndGet();
+                    } else {
+                        writeModulePage(page, module, callers);
+                        pagesWritten.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+        for (String source : previous.stringPropertyNames()) {
+            if (manifest.getProperty(source) == null) {
+                // The module has been deleted from the repository
+                Files.deleteIfExists(outputDirectory.resolve(pageName(source)));
+            }
+        }
+
+        writeStylesheet();
+        writeModuleIndex(modules);
+        writeFunctionIndex(modules);
+        try (OutputStream out = Files.newOutputStream(outputDirectory.resolve(MANIFEST))) {
+            manifest.store(out, "xqDoc HTML page fingerprints");
+        }
+    }
+
+    /**
+     * Return the name of the HTML page of a module source.
+     *
+     * @param source The module source relative to the repository root
+     * @return The page name relative to the output directory
+     */
+    public static String pageName(String source)
+    {
+        int dot = source.lastIndexOf('.');
+        int slash = source.lastIndexOf('/');
+        return ((dot > slash) ? source.substring(0, dot) : source) + ".html";
+    }
+
+    /**
+     *
+     * @param tasks The tasks to run on the thread pool
+     * @throws IOException when a task fails to write its page
+     */
+    private void run(List<Callable<Void>> tasks) throws IOException
+    {
+        if (threads <= 1 || tasks.size() <= 1) {
+            try {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            } catch (IOException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new XQDocRuntimeException("Failed to render the site", ex);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering " + outputDirectory, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new XQDocRuntimeException("Failed to render the site", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     *
+     * @param modules The modules
+     * @return The functions calling each function, from the resolved calls
+     */
+    private static Map<FunctionDeclaration, List<FunctionDeclaration>> callers(Collection<ModuleDeclaration> modules)
+    {
+        Map<FunctionDeclaration, List<FunctionDeclaration>> callers = new HashMap<>();
+        for (ModuleDeclaration module : modules) {
+            for (FunctionDeclaration function : module.getFunctions()) {
+                for (FunctionInvocation invocation : function.getInvocations()) {
+                    if (invocation.getDeclaration() != null) {
+                        List<FunctionDeclaration> list = callers.get(invocation.getDeclaration());
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            callers.put(invocation.getDeclaration(), list);
+                        }
+                        list.add(function);
+                    }
+                }
+            }
+        }
+        return callers;
+    }
+
+    /**
+     * The fingerprint of a module page covers every module whose content
+     * appears on the page: the module itself, the modules it calls and the
+     * modules calling it.
+     *
+     * @param module The module
+     * @param callers The functions calling each function
+     * @return The fingerprint of the page
+     */
+    private static String fingerprint(ModuleDeclaration module, Map<FunctionDeclaration, List<FunctionDeclaration>> callers)
+    {
+        Set<String> linked = new TreeSet<>();
+        for (FunctionInvocation invocation : allInvocations(module)) {
+            if (invocation.getDeclaration() != null) {
+                linked.add(moduleKey(invocation.getDeclaration().getModule()));
+            }
+        }
+        for (FunctionDeclaration function : module.getFunctions()) {
+            List<FunctionDeclaration> list = callers.get(function);
+            if (list != null) {
+                for (FunctionDeclaration caller : list) {
+                    linked.add(moduleKey(caller.getModule()));
+                }
+            }
+        }
+        StringBuilder buffer = new StringBuilder(LAYOUT_VERSION).append('\n').append(moduleKey(module));
+        for (String key : linked) {
+            buffer.append('\n').append(key);
+        }
+        if (module.getContentHash() == null) {
+            // Without a content hash the page is always rendered
+            buffer.append('\n').append(System.nanoTime());
+        }
+        return BatchProcessor.contentHash(buffer.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     *
+     * @param module A module
+     * @return The source and content hash of the module
+     */
+    private static String moduleKey(ModuleDeclaration module)
+    {
+        return module.getSource() + " " + module.getContentHash();
+    }
+
+    /**
+     *
+     * @param module A module
+     * @return The calls of the query body and of every function of the module
+     */
+    private static List<FunctionInvocation> allInvocations(ModuleDeclaration module)
+    {
+        List<FunctionInvocation> invocations = new ArrayList<>(module.getInvocations());
+        for (FunctionDeclaration function : module.getFunctions()) {
+            invocations.addAll(function.getInvocations());
+        }
+        return invocations;
+    }
+
+    /**
+     *
+     * @return The fingerprints of the previous run
+     * @throws IOException when the manifest can not be read
+     */
+    private Properties readManifest() throws IOException
+    {
+        Properties properties = new Properties();
+        Path manifest = outputDirectory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            try (InputStream in = Files.newInputStream(manifest)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     *
+     * @param page The page file
+     * @param module The module
+     * @param callers The functions calling each function
+     * @throws IOException when the page can not be written
+     */
+    private void writeModulePage(Path page, ModuleDeclaration module, Map<FunctionDeclaration, List<FunctionDeclaration>> callers) throws IOException
+    {
+        if (page.getParent() != null) {
+            Files.createDirectories(page.getParent());
+        }
+        String pageName = pageName(module.getSource());
+        try (Writer writer = Files.newBufferedWriter(page, StandardCharsets.UTF_8)) {
+            writeHeader(writer, pageName, module.getSource());
+            writer.write("<h1>");
+            writer.write(escape(module.getSource()));
+            writer.write("</h1>\n");
+            writer.write("<p class=\"module\">");
+            if (module.isLibrary()) {
+                writer.write("Library module <code>");
+                writer.write(escape(module.getPrefix()));
+                writer.write("</code> = <code>");
+                writer.write(escape(module.getUri()));
+                writer.write("</code>");
+            } else {
+                writer.write("Main module");
+            }
+            writer.write("</p>\n");
+            writeComment(writer, module.getComment("description"));
+            for (String author : module.getComment("author")) {
+                writer.write("<p class=\"author\">Author: ");
+                writer.write(escape(author));
+                writer.write("</p>\n");
+            }
+
+            if (!module.getImports().isEmpty()) {
+                writer.write("<h2>Imports</h2>\n<ul>\n");
+                for (ImportDeclaration importDeclaration : module.getImports()) {
+                    writer.write("<li>");
+                    writer.write(escape(importDeclaration.getImportType()));
+                    writer.write(" <code>");
+                    writer.write(escape(importDeclaration.getUri()));
+                    writer.write("</code>");
+                    if (importDeclaration.getLocation() != null) {
+                        writer.write(" at <code>");
+                        writer.write(escape(importDeclaration.getLocation()));
+                        writer.write("</code>");
+                    }
+                    writer.write("</li>\n");
+                }
+                writer.write("</ul>\n");
+            }
+
+            if (!module.getInvocations().isEmpty()) {
+                writer.write("<h2>Calls</h2>\n");
+                writeInvocations(writer, pageName, module.getInvocations());
+            }
+
+            if (!module.getFunctions().isEmpty()) {
+                writer.write("<h2>Functions</h2>\n");
+                for (FunctionDeclaration function : module.getFunctions()) {
+                    writeFunction(writer, pageName, function, callers.get(function));
+                }
+            }
+            writeFooter(writer);
+        }
+    }
+
+    /**
+     *
+     * @param writer The page
+     * @param pageName The name of the page
+     * @param function The function
+     * @param callers The functions calling the function, or null
+     * @throws IOException when the page can not be written
+     */
+    private void writeFunction(Writer writer, String pageName, FunctionDeclaration function, List<FunctionDeclaration> callers) throws IOException
+    {
+        writer.write("<section class=\"function\" id=\"");
+        writer.write(escape(anchor(function)));
+        writer.write("\">\n<h3>");
+        writer.write(escape(function.getLocalName()));
+        writer.write("#");
+        writer.write(Integer.toString(function.getArity()));
+        writer.write("</h3>\n");
+        writer.write("<pre class=\"signature\">");
+        for (AnnotationDeclaration annotation : function.getAnnotations()) {
+            writer.write(escape(annotation.toString()));
+            if (!annotation.getLiterals().isEmpty()) {
+                writer.write("(");
+                for (int i = 0; i < annotation.getLiterals().size(); i++) {
+                    writer.write((i > 0) ? ", \"" : "\"");
+                    writer.write(escape(annotation.getLiterals().get(i)));
+                    writer.write("\"");
+                }
+                writer.write(")");
+            }
+            writer.write("\n");
+        }
+        writer.write("declare function ");
+        writer.write(escape((function.getPrefix() != null) ? function.getPrefix() + ":" + function.getLocalName() : function.getLocalName()));
+        writer.write("(");
+        for (int i = 0; i < function.getParameters().size(); i++) {
+            if (i > 0) {
+                writer.write(", ");
+            }
+            writer.write(escape(function.getParameters().get(i).toString()));
+        }
+        writer.write(")");
+        if (function.getReturnType() != null) {
+            writer.write(" as ");
+            writer.write(escape(function.getReturnType()));
+            if (function.getReturnOccurrence() != null) {
+                writer.write(escape(function.getReturnOccurrence()));
+            }
+        }
+        writer.write("</pre>\n");
+        writeComment(writer, function.getComment("description"));
+        writeEntries(writer, "Parameters", function.getComment("param"));
+        writeEntries(writer, "Returns", function.getComment("return"));
+        writeEntries(writer, "Errors", function.getComment("error"));
+        writeEntries(writer, "Deprecated", function.getComment("deprecated"));
+
+        if (!function.getInvocations().isEmpty()) {
+            writer.write("<h4>Calls</h4>\n");
+            writeInvocations(writer, pageName, function.getInvocations());
+        }
+        if (callers != null) {
+            writer.write("<h4>Called by</h4>\n<ul>\n");
+            for (FunctionDeclaration caller : callers) {
+                writer.write("<li><a href=\"");
+                writer.write(escape(link(pageName, caller)));
+                writer.write("\">");
+                writer.write(escape(caller.getModule().getSource()));
+                writer.write(" ");
+                writer.write(escape(caller.getLocalName()));
+                writer.write("#");
+                writer.write(Integer.toString(caller.getArity()));
+                writer.write("</a></li>\n");
+            }
+            writer.write("</ul>\n");
+        }
+        writer.write("</section>\n");
+    }
+
+    /**
+     *
+     * @param writer The page
+     * @param pageName The name of the page
+     * @param invocations The calls
+     * @throws IOException when the page can not be written
+     */
+    private void writeInvocations(Writer writer, String pageName, List<FunctionInvocation> invocations) throws IOException
+    {
+        writer.write("<ul class=\"invoked\">\n");
+        for (FunctionInvocation invocation : invocations) {
+            String name = ((invocation.getPrefix() != null) ? invocation.getPrefix() + ":" : "")
+                    + invocation.getLocalName() + "#" + invocation.getArity();
+            writer.write("<li>");
+            if (invocation.getDeclaration() != null) {
+                writer.write("<a href=\"");
+                writer.write(escape(link(pageName, invocation.getDeclaration())));
+                writer.write("\">");
+                writer.write(escape(name));
+                writer.write("</a>");
+            } else {
+                writer.write("<span title=\"");
+                writer.write(escape(invocation.getUri()));
+                writer.write("\">");
+                writer.write(escape(name));
+                writer.write("</span>");
+            }
+            writer.write("</li>\n");
+        }
+        writer.write("</ul>\n");
+    }
+
+    /**
+     *
+     * @param writer The page
+     * @param paragraphs The text of the comment entries
+     * @throws IOException when the page can not be written
+     */
+    private static void writeComment(Writer writer, List<String> paragraphs) throws IOException
+    {
+        for (String paragraph : paragraphs) {
+            writer.write("<div class=\"description\">");
+            writer.write(escape(paragraph).replace("\n", "<br/>\n"));
+            writer.write("</div>\n");
+        }
+    }
+
+    /**
+     *
+     * @param writer The page
+     * @param title The title of the list
+     * @param entries The text of the comment entries
+     * @throws IOException when the page can not be written
+     */
+    private static void writeEntries(Writer writer, String title, List<String> entries) throws IOException
+    {
+        if (entries.isEmpty()) {
+            return;
+        }
+        writer.write("<h4>");
+        writer.write(title);
+        writer.write("</h4>\n<ul>\n");
+        for (String entry : entries) {
+            writer.write("<li>");
+            writer.write(escape(entry));
+            writer.write("</li>\n");
+        }
+        writer.write("</ul>\n");
+    }
+
+    /**
+     *
+     * @param modules The modules
+     * @throws IOException when the page can not be written
+     */
+    private void writeModuleIndex(Collection<ModuleDeclaration> modules) throws IOException
+    {
+        List<ModuleDeclaration> sorted = new ArrayList<>(modules);
+        Collections.sort(sorted, new Comparator<ModuleDeclaration>() {
+            @Override
+            public int compare(ModuleDeclaration first, ModuleDeclaration second) {
+                return first.getSource().compareTo(second.getSource());
+            }
+        });
+        try (Writer writer = Files.newBufferedWriter(outputDirectory.resolve("index.html"), StandardCharsets.UTF_8)) {
+            writeHeader(writer, "index.html", "Modules");
+            writer.write("<h1>Modules</h1>\n<table>\n");
+            for (ModuleDeclaration module : sorted) {
+                writer.write("<tr><td><a href=\"");
+                writer.write(escape(pageName(module.getSource())));
+                writer.write("\">");
+                writer.write(escape(module.getSource()));
+                writer.write("</a></td><td><code>");
+                writer.write(escape((module.getUri() != null) ? module.getUri() : ""));
+                writer.write("</code></td></tr>\n");
+            }
+            writer.write("</table>\n");
+            writeFooter(writer);
+        }
+    }
+
+    /**
+     *
+     * @param modules The modules
+     * @throws IOException when the page can not be written
+     */
+    private void writeFunctionIndex(Collection<ModuleDeclaration> modules) throws IOException
+    {
+        List<FunctionDeclaration> functions = new ArrayList<>();
+        for (ModuleDeclaration module : modules) {
+            functions.addAll(module.getFunctions());
+        }
+        Collections.sort(functions, new Comparator<FunctionDeclaration>() {
+            @Override
+            public int compare(FunctionDeclaration first, FunctionDeclaration second) {
+                int result = first.getLocalName().compareTo(second.getLocalName());
+                if (result == 0) {
+                    result = first.getArity() - second.getArity();
+                }
+                if (result == 0) {
+                    result = first.getModule().getSource().compareTo(second.getModule().getSource());
+                }
+                return result;
+            }
+        });
+        try (Writer writer = Files.newBufferedWriter(outputDirectory.resolve("functions.html"), StandardCharsets.UTF_8)) {
+            writeHeader(writer, "functions.html", "Functions");
+            writer.write("<h1>Functions</h1>\n<table>\n");
+            for (FunctionDeclaration function : functions) {
+                writer.write("<tr><td><a href=\"");
+                writer.write(escape(link("functions.html", function)));
+                writer.write("\">");
+                writer.write(escape(function.getLocalName()));
+                writer.write("#");
+                writer.write(Integer.toString(function.getArity()));
+                writer.write("</a></td><td><code>");
+                writer.write(escape((function.getUri() != null) ? function.getUri() : ""));
+                writer.write("</code></td><td>");
+                writer.write(escape(function.getModule().getSource()));
+                writer.write("</td></tr>\n");
+            }
+            writer.write("</table>\n");
+            writeFooter(writer);
+        }
+    }
+
+    /**
+     *
+     * @throws IOException when the stylesheet can not be written
+     */
+    private void writeStylesheet() throws IOException
+    {
+        Path stylesheet = outputDirectory.resolve(STYLESHEET);
+        if (Files.exists(stylesheet)) {
+            return;
+        }
+        try (Writer writer = Files.newBufferedWriter(stylesheet, StandardCharsets.UTF_8)) {
+            writer.write("body { font-family: sans-serif; margin: 2em; }\n");
+            writer.write("nav { margin-bottom: 1em; }\n");
+            writer.write("pre.signature { background: #f4f4f4; padding: 0.5em; }\n");
+            writer.write("section.function { border-top: 1px solid #ccc; margin-top: 1.5em; }\n");
+            writer.write("td { padding: 0.2em 1em 0.2em 0; }\n");
+        }
+    }
+
+    /**
+     *
+     * @param writer The page
+     * @param pageName The name of the page
+     * @param title The title of the page
+     * @throws IOException when the page can not be written
+     */
+    private static void writeHeader(Writer writer, String pageName, String title) throws IOException
+    {
+        String root = rootPath(pageName);
+        writer.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\"/>\n<title>");
+        writer.write(escape(title));
+        writer.write("</title>\n<link rel=\"stylesheet\" href=\"");
+        writer.write(root);
+        writer.write(STYLESHEET);
+        writer.write("\"/>\n</head>\n<body>\n<nav><a href=\"");
+        writer.write(root);
+        writer.write("index.html\">Modules</a> | <a href=\"");
+        writer.write(root);
+        writer.write("functions.html\">Functions</a></nav>\n");
+    }
+
+    /**
+     *
+     * @param writer The page
+     * @throws IOException when the page can not be written
+     */
+    private static void writeFooter(Writer writer) throws IOException
+    {
+        writer.write("</body>\n</html>\n");
+    }
+
+    /**
+     *
+     * @param function A function
+     * @return The id of the function on its module page
+     */
+    private static String anchor(FunctionDeclaration function)
+    {
+        return function.getLocalName() + "-" + function.getArity();
+    }
+
+    /**
+     *
+     * @param fromPage The name of the page holding the link
+     * @param function The function linked to
+     * @return The relative link to the function
+     */
+    private static String link(String fromPage, FunctionDeclaration function)
+    {
+        return rootPath(fromPage) + pageName(function.getModule().getSource()) + "#" + anchor(function);
+    }
+
+    /**
+     *
+     * @param pageName The name of a page
+     * @return The relative path from the page to the output directory
+     */
+    private static String rootPath(String pageName)
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < pageName.length(); i++) {
+            if (pageName.charAt(i) == '/') {
+                buffer.append("../");
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     *
+     * @param text Some text
+     * @return The text escaped for HTML
+     */
+    private static String escape(String text)
+    {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder buffer = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '&': replacement = "&amp;"; break;
+                case '"': replacement = "&quot;"; break;
+                default: replacement = null;
+            }
+            if (replacement != null && buffer == null) {
+                buffer = new StringBuilder(text.length() + 16);
+                buffer.append(text, 0, i);
+            }
+            if (buffer != null) {
+                if (replacement != null) {
+                    buffer.append(replacement);
+                } else {
+                    buffer.append(c);
+                }
+            }
+        }
+        return (buffer != null) ? buffer.toString() : text;
+    }
+}
@@ -14,6 +14,8 @@ public class ImportDeclaration {
     private String comment = null;
     private String location = null;
     private String body = null;
+    private CommentDeclaration commentDeclaration = null;
+    private BodyText bodyText = null;
 
     /**
      * <p>Constructor for ImportDeclaration.</p>
@@ -35,6 +37,72 @@ public class ImportDeclaration {
         this.body = body;
     }
 
+    /**
+     * @return The optional prefix in the import declaration
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return The namespace in the import declaration
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The type of an import (schema|library)
+     */
+    public String getImportType() {
+        return importType;
+    }
+
+    /**
+     * @return The comma separated locations for the imported source, or null
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return The locations for the imported source, empty when none were given
+     */
+    public String[] getLocations() {
+        if (location == null) {
+            return new String[0];
+        }
+        return location.split(",");
+    }
+
+    /**
+     * @return The xqDoc comment of the import, or null
+     */
+    public CommentDeclaration getCommentDeclaration() {
+        return commentDeclaration;
+    }
+
+    /**
+     * @param commentDeclaration The xqDoc comment of the import
+     */
+    public void setCommentDeclaration(CommentDeclaration commentDeclaration) {
+        this.commentDeclaration = commentDeclaration;
+    }
+
+    /**
+     * @return The source of the import
+     */
+    public BodyText getBodyText() {
+        return bodyText;
+    }
+
+    /**
+     * @param bodyText The source of the import
+     */
+    public void setBodyText(BodyText bodyText) {
+        this.bodyText = bodyText;
+    }
+
     /**
      * <p>toString.</p>
      *
@@ -0,0 +1,315 @@
+package org.xqdoc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>ImportGraph class.</p>
+ *
+ * The directed graph of library imports between the modules of a repository.
+ * An edge goes from the importing module to the imported module.  The strongly
+ * connected components are computed with Tarjan's algorithm; they are produced
+ * imported modules first, which gives the processing order directly.  Import
+ * cycles are the components with more than one module (or a module importing
+ * itself).
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ImportGraph {
+
+    private final List<ModuleDeclaration> modules;
+    private final Map<ModuleDeclaration, Integer> index = new HashMap<>();
+    private final Map<String, ModuleDeclaration> bySource = new HashMap<>();
+    private final List<int[]> importEdges = new ArrayList<>();
+    private final List<int[]> importedByEdges = new ArrayList<>();
+    private final List<String> unresolvedImports = new ArrayList<>();
+    private List<List<ModuleDeclaration>> components = null;
+
+    /**
+     * Build the import graph of a repository.
+     *
+     * @param repositoryModules The modules discovered in the repository
+     */
+    public ImportGraph(Collection<ModuleDeclaration> repositoryModules)
+    {
+        modules = new ArrayList<>(repositoryModules);
+        for (int i = 0; i < modules.size(); i++) {
+            index.put(modules.get(i), i);
+            bySource.put(modules.get(i).getSource(), modules.get(i));
+        }
+
+        ModuleResolver resolver = new ModuleResolver(modules);
+        List<Set<Integer>> imports = new ArrayList<>();
+        List<Set<Integer>> importedBy = new ArrayList<>();
+        for (int i = 0; i < modules.size(); i++) {
+            imports.add(new LinkedHashSet<Integer>());
+            importedBy.add(new LinkedHashSet<Integer>());
+        }
+        for (int i = 0; i < modules.size(); i++) {
+            ModuleDeclaration importer = modules.get(i);
+            for (ImportDeclaration importDeclaration : importer.getImports()) {
+                if (!ModuleDeclaration.LIBRARY.equals(importDeclaration.getImportType())) {
+                    continue;
+                }
+                List<ModuleDeclaration> targets = resolver.resolve(importer, importDeclaration);
+                if (targets.isEmpty()) {
+                    unresolvedImports.add(importer.getSource() + ": " + importDeclaration.getUri()
+                            + ((importDeclaration.getLocation() != null) ? " at " + importDeclaration.getLocation() : ""));
+                }
+                for (ModuleDeclaration target : targets) {
+                    int j = index.get(target);
+                    imports.get(i).add(j);
+                    importedBy.get(j).add(i);
+                }
+            }
+        }
+        for (int i = 0; i < modules.size(); i++) {
+            importEdges.add(toArray(imports.get(i)));
+            importedByEdges.add(toArray(importedBy.get(i)));
+        }
+    }
+
+    /**
+     * @return The modules of the graph
+     */
+    public List<ModuleDeclaration> getModules() {
+        return modules;
+    }
+
+    /**
+     * @return The library imports that did not resolve to a module of the repository
+     */
+    public List<String> getUnresolvedImports() {
+        return unresolvedImports;
+    }
+
+    /**
+     * Return the modules directly imported by a module.
+     *
+     * @param module A module of the graph
+     * @return The imported modules
+     */
+    public List<ModuleDeclaration> getImports(ModuleDeclaration module)
+    {
+        return toModules(importEdges.get(index.get(module)));
+    }
+
+    /**
+     * Return the modules directly importing a module.
+     *
+     * @param module A module of the graph
+     * @return The importing modules
+     */
+    public List<ModuleDeclaration> getImportedBy(ModuleDeclaration module)
+    {
+        return toModules(importedByEdges.get(index.get(module)));
+    }
+
+    /**
+     * Return the strongly connected components, imported modules first.
+     *
+     * @return The components of the graph
+     */
+    public List<List<ModuleDeclaration>> getStronglyConnectedComponents()
+    {
+        if (components == null) {
+            components = tarjan();
+        }
+        return components;
+    }
+
+    /**
+     * Return the import cycles of the repository.
+     *
+     * @return The components containing a cycle
+     */
+    public List<List<ModuleDeclaration>> getCycles()
+    {
+        List<List<ModuleDeclaration>> cycles = new ArrayList<>();
+        for (List<ModuleDeclaration> component : getStronglyConnectedComponents()) {
+            if (component.size() > 1) {
+                cycles.add(component);
+            } else {
+                int i = index.get(component.get(0));
+                if (Arrays.binarySearch(sorted(importEdges.get(i)), i) >= 0) {
+                    cycles.add(component);
+                }
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * Return the modules in the order they should be processed: every module
+     * comes after the modules it imports, except within an import cycle.
+     *
+     * @return The modules in processing order
+     */
+    public List<ModuleDeclaration> getProcessingOrder()
+    {
+        List<ModuleDeclaration> order = new ArrayList<>();
+        for (List<ModuleDeclaration> component : getStronglyConnectedComponents()) {
+            order.addAll(component);
+        }
+        return order;
+    }
+
+    /**
+     * Return the modules that must be regenerated when some modules change: the
+     * changed modules and every module that imports them, directly or not.
+     *
+     * @param changed The changed modules
+     * @return The affected modules in processing order
+     */
+    public List<ModuleDeclaration> getDependents(Collection<ModuleDeclaration> changed)
+    {
+        boolean[] affected = new boolean[modules.size()];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (ModuleDeclaration module : changed) {
+            Integer i = index.get(module);
+            if (i != null && !affected[i]) {
+                affected[i] = true;
+                queue.add(i);
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (int j : importedByEdges.get(queue.poll())) {
+                if (!affected[j]) {
+                    affected[j] = true;
+                    queue.add(j);
+                }
+            }
+        }
+        List<ModuleDeclaration> dependents = new ArrayList<>();
+        for (ModuleDeclaration module : getProcessingOrder()) {
+            if (affected[index.get(module)]) {
+                dependents.add(module);
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Return the module with the given source.
+     *
+     * @param source The source of the module
+     * @return The module or null
+     */
+    public ModuleDeclaration getModule(String source)
+    {
+        return bySource.get(source);
+    }
+
+    /**
+     * Tarjan's strongly connected components, without recursion so that long
+     * import chains can not overflow the stack.
+     *
+     * @return The components, imported modules first
+     */
+    private List<List<ModuleDeclaration>> tarjan()
+    {
+        int n = modules.size();
+        int[] order = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] nextEdge = new int[n];
+        Arrays.fill(order, -1);
+        Deque<Integer> stack = new ArrayDeque<>();
+        Deque<Integer> callStack = new ArrayDeque<>();
+        List<List<ModuleDeclaration>> result = new ArrayList<>();
+        int counter = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (order[root] != -1) {
+                continue;
+            }
+            callStack.push(root);
+            while (!callStack.isEmpty()) {
+                int v = callStack.peek();
+                if (order[v] == -1) {
+                    order[v] = counter;
+                    lowLink[v] = counter;
+                    counter++;
+                    stack.push(v);
+                    onStack[v] = true;
+                }
+                int[] edges = importEdges.get(v);
+                if (nextEdge[v] < edges.length) {
+                    int w = edges[nextEdge[v]++];
+                    if (order[w] == -1) {
+                        callStack.push(w);
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], order[w]);
+                    }
+                    continue;
+                }
+                callStack.pop();
+                if (!callStack.isEmpty()) {
+                    int parent = callStack.peek();
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+                if (lowLink[v] == order[v]) {
+                    List<ModuleDeclaration> component = new ArrayList<>();
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        component.add(modules.get(w));
+                    } while (w != v);
+                    result.add(component);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param edges The edges of a module
+     * @return The modules at the end of the edges
+     */
+    private List<ModuleDeclaration> toModules(int[] edges)
+    {
+        List<ModuleDeclaration> list = new ArrayList<>();
+        for (int j : edges) {
+            list.add(modules.get(j));
+        }
+        return list;
+    }
+
+    /**
+     *
+     * @param set A set of module indexes
+     * @return The indexes as an array
+     */
+    private static int[] toArray(Set<Integer> set)
+    {
+        int[] array = new int[set.size()];
+        int i = 0;
+        for (int value : set) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    /**
+     *
+     * @param edges The edges of a module
+     * @return A sorted copy of the edges
+     */
+    private static int[] sorted(int[] edges)
+    {
+        int[] copy = edges.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
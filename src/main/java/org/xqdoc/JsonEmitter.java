@@ -0,0 +1,312 @@
+package org.xqdoc;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>JsonEmitter class.</p>
+ *
+ * Writes the documentation of a module as JSON, with the same information as
+ * the xqDoc XML document: control, module, imports, namespaces, variables,
+ * functions and query body.  The JSON is streamed from the
+ * {@link ModuleDeclaration} built by the {@link XQueryVisitor}; no DOM is
+ * built and the XML is not parsed again.  Sections that are empty are left
+ * out, as they are in the XML.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class JsonEmitter {
+
+    /** The version of the xqDoc format written to the control section */
+    public static final String XQDOC_VERSION = "1.1";
+
+    /**
+     * Write the documentation of a module.
+     *
+     * @param module The module
+     * @param writer The writer receiving the JSON text
+     * @throws java.io.IOException when the text can not be written
+     */
+    public void write(ModuleDeclaration module, Writer writer) throws IOException
+    {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+
+        json.name("control").beginObject();
+        json.member("date", new DateTime().toString(ISODateTimeFormat.dateTime()));
+        json.member("version", XQDOC_VERSION);
+        json.endObject();
+
+        json.name("module").beginObject();
+        json.member("type", module.getModuleType());
+        json.member("uri", module.getUri());
+        json.member("name", module.getPrefix());
+        writeComment(json, module.getComment());
+        writeInvocations(json, module.getInvocations());
+        writeVariableReferences(json, module.getVariableReferences());
+        writeBody(json, "body", module.getBody());
+        json.endObject();
+
+        if (!module.getImports().isEmpty()) {
+            json.name("imports").beginArray();
+            for (ImportDeclaration importDeclaration : module.getImports()) {
+                json.beginObject();
+                json.member("type", importDeclaration.getImportType());
+                json.member("prefix", importDeclaration.getPrefix());
+                json.member("location", importDeclaration.getLocation());
+                json.member("uri", importDeclaration.getUri());
+                writeComment(json, importDeclaration.getCommentDeclaration());
+                writeBody(json, "body", importDeclaration.getBodyText());
+                json.endObject();
+            }
+            json.endArray();
+        }
+
+        if (!module.getNamespaces().isEmpty()) {
+            json.name("namespaces").beginArray();
+            for (Map.Entry<String, String> namespace : module.getNamespaces().entrySet()) {
+                json.beginObject();
+                json.member("prefix", namespace.getKey());
+                json.member("uri", namespace.getValue());
+                json.endObject();
+            }
+            json.endArray();
+        }
+
+        if (!module.getVariables().isEmpty()) {
+            json.name("variables").beginArray();
+            for (VariableDeclaration variable : module.getVariables()) {
+                json.beginObject();
+                json.member("uri", variable.getUri());
+                json.member("name", variable.getLocalName());
+                writeComment(json, variable.getComment());
+                writeAnnotations(json, variable.getAnnotations());
+                writeType(json, variable.getType(), variable.getOccurrence());
+                writeBody(json, "body", variable.getBody());
+                json.endObject();
+            }
+            json.endArray();
+        }
+
+        if (!module.getFunctions().isEmpty()) {
+            json.name("functions").beginArray();
+            for (FunctionDeclaration function : module.getFunctions()) {
+                writeFunction(json, function);
+            }
+            json.endArray();
+        }
+
+        writeBody(json, "queryBody", module.getQueryBody());
+
+        if (!module.getAnalysisResults().isEmpty()) {
+            json.name("analysis").beginArray();
+            for (AnalysisResult result : module.getAnalysisResults()) {
+                json.beginObject();
+                json.member("analyzer", result.getAnalyzer());
+                json.member("subject", result.getSubject());
+                json.member("name", result.getName());
+                if (result.isFinding()) {
+                    json.member("line", result.getLine());
+                    json.member("column", result.getColumn());
+                    json.member("message", result.getMessage());
+                } else {
+                    json.member("value", result.getValue());
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Return the documentation of a module as a JSON string.
+     *
+     * @param module The module
+     * @return The JSON text
+     */
+    public String toJson(ModuleDeclaration module)
+    {
+        StringWriter writer = new StringWriter();
+        try {
+            write(module, writer);
+        } catch (IOException ex) {
+            throw new XQDocRuntimeException("Problems writing the JSON.", ex);
+        }
+        return writer.toString();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param function The function
+     * @throws IOException when the text can not be written
+     */
+    private void writeFunction(JsonWriter json, FunctionDeclaration function) throws IOException
+    {
+        json.beginObject();
+        writeComment(json, function.getComment());
+        json.member("name", function.getLocalName());
+        writeAnnotations(json, function.getAnnotations());
+        json.member("signature", function.getSignature());
+        if (!function.getParameters().isEmpty()) {
+            json.name("parameters").beginArray();
+            for (ParameterDeclaration parameter : function.getParameters()) {
+                json.beginObject();
+                json.member("name", parameter.getName());
+                writeType(json, parameter.getType(), parameter.getOccurrence());
+                json.endObject();
+            }
+            json.endArray();
+        }
+        if (function.getReturnType() != null) {
+            json.name("return").beginObject();
+            writeType(json, function.getReturnType(), function.getReturnOccurrence());
+            json.endObject();
+        }
+        writeInvocations(json, function.getInvocations());
+        writeVariableReferences(json, function.getVariableReferences());
+        writeBody(json, "body", function.getBody());
+        json.endObject();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param comment The xqDoc comment or null
+     * @throws IOException when the text can not be written
+     */
+    private void writeComment(JsonWriter json, CommentDeclaration comment) throws IOException
+    {
+        if (comment == null) {
+            return;
+        }
+        json.name("comment").beginObject();
+        json.member("start", comment.getStart());
+        json.member("end", comment.getEnd());
+        for (Map.Entry<String, List<String>> entry : comment.getEntries().entrySet()) {
+            json.name(entry.getKey()).beginArray();
+            for (String text : entry.getValue()) {
+                json.value(text);
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param annotations The annotations
+     * @throws IOException when the text can not be written
+     */
+    private void writeAnnotations(JsonWriter json, List<AnnotationDeclaration> annotations) throws IOException
+    {
+        if (annotations.isEmpty()) {
+            return;
+        }
+        json.name("annotations").beginArray();
+        for (AnnotationDeclaration annotation : annotations) {
+            json.beginObject();
+            json.member("name", annotation.getName());
+            if (!annotation.getLiterals().isEmpty()) {
+                json.name("literals").beginArray();
+                for (String literal : annotation.getLiterals()) {
+                    json.value(literal);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param type The item type or null
+     * @param occurrence The occurrence indicator or null
+     * @throws IOException when the text can not be written
+     */
+    private void writeType(JsonWriter json, String type, String occurrence) throws IOException
+    {
+        if (type == null) {
+            return;
+        }
+        json.name("type").beginObject();
+        json.member("name", type);
+        json.member("occurrence", occurrence);
+        json.endObject();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param invocations The calls
+     * @throws IOException when the text can not be written
+     */
+    private void writeInvocations(JsonWriter json, List<FunctionInvocation> invocations) throws IOException
+    {
+        if (invocations.isEmpty()) {
+            return;
+        }
+        json.name("invoked").beginArray();
+        for (FunctionInvocation invocation : invocations) {
+            json.beginObject();
+            json.member("uri", invocation.getUri());
+            json.member("prefix", invocation.getPrefix());
+            json.member("name", invocation.getLocalName());
+            json.member("arity", invocation.getArity());
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param references The referenced variables
+     * @throws IOException when the text can not be written
+     */
+    private void writeVariableReferences(JsonWriter json, List<VariableReference> references) throws IOException
+    {
+        if (references.isEmpty()) {
+            return;
+        }
+        json.name("refVariables").beginArray();
+        for (VariableReference reference : references) {
+            json.beginObject();
+            json.member("uri", reference.getUri());
+            json.member("name", reference.getLocalName());
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     *
+     * @param json The JSON writer
+     * @param name The name of the member
+     * @param body The source text or null
+     * @throws IOException when the text can not be written
+     */
+    private void writeBody(JsonWriter json, String name, BodyText body) throws IOException
+    {
+        if (body == null) {
+            return;
+        }
+        json.name(name).beginObject();
+        json.member("start", body.getStart());
+        json.member("end", body.getEnd());
+        json.member("text", body.getText());
+        json.endObject();
+    }
+}
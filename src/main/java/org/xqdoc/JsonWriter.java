@@ -0,0 +1,284 @@
+package org.xqdoc;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <p>JsonWriter class.</p>
+ *
+ * A minimal streaming JSON writer.  Names, values and the separators between
+ * them are written straight to the underlying {@link Writer}; only the nesting
+ * of the objects and arrays is kept.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class JsonWriter {
+
+    private static final int MAX_DEPTH = 256;
+
+    private final Writer writer;
+
+    // Whether the current object or array already has a member
+    private final boolean[] hasMember = new boolean[MAX_DEPTH];
+
+    private int depth = 0;
+
+    // A name has been written and its value is expected
+    private boolean afterName = false;
+
+    /**
+     * <p>Constructor for JsonWriter.</p>
+     *
+     * @param writer The writer receiving the JSON text
+     */
+    public JsonWriter(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    /**
+     * Begin an object.
+     *
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter beginObject() throws IOException
+    {
+        beforeValue();
+        writer.write('{');
+        push();
+        return this;
+    }
+
+    /**
+     * End the current object.
+     *
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter endObject() throws IOException
+    {
+        depth--;
+        writer.write('}');
+        return this;
+    }
+
+    /**
+     * Begin an array.
+     *
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter beginArray() throws IOException
+    {
+        beforeValue();
+        writer.write('[');
+        push();
+        return this;
+    }
+
+    /**
+     * End the current array.
+     *
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter endArray() throws IOException
+    {
+        depth--;
+        writer.write(']');
+        return this;
+    }
+
+    /**
+     * Write the name of the next member of the current object.
+     *
+     * @param name The name
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter name(String name) throws IOException
+    {
+        separator();
+        string(name);
+        writer.write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a string value, or null.
+     *
+     * @param value The value
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter value(String value) throws IOException
+    {
+        beforeValue();
+        if (value == null) {
+            writer.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    /**
+     * Write a number value.
+     *
+     * @param value The value
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter value(long value) throws IOException
+    {
+        beforeValue();
+        writer.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a number value.
+     *
+     * @param value The value
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter value(double value) throws IOException
+    {
+        beforeValue();
+        writer.write(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a boolean value.
+     *
+     * @param value The value
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter value(boolean value) throws IOException
+    {
+        beforeValue();
+        writer.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Write a member with a string value, unless the value is null.
+     *
+     * @param name The name
+     * @param value The value or null
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter member(String name, String value) throws IOException
+    {
+        if (value != null) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    /**
+     * Write a member with a number value.
+     *
+     * @param name The name
+     * @param value The value
+     * @return this writer
+     * @throws java.io.IOException when the text can not be written
+     */
+    public JsonWriter member(String name, long value) throws IOException
+    {
+        return name(name).value(value);
+    }
+
+    /**
+     * Flush the underlying writer.
+     *
+     * @throws java.io.IOException when the text can not be written
+     */
+    public void flush() throws IOException
+    {
+        writer.flush();
+    }
+
+    /**
+     *
+     * @throws IOException when the nesting is too deep
+     */
+    private void push() throws IOException
+    {
+        if (depth + 1 >= MAX_DEPTH) {
+            throw new IOException("JSON nesting deeper than " + MAX_DEPTH);
+        }
+        depth++;
+        hasMember[depth] = false;
+    }
+
+    /**
+     *
+     * @throws IOException when the text can not be written
+     */
+    private void beforeValue() throws IOException
+    {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separator();
+        }
+    }
+
+    /**
+     *
+     * @throws IOException when the text can not be written
+     */
+    private void separator() throws IOException
+    {
+        if (depth > 0) {
+            if (hasMember[depth]) {
+                writer.write(',');
+            }
+            hasMember[depth] = true;
+        }
+    }
+
+    /**
+     *
+     * @param text The string to write quoted and escaped
+     * @throws IOException when the text can not be written
+     */
+    private void string(String text) throws IOException
+    {
+        writer.write('"');
+        int last = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                replacement = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            writer.write(text, last, i - last);
+            writer.write(replacement);
+            last = i + 1;
+        }
+        writer.write(text, last, length - last);
+        writer.write('"');
+    }
+}
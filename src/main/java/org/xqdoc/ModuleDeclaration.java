@@ -0,0 +1,335 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>ModuleDeclaration class.</p>
+ *
+ * The information about a module that is gathered by the {@link XQueryVisitor}
+ * and is needed after the xqDoc XML has been written, such as the declared
+ * namespace and the imports used to resolve modules across a repository.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ModuleDeclaration {
+
+    /** Constant <code>LIBRARY="library"</code> */
+    public static final String LIBRARY = "library";
+
+    /** Constant <code>MAIN="main"</code> */
+    public static final String MAIN = "main";
+
+    private String source = null;
+    private String moduleType = null;
+    private String uri = null;
+    private String prefix = null;
+    private String contentHash = null;
+    private CommentDeclaration comment = null;
+    private BodyText body = null;
+    private List<ImportDeclaration> imports = new ArrayList<>();
+    private Map<String, String> namespaces = new LinkedHashMap<>();
+    private List<VariableDeclaration> variables = new ArrayList<>();
+    private List<FunctionDeclaration> functions = new ArrayList<>();
+    private List<FunctionInvocation> invocations = new ArrayList<>();
+    private List<VariableReference> variableReferences = new ArrayList<>();
+    private BodyText queryBody = null;
+    private List<XQDocDiagnostic> diagnostics = Collections.emptyList();
+    private List<AnalysisResult> analysisResults = new ArrayList<>();
+
+    /**
+     * @return The name of the source of the module, relative to the repository root in batch mode
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @param source The name of the source of the module
+     */
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @return The type of the module (library|main)
+     */
+    public String getModuleType() {
+        return moduleType;
+    }
+
+    /**
+     * @param moduleType The type of the module (library|main)
+     */
+    public void setModuleType(String moduleType) {
+        this.moduleType = moduleType;
+    }
+
+    /**
+     * @return true when this is a library module
+     */
+    public boolean isLibrary() {
+        return LIBRARY.equals(moduleType);
+    }
+
+    /**
+     * @return The namespace of a library module, null for a main module
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @param uri The namespace of a library module
+     */
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+    /**
+     * @return The prefix of a library module, null for a main module
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param prefix The prefix of a library module
+     */
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return The SHA-256 of the source of the module as hex, or null when unknown
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash The SHA-256 of the source of the module as hex
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return The xqDoc comment of the module, or null
+     */
+    public CommentDeclaration getComment() {
+        return comment;
+    }
+
+    /**
+     * @param tag A comment tag such as description or author
+     * @return The entries of the xqDoc comment of the module for the tag, in source order
+     */
+    public List<String> getComment(String tag)
+    {
+        return (comment != null) ? comment.getEntries(tag) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @param comment The xqDoc comment of the module
+     */
+    public void setComment(CommentDeclaration comment) {
+        this.comment = comment;
+    }
+
+    /**
+     * @return The source of the whole module
+     */
+    public BodyText getBody() {
+        return body;
+    }
+
+    /**
+     * @param body The source of the whole module
+     */
+    public void setBody(BodyText body) {
+        this.body = body;
+    }
+
+    /**
+     * @return The schema and library imports of the module
+     */
+    public List<ImportDeclaration> getImports() {
+        return imports;
+    }
+
+    /**
+     * @param importDeclaration An import of the module
+     */
+    public void addImport(ImportDeclaration importDeclaration) {
+        imports.add(importDeclaration);
+    }
+
+    /**
+     * @return The namespaces declared in the prolog, by prefix
+     */
+    public Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * @param prefix The prefix of a namespace declared in the prolog
+     * @param uri The namespace
+     */
+    public void addNamespace(String prefix, String uri) {
+        namespaces.put(prefix, uri);
+    }
+
+    /**
+     * @return The global variables declared in the prolog
+     */
+    public List<VariableDeclaration> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @param variable A global variable declared in the prolog
+     */
+    public void addVariable(VariableDeclaration variable) {
+        variables.add(variable);
+    }
+
+    /**
+     * @return The functions declared in the prolog
+     */
+    public List<FunctionDeclaration> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * @param function A function declared in the prolog
+     */
+    public void addFunction(FunctionDeclaration function) {
+        function.setModule(this);
+        functions.add(function);
+    }
+
+    /**
+     * @return The distinct calls made from the query body of a main module
+     */
+    public List<FunctionInvocation> getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @param invocation A call made from the query body of a main module
+     */
+    public void addInvocation(FunctionInvocation invocation) {
+        invocations.add(invocation);
+    }
+
+    /**
+     * @return The global variables referenced from the query body of a main module
+     */
+    public List<VariableReference> getVariableReferences() {
+        return variableReferences;
+    }
+
+    /**
+     * @param reference A global variable referenced from the query body of a main module
+     */
+    public void addVariableReference(VariableReference reference) {
+        variableReferences.add(reference);
+    }
+
+    /**
+     * @return The metrics and findings of the analyzers run over the module
+     */
+    public List<AnalysisResult> getAnalysisResults() {
+        return analysisResults;
+    }
+
+    /**
+     * @param result A metric or finding of an analyzer
+     */
+    public void addAnalysisResult(AnalysisResult result) {
+        analysisResults.add(result);
+    }
+
+    /**
+     * @return The query body of a main module, or null
+     */
+    public BodyText getQueryBody() {
+        return queryBody;
+    }
+
+    /**
+     * @param queryBody The query body of a main module
+     */
+    public void setQueryBody(BodyText queryBody) {
+        this.queryBody = queryBody;
+    }
+
+    /**
+     * Drop the source text kept for the module, its imports, variables and
+     * functions.  The rest of the model, used to link and index the modules,
+     * is kept.
+     */
+    public void releaseSourceText()
+    {
+        body = null;
+        queryBody = null;
+        for (ImportDeclaration importDeclaration : imports) {
+            importDeclaration.setBodyText(null);
+        }
+        for (VariableDeclaration variable : variables) {
+            variable.setBody(null);
+        }
+        for (FunctionDeclaration function : functions) {
+            function.setBody(null);
+        }
+    }
+
+    /**
+     * Drop everything but what links the module to the others: the source
+     * path, namespace, imports, namespaces, diagnostics and, for each function,
+     * its name, arity and calls.  The comments, variables, parameters,
+     * annotations, analysis results and source text are released.
+     */
+    public void releaseDocumentation()
+    {
+        releaseSourceText();
+        comment = null;
+        variables = new ArrayList<>();
+        variableReferences = new ArrayList<>();
+        analysisResults = new ArrayList<>();
+        for (ImportDeclaration importDeclaration : imports) {
+            importDeclaration.setCommentDeclaration(null);
+        }
+        for (FunctionDeclaration function : functions) {
+            function.releaseDocumentation();
+        }
+    }
+
+    /**
+     * @return The diagnostics raised while processing the module
+     */
+    public List<XQDocDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * @param diagnostics The diagnostics raised while processing the module
+     */
+    public void setDiagnostics(List<XQDocDiagnostic> diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The source of the module
+     */
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,369 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>ModuleParser class.</p>
+ *
+ * Builds the lexer and parser for an XQuery module with a bounded
+ * {@link XQDocErrorStrategy} and collects syntax errors as
+ * {@link XQDocDiagnostic}s instead of printing them to the console.
+ * The lexer, token stream and parser are created for the first module and
+ * reused for the following ones, so that documenting many small modules does
+ * not allocate them every time.  An instance is not thread-safe; use one per
+ * thread ({@link #copy()} gives another instance with the same settings).
+ * The {@link ResourceLimits} of the parser bound the size, tokens, depth and
+ * time of each module.  With a {@link TokenCache} the tokens of a module seen
+ * before are read from the cache instead of being lexed again.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ModuleParser {
+
+    /** Constant <code>DEFAULT_MAX_RECOVERY_ATTEMPTS=100</code> */
+    public static final int DEFAULT_MAX_RECOVERY_ATTEMPTS = 100;
+
+    /** Constant <code>DEFAULT_MAX_DIAGNOSTICS=100</code> */
+    public static final int DEFAULT_MAX_DIAGNOSTICS = 100;
+
+    private int maxRecoveryAttempts = DEFAULT_MAX_RECOVERY_ATTEMPTS;
+
+    private ResourceLimits resourceLimits = new ResourceLimits();
+
+    private long deadline = Long.MAX_VALUE;
+
+    private int maxDiagnostics = DEFAULT_MAX_DIAGNOSTICS;
+
+    private List<XQDocDiagnostic> diagnostics = Collections.emptyList();
+
+    private XQueryLexer markupLexer = null;
+
+    private CommonTokenStream commonTokenStream = null;
+
+    private XQueryParser markupParser = null;
+
+    private TokenCache tokenCache = null;
+
+    /** The cache key of the module being parsed, when the cache does not have its tokens yet */
+    private String uncachedKey = null;
+
+    /**
+     * Set the maximum number of error recoveries before the module is abandoned.
+     *
+     * @param maxRecoveryAttempts the limit, 0 or less for no limit
+     */
+    public void setMaxRecoveryAttempts(int maxRecoveryAttempts) {
+        this.maxRecoveryAttempts = maxRecoveryAttempts;
+    }
+
+    /**
+     * @return the maximum number of error recoveries
+     */
+    public int getMaxRecoveryAttempts() {
+        return maxRecoveryAttempts;
+    }
+
+    /**
+     * Set the time budget for parsing a single module.  The clock is looked
+     * at by the error strategy, and every 1024 tokens and rules by the lexer
+     * and the parser, so a module is stopped whether it has errors or not.
+     *
+     * @param timeBudgetMillis the budget in milliseconds, 0 or less for no limit
+     */
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        resourceLimits.setMaxMillis(timeBudgetMillis);
+    }
+
+    /**
+     * @return the time budget for parsing a single module in milliseconds
+     */
+    public long getTimeBudgetMillis() {
+        return resourceLimits.getMaxMillis();
+    }
+
+    /**
+     * Set the limits on the size, tokens, depth and time of a module.  The time
+     * limit is the time budget.
+     *
+     * @param resourceLimits the limits
+     */
+    public void setResourceLimits(ResourceLimits resourceLimits) {
+        this.resourceLimits = resourceLimits;
+    }
+
+    /**
+     * @return the limits on the size, tokens, depth and time of a module
+     */
+    public ResourceLimits getResourceLimits() {
+        return resourceLimits;
+    }
+
+    /**
+     * The time, as {@link System#currentTimeMillis()}, by which the last module
+     * parsed has to be documented, for {@link XQueryVisitor#setDeadline(long, long)}.
+     *
+     * @return the deadline, or Long.MAX_VALUE when there is no time limit
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the cache the tokens of the modules are read from and written to.
+     *
+     * @param tokenCache the cache, or null to lex every module
+     */
+    public void setTokenCache(TokenCache tokenCache) {
+        this.tokenCache = tokenCache;
+    }
+
+    /**
+     * @return the token cache, or null when every module is lexed
+     */
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    /**
+     * Set the maximum number of syntax errors kept per module.
+     *
+     * @param maxDiagnostics the limit
+     */
+    public void setMaxDiagnostics(int maxDiagnostics) {
+        this.maxDiagnostics = maxDiagnostics;
+    }
+
+    /**
+     * @return the maximum number of syntax errors kept per module
+     */
+    public int getMaxDiagnostics() {
+        return maxDiagnostics;
+    }
+
+    /**
+     * Create a parser with the same settings, for use on another thread.
+     *
+     * @return a new module parser
+     */
+    public ModuleParser copy()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.copySettings(this);
+        moduleParser.setResourceLimits(resourceLimits.copy());
+        return moduleParser;
+    }
+
+    /**
+     * Take the settings of another parser, sharing its resource limits, and
+     * keep the lexer and parser of this one.
+     *
+     * @param settings The parser whose settings are taken
+     */
+    void copySettings(ModuleParser settings)
+    {
+        setMaxRecoveryAttempts(settings.getMaxRecoveryAttempts());
+        setResourceLimits(settings.getResourceLimits());
+        setMaxDiagnostics(settings.getMaxDiagnostics());
+        setTokenCache(settings.getTokenCache());
+    }
+
+    /**
+     * @return the diagnostics of the last module parsed
+     */
+    public List<XQDocDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Parse an XQuery module.
+     *
+     * @param input The XQuery source
+     * @param source The name of the source used in diagnostics (may be null)
+     * @return The parse tree of the module
+     * @throws org.xqdoc.XQDocParseAbortedException when the error recovery or time budget is exhausted,
+     *         or a {@link XQDocLimitExceededException} when a resource limit is exceeded.
+     *         The diagnostics collected so far, including a FATAL entry, remain available.
+     */
+    public XQueryParser.ModuleContext parse(CharStream input, String source)
+    {
+        return parse(input, source, null);
+    }
+
+    /**
+     * Parse an XQuery module, notifying a listener as the rules are parsed.
+     * A {@link DeclarationEmitter} builds the xqDoc of the declarations while
+     * the rest of the module is being parsed.
+     *
+     * @param input The XQuery source
+     * @param source The name of the source used in diagnostics (may be null)
+     * @param parseListener The listener or null
+     * @return The parse tree of the module, less what the listener has detached
+     * @throws org.xqdoc.XQDocParseAbortedException when the error recovery or time budget is exhausted,
+     *         or a {@link XQDocLimitExceededException} when a resource limit is exceeded.
+     *         The diagnostics collected so far, including a FATAL entry, remain available.
+     */
+    public XQueryParser.ModuleContext parse(CharStream input, String source, ParseTreeListener parseListener)
+    {
+        XQDocErrorListener listener = prepare(input, source, parseListener);
+        try {
+            if (uncachedKey != null) {
+                cacheTokens(uncachedKey, input, listener);
+            }
+            return markupParser.module();
+        } catch (XQDocParseAbortedException ex) {
+            abort(listener, source, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Parse the header of an XQuery module: its module declaration, namespace
+     * declarations and imports.  Parsing stops at the first variable, function
+     * or option declaration or at the query body, so only the start of the
+     * module is lexed and the tokens are not written to the token cache.
+     *
+     * @param input The XQuery source
+     * @param source The name of the source used in diagnostics (may be null)
+     * @return The parse tree of the header
+     * @throws org.xqdoc.XQDocParseAbortedException when the error recovery or time budget is exhausted,
+     *         or a {@link XQDocLimitExceededException} when a resource limit is exceeded.
+     */
+    public XQueryParser.ModuleHeaderContext parseHeader(CharStream input, String source)
+    {
+        XQDocErrorListener listener = prepare(input, source, null);
+        try {
+            return markupParser.moduleHeader();
+        } catch (XQDocParseAbortedException ex) {
+            abort(listener, source, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Point the lexer and parser at a module, with the tokens of the cache
+     * when it has them, and set up the error handling and limits.
+     *
+     * @param input The XQuery source
+     * @param source The name of the source used in diagnostics (may be null)
+     * @param parseListener The listener or null
+     * @return The error listener of the module
+     */
+    private XQDocErrorListener prepare(CharStream input, String source, ParseTreeListener parseListener)
+    {
+        XQDocErrorListener listener = new XQDocErrorListener(source, maxDiagnostics);
+        XQDocErrorStrategy strategy = new XQDocErrorStrategy(maxRecoveryAttempts, resourceLimits.getMaxMillis());
+        diagnostics = listener.getDiagnostics();
+        deadline = strategy.getDeadline();
+        uncachedKey = null;
+        try {
+            resourceLimits.checkInputSize(input.size());
+        } catch (XQDocLimitExceededException ex) {
+            listener.addDiagnostic(new XQDocDiagnostic(XQDocDiagnostic.Severity.FATAL, source, 0, 0, null, ex.getMessage()));
+            throw ex;
+        }
+
+        CachedTokenSource cachedTokens = null;
+        if (tokenCache != null) {
+            String cacheKey = tokenCache.key(input);
+            cachedTokens = tokenCache.read(cacheKey, input, source);
+            if (cachedTokens == null) {
+                uncachedKey = cacheKey;
+            }
+        }
+        if (markupLexer == null) {
+            markupLexer = new XQueryLexer(input);
+            commonTokenStream = new CommonTokenStream(markupLexer);
+            markupParser = new XQueryParser(commonTokenStream);
+        } else {
+            // Reuse the lexer, token stream and parser of the previous module; each resets its state
+            markupLexer.setInputStream(input);
+        }
+        if (cachedTokens != null) {
+            cachedTokens.setMaxTokens(resourceLimits.getMaxTokens());
+            commonTokenStream.setTokenSource(cachedTokens);
+        } else {
+            commonTokenStream.setTokenSource(markupLexer);
+        }
+        markupParser.setTokenStream(commonTokenStream);
+        markupLexer.removeErrorListeners();
+        markupLexer.addErrorListener(listener);
+        markupParser.removeErrorListeners();
+        markupParser.addErrorListener(listener);
+        markupParser.removeParseListeners();
+        markupParser.setErrorHandler(strategy);
+        markupLexer.setLimits(resourceLimits.getMaxTokens(), resourceLimits.getEffectiveMaxDepth());
+        markupParser.setMaxDepth(resourceLimits.getEffectiveMaxDepth());
+        markupLexer.setDeadline(deadline, resourceLimits.getMaxMillis());
+        markupParser.setDeadline(deadline, resourceLimits.getMaxMillis());
+        if (parseListener != null) {
+            markupParser.addParseListener(parseListener);
+        }
+        return listener;
+    }
+
+    /**
+     * Lex the whole module ahead of the parser and cache its tokens.  A module
+     * the lexer reports errors for is not cached, and is lexed again as the
+     * parser reads it, so that its errors are reported as without a cache: the
+     * parser may stop before the end of a main module.  The token stream keeps
+     * every token of a module in any case, so lexing ahead does not hold more
+     * of it in memory.
+     *
+     * @param cacheKey The key of the module
+     * @param input The XQuery source
+     * @param listener The error listener of the module
+     */
+    private void cacheTokens(String cacheKey, CharStream input, XQDocErrorListener listener)
+    {
+        XQDocErrorListener lexerListener = new XQDocErrorListener(listener.getSource(), 1);
+        markupLexer.removeErrorListeners();
+        markupLexer.addErrorListener(lexerListener);
+        commonTokenStream.fill();
+        markupLexer.removeErrorListeners();
+        markupLexer.addErrorListener(listener);
+        if (lexerListener.getErrorCount() > 0) {
+            input.seek(0);
+            markupLexer.setInputStream(input);
+            commonTokenStream.setTokenSource(markupLexer);
+            markupParser.setTokenStream(commonTokenStream);
+            return;
+        }
+        try {
+            tokenCache.write(cacheKey, input, commonTokenStream.getTokens());
+        } catch (IOException ex) {
+            throw new XQDocRuntimeException("Problems writing the token cache " + tokenCache.getDirectory(), ex);
+        }
+    }
+
+    /**
+     *
+     * @param listener The error listener of the module
+     * @param source The name of the source used in diagnostics
+     * @param ex The reason the module is abandoned
+     */
+    private void abort(XQDocErrorListener listener, String source, XQDocParseAbortedException ex)
+    {
+        int line = 0;
+        int column = 0;
+        Token token;
+        try {
+            token = markupParser.getCurrentToken();
+        } catch (XQDocLimitExceededException limit) {
+            // The next token is the one over the token limit; report the last one read
+            token = (commonTokenStream.size() > 0) ? commonTokenStream.get(commonTokenStream.size() - 1) : null;
+        }
+        if (token != null) {
+            line = token.getLine();
+            column = token.getCharPositionInLine();
+        }
+        listener.addDiagnostic(new XQDocDiagnostic(XQDocDiagnostic.Severity.FATAL, source, line, column, null, ex.getMessage()));
+    }
+}
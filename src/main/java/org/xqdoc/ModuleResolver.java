@@ -0,0 +1,217 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>ModuleResolver class.</p>
+ *
+ * Maps the library imports of a module to the modules discovered in a
+ * repository.  The <code>at</code> locations are tried first, relative to the
+ * importing module and then as a path suffix (database paths such as
+ * <code>/db/apps/app/modules/util.xqm</code> usually end with the repository
+ * path).  When no location matches, the modules declaring the imported
+ * namespace are used.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ModuleResolver {
+
+    // Modules by their source path
+    private final Map<String, ModuleDeclaration> bySource = new HashMap<>();
+
+    // Modules by the last segment of their source path
+    private final Map<String, List<ModuleDeclaration>> byFileName = new HashMap<>();
+
+    // Library modules by their namespace
+    private final Map<String, List<ModuleDeclaration>> byNamespace = new HashMap<>();
+
+    /**
+     * <p>Constructor for ModuleResolver.</p>
+     *
+     * @param modules The modules discovered in the repository
+     */
+    public ModuleResolver(Collection<ModuleDeclaration> modules)
+    {
+        for (ModuleDeclaration module : modules) {
+            String source = normalize(module.getSource());
+            bySource.put(source, module);
+            addTo(byFileName, fileName(source), module);
+            if (module.isLibrary() && module.getUri() != null) {
+                addTo(byNamespace, module.getUri(), module);
+            }
+        }
+    }
+
+    /**
+     * Resolve a library import to the modules it refers to.
+     *
+     * @param importer The module containing the import
+     * @param importDeclaration The import to resolve
+     * @return The imported modules, empty when the import can not be resolved
+     *         or is not a library import
+     */
+    public List<ModuleDeclaration> resolve(ModuleDeclaration importer, ImportDeclaration importDeclaration)
+    {
+        Set<ModuleDeclaration> resolved = new LinkedHashSet<>();
+        if (!ModuleDeclaration.LIBRARY.equals(importDeclaration.getImportType())) {
+            return new ArrayList<>(resolved);
+        }
+        for (String location : importDeclaration.getLocations()) {
+            ModuleDeclaration module = resolveLocation(importer, location.trim());
+            if (module != null) {
+                resolved.add(module);
+            }
+        }
+        if (resolved.isEmpty()) {
+            List<ModuleDeclaration> declaring = byNamespace.get(importDeclaration.getUri());
+            if (declaring != null) {
+                resolved.addAll(declaring);
+            }
+        }
+        return new ArrayList<>(resolved);
+    }
+
+    /**
+     * Return the library modules declaring a namespace.
+     *
+     * @param namespace The module namespace
+     * @return The modules, empty when no module declares the namespace
+     */
+    public List<ModuleDeclaration> getModulesForNamespace(String namespace)
+    {
+        List<ModuleDeclaration> declaring = byNamespace.get(namespace);
+        return (declaring != null) ? declaring : new ArrayList<ModuleDeclaration>();
+    }
+
+    /**
+     *
+     * @param importer The module containing the import
+     * @param location The location hint of the import
+     * @return The module at that location or null
+     */
+    private ModuleDeclaration resolveLocation(ModuleDeclaration importer, String location)
+    {
+        if (location.isEmpty()) {
+            return null;
+        }
+        String path = stripScheme(normalize(location));
+
+        // Relative to the importing module
+        if (!path.startsWith("/")) {
+            String importerSource = normalize(importer.getSource());
+            int slash = importerSource.lastIndexOf('/');
+            String base = (slash >= 0) ? importerSource.substring(0, slash + 1) : "";
+            ModuleDeclaration module = bySource.get(collapse(base + path));
+            if (module != null) {
+                return module;
+            }
+        }
+
+        // The longest repository path that the location ends with
+        List<ModuleDeclaration> candidates = byFileName.get(fileName(path));
+        ModuleDeclaration best = null;
+        if (candidates != null) {
+            String suffixed = "/" + collapse(path.startsWith("/") ? path.substring(1) : path);
+            for (ModuleDeclaration candidate : candidates) {
+                String source = normalize(candidate.getSource());
+                if (suffixed.endsWith("/" + source)
+                        && (best == null || source.length() > normalize(best.getSource()).length())) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     *
+     * @param path A path or URI
+     * @return The path with back slashes replaced by slashes
+     */
+    private static String normalize(String path)
+    {
+        return (path == null) ? "" : path.replace('\\', '/');
+    }
+
+    /**
+     *
+     * @param location A location hint
+     * @return The location without a URI scheme such as <code>xmldb:exist://</code>
+     */
+    private static String stripScheme(String location)
+    {
+        String path = location;
+        int scheme = path.indexOf("://");
+        if (scheme >= 0) {
+            path = path.substring(scheme + 3);
+            // Skip the authority of the URI
+            int slash = path.indexOf('/');
+            path = (slash >= 0) ? path.substring(slash) : "/";
+        }
+        return path;
+    }
+
+    /**
+     *
+     * @param path A relative path
+     * @return The path with the '.' and '..' segments removed
+     */
+    private static String collapse(String path)
+    {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else {
+                segments.add(segment);
+            }
+        }
+        StringBuilder buffer = new StringBuilder();
+        for (String segment : segments) {
+            if (buffer.length() > 0) {
+                buffer.append('/');
+            }
+            buffer.append(segment);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     *
+     * @param path A path
+     * @return The last segment of the path
+     */
+    private static String fileName(String path)
+    {
+        int slash = path.lastIndexOf('/');
+        return (slash >= 0) ? path.substring(slash + 1) : path;
+    }
+
+    /**
+     *
+     * @param map The map to add to
+     * @param key The key
+     * @param module The module to add
+     */
+    private static void addTo(Map<String, List<ModuleDeclaration>> map, String key, ModuleDeclaration module)
+    {
+        List<ModuleDeclaration> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        list.add(module);
+    }
+}
@@ -0,0 +1,219 @@
+package org.xqdoc;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>NamespaceProfile class.</p>
+ *
+ * The predefined function namespaces of an XQuery processor: a map from
+ * namespace prefix to namespace URI handed to the {@link XQueryVisitor}.  A
+ * profile is immutable, so a single instance is shared by every thread.  The
+ * prefixes are placed in a table without collisions when the profile is
+ * built, so a lookup is one hash, one string comparison and no allocation.
+ * Prefixes sharing a hash code can not be separated by any seed, and a table
+ * is never made larger than {@link #MAX_TABLE_SIZE}; such profiles fall back
+ * to a {@link HashMap}.  Profiles are loaded by {@link NamespaceProfiles}.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public final class NamespaceProfile extends AbstractMap<String, String> {
+
+    /** The largest table searched for a seed without collisions */
+    public static final int MAX_TABLE_SIZE = 1 << 12;
+
+    private final String name;
+
+    private final String[] prefixes;
+
+    private final String[] namespaces;
+
+    private final int seed;
+
+    private final int mask;
+
+    // The namespaces by prefix when no table without collisions was found, otherwise null
+    private final Map<String, String> fallback;
+
+    private final Set<Map.Entry<String, String>> entries;
+
+    /**
+     * <p>Constructor for NamespaceProfile.</p>
+     *
+     * @param name The name of the profile
+     * @param namespaces The namespaces by prefix
+     */
+    public NamespaceProfile(String name, Map<String, String> namespaces)
+    {
+        this.name = name;
+        Map<String, String> copy = Collections.unmodifiableMap(new LinkedHashMap<>(namespaces));
+        this.entries = copy.entrySet();
+
+        // Search for a table size and seed that give every prefix its own slot
+        int size = Integer.highestOneBit(Math.max(1, copy.size() * 2 - 1)) << 1;
+        int found = 0;
+        if (hasDistinctHashCodes(copy.keySet())) {
+            while (size <= MAX_TABLE_SIZE) {
+                found = findSeed(copy.keySet(), size - 1);
+                if (found != 0) {
+                    break;
+                }
+                size <<= 1;
+            }
+        }
+        if (found == 0) {
+            this.seed = 0;
+            this.mask = 0;
+            this.fallback = new HashMap<>(copy);
+            this.prefixes = new String[0];
+            this.namespaces = new String[0];
+            return;
+        }
+        this.seed = found;
+        this.mask = size - 1;
+        this.fallback = null;
+        this.prefixes = new String[mask + 1];
+        this.namespaces = new String[mask + 1];
+        for (Map.Entry<String, String> entry : copy.entrySet()) {
+            int slot = slot(entry.getKey(), seed, mask);
+            prefixes[slot] = entry.getKey();
+            this.namespaces[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @return The name of the profile
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the namespace of a prefix.
+     *
+     * @param prefix The namespace prefix
+     * @return The namespace URI or null
+     */
+    public String getNamespace(String prefix)
+    {
+        if (fallback != null) {
+            return fallback.get(prefix);
+        }
+        int slot = slot(prefix, seed, mask);
+        return prefix.equals(prefixes[slot]) ? namespaces[slot] : null;
+    }
+
+    /**
+     * Return a profile with more namespaces, such as those given with -D on
+     * the command line.
+     *
+     * @param overrides The namespaces by prefix, replacing those of this profile
+     * @return The new profile, or this profile when there is nothing to override
+     */
+    public NamespaceProfile withOverrides(Map<String, String> overrides)
+    {
+        if (overrides.isEmpty()) {
+            return this;
+        }
+        Map<String, String> merged = new LinkedHashMap<>(this);
+        merged.putAll(overrides);
+        return new NamespaceProfile(name, merged);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String get(Object key)
+    {
+        return (key instanceof String) ? getNamespace((String) key) : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return get(key) != null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return entries;
+    }
+
+    /**
+     * @return true when the prefixes are placed in a table without
+     *         collisions, false when they are looked up in a hash map
+     */
+    public boolean isCollisionFree() {
+        return fallback == null;
+    }
+
+    /**
+     *
+     * @param keys The prefixes
+     * @return true when no two prefixes have the same hash code, which no seed could separate
+     */
+    private static boolean hasDistinctHashCodes(Set<String> keys)
+    {
+        Set<Integer> hashCodes = new HashSet<>();
+        for (String key : keys) {
+            if (!hashCodes.add(key.hashCode())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param keys The prefixes
+     * @param mask The table size less one
+     * @return A seed placing every prefix in its own slot, or 0 when none was found
+     */
+    private static int findSeed(Set<String> keys, int mask)
+    {
+        boolean[] used = new boolean[mask + 1];
+        for (int candidate = 1; candidate < 2000; candidate += 2) {
+            Arrays.fill(used, false);
+            boolean perfect = true;
+            for (String key : keys) {
+                int slot = slot(key, candidate * 0x9E3779B1, mask);
+                if (used[slot]) {
+                    perfect = false;
+                    break;
+                }
+                used[slot] = true;
+            }
+            if (perfect) {
+                return candidate * 0x9E3779B1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     *
+     * @param key A prefix
+     * @param seed The multiplier
+     * @param mask The table size less one
+     * @return The slot of the prefix
+     */
+    private static int slot(String key, int seed, int mask)
+    {
+        int h = key.hashCode() * seed;
+        return (h ^ (h >>> 15)) & mask;
+    }
+}
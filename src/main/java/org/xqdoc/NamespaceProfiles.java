@@ -0,0 +1,218 @@
+package org.xqdoc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>NamespaceProfiles class.</p>
+ *
+ * A registry of {@link NamespaceProfile}s by name.  The built-in profiles
+ * (xquery, xquery31, marklogic and exist-db) are read from the classpath once
+ * per JVM; more profiles are read from the <code>.properties</code> and
+ * <code>.xml</code> property files of a directory, whose base name is the
+ * name of the profile.  A profile names the profiles it inherits from with
+ * the <code>@extends</code> key.  The registry and its profiles are immutable
+ * and are shared by every thread.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public final class NamespaceProfiles {
+
+    /** The key of a profile naming the profiles it inherits from */
+    public static final String EXTENDS = "@extends";
+
+    /** The profile used when none is given */
+    public static final String DEFAULT_PROFILE = "marklogic";
+
+    private static final String RESOURCE_DIRECTORY = "/org/xqdoc/profiles/";
+
+    private static final String[] BUILT_IN = { "xquery", "xquery31", "marklogic", "exist-db" };
+
+    private final Map<String, NamespaceProfile> profiles;
+
+    /**
+     *
+     * @param profiles The resolved profiles by name
+     */
+    private NamespaceProfiles(Map<String, NamespaceProfile> profiles)
+    {
+        this.profiles = Collections.unmodifiableMap(profiles);
+    }
+
+    /**
+     * Return the built-in profiles, read the first time they are asked for.
+     *
+     * @return The built-in profiles
+     */
+    public static NamespaceProfiles getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * Return the built-in profiles and the profiles of a directory, which may
+     * replace or extend the built-in ones.
+     *
+     * @param directory The directory of property files
+     * @return The profiles
+     * @throws java.io.IOException when a file can not be read
+     */
+    public static NamespaceProfiles load(Path directory) throws IOException
+    {
+        Map<String, Properties> definitions = readBuiltIn();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{properties,xml}")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                boolean xml = fileName.endsWith(".xml");
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(file)) {
+                    if (xml) {
+                        properties.loadFromXML(in);
+                    } else {
+                        properties.load(in);
+                    }
+                }
+                definitions.put(fileName.substring(0, fileName.lastIndexOf('.')), properties);
+            }
+        }
+        return resolve(definitions);
+    }
+
+    /**
+     * Return a profile.
+     *
+     * @param name The name of the profile
+     * @return The profile
+     * @throws XQDocRuntimeException when there is no profile of this name
+     */
+    public NamespaceProfile get(String name)
+    {
+        NamespaceProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new XQDocRuntimeException("Unknown namespace profile " + name + ", expected one of " + profiles.keySet());
+        }
+        return profile;
+    }
+
+    /**
+     * @return The names of the profiles, sorted
+     */
+    public Set<String> getNames() {
+        return profiles.keySet();
+    }
+
+    /**
+     *
+     * @return The definitions of the built-in profiles
+     */
+    private static Map<String, Properties> readBuiltIn()
+    {
+        Map<String, Properties> definitions = new TreeMap<>();
+        for (String name : BUILT_IN) {
+            Properties properties = new Properties();
+            try (InputStream in = NamespaceProfiles.class.getResourceAsStream(RESOURCE_DIRECTORY + name + ".properties")) {
+                if (in == null) {
+                    throw new XQDocRuntimeException("Missing built-in namespace profile " + name);
+                }
+                properties.load(in);
+            } catch (IOException ex) {
+                throw new XQDocRuntimeException("Problems reading the built-in namespace profile " + name, ex);
+            }
+            definitions.put(name, properties);
+        }
+        return definitions;
+    }
+
+    /**
+     *
+     * @param definitions The profile definitions by name
+     * @return The profiles with their inherited namespaces
+     */
+    private static NamespaceProfiles resolve(Map<String, Properties> definitions)
+    {
+        Map<String, Map<String, String>> resolved = new TreeMap<>();
+        for (String name : definitions.keySet()) {
+            resolve(name, definitions, resolved, new LinkedHashSet<String>());
+        }
+        Map<String, NamespaceProfile> profiles = new TreeMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : resolved.entrySet()) {
+            profiles.put(entry.getKey(), new NamespaceProfile(entry.getKey(), entry.getValue()));
+        }
+        return new NamespaceProfiles(profiles);
+    }
+
+    /**
+     *
+     * @param name The name of the profile
+     * @param definitions The profile definitions by name
+     * @param resolved The namespaces of the profiles resolved so far
+     * @param path The profiles being resolved, to detect cycles
+     * @return The namespaces of the profile
+     */
+    private static Map<String, String> resolve(String name, Map<String, Properties> definitions,
+                                               Map<String, Map<String, String>> resolved, Set<String> path)
+    {
+        Map<String, String> namespaces = resolved.get(name);
+        if (namespaces != null) {
+            return namespaces;
+        }
+        Properties definition = definitions.get(name);
+        if (definition == null) {
+            throw new XQDocRuntimeException("Unknown namespace profile " + name + " extended by " + path);
+        }
+        if (!path.add(name)) {
+            throw new XQDocRuntimeException("Namespace profiles extend each other: " + path + " " + name);
+        }
+        namespaces = new LinkedHashMap<>();
+        for (String parent : parents(definition)) {
+            namespaces.putAll(resolve(parent, definitions, resolved, path));
+        }
+        for (String prefix : new TreeSet<>(definition.stringPropertyNames())) {
+            if (!EXTENDS.equals(prefix)) {
+                namespaces.put(prefix, definition.getProperty(prefix));
+            }
+        }
+        path.remove(name);
+        resolved.put(name, namespaces);
+        return namespaces;
+    }
+
+    /**
+     *
+     * @param definition The profile definition
+     * @return The names of the profiles it extends
+     */
+    private static List<String> parents(Properties definition)
+    {
+        List<String> parents = new ArrayList<>();
+        String value = definition.getProperty(EXTENDS);
+        if (value != null) {
+            for (String parent : value.split(",")) {
+                if (!parent.trim().isEmpty()) {
+                    parents.add(parent.trim());
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Holds the built-in profiles, read when the class is first used.
+     */
+    private static final class Holder {
+        static final NamespaceProfiles DEFAULT = resolve(readBuiltIn());
+    }
+}
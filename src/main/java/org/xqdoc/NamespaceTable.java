@@ -0,0 +1,121 @@
+package org.xqdoc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>NamespaceTable class.</p>
+ *
+ * The distinct namespace declarations (prefix and URI) of the modules of a
+ * bundle.  Each declaration gets an id derived from its content, so that the
+ * ids do not depend on the order the modules are processed in.  Thread-safe.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class NamespaceTable {
+
+    private final ConcurrentMap<String, Entry> byKey = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Entry> byId = new ConcurrentHashMap<>();
+
+    /**
+     * Return the id of a namespace declaration, adding it to the table on first use.
+     *
+     * @param prefix The prefix
+     * @param uri The namespace
+     * @return The id of the declaration
+     */
+    public String id(String prefix, String uri)
+    {
+        String key = prefix + " " + uri;
+        Entry entry = byKey.get(key);
+        if (entry != null) {
+            return entry.getId();
+        }
+        String hash = BatchProcessor.contentHash(key.getBytes(StandardCharsets.UTF_8));
+        String id = "ns" + hash.substring(0, 12);
+        for (int i = 2; ; i++) {
+            Entry candidate = new Entry(id, prefix, uri);
+            Entry existing = byId.putIfAbsent(id, candidate);
+            if (existing == null) {
+                Entry raced = byKey.putIfAbsent(key, candidate);
+                if (raced != null) {
+                    byId.remove(id, candidate);
+                    return raced.getId();
+                }
+                return id;
+            }
+            if (existing.getPrefix().equals(prefix) && existing.getUri().equals(uri)) {
+                return existing.getId();
+            }
+            // Two declarations sharing the start of their hash
+            id = "ns" + hash.substring(0, 12) + "-" + i;
+        }
+    }
+
+    /**
+     * @return The declarations of the table, ordered by prefix and URI
+     */
+    public List<Entry> getEntries()
+    {
+        List<Entry> entries = new ArrayList<>(byKey.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry first, Entry second) {
+                int result = first.getPrefix().compareTo(second.getPrefix());
+                return (result != 0) ? result : first.getUri().compareTo(second.getUri());
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * @return The number of distinct declarations
+     */
+    public int size() {
+        return byKey.size();
+    }
+
+    /**
+     * A namespace declaration of the table.
+     */
+    public static final class Entry {
+        private final String id;
+        private final String prefix;
+        private final String uri;
+
+        Entry(String id, String prefix, String uri)
+        {
+            this.id = id;
+            this.prefix = prefix;
+            this.uri = uri;
+        }
+
+        /**
+         * @return The id of the declaration
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return The prefix
+         */
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @return The namespace
+         */
+        public String getUri() {
+            return uri;
+        }
+    }
+}
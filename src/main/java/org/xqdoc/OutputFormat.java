@@ -0,0 +1,44 @@
+package org.xqdoc;
+
+/**
+ * <p>OutputFormat enum.</p>
+ *
+ * The formats the documentation of a module can be written in.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public enum OutputFormat {
+
+    /** The xqDoc XML document */
+    XML(".xml"),
+
+    /** The same information as the xqDoc XML document, as JSON */
+    JSON(".json");
+
+    private final String extension;
+
+    OutputFormat(String extension)
+    {
+        this.extension = extension;
+    }
+
+    /**
+     * @return The file extension of the format, with the leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Find a format by name, ignoring case.
+     *
+     * @param name The name of the format (xml|json)
+     * @return The format
+     * @throws java.lang.IllegalArgumentException when the name is not a known format
+     */
+    public static OutputFormat forName(String name)
+    {
+        return valueOf(name.trim().toUpperCase(java.util.Locale.ROOT));
+    }
+}
@@ -0,0 +1,132 @@
+package org.xqdoc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>PackageArchive class.</p>
+ *
+ * A zip archive or eXist-db <code>.xar</code> package opened as a zip
+ * {@link FileSystem}, so that its modules are read, or the documentation
+ * written, through the {@link Path} of its root like those of a directory,
+ * without being extracted to disk.  The entries of an archive written are
+ * stored when it is closed.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class PackageArchive implements Closeable {
+
+    /** The extensions of the files read as archives */
+    public static final String[] EXTENSIONS = { ".zip", ".xar" };
+
+    private final FileSystem fileSystem;
+
+    /**
+     * @param fileSystem The zip file system of the archive
+     */
+    private PackageArchive(FileSystem fileSystem)
+    {
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * Open an archive to read its entries.
+     *
+     * @param archive The archive file
+     * @return The archive
+     * @throws java.io.IOException when the file is not a zip archive
+     */
+    public static PackageArchive open(Path archive) throws IOException
+    {
+        return new PackageArchive(newFileSystem(archive, false));
+    }
+
+    /**
+     * Create an archive to write entries to, replacing an existing file.
+     *
+     * @param archive The archive file
+     * @return The archive, empty
+     * @throws java.io.IOException when the file can not be created
+     */
+    public static PackageArchive create(Path archive) throws IOException
+    {
+        Files.deleteIfExists(archive);
+        if (archive.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(archive.toAbsolutePath().getParent());
+        }
+        return new PackageArchive(newFileSystem(archive, true));
+    }
+
+    /**
+     *
+     * @param archive The archive file
+     * @param create Whether the archive is created
+     * @return The zip file system of the archive
+     * @throws IOException when the archive can not be opened
+     */
+    private static FileSystem newFileSystem(Path archive, boolean create) throws IOException
+    {
+        Map<String, String> env = new HashMap<>();
+        if (create) {
+            env.put("create", "true");
+        }
+        return FileSystems.newFileSystem(URI.create("jar:" + archive.toAbsolutePath().toUri()), env);
+    }
+
+    /**
+     * @return The root directory of the entries
+     */
+    public Path getRoot() {
+        return fileSystem.getPath("/");
+    }
+
+    /**
+     * Return whether a file is read as an archive rather than as a directory.
+     *
+     * @param file A file
+     * @return true when the file is a regular file with one of the archive extensions
+     */
+    public static boolean isArchive(Path file)
+    {
+        return Files.isRegularFile(file) && hasArchiveExtension(file);
+    }
+
+    /**
+     * Return whether a file name has one of the archive extensions.
+     *
+     * @param file A file, which need not exist
+     * @return true when the file name ends with one of {@link #EXTENSIONS}
+     */
+    public static boolean hasArchiveExtension(Path file)
+    {
+        if (file.getFileName() == null) {
+            return false;
+        }
+        String name = file.getFileName().toString().toLowerCase();
+        for (String extension : EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the archive, storing the entries written.
+     *
+     * @throws java.io.IOException when the archive can not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        fileSystem.close();
+    }
+}
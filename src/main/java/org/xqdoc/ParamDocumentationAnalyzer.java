@@ -0,0 +1,105 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>ParamDocumentationAnalyzer class.</p>
+ *
+ * Checks that the <code>@param</code> tags of the xqDoc comment of every
+ * function name its parameters: a parameter without a tag is reported as
+ * <code>undocumented-param</code>, a tag naming no parameter as
+ * <code>unknown-param</code>.  Functions without an xqDoc comment are left to
+ * the documentation coverage.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ParamDocumentationAnalyzer extends XQueryAnalyzer {
+
+    /** The name of the analyzer */
+    public static final String NAME = "params";
+
+    /**
+     * <p>Constructor for ParamDocumentationAnalyzer.</p>
+     */
+    public ParamDocumentationAnalyzer()
+    {
+        super(NAME, "functionDecl");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public XQueryAnalyzer copy()
+    {
+        return new ParamDocumentationAnalyzer();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void exit(ParserRuleContext context, ModuleDeclaration module)
+    {
+        List<FunctionDeclaration> functions = module.getFunctions();
+        if (functions.isEmpty() || functions.get(functions.size() - 1).getComment() == null) {
+            return;
+        }
+        FunctionDeclaration function = functions.get(functions.size() - 1);
+        String subject = subject(function);
+        int line = context.getStart().getLine();
+        int column = context.getStart().getCharPositionInLine();
+
+        Set<String> documented = new HashSet<>();
+        for (String entry : function.getComment("param")) {
+            String name = paramName(entry);
+            if (name.isEmpty()) {
+                continue;
+            }
+            documented.add(name);
+            if (!hasParameter(function, name)) {
+                module.addAnalysisResult(AnalysisResult.finding(NAME, subject, "unknown-param", line, column,
+                        "@param $" + name + " of " + subject + " names no parameter"));
+            }
+        }
+        for (ParameterDeclaration parameter : function.getParameters()) {
+            if (!documented.contains(parameter.getName())) {
+                module.addAnalysisResult(AnalysisResult.finding(NAME, subject, "undocumented-param", line, column,
+                        "parameter $" + parameter.getName() + " of " + subject + " has no @param"));
+            }
+        }
+    }
+
+    /**
+     *
+     * @param entry The text of a <code>@param</code> tag
+     * @return The parameter name it starts with, without the <code>$</code>
+     */
+    static String paramName(String entry)
+    {
+        String text = entry.trim();
+        int end = 0;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        String name = text.substring(0, end);
+        return name.startsWith("$") ? name.substring(1) : name;
+    }
+
+    /**
+     *
+     * @param function A function
+     * @param name A parameter name
+     * @return true when the function has the parameter
+     */
+    private static boolean hasParameter(FunctionDeclaration function, String name)
+    {
+        for (ParameterDeclaration parameter : function.getParameters()) {
+            if (parameter.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+package org.xqdoc;
+
+/**
+ * <p>ParameterDeclaration class.</p>
+ *
+ * A parameter of a declared function with its optional sequence type.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ParameterDeclaration {
+
+    private final String name;
+    private final String type;
+    private final String occurrence;
+
+    /**
+     * <p>Constructor for ParameterDeclaration.</p>
+     *
+     * @param name The name of the parameter without the '$'
+     * @param type The item type of the parameter, or null when untyped
+     * @param occurrence The occurrence indicator (?|*|+), or null
+     */
+    public ParameterDeclaration(String name, String type, String occurrence)
+    {
+        this.name = name;
+        this.type = type;
+        this.occurrence = occurrence;
+    }
+
+    /**
+     * @return The name of the parameter without the '$'
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The item type of the parameter, or null when untyped
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return The occurrence indicator (?|*|+), or null
+     */
+    public String getOccurrence() {
+        return occurrence;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The parameter as written in a signature
+     */
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder("$").append(name);
+        if (type != null) {
+            buffer.append(" as ").append(type);
+            if (occurrence != null) {
+                buffer.append(occurrence);
+            }
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,279 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>PipelineStatistics class.</p>
+ *
+ * The statistics of the stages of a {@link BatchProcessor} run: the modules
+ * and bytes that went through each stage, the time spent in it and the
+ * highest heap use seen when a module left it, together with the highest
+ * number of modules and bytes in flight at the same time.  Updated by the
+ * threads of the pipeline.
+ *
+ * The limits on the modules in flight bound the sources and parse trees in
+ * memory, not the model of each completed module, which is kept until the end
+ * of the run for linking, indexing and HTML.  The modules and functions kept
+ * and the heap in use when the last run ended are recorded as well, so the
+ * memory that does grow with the repository is reported.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class PipelineStatistics {
+
+    /** Reading the module sources */
+    public static final String READ = "read";
+
+    /** Parsing the modules */
+    public static final String PARSE = "parse";
+
+    /** Building the xqDoc of the modules */
+    public static final String VISIT = "visit";
+
+    /** Validating the xqDoc against the schema, listed once a module has been validated */
+    public static final String VALIDATE = "validate";
+
+    /** Writing the output files, the bundle and the search index */
+    public static final String WRITE = "write";
+
+    private final Stage read = new Stage(READ);
+
+    private final Stage parse = new Stage(PARSE);
+
+    private final Stage visit = new Stage(VISIT);
+
+    private final Stage validate = new Stage(VALIDATE);
+
+    private final Stage write = new Stage(WRITE);
+
+    private final AtomicLong peakModulesInFlight = new AtomicLong();
+
+    private final AtomicLong peakBytesInFlight = new AtomicLong();
+
+    private final AtomicLong retainedModules = new AtomicLong();
+
+    private final AtomicLong retainedFunctions = new AtomicLong();
+
+    private final AtomicLong heapAtEnd = new AtomicLong();
+
+    /**
+     * @param name One of the stage names
+     * @return The statistics of the stage
+     */
+    public Stage getStage(String name)
+    {
+        for (Stage stage : getStages()) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        if (VALIDATE.equals(name)) {
+            return validate;
+        }
+        throw new IllegalArgumentException("Unknown stage " + name);
+    }
+
+    /**
+     * @return The statistics of every stage, in pipeline order
+     */
+    public List<Stage> getStages()
+    {
+        List<Stage> stages = new ArrayList<>();
+        Collections.addAll(stages, read, parse, visit);
+        if (validate.getModules() > 0) {
+            stages.add(validate);
+        }
+        stages.add(write);
+        return stages;
+    }
+
+    /**
+     * @return The highest number of modules read but not yet complete
+     */
+    public long getPeakModulesInFlight() {
+        return peakModulesInFlight.get();
+    }
+
+    /**
+     * @return The highest number of source bytes read for modules not yet complete
+     */
+    public long getPeakBytesInFlight() {
+        return peakBytesInFlight.get();
+    }
+
+    /**
+     * @return The modules completed and kept for the result of the runs
+     */
+    public long getRetainedModules() {
+        return retainedModules.get();
+    }
+
+    /**
+     * @return The functions of the modules kept
+     */
+    public long getRetainedFunctions() {
+        return retainedFunctions.get();
+    }
+
+    /**
+     * @return The heap in use when the last run ended, with the modules kept and the indexes
+     */
+    public long getHeapAtEnd() {
+        return heapAtEnd.get();
+    }
+
+    /**
+     *
+     * @param module A module completed and kept for the result of the run
+     */
+    void retain(ModuleDeclaration module)
+    {
+        retainedModules.incrementAndGet();
+        retainedFunctions.addAndGet(module.getFunctions().size());
+    }
+
+    /**
+     * Record the heap in use at the end of a run.
+     */
+    void endRun()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        heapAtEnd.set(runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     *
+     * @param modules The modules in flight
+     * @param bytes The source bytes in flight
+     */
+    void inFlight(long modules, long bytes)
+    {
+        max(peakModulesInFlight, modules);
+        max(peakBytesInFlight, bytes);
+    }
+
+    /**
+     *
+     * @param value The peak value
+     * @param candidate A new value
+     */
+    private static void max(AtomicLong value, long candidate)
+    {
+        long current = value.get();
+        while (candidate > current && !value.compareAndSet(current, candidate)) {
+            current = value.get();
+        }
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return One line per stage
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (Stage stage : getStages()) {
+            buffer.append(stage).append('\n');
+        }
+        buffer.append("in flight: peak ").append(getPeakModulesInFlight()).append(" modules, ")
+                .append(getPeakBytesInFlight() / 1024).append(" KB").append('\n');
+        buffer.append("retained: ").append(getRetainedModules()).append(" modules, ")
+                .append(getRetainedFunctions()).append(" functions, heap at end ")
+                .append(getHeapAtEnd() / (1024 * 1024)).append(" MB");
+        return buffer.toString();
+    }
+
+    /**
+     * The statistics of a stage.
+     */
+    public static final class Stage {
+        private final String name;
+        private final AtomicLong modules = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong peakHeap = new AtomicLong();
+
+        Stage(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Record a module leaving the stage.
+         *
+         * @param size The source bytes of the module
+         * @param startNanos The {@link System#nanoTime()} when the module entered the stage
+         */
+        void record(long size, long startNanos)
+        {
+            nanos.addAndGet(System.nanoTime() - startNanos);
+            modules.incrementAndGet();
+            bytes.addAndGet(size);
+            Runtime runtime = Runtime.getRuntime();
+            max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        /**
+         * Add time spent in the stage on a module already recorded.
+         *
+         * @param startNanos The {@link System#nanoTime()} when the work started
+         */
+        void addTime(long startNanos)
+        {
+            nanos.addAndGet(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * @return The name of the stage
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The modules that went through the stage
+         */
+        public long getModules() {
+            return modules.get();
+        }
+
+        /**
+         * @return The source bytes of the modules that went through the stage
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return The time spent in the stage, summed over the threads
+         */
+        public long getNanos() {
+            return nanos.get();
+        }
+
+        /**
+         * @return The highest heap use seen when a module left the stage
+         */
+        public long getPeakHeap() {
+            return peakHeap.get();
+        }
+
+        /**
+         * <p>toString.</p>
+         *
+         * @return The statistics as text
+         */
+        @Override
+        public String toString()
+        {
+            return name + ": " + getModules() + " modules, " + (getBytes() / 1024) + " KB, "
+                    + (getNanos() / 1000000) + " ms, peak heap " + (getPeakHeap() / (1024 * 1024)) + " MB";
+        }
+    }
+}
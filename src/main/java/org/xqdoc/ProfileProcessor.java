@@ -0,0 +1,96 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>ProfileProcessor class.</p>
+ *
+ * Documents modules one at a time with the predefined function namespaces of
+ * a profile, for {@link ExistDBProcessor} and {@link MarkLogicProcessor}.
+ * Thread-safe: each thread calling {@link #process(String, OutputFormat)}
+ * borrows its own parser, visitor and buffer, created for its first module
+ * and reused for the following ones.  The settings of the shared
+ * {@link ModuleParser} are taken for every module.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+class ProfileProcessor
+{
+
+    private final ModuleParser settings = new ModuleParser();
+
+    private final ThreadLocal<Worker> workers;
+
+    /**
+     * @param uriMap The predefined function namespaces by prefix
+     */
+    ProfileProcessor(final Map uriMap)
+    {
+        workers = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                return new Worker(uriMap);
+            }
+        };
+    }
+
+    /**
+     * @return The parser whose settings are used for every module
+     */
+    ModuleParser getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return The diagnostics of the last module processed by the calling thread
+     */
+    List<XQDocDiagnostic> getDiagnostics() {
+        return workers.get().moduleParser.getDiagnostics();
+    }
+
+    /**
+     * @param txt The XQuery source as a String
+     * @param format The output format
+     * @return The xqDoc XML Document or its JSON equivalent as a String
+     * @throws ParserConfigurationException a
+     * @throws IOException a
+     * @throws SAXException a
+     */
+    String process(String txt, OutputFormat format) throws ParserConfigurationException, IOException, SAXException {
+        Worker worker = workers.get();
+        worker.moduleParser.copySettings(settings);
+        CharStream inputStream = CharStreams.fromString(txt);
+        org.xqdoc.XQueryParser.ModuleContext fileContext = worker.moduleParser.parse(inputStream, null);
+        worker.buffer.setLength(0);
+        worker.visitor.reset(worker.buffer);
+        worker.visitor.setDeadline(worker.moduleParser.getDeadline(), worker.moduleParser.getTimeBudgetMillis());
+        worker.visitor.setMaxDepth(worker.moduleParser.getResourceLimits().getEffectiveMaxDepth());
+        worker.visitor.visit(fileContext);
+        if (format == OutputFormat.JSON) {
+            return new JsonEmitter().toJson(worker.visitor.getModuleDeclaration());
+        }
+        return DocumentUtility.getStringFromDoc(DocumentUtility.getDocumentFromBuffer(worker.buffer));
+    }
+
+    /**
+     * The parser, visitor and buffer of one thread.
+     */
+    private static final class Worker {
+        private final ModuleParser moduleParser = new ModuleParser();
+        private final StringBuilder buffer = new StringBuilder();
+        private final XQueryVisitor visitor;
+
+        Worker(Map uriMap)
+        {
+            visitor = new XQueryVisitor(buffer, uriMap);
+        }
+    }
+}
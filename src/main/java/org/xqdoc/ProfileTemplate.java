@@ -0,0 +1,282 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>ProfileTemplate class.</p>
+ *
+ * The xqDoc XML of a module with the names that depend on the namespace
+ * profile left open, so that a single parse and visit of the module gives its
+ * xqDoc for any number of profiles.  The {@link XQueryVisitor} records the
+ * calls, variable references and variable declarations whose prefix is only
+ * bound by the predefined function namespaces as holes in the XML it writes;
+ * {@link #toXml(CharSequence, Map)} fills them in for a profile and leaves out
+ * those the profile does not bind, as a visitor given that profile would have.
+ * The XML with holes is not well-formed until it has been filled in.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ProfileTemplate {
+
+    /** The namespace of a name bound by the profile, while the module is visited */
+    static final String UNBOUND = "\u0001";
+
+    // A hole is written as its number between two of these, which XML text never contains
+    private static final char HOLE = '\u0000';
+
+    private final List<Hole> holes = new ArrayList<>();
+
+    /**
+     * Fill in the holes of the xqDoc of a module.
+     *
+     * @param xml The xqDoc XML written by the visitor
+     * @param profile The predefined function namespaces, prefix to namespace
+     * @return The xqDoc XML for the profile
+     */
+    public String toXml(CharSequence xml, Map profile)
+    {
+        return fill(xml, profile).toString();
+    }
+
+    /**
+     * Fill in the holes of the xqDoc of a module into a new buffer, for
+     * callers that read the XML from a buffer.
+     *
+     * @param xml The xqDoc XML written by the visitor
+     * @param profile The predefined function namespaces, prefix to namespace
+     * @return The xqDoc XML for the profile
+     */
+    public StringBuilder fill(CharSequence xml, Map profile)
+    {
+        StringBuilder buffer = new StringBuilder(xml.length() + 256);
+        fill(xml, profile, buffer);
+        return buffer;
+    }
+
+    /**
+     *
+     * @param xml XML with holes
+     * @param profile The predefined function namespaces
+     * @param buffer The buffer receiving the XML filled in
+     */
+    private void fill(CharSequence xml, Map profile, StringBuilder buffer)
+    {
+        int length = xml.length();
+        int i = 0;
+        while (i < length) {
+            char c = xml.charAt(i);
+            if (c != HOLE) {
+                buffer.append(c);
+                i++;
+                continue;
+            }
+            int number = 0;
+            for (i++; xml.charAt(i) != HOLE; i++) {
+                number = number * 10 + (xml.charAt(i) - '0');
+            }
+            i++;
+            holes.get(number).fill(profile, buffer);
+        }
+    }
+
+    /**
+     *
+     * @param hole A hole
+     * @return The text standing for the hole in the XML
+     */
+    private String add(Hole hole)
+    {
+        holes.add(hole);
+        return HOLE + Integer.toString(holes.size() - 1) + HOLE;
+    }
+
+    /**
+     * Leave open an element naming a namespace bound by the profile.
+     *
+     * @param prefix The prefix of the namespace
+     * @param element The XML of the element, with {@link #UNBOUND} for the namespace
+     * @param encodeURIs Whether the namespace is written encoded
+     * @return The text standing for the element
+     */
+    String bind(String prefix, CharSequence element, boolean encodeURIs)
+    {
+        return add(new Binding(prefix, element.toString(), encodeURIs));
+    }
+
+    /**
+     * Leave open the variables referenced by a function or main module.
+     *
+     * @param references The references in the order they are visited: the
+     *                   namespace, or null when the profile binds the prefix,
+     *                   the prefix and the local name
+     * @param encodeURIs Whether the namespaces are written encoded
+     * @return The text standing for the <code>xqdoc:ref-variable</code> elements
+     */
+    String references(List<String[]> references, boolean encodeURIs)
+    {
+        return add(new References(new ArrayList<>(references), encodeURIs));
+    }
+
+    /**
+     * Leave open an element left out when it is empty.
+     *
+     * @param start The start tag
+     * @param content The content, with holes
+     * @param end The end tag
+     * @return The text standing for the element
+     */
+    String nonEmpty(String start, CharSequence content, String end)
+    {
+        return add(new NonEmpty(start, content.toString(), end));
+    }
+
+    /**
+     * Resolve the variables referenced by a function or main module for a
+     * profile, keeping the first reference to each, in the order a visitor
+     * given the profile would write them.
+     *
+     * @param references The references as given to {@link #references(List, boolean)}
+     * @param profile The predefined function namespaces
+     * @param encodeURIs Whether the namespaces are written encoded
+     * @return The references the profile binds
+     */
+    static List<VariableReference> resolve(List<String[]> references, Map profile, boolean encodeURIs)
+    {
+        // The visitor keeps the references in a hash set, so they come out in its order
+        HashSet<String> names = new HashSet<>();
+        for (String[] reference : references) {
+            String namespace = (reference[0] != null) ? reference[0] : namespace(profile, reference[1], encodeURIs);
+            if (namespace != null) {
+                names.add(namespace + " " + reference[2]);
+            }
+        }
+        List<VariableReference> resolved = new ArrayList<>(names.size());
+        for (String name : names) {
+            String[] parts = name.split(" ", 2);
+            resolved.add(new VariableReference(trimQuotes(parts[0]), parts[1]));
+        }
+        return resolved;
+    }
+
+    /**
+     *
+     * @param profile The predefined function namespaces
+     * @param prefix A prefix
+     * @param encodeURIs Whether the namespace is written encoded
+     * @return The namespace as written, or null when the profile does not bind the prefix
+     */
+    private static String namespace(Map profile, String prefix, boolean encodeURIs)
+    {
+        String namespace = (String) profile.get(prefix);
+        if (namespace == null) {
+            return null;
+        }
+        return encodeURIs ? XQueryVisitor.encodeURI(namespace) : namespace;
+    }
+
+    /**
+     *
+     * @param text A namespace
+     * @return The namespace without the quotes of a string literal
+     */
+    private static String trimQuotes(String text)
+    {
+        return text.startsWith("\"") ? text.substring(1, text.length() - 1) : text;
+    }
+
+    /**
+     * A part of the XML that depends on the profile.
+     */
+    private interface Hole {
+        /**
+         * @param profile The predefined function namespaces
+         * @param buffer The buffer receiving the XML of the hole
+         */
+        void fill(Map profile, StringBuilder buffer);
+    }
+
+    /**
+     * An element naming a namespace bound by the profile, left out when the
+     * profile does not bind the prefix.
+     */
+    private final class Binding implements Hole {
+        private final String prefix;
+        private final String element;
+        private final boolean encodeURIs;
+
+        Binding(String prefix, String element, boolean encodeURIs)
+        {
+            this.prefix = prefix;
+            this.element = element;
+            this.encodeURIs = encodeURIs;
+        }
+
+        @Override
+        public void fill(Map profile, StringBuilder buffer)
+        {
+            String namespace = namespace(profile, prefix, encodeURIs);
+            if (namespace != null) {
+                ProfileTemplate.this.fill(element.replace(UNBOUND, trimQuotes(namespace)), profile, buffer);
+            }
+        }
+    }
+
+    /**
+     * The <code>xqdoc:ref-variable</code> elements of a function or main module.
+     */
+    private static final class References implements Hole {
+        private final List<String[]> references;
+        private final boolean encodeURIs;
+
+        References(List<String[]> references, boolean encodeURIs)
+        {
+            this.references = references;
+            this.encodeURIs = encodeURIs;
+        }
+
+        @Override
+        public void fill(Map profile, StringBuilder buffer)
+        {
+            for (VariableReference reference : resolve(references, profile, encodeURIs)) {
+                buffer.append("<xqdoc:ref-variable>").append("\n");
+                buffer.append("<xqdoc:uri>").append(reference.getUri()).append("</xqdoc:uri>").append("\n");
+                buffer.append("<xqdoc:name>").append(reference.getLocalName()).append("</xqdoc:name>").append("\n");
+                buffer.append("</xqdoc:ref-variable>").append("\n");
+            }
+        }
+    }
+
+    /**
+     * An element left out when its content is empty for the profile.
+     */
+    private final class NonEmpty implements Hole {
+        private final String start;
+        private final String content;
+        private final String end;
+
+        NonEmpty(String start, String content, String end)
+        {
+            this.start = start;
+            this.content = content;
+            this.end = end;
+        }
+
+        @Override
+        public void fill(Map profile, StringBuilder buffer)
+        {
+            int mark = buffer.length();
+            buffer.append(start);
+            int contentStart = buffer.length();
+            ProfileTemplate.this.fill(content, profile, buffer);
+            if (buffer.length() == contentStart) {
+                buffer.setLength(mark);
+            } else {
+                buffer.append(end);
+            }
+        }
+    }
+}
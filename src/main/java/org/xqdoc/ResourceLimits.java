@@ -0,0 +1,166 @@
+package org.xqdoc;
+
+/**
+ * <p>ResourceLimits class.</p>
+ *
+ * Hard limits on the resources spent on a single module, for documenting
+ * modules that come from untrusted sources.  The input size is checked before
+ * the module is lexed, the number of tokens and the nesting of string
+ * interpolations by the lexer, the depth of the parse tree and the time by
+ * the parser and the visitor.  A module over a limit is abandoned
+ * with an {@link XQDocLimitExceededException}.  A limit of 0 or less is no
+ * limit, which is the default for every limit.  Once any limit is set the
+ * depth is limited too, to {@link #DEFAULT_MAX_DEPTH} unless set otherwise,
+ * so that a deep module is abandoned rather than overflowing the stack.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class ResourceLimits {
+
+    /**
+     * The resources that are limited.
+     */
+    public enum Limit {
+        /** The size of the module */
+        INPUT_BYTES,
+        /** The number of tokens of the module */
+        TOKENS,
+        /** The nesting of the rules of the parse tree and of the lexer modes */
+        DEPTH,
+        /** The time spent parsing and visiting the module */
+        TIME
+    }
+
+    /** The depth of the parse tree and of the lexer modes, in untrusted limits and when no depth is set */
+    public static final int DEFAULT_MAX_DEPTH = 1000;
+
+    private long maxInputBytes = 0;
+
+    private long maxTokens = 0;
+
+    private int maxDepth = 0;
+
+    private long maxMillis = 0;
+
+    /**
+     * Return limits suited to modules uploaded by users of a shared service: 4 MB,
+     * one million tokens, a parse tree 1000 rules deep and 10 seconds.
+     *
+     * @return New limits
+     */
+    public static ResourceLimits untrusted()
+    {
+        ResourceLimits limits = new ResourceLimits();
+        limits.setMaxInputBytes(4L * 1024 * 1024);
+        limits.setMaxTokens(1000000);
+        limits.setMaxDepth(DEFAULT_MAX_DEPTH);
+        limits.setMaxMillis(10000);
+        return limits;
+    }
+
+    /**
+     * Return a copy of these limits.
+     *
+     * @return New limits with the same values
+     */
+    public ResourceLimits copy()
+    {
+        ResourceLimits limits = new ResourceLimits();
+        limits.setMaxInputBytes(maxInputBytes);
+        limits.setMaxTokens(maxTokens);
+        limits.setMaxDepth(maxDepth);
+        limits.setMaxMillis(maxMillis);
+        return limits;
+    }
+
+    /**
+     * @param maxInputBytes The size of a module, in bytes for a file and in characters for a string
+     */
+    public void setMaxInputBytes(long maxInputBytes) {
+        this.maxInputBytes = maxInputBytes;
+    }
+
+    /**
+     * @return The size of a module
+     */
+    public long getMaxInputBytes() {
+        return maxInputBytes;
+    }
+
+    /**
+     * @param maxTokens The number of tokens of a module, including whitespace and comments
+     */
+    public void setMaxTokens(long maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @return The number of tokens of a module
+     */
+    public long getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * @param maxDepth The depth of the parse tree, in rules, and of the nested lexer modes
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return The depth of the parse tree
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The depth limit of the lexer, the parser and the visitor: the depth set,
+     * or {@link #DEFAULT_MAX_DEPTH} when none is set but another limit is.
+     *
+     * @return The depth of the parse tree, or 0 when no limit is set at all
+     */
+    public int getEffectiveMaxDepth() {
+        if (maxDepth > 0) {
+            return maxDepth;
+        }
+        return isEnabled() ? DEFAULT_MAX_DEPTH : 0;
+    }
+
+    /**
+     * @return Whether any limit is set
+     */
+    public boolean isEnabled() {
+        return maxInputBytes > 0 || maxTokens > 0 || maxDepth > 0 || maxMillis > 0;
+    }
+
+    /**
+     * @param maxMillis The time spent parsing and visiting a module, in milliseconds
+     */
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return The time spent parsing and visiting a module, in milliseconds
+     */
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * Check the size of a module.
+     *
+     * @param size The size of the module
+     * @throws XQDocLimitExceededException when the module is too large
+     */
+    public void checkInputSize(long size)
+    {
+        if (maxInputBytes > 0 && size > maxInputBytes) {
+            throw new XQDocLimitExceededException(Limit.INPUT_BYTES, maxInputBytes,
+                    "Module of " + size + " bytes exceeds the limit of " + maxInputBytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>RestRoute class.</p>
+ *
+ * The RESTXQ route of a function, read from its annotations:
+ * <code>%rest:path</code> gives the path template, <code>%rest:GET</code>,
+ * <code>%rest:POST</code> and the other method annotations or
+ * <code>%rest:method</code> the HTTP methods, and <code>%rest:consumes</code>
+ * and <code>%rest:produces</code> the media types of the request and the
+ * response.  A route without a method annotation accepts every method, and a
+ * route without media types accepts any.  The annotations are recognized by
+ * the <code>rest</code> prefix, unless the module binds another prefix to the
+ * RESTXQ namespace.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class RestRoute {
+
+    /** The namespace of the RESTXQ annotations */
+    public static final String RESTXQ_NAMESPACE = "http://exquery.org/ns/restxq";
+
+    private static final String[] METHODS = { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH" };
+
+    private final FunctionDeclaration function;
+    private final String source;
+    private final String template;
+    private final List<String> segments;
+    private final Set<String> methods;
+    private final List<String> consumes;
+    private final List<String> produces;
+
+    /**
+     * @param function The function handling the route
+     * @param source The source of the declaring module
+     * @param template The path template
+     * @param methods The HTTP methods in upper case, empty for every method
+     * @param consumes The media types of the request, empty for any
+     * @param produces The media types of the response, empty for any
+     */
+    public RestRoute(FunctionDeclaration function, String source, String template, Set<String> methods,
+                     List<String> consumes, List<String> produces)
+    {
+        this.function = function;
+        this.source = source;
+        this.template = template;
+        this.segments = split(template);
+        this.methods = Collections.unmodifiableSet(methods);
+        this.consumes = Collections.unmodifiableList(consumes);
+        this.produces = Collections.unmodifiableList(produces);
+    }
+
+    /**
+     * Read the routes of the functions of a module.
+     *
+     * @param module The module
+     * @return The routes of the functions with a <code>%rest:path</code>, in declaration order
+     */
+    public static List<RestRoute> of(ModuleDeclaration module)
+    {
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (Map.Entry<String, String> namespace : module.getNamespaces().entrySet()) {
+            if (RESTXQ_NAMESPACE.equals(namespace.getValue())) {
+                prefixes.add(namespace.getKey());
+            }
+        }
+        if (!module.getNamespaces().containsKey("rest")) {
+            // Predeclared by the RESTXQ implementations
+            prefixes.add("rest");
+        }
+        List<RestRoute> routes = new ArrayList<>();
+        for (FunctionDeclaration function : module.getFunctions()) {
+            String template = null;
+            Set<String> methods = new LinkedHashSet<>();
+            List<String> consumes = new ArrayList<>();
+            List<String> produces = new ArrayList<>();
+            for (AnnotationDeclaration annotation : function.getAnnotations()) {
+                String name = annotation.getName();
+                int colon = name.indexOf(':');
+                if (colon < 0 || !prefixes.contains(name.substring(0, colon))) {
+                    continue;
+                }
+                String localName = name.substring(colon + 1);
+                if ("path".equals(localName) && !annotation.getLiterals().isEmpty()) {
+                    template = annotation.getLiterals().get(0);
+                } else if ("method".equals(localName) && !annotation.getLiterals().isEmpty()) {
+                    methods.add(annotation.getLiterals().get(0).toUpperCase(Locale.ROOT));
+                } else if ("consumes".equals(localName)) {
+                    addMediaTypes(annotation.getLiterals(), consumes);
+                } else if ("produces".equals(localName)) {
+                    addMediaTypes(annotation.getLiterals(), produces);
+                } else {
+                    for (String method : METHODS) {
+                        if (method.equals(localName)) {
+                            methods.add(method);
+                        }
+                    }
+                }
+            }
+            if (template != null) {
+                routes.add(new RestRoute(function, module.getSource(), template, methods, consumes, produces));
+            }
+        }
+        return routes;
+    }
+
+    /**
+     *
+     * @param literals The literals of a media type annotation
+     * @param mediaTypes The media types, added to
+     */
+    private static void addMediaTypes(List<String> literals, List<String> mediaTypes)
+    {
+        for (String literal : literals) {
+            for (String mediaType : literal.split(",")) {
+                String normalized = mediaType(mediaType);
+                if (!normalized.isEmpty()) {
+                    mediaTypes.add(normalized);
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a path into its segments.
+     *
+     * @param path A path or path template
+     * @return The non-empty segments between the slashes
+     */
+    public static List<String> split(String path)
+    {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Return the name of the variable of a template segment.
+     *
+     * @param segment A segment of a path template
+     * @return The variable name of a <code>{$name}</code> segment, without the
+     *         <code>$</code>, or null for a literal segment
+     */
+    public static String variable(String segment)
+    {
+        if (segment.length() > 3 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}') {
+            String name = segment.substring(1, segment.length() - 1).trim();
+            return name.startsWith("$") ? name.substring(1).trim() : name;
+        }
+        return null;
+    }
+
+    /**
+     * Normalize a media type, dropping its parameters.
+     *
+     * @param mediaType A media type or media range
+     * @return The type and subtype in lower case
+     */
+    static String mediaType(String mediaType)
+    {
+        int semicolon = mediaType.indexOf(';');
+        return ((semicolon < 0) ? mediaType : mediaType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Whether two media types or media ranges, such as <code>text/*</code>, overlap.
+     *
+     * @param a A normalized media type
+     * @param b A normalized media type
+     * @return true when a message could have both types
+     */
+    static boolean mediaTypesMatch(String a, String b)
+    {
+        if (a.equals(b) || "*/*".equals(a) || "*/*".equals(b)) {
+            return true;
+        }
+        int slashA = a.indexOf('/');
+        int slashB = b.indexOf('/');
+        if (slashA < 0 || slashB < 0 || !a.substring(0, slashA).equals(b.substring(0, slashB))) {
+            return false;
+        }
+        return "*".equals(a.substring(slashA + 1)) || "*".equals(b.substring(slashB + 1));
+    }
+
+    /**
+     * @return The function handling the route
+     */
+    public FunctionDeclaration getFunction() {
+        return function;
+    }
+
+    /**
+     * @return The source of the declaring module
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The path template
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return The segments of the path template
+     */
+    public List<String> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return The HTTP methods in upper case, empty for every method
+     */
+    public Set<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return The media types of the request, empty for any
+     */
+    public List<String> getConsumes() {
+        return consumes;
+    }
+
+    /**
+     * @return The media types of the response, empty for any
+     */
+    public List<String> getProduces() {
+        return produces;
+    }
+
+    /**
+     * @param method An HTTP method in upper case
+     * @return Whether the route accepts the method
+     */
+    public boolean acceptsMethod(String method)
+    {
+        return methods.isEmpty() || methods.contains(method);
+    }
+
+    /**
+     * @param contentType The media type of the request body, or null for none
+     * @return Whether the route accepts the request body
+     */
+    public boolean consumes(String contentType)
+    {
+        if (consumes.isEmpty() || contentType == null) {
+            return true;
+        }
+        String type = mediaType(contentType);
+        for (String consumed : consumes) {
+            if (mediaTypesMatch(consumed, type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param accept The media ranges of an <code>Accept</code> header, or null for any
+     * @return Whether the route produces a media type the client accepts
+     */
+    public boolean produces(String accept)
+    {
+        if (produces.isEmpty() || accept == null) {
+            return true;
+        }
+        for (String range : accept.split(",")) {
+            if (isRefused(range)) {
+                continue;
+            }
+            String type = mediaType(range);
+            for (String produced : produces) {
+                if (mediaTypesMatch(produced, type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param range A media range of an <code>Accept</code> header
+     * @return true when its quality is 0, refusing the type
+     */
+    private static boolean isRefused(String range)
+    {
+        String[] parameters = range.split(";");
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim()) <= 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return how specific the route is, among the routes of the same path
+     * template: a route naming its methods is more specific than one accepting
+     * every method, then one naming the media types of the request, then one
+     * naming those of the response.
+     *
+     * @return The specificity, from 0 to 7
+     */
+    public int getSpecificity()
+    {
+        return (methods.isEmpty() ? 0 : 4) + (consumes.isEmpty() ? 0 : 2) + (produces.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Whether a request could match both routes, given the same path.
+     *
+     * @param other Another route
+     * @return true when they share a method and their media types overlap
+     */
+    public boolean overlaps(RestRoute other)
+    {
+        boolean method = methods.isEmpty() || other.methods.isEmpty();
+        for (String name : methods) {
+            method |= other.methods.contains(name);
+        }
+        return method && overlaps(consumes, other.consumes) && overlaps(produces, other.produces);
+    }
+
+    /**
+     *
+     * @param a The media types of a route
+     * @param b The media types of another route
+     * @return true when either accepts any type or they share one
+     */
+    private static boolean overlaps(List<String> a, List<String> b)
+    {
+        if (a.isEmpty() || b.isEmpty()) {
+            return true;
+        }
+        for (String typeA : a) {
+            for (String typeB : b) {
+                if (mediaTypesMatch(typeA, typeB)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The methods, template, media types and function
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(methods.isEmpty() ? "*" : join(methods)).append(' ').append(template);
+        if (!consumes.isEmpty()) {
+            buffer.append(" consumes ").append(join(consumes));
+        }
+        if (!produces.isEmpty()) {
+            buffer.append(" produces ").append(join(produces));
+        }
+        return buffer.append(" -> ").append(function).append(" (").append(source).append(')').toString();
+    }
+
+    /**
+     *
+     * @param values Values
+     * @return The values separated by commas
+     */
+    private static String join(Iterable<String> values)
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (String value : values) {
+            buffer.append((buffer.length() > 0) ? "," : "").append(value);
+        }
+        return buffer.toString();
+    }
+}
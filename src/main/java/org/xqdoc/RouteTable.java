@@ -0,0 +1,225 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>RouteTable class.</p>
+ *
+ * The RESTXQ routes of a repository, compiled into a trie of path template
+ * segments.  A literal segment is a child of a node by its text and every
+ * <code>{$name}</code> segment is the single variable child, so routes whose
+ * templates only differ in the names of their variables end at the same
+ * node.  A request path is matched segment by segment, trying the literal
+ * child before the variable child, so that the more specific template wins
+ * as RESTXQ requires; the routes of the node reached are then dispatched on
+ * the method, the media type of the request and the media types the client
+ * accepts.  Matching costs a map lookup per segment, independent of the
+ * number of routes.
+ *
+ * Routes of the same node that a request could match both, sharing a method
+ * and overlapping media types, and that are as specific as each other, are
+ * reported as conflicts when the table is built.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class RouteTable {
+
+    private final Node root = new Node();
+
+    private final List<RestRoute> routes = new ArrayList<>();
+
+    private final List<String> conflicts = new ArrayList<>();
+
+    /**
+     * Compile the routes of the functions of modules.
+     *
+     * @param modules The modules of a repository
+     */
+    public RouteTable(Collection<ModuleDeclaration> modules)
+    {
+        for (ModuleDeclaration module : modules) {
+            for (RestRoute route : RestRoute.of(module)) {
+                add(route);
+            }
+        }
+    }
+
+    /**
+     * Add a route, recording its conflicts with the routes already added.
+     *
+     * @param route The route
+     */
+    public void add(RestRoute route)
+    {
+        Node node = root;
+        for (String segment : route.getSegments()) {
+            if (RestRoute.variable(segment) != null) {
+                if (node.variable == null) {
+                    node.variable = new Node();
+                }
+                node = node.variable;
+            } else {
+                Node child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        for (RestRoute other : node.routes) {
+            if (other.overlaps(route) && other.getSpecificity() == route.getSpecificity()) {
+                conflicts.add("conflicting routes " + other + " and " + route);
+            }
+        }
+        node.routes.add(route);
+        routes.add(route);
+    }
+
+    /**
+     * @return The routes, in the order they were added
+     */
+    public List<RestRoute> getRoutes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    /**
+     * @return The descriptions of the pairs of routes a request could match both
+     */
+    public List<String> getConflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    /**
+     * Find the route handling a request.
+     *
+     * @param method The HTTP method
+     * @param path The request path, without the query
+     * @param contentType The media type of the request body, or null for none
+     * @param accept The <code>Accept</code> header, or null for any media type
+     * @return The route and the values of its path variables, or null when no route matches
+     */
+    public Match lookup(String method, String path, String contentType, String accept)
+    {
+        int query = path.indexOf('?');
+        List<String> segments = RestRoute.split((query < 0) ? path : path.substring(0, query));
+        return lookup(root, segments, 0, method.toUpperCase(Locale.ROOT), contentType, accept);
+    }
+
+    /**
+     *
+     * @param node The node reached
+     * @param segments The segments of the request path
+     * @param index The index of the next segment
+     * @param method The HTTP method in upper case
+     * @param contentType The media type of the request body, or null
+     * @param accept The Accept header, or null
+     * @return The match below the node, or null
+     */
+    private static Match lookup(Node node, List<String> segments, int index, String method, String contentType, String accept)
+    {
+        if (index == segments.size()) {
+            RestRoute best = null;
+            int bestRank = -1;
+            for (RestRoute route : node.routes) {
+                if (route.acceptsMethod(method) && route.consumes(contentType) && route.produces(accept)) {
+                    int rank = route.getSpecificity();
+                    if (rank > bestRank) {
+                        best = route;
+                        bestRank = rank;
+                    }
+                }
+            }
+            return (best != null) ? new Match(best, segments) : null;
+        }
+        Node literal = node.literals.get(segments.get(index));
+        if (literal != null) {
+            Match match = lookup(literal, segments, index + 1, method, contentType, accept);
+            if (match != null) {
+                return match;
+            }
+        }
+        return (node.variable != null) ? lookup(node.variable, segments, index + 1, method, contentType, accept) : null;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return A line per route
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (RestRoute route : routes) {
+            buffer.append(route).append('\n');
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * A node of the trie.
+     */
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private Node variable = null;
+        private final List<RestRoute> routes = new ArrayList<>(1);
+    }
+
+    /**
+     * The route matching a request, with the values of its path variables.
+     */
+    public static final class Match {
+        private final RestRoute route;
+        private final Map<String, String> variables = new LinkedHashMap<>();
+
+        /**
+         * @param route The route
+         * @param segments The segments of the request path
+         */
+        Match(RestRoute route, List<String> segments)
+        {
+            this.route = route;
+            List<String> template = route.getSegments();
+            for (int i = 0; i < template.size(); i++) {
+                String name = RestRoute.variable(template.get(i));
+                if (name != null) {
+                    variables.put(name, segments.get(i));
+                }
+            }
+        }
+
+        /**
+         * @return The route
+         */
+        public RestRoute getRoute() {
+            return route;
+        }
+
+        /**
+         * @return The values of the path variables by name
+         */
+        public Map<String, String> getVariables() {
+            return variables;
+        }
+
+        /**
+         * <p>toString.</p>
+         *
+         * @return The function and the variables
+         */
+        @Override
+        public String toString()
+        {
+            return route.getFunction() + " " + variables + " (" + route.getSource() + ")";
+        }
+    }
+}
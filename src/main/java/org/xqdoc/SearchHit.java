@@ -0,0 +1,125 @@
+package org.xqdoc;
+
+/**
+ * <p>SearchHit class.</p>
+ *
+ * A function found by a {@link SearchIndex} query, with the field of the
+ * function the query matched.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class SearchHit {
+
+    /** Constant <code>NAME="name"</code> */
+    public static final String NAME = "name";
+
+    /** Constant <code>PARAMETER="parameter"</code> */
+    public static final String PARAMETER = "parameter";
+
+    /** Constant <code>TYPE="type"</code> */
+    public static final String TYPE = "type";
+
+    /** Constant <code>ANNOTATION="annotation"</code> */
+    public static final String ANNOTATION = "annotation";
+
+    /** Constant <code>DESCRIPTION="description"</code> */
+    public static final String DESCRIPTION = "description";
+
+    /** Constant <code>PARAM="param"</code> */
+    public static final String PARAM = "param";
+
+    /** Constant <code>RETURN="return"</code> */
+    public static final String RETURN = "return";
+
+    private final String source;
+    private final String uri;
+    private final String localName;
+    private final int arity;
+    private final String field;
+
+    /**
+     * <p>Constructor for SearchHit.</p>
+     *
+     * @param source The source of the module declaring the function
+     * @param uri The namespace of the function
+     * @param localName The local name of the function
+     * @param arity The number of parameters
+     * @param field The field that matched
+     */
+    public SearchHit(String source, String uri, String localName, int arity, String field)
+    {
+        this.source = source;
+        this.uri = uri;
+        this.localName = localName;
+        this.arity = arity;
+        this.field = field;
+    }
+
+    /**
+     * @return The source of the module declaring the function
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The namespace of the function
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The local name of the function
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return The number of parameters
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return The field that matched (name|parameter|type|annotation|description|param|return)
+     */
+    public String getField() {
+        return field;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof SearchHit)) {
+            return false;
+        }
+        SearchHit hit = (SearchHit) other;
+        return arity == hit.arity
+                && source.equals(hit.source)
+                && localName.equals(hit.localName)
+                && field.equals(hit.field)
+                && uri.equals(hit.uri);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode()
+    {
+        return ((source.hashCode() * 31 + localName.hashCode()) * 31 + arity) * 31 + field.hashCode();
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The hit as <code>source: Q{uri}local#arity (field)</code>
+     */
+    public String toString()
+    {
+        return source + ": Q{" + uri + "}" + localName + "#" + arity + " (" + field + ")";
+    }
+}
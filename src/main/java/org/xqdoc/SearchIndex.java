@@ -0,0 +1,222 @@
+package org.xqdoc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * <p>SearchIndex class.</p>
+ *
+ * A prefix search index over the functions of a repository, fed from the
+ * {@link ModuleDeclaration}s built by the visitor rather than from the xqDoc
+ * XML.  Function names, parameter names and types, annotations and the
+ * description, <code>@param</code> and <code>@return</code> entries of the
+ * xqDoc comments are indexed.
+ *
+ * Each module is held in its own segment of a {@link SegmentStore}, written
+ * to its own file (<code>source.xqidx</code>) when the index has a directory.
+ * The terms of all the segments are kept in a sorted dictionary, so a prefix
+ * query is a range scan of the dictionary.  Thread-safe.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class SearchIndex extends SegmentStore<SearchHit> {
+
+    /** The extension of the segment files */
+    public static final String SEGMENT_EXTENSION = ".xqidx";
+
+    private static final int MAGIC = 0x58514458;
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Create an index kept in memory only.
+     */
+    public SearchIndex()
+    {
+        this(null);
+    }
+
+    /**
+     * Create an empty index writing its segments to a directory.
+     *
+     * @param directory The index directory, or null to keep the index in memory only
+     */
+    public SearchIndex(Path directory)
+    {
+        super(directory, SEGMENT_EXTENSION, MAGIC, FORMAT_VERSION, "xqDoc search index");
+    }
+
+    /**
+     * Open the index kept in a directory.  The directory is created when it does not exist.
+     *
+     * @param directory The index directory
+     * @return The index with every segment of the directory loaded
+     * @throws java.io.IOException when a segment can not be read
+     */
+    public static SearchIndex open(Path directory) throws IOException
+    {
+        SearchIndex index = new SearchIndex(directory);
+        index.load();
+        return index;
+    }
+
+    /**
+     * Find the functions having a term starting with a prefix.  The case of the
+     * prefix is ignored.
+     *
+     * @param prefix The prefix
+     * @param limit The maximum number of hits
+     * @return The distinct hits, ordered by matching term
+     */
+    public synchronized List<SearchHit> search(String prefix, int limit)
+    {
+        String from = prefix.trim().toLowerCase(Locale.ROOT);
+        Set<SearchHit> hits = new LinkedHashSet<>();
+        if (from.isEmpty()) {
+            return new ArrayList<>(hits);
+        }
+        SortedMap<String, Set<String>> range = getTerms().subMap(from, from + Character.MAX_VALUE);
+        for (Map.Entry<String, Set<String>> entry : range.entrySet()) {
+            for (String source : entry.getValue()) {
+                Segment<SearchHit> segment = getSegment(source);
+                for (int hit : segment.getPosting(entry.getKey())) {
+                    hits.add(segment.getEntry(hit));
+                    if (hits.size() >= limit) {
+                        return new ArrayList<>(hits);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(hits);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void index(ModuleDeclaration module, Segment<SearchHit> segment)
+    {
+        for (FunctionDeclaration function : module.getFunctions()) {
+            index(segment, function, SearchHit.NAME, function.getLocalName());
+            for (ParameterDeclaration parameter : function.getParameters()) {
+                index(segment, function, SearchHit.PARAMETER, parameter.getName());
+                index(segment, function, SearchHit.TYPE, parameter.getType());
+            }
+            index(segment, function, SearchHit.TYPE, function.getReturnType());
+            for (AnnotationDeclaration annotation : function.getAnnotations()) {
+                index(segment, function, SearchHit.ANNOTATION, annotation.getName());
+                for (String literal : annotation.getLiterals()) {
+                    index(segment, function, SearchHit.ANNOTATION, literal);
+                }
+            }
+            for (String field : new String[] { SearchHit.DESCRIPTION, SearchHit.PARAM, SearchHit.RETURN }) {
+                for (String text : function.getComment(field)) {
+                    index(segment, function, field, text);
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param segment The segment being built
+     * @param function The function
+     * @param field The field of the function
+     * @param text The text of the field
+     */
+    private static void index(Segment<SearchHit> segment, FunctionDeclaration function, String field, String text)
+    {
+        Set<String> fieldTerms = new TreeSet<>();
+        tokenize(text, fieldTerms);
+        if (fieldTerms.isEmpty()) {
+            return;
+        }
+        String uri = (function.getUri() != null) ? function.getUri() : "";
+        segment.add(new SearchHit(segment.getSource(), uri, function.getLocalName(), function.getArity(), field), fieldTerms);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void writeEntry(DataOutputStream data, SearchHit hit) throws IOException
+    {
+        data.writeUTF(hit.getUri());
+        data.writeUTF(hit.getLocalName());
+        data.writeInt(hit.getArity());
+        data.writeUTF(hit.getField());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected SearchHit readEntry(DataInputStream data, String source, Path file) throws IOException
+    {
+        String uri = data.readUTF();
+        String localName = data.readUTF();
+        int arity = data.readInt();
+        String field = data.readUTF();
+        return new SearchHit(source, uri, localName, arity, field);
+    }
+
+    /**
+     * Split a text into lower case terms.  Words joined by '-', '_', ':' or '.'
+     * are indexed as a whole and by part, so that <code>get-user</code> is found
+     * by both <code>get-user</code> and <code>user</code>.
+     *
+     * @param text The text
+     * @param into The set receiving the terms
+     */
+    static void tokenize(String text, Set<String> into)
+    {
+        if (text == null) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            char c = (i < length) ? lower.charAt(i) : ' ';
+            boolean wordChar = Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c == '.';
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addWord(lower.substring(start, i), into);
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param word A word, possibly with separators
+     * @param into The set receiving the terms
+     */
+    private static void addWord(String word, Set<String> into)
+    {
+        int first = 0;
+        int last = word.length();
+        while (first < last && !Character.isLetterOrDigit(word.charAt(first))) {
+            first++;
+        }
+        while (last > first && !Character.isLetterOrDigit(word.charAt(last - 1))) {
+            last--;
+        }
+        if (first == last) {
+            return;
+        }
+        String term = word.substring(first, last);
+        into.add(term);
+        for (String part : term.split("[-_:.]+")) {
+            if (!part.isEmpty()) {
+                into.add(part);
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package org.xqdoc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>SegmentStore class.</p>
+ *
+ * The storage shared by the indexes of a repository, such as the
+ * {@link SearchIndex} and the {@link TypeIndex}.  Each module is held in its
+ * own segment: the entries of the module, such as its functions, and the
+ * entries having each term.  The terms of all the segments are kept in a
+ * sorted dictionary.  With a directory, every segment is also written to a
+ * self-contained file named after the module, so a module is re-indexed
+ * without touching the others and an index can be reopened from the directory
+ * alone.
+ *
+ * The subclasses extract the entries and their terms from a module and write
+ * and read an entry.  Thread-safe: the dictionary is guarded by the store, and
+ * a segment file is only replaced while holding it, so the files and the
+ * dictionary agree even when a module is updated by two threads at once.
+ *
+ * @param <E> The type of the entries
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public abstract class SegmentStore<E> {
+
+    private final Path directory;
+
+    private final String extension;
+
+    private final int magic;
+
+    private final int formatVersion;
+
+    private final String description;
+
+    // term -> the sources of the segments containing the term
+    private final TreeMap<String, Set<String>> terms = new TreeMap<>();
+
+    private final Map<String, Segment<E>> segments = new HashMap<>();
+
+    // source -> the number of the last update started for the source and not yet installed
+    private final Map<String, Long> pending = new HashMap<>();
+
+    private long updates = 0;
+
+    /**
+     * Create an empty store.
+     *
+     * @param directory The index directory, or null to keep the index in memory only
+     * @param extension The extension of the segment files
+     * @param magic The number starting each segment file
+     * @param formatVersion The version of the format of the segment files
+     * @param description What the segment files are, for error messages
+     */
+    protected SegmentStore(Path directory, String extension, int magic, int formatVersion, String description)
+    {
+        this.directory = directory;
+        this.extension = extension;
+        this.magic = magic;
+        this.formatVersion = formatVersion;
+        this.description = description;
+    }
+
+    /**
+     * Load every segment of the directory.  The directory is created when it does not exist.
+     *
+     * @throws java.io.IOException when a segment can not be read
+     */
+    protected void load() throws IOException
+    {
+        Files.createDirectories(directory);
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(extension)) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        Segment<E> segment = read(new DataInputStream(new BufferedInputStream(in)), file);
+                        synchronized (SegmentStore.this) {
+                            add(segment);
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Add the entries of a module and their terms to a segment.
+     *
+     * @param module The module
+     * @param segment The segment of the module
+     */
+    protected abstract void index(ModuleDeclaration module, Segment<E> segment);
+
+    /**
+     * Write an entry to a segment file.
+     *
+     * @param data The segment file
+     * @param entry The entry
+     * @throws java.io.IOException when the entry can not be written
+     */
+    protected abstract void writeEntry(DataOutputStream data, E entry) throws IOException;
+
+    /**
+     * Read an entry from a segment file.
+     *
+     * @param data The segment file
+     * @param source The source of the module of the segment
+     * @param file The segment file, for error messages
+     * @return The entry
+     * @throws java.io.IOException when the entry can not be read
+     */
+    protected abstract E readEntry(DataInputStream data, String source, Path file) throws IOException;
+
+    /**
+     * @return The index directory, or null when the index is kept in memory only
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Index a module, replacing the segment of a module with the same source.
+     *
+     * @param module The module
+     * @throws java.io.IOException when the segment can not be written
+     */
+    public void update(ModuleDeclaration module) throws IOException
+    {
+        Segment<E> segment = new Segment<>(module.getSource());
+        index(module, segment);
+        segment.buildPostings();
+        install(segment);
+    }
+
+    /**
+     * Remove a module from the index.  An update of the module still being
+     * written is abandoned.
+     *
+     * @param source The source of the module
+     * @throws java.io.IOException when the segment file can not be deleted
+     */
+    public synchronized void remove(String source) throws IOException
+    {
+        pending.remove(source);
+        removeSegment(source);
+        if (directory != null) {
+            Files.deleteIfExists(segmentPath(source));
+        }
+    }
+
+    /**
+     * Add the modules of another index, such as that of another build or
+     * shard, replacing the modules in both.  Their segments are written to the
+     * directory of this index.
+     *
+     * @param other Another index of the same kind
+     * @throws java.io.IOException when a segment can not be written
+     */
+    public void merge(SegmentStore<E> other) throws IOException
+    {
+        List<Segment<E>> added;
+        synchronized (other) {
+            added = new ArrayList<>(other.segments.values());
+        }
+        for (Segment<E> segment : added) {
+            install(segment);
+        }
+    }
+
+    /**
+     * @return The sources of the modules in the index
+     */
+    public synchronized Set<String> getSources() {
+        return new TreeSet<>(segments.keySet());
+    }
+
+    /**
+     * @return The number of distinct terms in the index
+     */
+    public synchronized int getTermCount() {
+        return terms.size();
+    }
+
+    /**
+     * The dictionary, to be read while holding the store.
+     *
+     * @return The sources of the segments containing each term
+     */
+    protected SortedMap<String, Set<String>> getTerms() {
+        return terms;
+    }
+
+    /**
+     * A segment, to be read while holding the store.
+     *
+     * @param source The source of a module
+     * @return The segment of the module, or null
+     */
+    protected Segment<E> getSegment(String source) {
+        return segments.get(source);
+    }
+
+    /**
+     * Replace the segment of a module.  The file is written to a temporary
+     * file without holding the store, and moved into place with the dictionary
+     * updated while holding it, unless another update or a removal of the
+     * module was started in the meantime.
+     *
+     * @param segment The segment
+     * @throws IOException when the segment can not be written
+     */
+    private void install(Segment<E> segment) throws IOException
+    {
+        long update;
+        synchronized (this) {
+            update = ++updates;
+            pending.put(segment.source, update);
+        }
+        Path file = (directory != null) ? segmentPath(segment.source) : null;
+        Path temporary = null;
+        try {
+            if (file != null) {
+                temporary = file.resolveSibling(file.getFileName() + "." + update + ".tmp");
+                write(segment, temporary);
+            }
+            synchronized (this) {
+                Long latest = pending.get(segment.source);
+                if (latest == null || latest != update) {
+                    return;
+                }
+                pending.remove(segment.source);
+                if (temporary != null) {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                    temporary = null;
+                }
+                removeSegment(segment.source);
+                add(segment);
+            }
+        } finally {
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param segment The segment to add to the dictionary
+     */
+    private void add(Segment<E> segment)
+    {
+        segments.put(segment.source, segment);
+        for (String term : segment.postings.keySet()) {
+            Set<String> sources = terms.get(term);
+            if (sources == null) {
+                sources = new TreeSet<>();
+                terms.put(term, sources);
+            }
+            sources.add(segment.source);
+        }
+    }
+
+    /**
+     *
+     * @param source The source of the segment to remove from the dictionary
+     */
+    private void removeSegment(String source)
+    {
+        Segment<E> segment = segments.remove(source);
+        if (segment == null) {
+            return;
+        }
+        for (String term : segment.postings.keySet()) {
+            Set<String> sources = terms.get(term);
+            sources.remove(source);
+            if (sources.isEmpty()) {
+                terms.remove(term);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param source The source of a module
+     * @return The segment file of the module
+     */
+    private Path segmentPath(String source)
+    {
+        return directory.resolve(source + extension);
+    }
+
+    /**
+     * Write a segment to a file.
+     *
+     * @param segment The segment
+     * @param file The file
+     * @throws IOException when the file can not be written
+     */
+    private void write(Segment<E> segment, Path file) throws IOException
+    {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(magic);
+            data.writeInt(formatVersion);
+            data.writeUTF(segment.source);
+            data.writeInt(segment.entries.size());
+            for (E entry : segment.entries) {
+                writeEntry(data, entry);
+            }
+            data.writeInt(segment.postings.size());
+            for (Map.Entry<String, int[]> posting : segment.postings.entrySet()) {
+                data.writeUTF(posting.getKey());
+                data.writeInt(posting.getValue().length);
+                for (int entryId : posting.getValue()) {
+                    data.writeInt(entryId);
+                }
+            }
+            data.flush();
+        }
+    }
+
+    /**
+     *
+     * @param data The content of a segment file
+     * @param file The segment file, for error messages
+     * @return The segment
+     * @throws IOException when the file can not be read or is not a segment
+     */
+    private Segment<E> read(DataInputStream data, Path file) throws IOException
+    {
+        if (data.readInt() != magic) {
+            throw new IOException(file + " is not an " + description + " segment");
+        }
+        int version = data.readInt();
+        if (version != formatVersion) {
+            throw new IOException(file + " has the unsupported segment format " + version);
+        }
+        Segment<E> segment = new Segment<>(data.readUTF());
+        int entryCount = data.readInt();
+        for (int i = 0; i < entryCount; i++) {
+            segment.entries.add(readEntry(data, segment.source, file));
+        }
+        int termCount = data.readInt();
+        for (int i = 0; i < termCount; i++) {
+            String term = data.readUTF();
+            int[] entryIds = new int[data.readInt()];
+            for (int j = 0; j < entryIds.length; j++) {
+                entryIds[j] = data.readInt();
+                if (entryIds[j] < 0 || entryIds[j] >= entryCount) {
+                    throw new IOException(file + " is corrupt");
+                }
+            }
+            segment.postings.put(term, entryIds);
+        }
+        return segment;
+    }
+
+    /**
+     * The entries of one module with the entries having each term.
+     *
+     * @param <E> The type of the entries
+     */
+    protected static final class Segment<E> {
+        private final String source;
+        private final List<E> entries = new ArrayList<>();
+        private final TreeMap<String, int[]> postings = new TreeMap<>();
+        // The entries and terms added while indexing, until the postings are built
+        private Map<E, Integer> entryIds = new HashMap<>();
+        private Map<String, Set<Integer>> builder = new TreeMap<>();
+
+        Segment(String source)
+        {
+            this.source = source;
+        }
+
+        /**
+         * Add an entry with terms.  An entry equal to one added before gets its terms too.
+         *
+         * @param entry The entry
+         * @param entryTerms The terms of the entry
+         */
+        public void add(E entry, Collection<String> entryTerms)
+        {
+            Integer entryId = entryIds.get(entry);
+            if (entryId == null) {
+                entryId = entries.size();
+                entryIds.put(entry, entryId);
+                entries.add(entry);
+            }
+            for (String term : entryTerms) {
+                Set<Integer> posting = builder.get(term);
+                if (posting == null) {
+                    posting = new TreeSet<>();
+                    builder.put(term, posting);
+                }
+                posting.add(entryId);
+            }
+        }
+
+        /**
+         * @return The source of the module
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @param entryId The number of an entry
+         * @return The entry
+         */
+        public E getEntry(int entryId) {
+            return entries.get(entryId);
+        }
+
+        /**
+         * @param term A term
+         * @return The sorted numbers of the entries having the term, or null
+         */
+        public int[] getPosting(String term) {
+            return postings.get(term);
+        }
+
+        /**
+         * Turn the terms added into postings.
+         */
+        private void buildPostings()
+        {
+            for (Map.Entry<String, Set<Integer>> entry : builder.entrySet()) {
+                int[] posting = new int[entry.getValue().size()];
+                int i = 0;
+                for (Integer entryId : entry.getValue()) {
+                    posting[i++] = entryId;
+                }
+                postings.put(entry.getKey(), posting);
+            }
+            entryIds = null;
+            builder = null;
+        }
+    }
+}
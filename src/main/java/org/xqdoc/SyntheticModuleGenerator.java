@@ -0,0 +1,478 @@
+package org.xqdoc;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * <p>SyntheticModuleGenerator class.</p>
+ *
+ * Writes synthetic XQuery library and main modules for benchmarks and soak
+ * tests: modules with many functions, deeply nested bodies, long string
+ * literals, dense xqDoc comments, many imports and many namespace
+ * declarations.  The modules are drawn from a seeded random generator, so
+ * the same settings always give the same files, and they parse without
+ * errors with the xqDoc grammar.  The text is streamed to the file, so a
+ * module of tens of thousands of functions is never held in memory.
+ *
+ * <pre>java -cp xqdoc.jar org.xqdoc.SyntheticModuleGenerator -o synthetic -libraries 10 -functions 20000 -depth 40</pre>
+ *
+ * Library <i>n</i> is written to <code>lib/s<i>n</i>.xqm</code> and imports
+ * the libraries before it, up to the import fan-out; main modules are written
+ * to <code>main/q<i>n</i>.xq</code> and import the last libraries.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class SyntheticModuleGenerator {
+
+    private static final String[] WORDS = {
+        "account", "order", "item", "price", "customer", "invoice", "total", "name", "date", "status",
+        "report", "entry", "record", "value", "index", "label", "title", "summary", "line", "group"
+    };
+
+    private static final String[] TYPES = {
+        "xs:string", "xs:integer", "xs:decimal", "xs:boolean", "element()", "node()*", "item()*", "map(*)"
+    };
+
+    private Random random = new Random(0);
+
+    private int functions = 100;
+
+    private int depth = 3;
+
+    private double commentDensity = 0.5;
+
+    private int commentLines = 3;
+
+    private int imports = 2;
+
+    private int namespaces = 2;
+
+    private int stringLength = 40;
+
+    /**
+     * <p>main.</p>
+     *
+     * @param args The command line arguments
+     * @throws java.io.IOException when a module can not be written
+     * @throws org.apache.commons.cli.ParseException when the arguments are not valid
+     */
+    public static void main(String[] args) throws IOException, ParseException
+    {
+        Options options = new Options();
+        options.addOption("o", true, "output directory (default synthetic)");
+        options.addOption("libraries", true, "number of library modules (default 1)");
+        options.addOption("mains", true, "number of main modules (default 0)");
+        options.addOption("functions", true, "functions per module (default 100)");
+        options.addOption("depth", true, "nesting depth of the function bodies (default 3)");
+        options.addOption("commentDensity", true, "fraction of the declarations with an xqDoc comment, 0 to 1 (default 0.5)");
+        options.addOption("commentLines", true, "description lines of each xqDoc comment (default 3)");
+        options.addOption("imports", true, "library modules imported by each module (default 2)");
+        options.addOption("namespaces", true, "namespaces declared by each module (default 2)");
+        options.addOption("stringLength", true, "length of the string literals (default 40)");
+        options.addOption("seed", true, "random seed (default 0)");
+        options.addOption("h", "help", false, "print this message");
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("SyntheticModuleGenerator", options);
+            return;
+        }
+
+        SyntheticModuleGenerator generator = new SyntheticModuleGenerator();
+        generator.setSeed(Long.parseLong(cmd.getOptionValue("seed", "0")));
+        generator.setFunctions(Integer.parseInt(cmd.getOptionValue("functions", "100")));
+        generator.setDepth(Integer.parseInt(cmd.getOptionValue("depth", "3")));
+        generator.setCommentDensity(Double.parseDouble(cmd.getOptionValue("commentDensity", "0.5")));
+        generator.setCommentLines(Integer.parseInt(cmd.getOptionValue("commentLines", "3")));
+        generator.setImports(Integer.parseInt(cmd.getOptionValue("imports", "2")));
+        generator.setNamespaces(Integer.parseInt(cmd.getOptionValue("namespaces", "2")));
+        generator.setStringLength(Integer.parseInt(cmd.getOptionValue("stringLength", "40")));
+        generator.write(Paths.get(cmd.getOptionValue("o", "synthetic")),
+                Integer.parseInt(cmd.getOptionValue("libraries", "1")),
+                Integer.parseInt(cmd.getOptionValue("mains", "0")));
+    }
+
+    /**
+     * @param seed The seed of the random generator
+     */
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param functions The number of functions of each module
+     */
+    public void setFunctions(int functions) {
+        this.functions = functions;
+    }
+
+    /**
+     * @return The number of functions of each module
+     */
+    public int getFunctions() {
+        return functions;
+    }
+
+    /**
+     * @param depth The nesting depth of the function bodies
+     */
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @return The nesting depth of the function bodies
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @param commentDensity The fraction of the declarations with an xqDoc comment, from 0 to 1
+     */
+    public void setCommentDensity(double commentDensity) {
+        this.commentDensity = commentDensity;
+    }
+
+    /**
+     * @return The fraction of the declarations with an xqDoc comment
+     */
+    public double getCommentDensity() {
+        return commentDensity;
+    }
+
+    /**
+     * @param commentLines The number of description lines of each xqDoc comment
+     */
+    public void setCommentLines(int commentLines) {
+        this.commentLines = commentLines;
+    }
+
+    /**
+     * @return The number of description lines of each xqDoc comment
+     */
+    public int getCommentLines() {
+        return commentLines;
+    }
+
+    /**
+     * @param imports The number of library modules imported by each module
+     */
+    public void setImports(int imports) {
+        this.imports = imports;
+    }
+
+    /**
+     * @return The number of library modules imported by each module
+     */
+    public int getImports() {
+        return imports;
+    }
+
+    /**
+     * @param namespaces The number of namespaces declared by each module
+     */
+    public void setNamespaces(int namespaces) {
+        this.namespaces = namespaces;
+    }
+
+    /**
+     * @return The number of namespaces declared by each module
+     */
+    public int getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * @param stringLength The length of the string literals
+     */
+    public void setStringLength(int stringLength) {
+        this.stringLength = stringLength;
+    }
+
+    /**
+     * @return The length of the string literals
+     */
+    public int getStringLength() {
+        return stringLength;
+    }
+
+    /**
+     * Write library and main modules below a directory.
+     *
+     * @param directory The output directory
+     * @param libraries The number of library modules
+     * @param mains The number of main modules
+     * @throws java.io.IOException when a module can not be written
+     */
+    public void write(Path directory, int libraries, int mains) throws IOException
+    {
+        Files.createDirectories(directory.resolve("lib"));
+        for (int i = 0; i < libraries; i++) {
+            try (Writer writer = Files.newBufferedWriter(directory.resolve("lib").resolve(libraryName(i)), StandardCharsets.UTF_8)) {
+                writeLibrary(writer, i);
+            }
+        }
+        if (mains > 0) {
+            Files.createDirectories(directory.resolve("main"));
+        }
+        for (int i = 0; i < mains; i++) {
+            try (Writer writer = Files.newBufferedWriter(directory.resolve("main").resolve("q" + i + ".xq"), StandardCharsets.UTF_8)) {
+                writeMain(writer, i, libraries);
+            }
+        }
+    }
+
+    /**
+     * Write a library module, importing the libraries numbered below it.
+     *
+     * @param writer The writer receiving the module text
+     * @param number The number of the library
+     * @throws java.io.IOException when the text can not be written
+     */
+    public void writeLibrary(Writer writer, int number) throws IOException
+    {
+        String prefix = "s" + number;
+        writer.write("xquery version \"3.1\";\n\n");
+        writeComment(writer, 0, false);
+        writer.write("module namespace " + prefix + " = \"" + namespace(number) + "\";\n\n");
+        writeProlog(writer, Math.max(0, number - imports), number, "");
+        writeFunctions(writer, prefix + ":f", Math.max(0, number - imports), number);
+    }
+
+    /**
+     * Write a main module, importing the last libraries.
+     *
+     * @param writer The writer receiving the module text
+     * @param number The number of the main module
+     * @param libraries The number of library modules
+     * @throws java.io.IOException when the text can not be written
+     */
+    public void writeMain(Writer writer, int number, int libraries) throws IOException
+    {
+        int first = Math.max(0, libraries - imports);
+        writer.write("xquery version \"3.1\";\n\n");
+        writeComment(writer, 0, false);
+        writeProlog(writer, first, libraries, "../lib/");
+        writeFunctions(writer, "local:q" + number + "-f", first, libraries);
+        writer.write(expression(depth, 0, first, libraries));
+        writer.write("\n");
+    }
+
+    /**
+     *
+     * @param writer The writer receiving the module text
+     * @param first The first library imported
+     * @param end The library after the last one imported
+     * @param location The location of the libraries relative to the module
+     * @throws IOException when the text can not be written
+     */
+    private void writeProlog(Writer writer, int first, int end, String location) throws IOException
+    {
+        for (int i = 0; i < namespaces; i++) {
+            writer.write("declare namespace n" + i + " = \"urn:synthetic:namespace:" + i + "\";\n");
+        }
+        for (int i = first; i < end; i++) {
+            writer.write("import module namespace s" + i + " = \"" + namespace(i) + "\" at \""
+                    + location + libraryName(i) + "\";\n");
+        }
+        writer.write("\n");
+    }
+
+    /**
+     *
+     * @param writer The writer receiving the module text
+     * @param name The name of the functions, before their number
+     * @param first The first library imported
+     * @param end The library after the last one imported
+     * @throws IOException when the text can not be written
+     */
+    private void writeFunctions(Writer writer, String name, int first, int end) throws IOException
+    {
+        for (int i = 0; i < functions; i++) {
+            int arity = arity(i);
+            if (random.nextDouble() < commentDensity) {
+                writeComment(writer, arity, true);
+            }
+            if (i % 4 == 1) {
+                writer.write("declare %rest:GET %rest:path(\"/f" + i + "\") function ");
+            } else if (i % 4 == 2) {
+                writer.write("declare %private function ");
+            } else {
+                writer.write("declare function ");
+            }
+            writer.write(name + i + "(");
+            for (int p = 0; p < arity; p++) {
+                writer.write((p == 0 ? "$p" : ", $p") + p + " as " + TYPES[random.nextInt(TYPES.length)]);
+            }
+            writer.write(") as item()*\n{\n    ");
+            writer.write(expression(depth, arity, first, end));
+            writer.write("\n};\n\n");
+        }
+    }
+
+    /**
+     *
+     * @param writer The writer receiving the module text
+     * @param parameters The number of parameters documented
+     * @param function Whether the comment documents a function
+     * @throws IOException when the text can not be written
+     */
+    private void writeComment(Writer writer, int parameters, boolean function) throws IOException
+    {
+        writer.write("(:~\n");
+        for (int i = 0; i < commentLines; i++) {
+            writer.write(" : " + sentence(10) + "\n");
+        }
+        if (function) {
+            for (int i = 0; i < parameters; i++) {
+                writer.write(" : @param $p" + i + " " + sentence(5) + "\n");
+            }
+            writer.write(" : @return " + sentence(6) + "\n");
+        } else {
+            writer.write(" : @author " + word() + "\n : @version 1.0\n");
+        }
+        writer.write(" :)\n");
+    }
+
+    /**
+     *
+     * @param depth The remaining nesting depth
+     * @param parameters The number of parameters in scope
+     * @param first The first library imported
+     * @param end The library after the last one imported
+     * @return An expression nested to the depth
+     */
+    private String expression(int depth, int parameters, int first, int end)
+    {
+        if (depth <= 0) {
+            return primary(parameters, first, end);
+        }
+        String inner = expression(depth - 1, parameters, first, end);
+        switch (random.nextInt(6)) {
+            case 0:
+                return "if (" + primary(parameters, first, end) + ") then " + inner + " else ()";
+            case 1:
+                return "let $v" + depth + " := " + primary(parameters, first, end) + " return (" + inner + ", $v" + depth + ")";
+            case 2:
+                return "for $i" + depth + " in 1 to " + (1 + random.nextInt(9)) + " return " + inner;
+            case 3:
+                String element = (namespaces > 0) ? "n" + random.nextInt(namespaces) + ":" + word() : word();
+                return "<" + element + ">{ " + inner + " }</" + element + ">";
+            case 4:
+                return "fn:string-join((" + inner + ") ! string(), \"" + word() + "\")";
+            default:
+                return "(" + inner + ")";
+        }
+    }
+
+    /**
+     *
+     * @param parameters The number of parameters in scope
+     * @param first The first library imported
+     * @param end The library after the last one imported
+     * @return A literal, a parameter or a call of an imported function
+     */
+    private String primary(int parameters, int first, int end)
+    {
+        switch (random.nextInt(4)) {
+            case 0:
+                return (parameters > 0) ? "$p" + random.nextInt(parameters) : String.valueOf(random.nextInt(1000));
+            case 1:
+                if (end > first) {
+                    int function = random.nextInt(functions);
+                    if (function % 4 == 2) {
+                        // Only the public functions are called from other modules
+                        function--;
+                    }
+                    StringBuilder call = new StringBuilder();
+                    call.append('s').append(first + random.nextInt(end - first)).append(":f").append(function).append('(');
+                    for (int i = 0; i < arity(function); i++) {
+                        call.append(i == 0 ? "" : ", ").append(random.nextInt(100));
+                    }
+                    return call.append(')').toString();
+                }
+                return "fn:true()";
+            case 2:
+                return literal();
+            default:
+                return String.valueOf(random.nextInt(1000));
+        }
+    }
+
+    /**
+     *
+     * @return A string literal of the configured length
+     */
+    private String literal()
+    {
+        StringBuilder literal = new StringBuilder(stringLength + 2).append('"');
+        while (literal.length() <= stringLength) {
+            literal.append(word()).append(' ');
+        }
+        literal.setLength(stringLength + 1);
+        return literal.append('"').toString();
+    }
+
+    /**
+     *
+     * @param function The number of a function
+     * @return The number of parameters of the function
+     */
+    private static int arity(int function) {
+        return function % 3;
+    }
+
+    /**
+     *
+     * @param number The number of a library
+     * @return The file name of the library
+     */
+    private static String libraryName(int number) {
+        return "s" + number + ".xqm";
+    }
+
+    /**
+     *
+     * @param number The number of a library
+     * @return The namespace of the library
+     */
+    private static String namespace(int number) {
+        return "urn:synthetic:s" + number;
+    }
+
+    /**
+     * @return A word
+     */
+    private String word()
+    {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * @param words The number of words
+     * @return A sentence
+     */
+    private String sentence(int words)
+    {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(word());
+        }
+        return sentence.append('.').toString();
+    }
+}
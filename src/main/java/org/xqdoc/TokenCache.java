@@ -0,0 +1,284 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>TokenCache class.</p>
+ *
+ * An on-disk cache of the token streams of the {@link XQueryLexer}, so that a
+ * module documented again unchanged, under another namespace profile or
+ * output format, is parsed without being lexed.  The tokens of a module are
+ * kept in a file named after the SHA-256 of its text and of the lexer grammar
+ * (<code>ab/abcdef....xqtok</code>) as their type, channel, offsets, line
+ * and column, written as deflated variable length integers, each relative to
+ * the previous token.  The text of the tokens is taken from the source again
+ * by {@link CachedTokenSource}.
+ *
+ * Only modules lexed without errors are cached, since the lexer's error
+ * messages are not kept.  A file that can not be read or does not match the
+ * module is treated as missing and written again.  Thread-safe.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class TokenCache {
+
+    /** The extension of the cache files */
+    public static final String EXTENSION = ".xqtok";
+
+    /** The SHA-256 of the serialized lexer ATN, which changes with the lexer grammar */
+    public static final String GRAMMAR_VERSION =
+            BatchProcessor.contentHash(XQueryLexer._serializedATN.getBytes(StandardCharsets.UTF_8));
+
+    private static final int MAGIC = 0x5851544B;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path directory;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory The cache directory, created when the first module is cached
+     */
+    public TokenCache(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The cache directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The number of modules read from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of modules not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Return the key of a module: the SHA-256 of the grammar version and the text.
+     *
+     * @param input The XQuery source
+     * @return The key as lower case hex
+     */
+    public String key(CharStream input)
+    {
+        String text = (input.size() == 0) ? "" : input.getText(Interval.of(0, input.size() - 1));
+        return BatchProcessor.contentHash((GRAMMAR_VERSION + '\n' + text).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     *
+     * @param key The key of a module
+     * @return The cache file of the module
+     */
+    private Path file(String key)
+    {
+        return directory.resolve(key.substring(0, 2)).resolve(key + EXTENSION);
+    }
+
+    /**
+     * Read the tokens of a module.
+     *
+     * @param key The key of the module
+     * @param input The XQuery source the tokens refer to
+     * @param source The name of the source (may be null)
+     * @return The tokens, or null when the module is not in the cache
+     */
+    public CachedTokenSource read(String key, CharStream input, String source)
+    {
+        byte[] data;
+        try {
+            data = inflate(Files.readAllBytes(file(key)));
+        } catch (IOException ex) {
+            // A missing or unreadable file is written again
+            misses.incrementAndGet();
+            return null;
+        }
+        Decoder decoder = new Decoder(data);
+        if (decoder.next() != MAGIC || decoder.next() != FORMAT_VERSION || decoder.next() != input.size()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        int count = decoder.next();
+        if (count <= 0 || count > data.length) {
+            misses.incrementAndGet();
+            return null;
+        }
+        int[] types = new int[count];
+        int[] channels = new int[count];
+        int[] starts = new int[count];
+        int[] stops = new int[count];
+        int[] lines = new int[count];
+        int[] columns = new int[count];
+        int end = 0;
+        int line = 1;
+        int column = 0;
+        for (int i = 0; i < count; i++) {
+            types[i] = decoder.next() - 1;
+            channels[i] = decoder.next();
+            int start = end + decoder.next();
+            starts[i] = start;
+            stops[i] = start + decoder.next() - 1;
+            end = stops[i] + 1;
+            int newLines = decoder.next();
+            line += newLines;
+            column = (newLines == 0) ? column + decoder.next() : decoder.next();
+            lines[i] = line;
+            columns[i] = column;
+        }
+        if (decoder.corrupt || types[count - 1] != Token.EOF || end > input.size()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new CachedTokenSource(input, source, types, channels, starts, stops, lines, columns);
+    }
+
+    /**
+     * Write the tokens of a module, replacing its file atomically where the file system allows.
+     *
+     * @param key The key of the module
+     * @param input The XQuery source the tokens refer to
+     * @param tokens The tokens, ending with EOF
+     * @throws java.io.IOException when the file can not be written
+     */
+    public void write(String key, CharStream input, List<Token> tokens) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(tokens.size() * 6 + 16);
+        writeVarInt(buffer, MAGIC);
+        writeVarInt(buffer, FORMAT_VERSION);
+        writeVarInt(buffer, input.size());
+        writeVarInt(buffer, tokens.size());
+        int end = 0;
+        int line = 1;
+        int column = 0;
+        for (Token token : tokens) {
+            // EOF is -1; offsets, lines and columns are given from the previous token
+            writeVarInt(buffer, token.getType() + 1);
+            writeVarInt(buffer, token.getChannel());
+            writeVarInt(buffer, token.getStartIndex() - end);
+            writeVarInt(buffer, token.getStopIndex() - token.getStartIndex() + 1);
+            writeVarInt(buffer, token.getLine() - line);
+            writeVarInt(buffer, (token.getLine() == line) ? token.getCharPositionInLine() - column : token.getCharPositionInLine());
+            end = token.getStopIndex() + 1;
+            line = token.getLine();
+            column = token.getCharPositionInLine();
+        }
+
+        Path file = file(key);
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), key, ".tmp");
+        try {
+            try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(temporary))) {
+                buffer.writeTo(out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     *
+     * @param compressed The content of a cache file
+     * @return The content inflated
+     * @throws IOException when the content is not deflated
+     */
+    private static byte[] inflate(byte[] compressed) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(compressed.length * 8);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated token cache file");
+                }
+                buffer.write(chunk, 0, n);
+            }
+            return buffer.toByteArray();
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt token cache file", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     *
+     * @param buffer The output
+     * @param value A value of 0 or more
+     */
+    private static void writeVarInt(ByteArrayOutputStream buffer, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            buffer.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.write(value);
+    }
+
+    /**
+     * Reads the variable length integers of a cache file.
+     */
+    private static final class Decoder {
+        private final byte[] data;
+        private int position = 0;
+        private boolean corrupt = false;
+
+        Decoder(byte[] data)
+        {
+            this.data = data;
+        }
+
+        /**
+         * @return The next value, or -1 when the data is corrupt
+         */
+        int next()
+        {
+            int value = 0;
+            for (int shift = 0; shift < 32 && position < data.length; shift += 7) {
+                int b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            corrupt = true;
+            return -1;
+        }
+    }
+}
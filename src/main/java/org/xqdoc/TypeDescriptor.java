@@ -0,0 +1,186 @@
+package org.xqdoc;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>TypeDescriptor class.</p>
+ *
+ * The normalized form of a sequence type, the type of a parameter or the
+ * return type of a function, so that types written differently compare
+ * equal: white space is dropped, <code>element()</code> is written
+ * <code>element(*)</code>, and likewise <code>attribute()</code>,
+ * <code>map()</code>, <code>array()</code> and <code>function()</code>, the prefix of an atomic type
+ * bound to the XML Schema namespace, or no prefix, becomes <code>xs</code> and
+ * another bound prefix is replaced by its namespace as
+ * <code>Q{uri}local</code>.  A missing type is <code>item()*</code>.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public final class TypeDescriptor {
+
+    /** The namespace of the XML Schema types */
+    public static final String XML_SCHEMA_NAMESPACE = "http://www.w3.org/2001/XMLSchema";
+
+    /** The type of a parameter or return declared without one */
+    public static final TypeDescriptor ANY = new TypeDescriptor("item()", "*");
+
+    private static final String[] KIND_TESTS = { "element", "attribute", "map", "array", "function" };
+
+    private final String itemType;
+    private final String occurrence;
+
+    /**
+     * @param itemType The normalized item type
+     * @param occurrence The occurrence indicator, empty for exactly one
+     */
+    private TypeDescriptor(String itemType, String occurrence)
+    {
+        this.itemType = itemType;
+        this.occurrence = occurrence;
+    }
+
+    /**
+     * Normalize a type as the visitor records it.
+     *
+     * @param itemType The item type text, <code>empty-sequence()</code>, or null for a missing type
+     * @param occurrence The occurrence indicator, or null
+     * @param namespaces The namespaces declared by the module, by prefix
+     * @return The descriptor
+     */
+    public static TypeDescriptor of(String itemType, String occurrence, Map<String, String> namespaces)
+    {
+        if (itemType == null || itemType.trim().isEmpty()) {
+            return ANY;
+        }
+        String normalized = normalizeItemType(removeWhitespace(itemType), namespaces);
+        if ("empty-sequence()".equals(normalized)) {
+            return new TypeDescriptor(normalized, "");
+        }
+        return new TypeDescriptor(normalized, (occurrence != null) ? occurrence.trim() : "");
+    }
+
+    /**
+     * Parse a sequence type as written in a query, such as <code>element(*)*</code>
+     * or <code>xs:string</code>.
+     *
+     * @param sequenceType The sequence type
+     * @return The descriptor
+     */
+    public static TypeDescriptor parse(String sequenceType)
+    {
+        String text = removeWhitespace(sequenceType);
+        if (text.isEmpty()) {
+            throw new XQDocRuntimeException("Missing sequence type");
+        }
+        char last = text.charAt(text.length() - 1);
+        if (last == '?' || last == '*' || last == '+') {
+            return of(text.substring(0, text.length() - 1), String.valueOf(last), Collections.<String, String>emptyMap());
+        }
+        return of(text, null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     *
+     * @param itemType An item type already normalized, as written to an index
+     * @param occurrence The occurrence indicator
+     * @return The descriptor
+     */
+    static TypeDescriptor read(String itemType, String occurrence)
+    {
+        return new TypeDescriptor(itemType, occurrence);
+    }
+
+    /**
+     *
+     * @param text A type
+     * @return The type without white space
+     */
+    private static String removeWhitespace(String text)
+    {
+        StringBuilder buffer = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                buffer.append(text.charAt(i));
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     *
+     * @param itemType An item type without white space
+     * @param namespaces The namespaces declared by the module
+     * @return The normalized item type
+     */
+    private static String normalizeItemType(String itemType, Map<String, String> namespaces)
+    {
+        int bracket = itemType.indexOf('(');
+        if (bracket < 0) {
+            // An atomic or union type
+            int colon = itemType.indexOf(':');
+            if (colon < 0) {
+                return "xs:" + itemType;
+            }
+            String prefix = itemType.substring(0, colon);
+            String uri = namespaces.get(prefix);
+            if ((uri == null && "xs".equals(prefix)) || XML_SCHEMA_NAMESPACE.equals(uri)) {
+                return "xs:" + itemType.substring(colon + 1);
+            }
+            return (uri != null) ? "Q{" + uri + "}" + itemType.substring(colon + 1) : itemType;
+        }
+        if (itemType.startsWith("(") && itemType.endsWith(")")) {
+            // A parenthesized item type
+            return normalizeItemType(itemType.substring(1, itemType.length() - 1), namespaces);
+        }
+        String kind = itemType.substring(0, bracket);
+        for (String test : KIND_TESTS) {
+            if (test.equals(kind) && itemType.equals(kind + "()")) {
+                return kind + "(*)";
+            }
+        }
+        // The visitor records the text of the tokens, so that "as" follows the parameters of a function test directly
+        return itemType.replace(")as", ") as ");
+    }
+
+    /**
+     * @return The normalized item type
+     */
+    public String getItemType() {
+        return itemType;
+    }
+
+    /**
+     * @return The occurrence indicator, empty for exactly one
+     */
+    public String getOccurrence() {
+        return occurrence;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other)
+    {
+        return (other instanceof TypeDescriptor) && itemType.equals(((TypeDescriptor) other).itemType)
+                && occurrence.equals(((TypeDescriptor) other).occurrence);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode()
+    {
+        return itemType.hashCode() * 31 + occurrence.hashCode();
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The sequence type, such as <code>element(*)*</code>
+     */
+    @Override
+    public String toString()
+    {
+        return itemType + occurrence;
+    }
+}
@@ -0,0 +1,358 @@
+package org.xqdoc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>TypeIndex class.</p>
+ *
+ * An inverted index of the functions of a repository by the
+ * {@link TypeDescriptor}s of their parameters and return type, answering
+ * queries such as <code>returns element(*)* takes xs:string</code> without
+ * scanning the functions.  A function is indexed under a
+ * <code>param</code> term for the type of each of its parameters and a
+ * <code>return</code> term for its return type; a query intersects the
+ * postings of its terms, starting with the rarest.
+ *
+ * As the {@link SearchIndex}, each module is held in its own segment of a
+ * {@link SegmentStore}, written to its own file (<code>source.xqtypes</code>)
+ * when the index has a directory, so an incremental build re-indexes only the
+ * modules it processes, and the indexes of separate builds are combined with
+ * {@link #merge(SegmentStore)}.  Thread-safe.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class TypeIndex extends SegmentStore<TypeIndex.Entry> {
+
+    /** The extension of the segment files */
+    public static final String SEGMENT_EXTENSION = ".xqtypes";
+
+    private static final int MAGIC = 0x58515459;
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String PARAM = "param ";
+
+    private static final String RETURN = "return ";
+
+    /**
+     * Create an index kept in memory only.
+     */
+    public TypeIndex()
+    {
+        this(null);
+    }
+
+    /**
+     * Create an empty index writing its segments to a directory.
+     *
+     * @param directory The index directory, or null to keep the index in memory only
+     */
+    public TypeIndex(Path directory)
+    {
+        super(directory, SEGMENT_EXTENSION, MAGIC, FORMAT_VERSION, "xqDoc type index");
+    }
+
+    /**
+     * Open the index kept in a directory.  The directory is created when it does not exist.
+     *
+     * @param directory The index directory
+     * @return The index with every segment of the directory loaded
+     * @throws java.io.IOException when a segment can not be read
+     */
+    public static TypeIndex open(Path directory) throws IOException
+    {
+        TypeIndex index = new TypeIndex(directory);
+        index.load();
+        return index;
+    }
+
+    /**
+     * Find the functions matching a query: a sequence of
+     * <code>returns</code> <i>type</i> and <code>takes</code> <i>type</i>
+     * clauses, such as <code>returns element(*)* takes xs:string</code>.
+     *
+     * @param query The query
+     * @param limit The maximum number of functions
+     * @return The functions with every type of the query, by source and declaration order
+     */
+    public List<Entry> search(String query, int limit)
+    {
+        TypeDescriptor returnType = null;
+        List<TypeDescriptor> parameterTypes = new ArrayList<>();
+        String keyword = null;
+        StringBuilder type = new StringBuilder();
+        for (String token : (query.trim() + " takes").split("\\s+")) {
+            if ("returns".equals(token) || "takes".equals(token)) {
+                if (keyword != null) {
+                    if (type.length() == 0) {
+                        throw new XQDocRuntimeException("Missing type after " + keyword + " in " + query);
+                    }
+                    if ("returns".equals(keyword)) {
+                        returnType = TypeDescriptor.parse(type.toString());
+                    } else {
+                        parameterTypes.add(TypeDescriptor.parse(type.toString()));
+                    }
+                }
+                keyword = token;
+                type.setLength(0);
+            } else if (keyword == null) {
+                throw new XQDocRuntimeException("Expected returns or takes in " + query);
+            } else {
+                type.append(token);
+            }
+        }
+        return search(returnType, parameterTypes, limit);
+    }
+
+    /**
+     * Find the functions with a return type and parameters of the given types.
+     *
+     * @param returnType The return type, or null for any
+     * @param parameterTypes The types of parameters the functions must have
+     * @param limit The maximum number of functions
+     * @return The functions, by source and declaration order
+     */
+    public synchronized List<Entry> search(TypeDescriptor returnType, List<TypeDescriptor> parameterTypes, int limit)
+    {
+        List<String> queryTerms = new ArrayList<>();
+        if (returnType != null) {
+            queryTerms.add(RETURN + returnType);
+        }
+        for (TypeDescriptor parameterType : parameterTypes) {
+            queryTerms.add(PARAM + parameterType);
+        }
+        List<Entry> entries = new ArrayList<>();
+        if (queryTerms.isEmpty()) {
+            return entries;
+        }
+        // The sources having every term, starting from the rarest
+        Map<String, Set<String>> terms = getTerms();
+        String rarest = null;
+        for (String term : queryTerms) {
+            Set<String> sources = terms.get(term);
+            if (sources == null) {
+                return entries;
+            }
+            if (rarest == null || sources.size() < terms.get(rarest).size()) {
+                rarest = term;
+            }
+        }
+        for (String source : terms.get(rarest)) {
+            Segment<Entry> segment = getSegment(source);
+            int[] matches = segment.getPosting(rarest);
+            for (String term : queryTerms) {
+                int[] posting = segment.getPosting(term);
+                if (posting == null) {
+                    matches = new int[0];
+                    break;
+                }
+                if (!term.equals(rarest)) {
+                    matches = intersect(matches, posting);
+                }
+            }
+            for (int match : matches) {
+                entries.add(segment.getEntry(match));
+                if (entries.size() >= limit) {
+                    return entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     *
+     * @param a Sorted entry ids
+     * @param b Sorted entry ids
+     * @return The ids in both
+     */
+    private static int[] intersect(int[] a, int[] b)
+    {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * A function of the index with the types of its signature.
+     */
+    public static final class Entry {
+        private final String source;
+        private final String uri;
+        private final String localName;
+        private final List<TypeDescriptor> parameterTypes;
+        private final TypeDescriptor returnType;
+
+        /**
+         * @param source The source of the declaring module
+         * @param uri The namespace of the function
+         * @param localName The local name of the function
+         * @param parameterTypes The types of the parameters
+         * @param returnType The return type
+         */
+        Entry(String source, String uri, String localName, List<TypeDescriptor> parameterTypes, TypeDescriptor returnType)
+        {
+            this.source = source;
+            this.uri = uri;
+            this.localName = localName;
+            this.parameterTypes = Collections.unmodifiableList(parameterTypes);
+            this.returnType = returnType;
+        }
+
+        /**
+         * @return The source of the declaring module
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return The namespace of the function
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return The local name of the function
+         */
+        public String getLocalName() {
+            return localName;
+        }
+
+        /**
+         * @return The arity of the function
+         */
+        public int getArity() {
+            return parameterTypes.size();
+        }
+
+        /**
+         * @return The types of the parameters
+         */
+        public List<TypeDescriptor> getParameterTypes() {
+            return parameterTypes;
+        }
+
+        /**
+         * @return The return type
+         */
+        public TypeDescriptor getReturnType() {
+            return returnType;
+        }
+
+        /**
+         * <p>toString.</p>
+         *
+         * @return The function, its types and its module
+         */
+        @Override
+        public String toString()
+        {
+            StringBuilder buffer = new StringBuilder("Q{").append(uri).append('}').append(localName).append('(');
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                buffer.append((i > 0) ? ", " : "").append(parameterTypes.get(i));
+            }
+            return buffer.append(") as ").append(returnType).append(" (").append(source).append(')').toString();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void index(ModuleDeclaration module, Segment<Entry> segment)
+    {
+        Map<String, String> namespaces = module.getNamespaces();
+        for (FunctionDeclaration function : module.getFunctions()) {
+            List<TypeDescriptor> parameterTypes = new ArrayList<>();
+            Set<String> entryTerms = new TreeSet<>();
+            for (ParameterDeclaration parameter : function.getParameters()) {
+                TypeDescriptor parameterType = TypeDescriptor.of(parameter.getType(), parameter.getOccurrence(), namespaces);
+                parameterTypes.add(parameterType);
+                entryTerms.add(PARAM + parameterType);
+            }
+            TypeDescriptor returnType = TypeDescriptor.of(function.getReturnType(), function.getReturnOccurrence(), namespaces);
+            entryTerms.add(RETURN + returnType);
+            segment.add(new Entry(segment.getSource(), (function.getUri() != null) ? function.getUri() : "",
+                    function.getLocalName(), parameterTypes, returnType), entryTerms);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void writeEntry(DataOutputStream data, Entry entry) throws IOException
+    {
+        data.writeUTF(entry.uri);
+        data.writeUTF(entry.localName);
+        writeType(data, entry.returnType);
+        data.writeInt(entry.parameterTypes.size());
+        for (TypeDescriptor parameterType : entry.parameterTypes) {
+            writeType(data, parameterType);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Entry readEntry(DataInputStream data, String source, Path file) throws IOException
+    {
+        String uri = data.readUTF();
+        String localName = data.readUTF();
+        TypeDescriptor returnType = readType(data);
+        int arity = data.readInt();
+        if (arity < 0) {
+            throw new IOException(file + " is corrupt");
+        }
+        List<TypeDescriptor> parameterTypes = new ArrayList<>(arity);
+        for (int j = 0; j < arity; j++) {
+            parameterTypes.add(readType(data));
+        }
+        return new Entry(source, uri, localName, parameterTypes, returnType);
+    }
+
+    /**
+     *
+     * @param data The segment file
+     * @param type A type
+     * @throws IOException when the type can not be written
+     */
+    private static void writeType(DataOutputStream data, TypeDescriptor type) throws IOException
+    {
+        data.writeUTF(type.getItemType());
+        data.writeUTF(type.getOccurrence());
+    }
+
+    /**
+     *
+     * @param data The segment file
+     * @return The type
+     * @throws IOException when the type can not be read
+     */
+    private static TypeDescriptor readType(DataInputStream data) throws IOException
+    {
+        return TypeDescriptor.read(data.readUTF(), data.readUTF());
+    }
+}
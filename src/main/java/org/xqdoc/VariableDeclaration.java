@@ -0,0 +1,123 @@
+package org.xqdoc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>VariableDeclaration class.</p>
+ *
+ * A global variable declared in the prolog of a module.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class VariableDeclaration {
+
+    private final String uri;
+    private final String localName;
+    private String type = null;
+    private String occurrence = null;
+    private CommentDeclaration comment = null;
+    private List<AnnotationDeclaration> annotations = new ArrayList<>();
+    private BodyText body = null;
+
+    /**
+     * <p>Constructor for VariableDeclaration.</p>
+     *
+     * @param uri The namespace of the variable
+     * @param localName The local name of the variable
+     */
+    public VariableDeclaration(String uri, String localName)
+    {
+        this.uri = uri;
+        this.localName = localName;
+    }
+
+    /**
+     * @return The namespace of the variable
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The local name of the variable
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return The item type of the variable, or null when not declared
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return The occurrence indicator (?|*|+) of the variable, or null
+     */
+    public String getOccurrence() {
+        return occurrence;
+    }
+
+    /**
+     * @param type The item type of the variable
+     * @param occurrence The occurrence indicator of the variable, or null
+     */
+    public void setType(String type, String occurrence) {
+        this.type = type;
+        this.occurrence = occurrence;
+    }
+
+    /**
+     * @return The xqDoc comment of the variable, or null
+     */
+    public CommentDeclaration getComment() {
+        return comment;
+    }
+
+    /**
+     * @param comment The xqDoc comment of the variable
+     */
+    public void setComment(CommentDeclaration comment) {
+        this.comment = comment;
+    }
+
+    /**
+     * @return The annotations of the variable
+     */
+    public List<AnnotationDeclaration> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * @param annotation An annotation of the variable
+     */
+    public void addAnnotation(AnnotationDeclaration annotation) {
+        annotations.add(annotation);
+    }
+
+    /**
+     * @return The source of the declaration
+     */
+    public BodyText getBody() {
+        return body;
+    }
+
+    /**
+     * @param body The source of the declaration
+     */
+    public void setBody(BodyText body) {
+        this.body = body;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The variable as <code>$Q{uri}local</code>
+     */
+    public String toString() {
+        return "$Q{" + uri + "}" + localName;
+    }
+}
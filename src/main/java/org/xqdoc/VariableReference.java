@@ -0,0 +1,51 @@
+package org.xqdoc;
+
+/**
+ * <p>VariableReference class.</p>
+ *
+ * A reference to a global variable from a function body or from the query
+ * body of a main module.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class VariableReference {
+
+    private final String uri;
+    private final String localName;
+
+    /**
+     * <p>Constructor for VariableReference.</p>
+     *
+     * @param uri The namespace of the variable
+     * @param localName The local name of the variable
+     */
+    public VariableReference(String uri, String localName)
+    {
+        this.uri = uri;
+        this.localName = localName;
+    }
+
+    /**
+     * @return The namespace of the variable
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return The local name of the variable
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The reference as <code>$Q{uri}local</code>
+     */
+    public String toString() {
+        return "$Q{" + uri + "}" + localName;
+    }
+}
@@ -19,10 +19,11 @@
 
 package org.xqdoc;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * This class knows hows to 'parse' through a string of text that consists of a
@@ -51,6 +52,13 @@ public class XQDocComment {
     private int xqDocCommentStart = 0;
     private int xqDocCommentEnd = 0;
 
+    // The text of each comment entry by tag, in source order
+    private Map<String, List<String>> xqDocCommentEntries = new LinkedHashMap<>();
+
+    // The tag and the buffer offset of the text of the entry being built
+    private String xqDocEntryTag = null;
+    private int xqDocEntryStart = -1;
+
     // xqDoc XML tag for comments
     private static final String XQDOC_COMMENT_TAG = "comment";
 
@@ -99,6 +107,11 @@ public class XQDocComment {
 
     private static final int XQDOC_STATE_LAST = 11;
 
+    // A continuation line of the comment, starting with a colon
+    private static final Pattern COMMENT_LINE = Pattern.compile("^\\s*:.*");
+
+    private static final Pattern TRAILING_SPACES = Pattern.compile("\\s++$");
+
     private static final String BEGIN_XQDOC_COMMENT = "(:~";
 
     private static final String END_XQDOC_COMMENT = ":)";
@@ -111,14 +124,23 @@ public class XQDocComment {
     /**
      * Initailize the XQDocComment object for processing of a xqDoc comment
      * block. This includes clearing the various buffers and setting the current
-     * comment state to 'unknown'.
+     * comment state to 'unknown'.  An instance can be cleared and used for any
+     * number of comment blocks.
      */
     public void clear() {
         xqDocCommentString = null;
         xqDocDescriptionLeadingSpaces = 0;
         xqDocCommentState = -1;
+        xqDocCommentEntries = new LinkedHashMap<>();
+        xqDocEntryTag = null;
+        xqDocEntryStart = -1;
+        // The buffers are kept for the next comment block
         for (int i = 0; i < xqDocCommentBlock.length; i++) {
-            xqDocCommentBlock[i] = new StringBuffer(512);
+            if (xqDocCommentBlock[i] == null) {
+                xqDocCommentBlock[i] = new StringBuffer(512);
+            } else {
+                xqDocCommentBlock[i].setLength(0);
+            }
         }
     }
 
@@ -160,6 +182,31 @@ public class XQDocComment {
         return sb;
     }
 
+    /**
+     * Return the text of the entries of the comment block by tag (description,
+     * author, param, return, ..., custom:<i>tag</i>).  The entries are available
+     * once {@link #getXML()} has been called.
+     *
+     * @return The text of the entries by tag, in source order
+     */
+    public Map<String, List<String>> getEntries() {
+        return xqDocCommentEntries;
+    }
+
+    /**
+     * @return The position of the first character of the comment, starting at 1
+     */
+    public int getStart() {
+        return xqDocCommentStart;
+    }
+
+    /**
+     * @return The position of the last character of the comment
+     */
+    public int getEnd() {
+        return xqDocCommentEnd;
+    }
+
     /**
      *
      * @param text
@@ -168,9 +215,22 @@ public class XQDocComment {
      *            The number of leading spaces of the text
      */
     private int leadingSpacesCount(String text) {
-        String regex = "^\\s+";
-        String trimmedString1 = text.replaceAll(regex, "");
-        return text.length() - trimmedString1.length();
+        int count = 0;
+        while (count < text.length() && isSpace(text.charAt(count))) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @param c
+     *            The character to test
+     * @return
+     *            true for the characters of the regular expression class \s
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     /**
@@ -197,7 +257,7 @@ public class XQDocComment {
                     trimmedLine = trimmedLine.substring(xqDocDescriptionLeadingSpaces);
                 }
                 xqDocCommentBlock[xqDocCommentState].append(trimmedLine);
-            } else if (line.matches("^\\s*:.*")) {
+            } else if (COMMENT_LINE.matcher(line).matches()) {
                 i = line.indexOf(':');
                 if (i < last) {
                     String trimmedLine = line.substring(i + 1, last);
@@ -249,6 +309,8 @@ public class XQDocComment {
                     .buildBeginTag(XQDOC_STATE_TAG[xqDocCommentState]));
         }
         xqDocCommentBlock[xqDocCommentState].append("<![CDATA[");
+        xqDocEntryTag = (tag != null) ? XQDOC_STATE_TAG[xqDocCommentState] + ":" + tag : XQDOC_STATE_TAG[xqDocCommentState];
+        xqDocEntryStart = xqDocCommentBlock[xqDocCommentState].length();
     }
 
     /**
@@ -257,8 +319,18 @@ public class XQDocComment {
      *
      */
     private void xqDocCommentStateClose() {
-        String line = xqDocCommentBlock[xqDocCommentState].toString().replaceFirst("\\s++$", "");
-        xqDocCommentBlock[xqDocCommentState] = new StringBuffer();
+        String line = xqDocCommentBlock[xqDocCommentState].toString();
+        line = TRAILING_SPACES.matcher(line).replaceFirst("");
+        if (xqDocEntryStart >= 0 && xqDocEntryStart <= line.length()) {
+            List<String> entries = xqDocCommentEntries.get(xqDocEntryTag);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                xqDocCommentEntries.put(xqDocEntryTag, entries);
+            }
+            entries.add(line.substring(xqDocEntryStart));
+        }
+        xqDocEntryStart = -1;
+        xqDocCommentBlock[xqDocCommentState].setLength(0);
         xqDocCommentBlock[xqDocCommentState].append(line);
         xqDocCommentBlock[xqDocCommentState].append("]]>");
         xqDocCommentBlock[xqDocCommentState].append(XQDocXML
@@ -267,32 +339,29 @@ public class XQDocComment {
 
     /**
      * Process the xqDoc comment block. This includes converting the String of
-     * xqDoc comment (set by the parser) into a list of 'lines'. Each line will
-     * then be iteratively processed by invoking processXQDocLine.
-     *
-     * @throws XQDocRuntimeException
-     *             Problems processing the xqDoc comment
+     * xqDoc comment (set by the parser) into 'lines'. Each line will then be
+     * processed by invoking processXQDocLine.  The lines are split as
+     * BufferedReader.readLine() would, without allocating a reader per comment.
      */
     private void buildXQDocCommentSection()  {
-        try {
-            if (xqDocCommentString == null)
-                return;
-
-            BufferedReader br = new BufferedReader(new StringReader(
-                    xqDocCommentString));
-            String line = null;
-            ArrayList lines = new ArrayList();
-            while ((line = br.readLine()) != null) {
-                lines.add(line);
-            }
-            br.close();
-
-            for (int i = 0; i < lines.size(); i++) {
-                processXQDocLine((String) lines.get(i));
+        if (xqDocCommentString == null)
+            return;
+
+        String text = xqDocCommentString;
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                processXQDocLine(text.substring(start, i));
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
             }
-        } catch (IOException ex) {
-            throw new XQDocRuntimeException(
-                    "Problems processing the comment block.", ex);
+        }
+        if (start < length) {
+            processXQDocLine(text.substring(start));
         }
     }
 
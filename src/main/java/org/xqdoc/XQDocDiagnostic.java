@@ -0,0 +1,112 @@
+package org.xqdoc;
+
+/**
+ * <p>XQDocDiagnostic class.</p>
+ *
+ * A single problem found while processing an XQuery module.  Diagnostics are
+ * collected instead of being printed so that callers processing many modules
+ * can decide how (and whether) to report them.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class XQDocDiagnostic {
+
+    /**
+     * The severity of a diagnostic.
+     */
+    public enum Severity {
+        /** The module was processed but something is suspicious. */
+        WARNING,
+        /** A syntax error that the parser recovered from. */
+        ERROR,
+        /** Processing of the module was abandoned. */
+        FATAL
+    }
+
+    private final Severity severity;
+    private final String source;
+    private final int line;
+    private final int column;
+    private final String offendingText;
+    private final String message;
+
+    /**
+     * <p>Constructor for XQDocDiagnostic.</p>
+     *
+     * @param severity The severity of the problem
+     * @param source The name of the module source (may be null)
+     * @param line The line number (1 based) or 0 when unknown
+     * @param column The character position within the line (0 based)
+     * @param offendingText The text of the offending token (may be null)
+     * @param message The description of the problem
+     */
+    public XQDocDiagnostic(Severity severity, String source, int line, int column, String offendingText, String message)
+    {
+        this.severity = severity;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.offendingText = offendingText;
+        this.message = message;
+    }
+
+    /**
+     * @return The severity of the problem
+     */
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    /**
+     * @return The name of the module source, or null when unknown
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The line number (1 based) or 0 when unknown
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return The character position within the line (0 based)
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return The text of the offending token, or null
+     */
+    public String getOffendingText() {
+        return offendingText;
+    }
+
+    /**
+     * @return The description of the problem
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * <p>toString.</p>
+     *
+     * @return The diagnostic in the form <code>source:line:column: SEVERITY message</code>
+     */
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        if (source != null) {
+            buffer.append(source).append(":");
+        }
+        buffer.append(line).append(":").append(column).append(": ");
+        buffer.append(severity).append(" ");
+        buffer.append(message);
+        return buffer.toString();
+    }
+}
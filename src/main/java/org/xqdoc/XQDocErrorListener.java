@@ -0,0 +1,85 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>XQDocErrorListener class.</p>
+ *
+ * Replaces the ANTLR console listener on both the lexer and the parser and
+ * records every syntax error as an {@link XQDocDiagnostic}.  At most
+ * <code>maxDiagnostics</code> entries are kept; further errors are only counted.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class XQDocErrorListener extends BaseErrorListener {
+
+    private final String source;
+    private final int maxDiagnostics;
+    private final List<XQDocDiagnostic> diagnostics = new ArrayList<>();
+    private int errorCount = 0;
+
+    /**
+     * <p>Constructor for XQDocErrorListener.</p>
+     *
+     * @param source The name of the module source (may be null)
+     * @param maxDiagnostics The maximum number of diagnostics to keep
+     */
+    public XQDocErrorListener(String source, int maxDiagnostics)
+    {
+        this.source = source;
+        this.maxDiagnostics = maxDiagnostics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e)
+    {
+        errorCount++;
+        if (diagnostics.size() < maxDiagnostics) {
+            String offendingText = null;
+            if (offendingSymbol instanceof Token) {
+                offendingText = ((Token) offendingSymbol).getText();
+            }
+            diagnostics.add(new XQDocDiagnostic(XQDocDiagnostic.Severity.ERROR, source, line, charPositionInLine, offendingText, msg));
+        }
+    }
+
+    /**
+     * Record a diagnostic that did not come from the recognizers.  These are
+     * always kept, even when the limit has been reached.
+     *
+     * @param diagnostic The diagnostic to record
+     */
+    public void addDiagnostic(XQDocDiagnostic diagnostic)
+    {
+        diagnostics.add(diagnostic);
+    }
+
+    /**
+     * @return The recorded diagnostics
+     */
+    public List<XQDocDiagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * @return The total number of syntax errors reported, including those not kept
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return The name of the module source
+     */
+    public String getSource() {
+        return source;
+    }
+}
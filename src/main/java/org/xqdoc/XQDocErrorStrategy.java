@@ -0,0 +1,118 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * <p>XQDocErrorStrategy class.</p>
+ *
+ * The default ANTLR error strategy with two bounds on the cost of recovery:
+ * the number of recovery attempts and the wall clock time spent on the module.
+ * Pathological inputs (unterminated direct constructors, runaway string
+ * interpolation) can otherwise make the parser re-synchronize for a very long
+ * time.  When a bound is exceeded an {@link XQDocParseAbortedException} is thrown.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class XQDocErrorStrategy extends DefaultErrorStrategy {
+
+    // How many sync() calls between two looks at the clock
+    private static final int CLOCK_CHECK_INTERVAL = 256;
+
+    private final int maxRecoveryAttempts;
+    private final long timeBudgetMillis;
+
+    private int recoveryAttempts = 0;
+    private int syncCalls = 0;
+    private long deadline = Long.MAX_VALUE;
+
+    /**
+     * <p>Constructor for XQDocErrorStrategy.</p>
+     *
+     * @param maxRecoveryAttempts The maximum number of recoveries, 0 or less for no limit
+     * @param timeBudgetMillis The time budget for one module in milliseconds, 0 or less for no limit
+     */
+    public XQDocErrorStrategy(int maxRecoveryAttempts, long timeBudgetMillis)
+    {
+        this.maxRecoveryAttempts = maxRecoveryAttempts;
+        this.timeBudgetMillis = timeBudgetMillis;
+        start();
+    }
+
+    /**
+     * Reset the recovery counter and restart the clock.  Called before each module is parsed.
+     */
+    public void start()
+    {
+        recoveryAttempts = 0;
+        syncCalls = 0;
+        deadline = (timeBudgetMillis > 0) ? System.currentTimeMillis() + timeBudgetMillis : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The time by which the module has to be parsed, as {@link System#currentTimeMillis()},
+     *         or Long.MAX_VALUE when there is no time budget
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return The number of recoveries performed since the last {@link #start()}
+     */
+    public int getRecoveryAttempts() {
+        return recoveryAttempts;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void recover(Parser recognizer, RecognitionException e)
+    {
+        countRecovery();
+        super.recover(recognizer, e);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Token recoverInline(Parser recognizer) throws RecognitionException
+    {
+        countRecovery();
+        return super.recoverInline(recognizer);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sync(Parser recognizer) throws RecognitionException
+    {
+        if (++syncCalls % CLOCK_CHECK_INTERVAL == 0) {
+            checkClock();
+        }
+        super.sync(recognizer);
+    }
+
+    /**
+     *
+     */
+    private void countRecovery()
+    {
+        recoveryAttempts++;
+        if (maxRecoveryAttempts > 0 && recoveryAttempts > maxRecoveryAttempts) {
+            throw new XQDocParseAbortedException("Gave up after " + maxRecoveryAttempts + " error recovery attempts");
+        }
+        checkClock();
+    }
+
+    /**
+     *
+     */
+    private void checkClock()
+    {
+        if (deadline != Long.MAX_VALUE && System.currentTimeMillis() > deadline) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.TIME, timeBudgetMillis,
+                    "Time budget of " + timeBudgetMillis + " ms exceeded");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.xqdoc;
+
+/**
+ * Thrown when a module exceeds one of the {@link ResourceLimits}: its size,
+ * its number of tokens, the nesting depth of its parse tree or of its string
+ * interpolations, or the time spent on it.  It is raised by the lexer, the
+ * parser and the visitor, in place of a {@link StackOverflowError} or of a
+ * run that never ends.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class XQDocLimitExceededException extends XQDocParseAbortedException {
+
+	private final ResourceLimits.Limit limit;
+
+	private final long maximum;
+
+	/**
+	 * <p>Constructor for XQDocLimitExceededException.</p>
+	 *
+	 * @param limit The limit exceeded
+	 * @param maximum The value of the limit
+	 * @param message The message string returned with this exception
+	 */
+	public XQDocLimitExceededException(ResourceLimits.Limit limit, long maximum, String message) {
+		super(message);
+		this.limit = limit;
+		this.maximum = maximum;
+	}
+
+	/**
+	 * @return The limit exceeded
+	 */
+	public ResourceLimits.Limit getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return The value of the limit
+	 */
+	public long getMaximum() {
+		return maximum;
+	}
+}
@@ -0,0 +1,32 @@
+package org.xqdoc;
+
+/**
+ * Thrown when the parsing of a module is abandoned because the error recovery
+ * exceeded its configured number of attempts or the module exceeded its time
+ * budget.  Being a runtime exception, it passes through the generated parser
+ * code untouched.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class XQDocParseAbortedException extends XQDocRuntimeException {
+
+	/**
+	 * <p>Constructor for XQDocParseAbortedException.</p>
+	 *
+	 * @param message The message string returned with this exception
+	 */
+	public XQDocParseAbortedException(String message) {
+		super(message);
+	}
+
+	/**
+	 * <p>Constructor for XQDocParseAbortedException.</p>
+	 *
+	 * @param message The message string returned with this exception
+	 * @param cause  The throwable error that has caused this exception
+	 */
+	public XQDocParseAbortedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,208 @@
+package org.xqdoc;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>XQDocValidator class.</p>
+ *
+ * Validates the xqDoc XML of modules against the xqDoc schema.  The schema is
+ * compiled once and shared; each thread validates with a {@link Validator} of
+ * its own, reading the XML as the visitor wrote it without building a DOM.
+ * The violations are returned as WARNING diagnostics of the module.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public class XQDocValidator {
+
+    /** The xqDoc schema on the class path */
+    public static final String SCHEMA_RESOURCE = "/xqdoc-1.1.20261019.xsd";
+
+    /** The highest number of violations reported for a module */
+    public static final int MAX_VIOLATIONS = 100;
+
+    private static volatile XQDocValidator defaultValidator = null;
+
+    private final Schema schema;
+
+    private final ThreadLocal<Validator> validators = new ThreadLocal<Validator>() {
+        @Override
+        protected Validator initialValue() {
+            return schema.newValidator();
+        }
+    };
+
+    /**
+     * @param schema The compiled schema
+     */
+    public XQDocValidator(Schema schema)
+    {
+        this.schema = schema;
+    }
+
+    /**
+     * Return the validator of the xqDoc schema, compiling it the first time.
+     *
+     * @return The validator
+     */
+    public static XQDocValidator getDefault()
+    {
+        XQDocValidator validator = defaultValidator;
+        if (validator == null) {
+            synchronized (XQDocValidator.class) {
+                validator = defaultValidator;
+                if (validator == null) {
+                    validator = new XQDocValidator(compile(XQDocValidator.class.getResource(SCHEMA_RESOURCE)));
+                    defaultValidator = validator;
+                }
+            }
+        }
+        return validator;
+    }
+
+    /**
+     * Compile a schema.
+     *
+     * @param url The schema document
+     * @return The schema
+     */
+    public static Schema compile(URL url)
+    {
+        if (url == null) {
+            throw new XQDocRuntimeException("The xqDoc schema " + SCHEMA_RESOURCE + " is not on the class path");
+        }
+        try {
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            return factory.newSchema(url);
+        } catch (SAXException ex) {
+            throw new XQDocRuntimeException("Failed to compile the schema " + url, ex);
+        }
+    }
+
+    /**
+     * @return The compiled schema
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Validate the xqDoc XML of a module.
+     *
+     * @param source The module source, named in the diagnostics
+     * @param xml The xqDoc XML
+     * @return The violations, at most {@link #MAX_VIOLATIONS}, empty when the XML is valid
+     */
+    public List<XQDocDiagnostic> validate(final String source, CharSequence xml)
+    {
+        return validate(source, "", xml, "");
+    }
+
+    /**
+     * Validate the xqDoc XML of a module that is part of a larger document,
+     * such as the entry of a module in a bundle, without copying it.
+     *
+     * @param source The module source, named in the diagnostics
+     * @param start The start of the document, before the XML of the module
+     * @param xml The xqDoc XML of the module
+     * @param end The end of the document, after the XML of the module
+     * @return The violations, at most {@link #MAX_VIOLATIONS}, empty when the document is valid
+     */
+    public List<XQDocDiagnostic> validate(final String source, CharSequence start, CharSequence xml, CharSequence end)
+    {
+        final List<XQDocDiagnostic> violations = new ArrayList<>();
+        Validator validator = validators.get();
+        validator.setErrorHandler(new ErrorHandler() {
+            @Override
+            public void warning(SAXParseException exception) {
+                // Schema warnings are not violations
+            }
+
+            @Override
+            public void error(SAXParseException exception) throws SAXException {
+                violations.add(violation(source, exception));
+                if (violations.size() >= MAX_VIOLATIONS) {
+                    throw exception;
+                }
+            }
+
+            @Override
+            public void fatalError(SAXParseException exception) throws SAXException {
+                violations.add(violation(source, exception));
+                throw exception;
+            }
+        });
+        try {
+            validator.validate(new StreamSource(new CharSequenceReader(start, xml, end)));
+        } catch (SAXException ex) {
+            // Reported to the error handler
+        } catch (IOException ex) {
+            throw new XQDocRuntimeException("Failed to validate " + source, ex);
+        } finally {
+            validator.setErrorHandler(null);
+        }
+        return violations;
+    }
+
+    /**
+     *
+     * @param source The module source
+     * @param exception A violation
+     * @return The diagnostic of the violation, at its position in the xqDoc XML
+     */
+    private static XQDocDiagnostic violation(String source, SAXParseException exception)
+    {
+        return new XQDocDiagnostic(XQDocDiagnostic.Severity.WARNING, source, exception.getLineNumber(),
+                Math.max(0, exception.getColumnNumber()), null, "xqDoc schema: " + exception.getMessage());
+    }
+
+    /**
+     * Reads character sequences one after the other without copying them.
+     */
+    private static final class CharSequenceReader extends Reader {
+        private final CharSequence[] texts;
+        private int text = 0;
+        private int position = 0;
+
+        CharSequenceReader(CharSequence... texts)
+        {
+            this.texts = texts;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length)
+        {
+            while (text < texts.length && position >= texts[text].length()) {
+                text++;
+                position = 0;
+            }
+            if (text >= texts.length) {
+                return -1;
+            }
+            CharSequence current = texts[text];
+            int n = Math.min(length, current.length() - position);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = current.charAt(position++);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
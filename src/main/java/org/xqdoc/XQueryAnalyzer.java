@@ -0,0 +1,154 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * <p>XQueryAnalyzer class.</p>
+ *
+ * An analysis run over a module in the same walk of the parse tree as the
+ * {@link XQueryVisitor} building its xqDoc, such as a lint or a metric.  An
+ * analyzer names the parser rules it wants to see, such as
+ * <code>functionDecl</code> or <code>ifExpr</code>; the visitor calls
+ * {@link #enter(ParserRuleContext, ModuleDeclaration)} and
+ * {@link #exit(ParserRuleContext, ModuleDeclaration)} around each of their
+ * nodes, and adds the results to the module with
+ * {@link ModuleDeclaration#addAnalysisResult(AnalysisResult)}.
+ *
+ * When a <code>functionDecl</code> is entered the function is the last of
+ * {@link ModuleDeclaration#getFunctions()}.  The declarations of variables
+ * and the imports, whose content the visitor does not walk, are walked for
+ * the analyzers alone.
+ *
+ * An analyzer keeps the state of one module and is used by one thread;
+ * {@link #copy()} gives another for another thread.  Analyzers are found by
+ * name among the built-in ones and those registered as services of this class
+ * in <code>META-INF/services/org.xqdoc.XQueryAnalyzer</code>.
+ *
+ * @author lcahlander
+ * @version $Id: $Id
+ */
+public abstract class XQueryAnalyzer {
+
+    private final String name;
+
+    private final Set<String> ruleNames;
+
+    /**
+     * @param name The name of the analyzer
+     * @param ruleNames The names of the parser rules whose nodes the analyzer sees
+     */
+    protected XQueryAnalyzer(String name, String... ruleNames)
+    {
+        this.name = name;
+        this.ruleNames = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(ruleNames)));
+    }
+
+    /**
+     * @return The name of the analyzer
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The names of the parser rules whose nodes the analyzer sees
+     */
+    public Set<String> getRuleNames() {
+        return ruleNames;
+    }
+
+    /**
+     * Return an analyzer with the same settings, and no module state, for another thread.
+     *
+     * @return The analyzer
+     */
+    public abstract XQueryAnalyzer copy();
+
+    /**
+     * Prepare for a module, before any of its nodes is entered.
+     *
+     * @param module The module
+     */
+    public void startModule(ModuleDeclaration module)
+    {
+        // Nothing to prepare
+    }
+
+    /**
+     * A node of one of the rules is entered, before its children.
+     *
+     * @param context The node
+     * @param module The module, as far as it has been visited
+     */
+    public void enter(ParserRuleContext context, ModuleDeclaration module)
+    {
+        // Nothing to do
+    }
+
+    /**
+     * A node of one of the rules is left, after its children.
+     *
+     * @param context The node
+     * @param module The module, as far as it has been visited
+     */
+    public void exit(ParserRuleContext context, ModuleDeclaration module)
+    {
+        // Nothing to do
+    }
+
+    /**
+     * The module has been visited.
+     *
+     * @param module The module
+     */
+    public void endModule(ModuleDeclaration module)
+    {
+        // Nothing to complete
+    }
+
+    /**
+     * Return the name of a function as used for the subject of the results.
+     *
+     * @param function A function
+     * @return The name and arity, such as <code>m:f#2</code>
+     */
+    protected static String subject(FunctionDeclaration function)
+    {
+        return ((function.getPrefix() != null) ? function.getPrefix() + ":" : "") + function.getLocalName()
+                + "#" + function.getArity();
+    }
+
+    /**
+     * Return a new analyzer.
+     *
+     * @param name The name of a built-in analyzer, <code>complexity</code> or
+     *             <code>params</code>, or of an analyzer registered as a service
+     * @return The analyzer
+     */
+    public static XQueryAnalyzer forName(String name)
+    {
+        if (ComplexityAnalyzer.NAME.equals(name)) {
+            return new ComplexityAnalyzer();
+        }
+        if (ParamDocumentationAnalyzer.NAME.equals(name)) {
+            return new ParamDocumentationAnalyzer();
+        }
+        List<String> names = new ArrayList<>();
+        Collections.addAll(names, ComplexityAnalyzer.NAME, ParamDocumentationAnalyzer.NAME);
+        for (XQueryAnalyzer analyzer : ServiceLoader.load(XQueryAnalyzer.class)) {
+            if (analyzer.getName().equals(name)) {
+                return analyzer;
+            }
+            names.add(analyzer.getName());
+        }
+        throw new XQDocRuntimeException("Unknown analyzer " + name + ", expected one of " + names);
+    }
+}
@@ -2,13 +2,19 @@ package org.xqdoc;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.RuleNode;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -48,8 +54,8 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
 
     private StringBuffer declaredFunctions = new StringBuffer();
 
-    // Hash for holding the invoked functions for the current function
-    private HashSet<String> invokedFunctions = new HashSet<>();
+    // Hash for holding the invoked functions for the current function, in source order
+    private LinkedHashSet<FunctionInvocation> invokedFunctions = new LinkedHashSet<>();
 
     // Hash for holding the referenced variables for the current function
     private HashSet<String> referencedVariables = new HashSet<>();
@@ -59,6 +65,45 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     // Flag to indicate whether document URIs should be encoded
     private boolean encodeURIs = false;
 
+    // The module information kept after the XML has been written
+    private ModuleDeclaration moduleDeclaration = new ModuleDeclaration();
+
+    // The last xqDoc comment printed
+    private CommentDeclaration lastComment = null;
+
+    // The namespace table of the bundle the module is written to, or null
+    private NamespaceTable namespaceTable = null;
+
+    // The comment builder, cleared for each xqDoc comment
+    private final XQDocComment xqDocComment = new XQDocComment();
+
+    // How many rules are visited between two looks at the clock
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    // The time by which the module has to be visited, as System.currentTimeMillis()
+    private long deadline = Long.MAX_VALUE;
+
+    // The time budget the deadline was set from, for the diagnostic
+    private long timeBudgetMillis = 0;
+
+    private int visits = 0;
+
+    // The deepest nesting of rules the walk goes down to, 0 for no limit (see ResourceLimits)
+    private int maxDepth = 0;
+
+    private int depth = 0;
+
+    // The template recording what depends on the predefined function namespaces, or null
+    private ProfileTemplate profileTemplate = null;
+
+    // The variables referenced by the current function, in visiting order, for the template
+    private List<String[]> referencedVariableNames = new ArrayList<>();
+
+    // The analyzers run in the walk, by the index of the rules they see, or null for none
+    private XQueryAnalyzer[][] analyzersByRule = null;
+
+    private List<XQueryAnalyzer> analyzers = new ArrayList<>();
+
     /**
      * <p>Constructor for XQueryVisitor.</p>
      *
@@ -84,6 +129,213 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         encodeURIs = bool;
     }
 
+    /**
+     * Prepare the visitor for another module, keeping the predefined function
+     * namespaces and the settings.  The buffers are emptied rather than
+     * replaced, so a visitor reused by one thread for many modules does not
+     * allocate them again.  The module declaration of the previous module is
+     * left to its holder and a new one is started.
+     *
+     * @param stream
+     *              The StringBuilder that is used to build the full xqDoc XML document of the next module
+     */
+    public void reset(StringBuilder stream)
+    {
+        this.stream = stream;
+        xqDocCommentContext = null;
+        defaultFunctionNamespace = "http://www.w3.org/2003/05/xpath-functions";
+        uriModuleMap.clear();
+        defaultModuleFunctionNamespace = null;
+        imports.clear();
+        declaredNamespaces.clear();
+        importedModuleNamespaces.clear();
+        declaredVariables.setLength(0);
+        declaredFunctions.setLength(0);
+        invokedFunctions = new LinkedHashSet<>();
+        referencedVariables = new HashSet<>();
+        referencedVariableNames = new ArrayList<>();
+        queryBody.setLength(0);
+        moduleDeclaration = new ModuleDeclaration();
+        lastComment = null;
+        deadline = Long.MAX_VALUE;
+        timeBudgetMillis = 0;
+        visits = 0;
+        depth = 0;
+        profileTemplate = null;
+        for (XQueryAnalyzer analyzer : analyzers) {
+            analyzer.startModule(moduleDeclaration);
+        }
+    }
+
+    /**
+     * Run analyzers in the walk of the modules, adding their results to the
+     * module declaration.  The analyzers are kept by {@link #reset(StringBuilder)}
+     * and started again for the next module.
+     *
+     * @param analyzers The analyzers, used by the thread of the visitor only
+     */
+    public void setAnalyzers(List<XQueryAnalyzer> analyzers)
+    {
+        this.analyzers = new ArrayList<>(analyzers);
+        if (analyzers.isEmpty()) {
+            analyzersByRule = null;
+            return;
+        }
+        List<String> ruleNames = Arrays.asList(org.xqdoc.XQueryParser.ruleNames);
+        List<List<XQueryAnalyzer>> byRule = new ArrayList<>();
+        for (int i = 0; i < ruleNames.size(); i++) {
+            byRule.add(new ArrayList<XQueryAnalyzer>());
+        }
+        for (XQueryAnalyzer analyzer : analyzers) {
+            for (String ruleName : analyzer.getRuleNames()) {
+                int rule = ruleNames.indexOf(ruleName);
+                if (rule < 0) {
+                    throw new XQDocRuntimeException("Analyzer " + analyzer.getName() + " names the unknown rule " + ruleName);
+                }
+                byRule.get(rule).add(analyzer);
+            }
+            analyzer.startModule(moduleDeclaration);
+        }
+        analyzersByRule = new XQueryAnalyzer[ruleNames.size()][];
+        for (int i = 0; i < analyzersByRule.length; i++) {
+            analyzersByRule[i] = byRule.get(i).isEmpty() ? null : byRule.get(i).toArray(new XQueryAnalyzer[0]);
+        }
+    }
+
+    /**
+     * @return The analyzers run in the walk
+     */
+    public List<XQueryAnalyzer> getAnalyzers() {
+        return analyzers;
+    }
+
+    /**
+     * Record the calls, variable references and variable declarations that
+     * depend on the predefined function namespaces in a template, so that the
+     * xqDoc of the module can be given for other profiles without visiting it
+     * again.  The XML written then has holes; {@link ProfileTemplate#toXml(CharSequence, Map)}
+     * fills them in.  The module declaration is still resolved against the
+     * predefined function namespaces of the visitor.  {@link #reset(StringBuilder)}
+     * stops the recording.
+     *
+     * @param profileTemplate The template of the module, or null to write complete XML
+     */
+    public void setProfileTemplate(ProfileTemplate profileTemplate) {
+        this.profileTemplate = profileTemplate;
+    }
+
+    /**
+     * Abandon the module with an {@link XQDocLimitExceededException} when it
+     * is still being visited at a time, usually the deadline of its parse from
+     * {@link ModuleParser#getDeadline()}.
+     *
+     * @param deadline The time as {@link System#currentTimeMillis()}, or Long.MAX_VALUE for no limit
+     * @param timeBudgetMillis The time budget the deadline was set from, reported when it is exceeded
+     */
+    public void setDeadline(long deadline, long timeBudgetMillis) {
+        this.deadline = deadline;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * Abandon the module with an {@link XQDocLimitExceededException} when the
+     * walk goes deeper than a number of nested rules, usually the depth limit
+     * of its parse from {@link ResourceLimits#getEffectiveMaxDepth()}, so that
+     * the visitor accepts the trees the parser does.  The walk recurses for
+     * every rule, so a deep limit needs a large thread stack.  The limit is
+     * kept by {@link #reset(StringBuilder)}.
+     *
+     * @param maxDepth The number of nested rules, or 0 for no limit
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Count a rule the walk goes down into.
+     */
+    private void enterDepth()
+    {
+        if (maxDepth > 0 && depth >= maxDepth) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.DEPTH, maxDepth,
+                    "Parse tree exceeds the limit of " + maxDepth + " nested rules");
+        }
+        depth++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String visitChildren(RuleNode node)
+    {
+        if (deadline != Long.MAX_VALUE && ++visits % CLOCK_CHECK_INTERVAL == 0
+                && System.currentTimeMillis() > deadline) {
+            throw new XQDocLimitExceededException(ResourceLimits.Limit.TIME, timeBudgetMillis,
+                    "Time budget of " + timeBudgetMillis + " ms exceeded while visiting the module");
+        }
+        enterDepth();
+        try {
+            XQueryAnalyzer[] interested = (analyzersByRule != null) ? analyzersByRule[node.getRuleContext().getRuleIndex()] : null;
+            if (interested == null) {
+                return super.visitChildren(node);
+            }
+            ParserRuleContext context = (ParserRuleContext) node.getRuleContext();
+            for (XQueryAnalyzer analyzer : interested) {
+                analyzer.enter(context, moduleDeclaration);
+            }
+            String result = super.visitChildren(node);
+            for (XQueryAnalyzer analyzer : interested) {
+                analyzer.exit(context, moduleDeclaration);
+            }
+            return result;
+        } finally {
+            depth--;
+        }
+    }
+
+    /**
+     * Walk a part of the module that is not visited for its xqDoc, such as
+     * the initial value of a variable, for the analyzers alone.
+     *
+     * @param tree The part of the parse tree
+     */
+    private void analyze(ParseTree tree)
+    {
+        if (analyzersByRule == null || !(tree instanceof ParserRuleContext)) {
+            return;
+        }
+        ParserRuleContext context = (ParserRuleContext) tree;
+        enterDepth();
+        try {
+            XQueryAnalyzer[] interested = analyzersByRule[context.getRuleIndex()];
+            if (interested != null) {
+                for (XQueryAnalyzer analyzer : interested) {
+                    analyzer.enter(context, moduleDeclaration);
+                }
+            }
+            for (int i = 0; i < context.getChildCount(); i++) {
+                analyze(context.getChild(i));
+            }
+            if (interested != null) {
+                for (XQueryAnalyzer analyzer : interested) {
+                    analyzer.exit(context, moduleDeclaration);
+                }
+            }
+        } finally {
+            depth--;
+        }
+    }
+
+    /**
+     * Write the module as an entry of a bundle: without the root element and
+     * the control block, which the {@link BundleWriter} writes, and with the
+     * declared namespaces as references into the namespace table of the bundle.
+     *
+     * @param namespaceTable The namespace table of the bundle, or null for a complete xqDoc document
+     */
+    public void setNamespaceTable(NamespaceTable namespaceTable) {
+        this.namespaceTable = namespaceTable;
+    }
+
     /**
      * Return the encode document URI flag.
      *
@@ -93,6 +345,15 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         return encodeURIs;
     }
 
+    /**
+     * Return the module information gathered while visiting.
+     *
+     * @return the module declaration
+     */
+    public ModuleDeclaration getModuleDeclaration() {
+        return moduleDeclaration;
+    }
+
     /**
      *
      * @return
@@ -107,14 +368,15 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             int b = xqDocCommentContext.stop.getStopIndex();
             Interval interval = new Interval(a,b);
             String xqDocBody = xqDocCommentContext.start.getInputStream().getText(interval);
-            XQDocComment xqDocComment = new XQDocComment();
             xqDocComment.clear();
             xqDocComment.setComment(xqDocBody, a, b);
             String comment = xqDocComment.getXML().toString();
+            lastComment = new CommentDeclaration(xqDocComment.getStart(), xqDocComment.getEnd(), xqDocComment.getEntries());
             buffer.append(comment).append("\n");
             xqDocCommentContext = null;
             return buffer.toString();
         }
+        lastComment = null;
         return "";
     }
 
@@ -135,6 +397,31 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     /** {@inheritDoc} */
     @Override
     public String visitModule(org.xqdoc.XQueryParser.ModuleContext context)
+    {
+        XQueryAnalyzer[] interested = (analyzersByRule != null) ? analyzersByRule[context.getRuleIndex()] : null;
+        if (interested != null) {
+            for (XQueryAnalyzer analyzer : interested) {
+                analyzer.enter(context, moduleDeclaration);
+            }
+        }
+        documentModule(context);
+        if (interested != null) {
+            for (XQueryAnalyzer analyzer : interested) {
+                analyzer.exit(context, moduleDeclaration);
+            }
+        }
+        for (XQueryAnalyzer analyzer : analyzers) {
+            analyzer.endModule(moduleDeclaration);
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param context The module
+     * @return null
+     */
+    private String documentModule(org.xqdoc.XQueryParser.ModuleContext context)
     {
         StringBuffer moduleXQDoc = new StringBuffer();
         for (org.xqdoc.XQueryParser.XqDocCommentContext comment : context.xqDocComment() )
@@ -142,20 +429,23 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             xqDocCommentContext = comment;
             moduleXQDoc.append(printXQDocumentation());
         }
-        stream.append("<xqdoc:xqdoc xmlns:xqdoc=\"http://www.xqdoc.org/1.0\">").append("\n");
-        stream.append("<xqdoc:control>").append("\n");
-        stream.append("<xqdoc:date>");
-        stream.append(new DateTime().toString(isoFormat));
-        stream.append("</xqdoc:date>").append("\n");
-        stream.append("<xqdoc:version>1.1</xqdoc:version>").append("\n");
-        stream.append("</xqdoc:control>").append("\n");
+        moduleDeclaration.setComment(lastComment);
+        moduleDeclaration.setBody(bodyText(context));
+        if (namespaceTable == null)
+        {
+            stream.append("<xqdoc:xqdoc xmlns:xqdoc=\"http://www.xqdoc.org/1.0\">").append("\n");
+            stream.append("<xqdoc:control>").append("\n");
+            stream.append("<xqdoc:date>");
+            stream.append(new DateTime().toString(isoFormat));
+            stream.append("</xqdoc:date>").append("\n");
+            stream.append("<xqdoc:version>1.1</xqdoc:version>").append("\n");
+            stream.append("</xqdoc:control>").append("\n");
+        }
         if (context.libraryModule() != null && context.libraryModule().moduleDecl() != null)
         {
-            org.xqdoc.XQueryParser.ModuleDeclContext moduleDeclContext = context.libraryModule().moduleDecl();
-            String prefixText = moduleDeclContext.ncName().getText();
-            String uriText = moduleDeclContext.uri.getText();
-            String uriTrimText = trimQuotes(uriText);
-            uriModuleMap.put(prefixText, uriTrimText);
+            declareModule(context.libraryModule().moduleDecl());
+            String prefixText = moduleDeclaration.getPrefix();
+            String uriTrimText = moduleDeclaration.getUri();
             stream.append("<xqdoc:module type=\"library\">").append("\n");
             stream.append("<xqdoc:uri>").append(uriTrimText).append("</xqdoc:uri>").append("\n");
             stream.append("<xqdoc:name>").append(prefixText).append("</xqdoc:name>").append("\n");
@@ -167,32 +457,40 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         }
         else if (context.mainModule() != null)
         {
+            moduleDeclaration.setModuleType(ModuleDeclaration.MAIN);
             for (org.xqdoc.XQueryParser.MainModuleContext mctx : context.mainModule()) {
                 visitChildren(mctx);
             }
             stream.append("<xqdoc:module type=\"main\">").append("\n");
             stream.append(moduleXQDoc);
-            for (String entry : invokedFunctions)
+            for (FunctionInvocation invocation : invokedFunctions)
             {
-                String namespace = null;
-                String refLocalName = null;
-                String[] tmp = entry.split(" ", 2);
-                namespace = tmp[0];
-                refLocalName = tmp[1];
-
-                stream.append("<xqdoc:invoked>").append("\n");
-                stream.append("<xqdoc:uri>").append(trimQuotes(namespace)).append("</xqdoc:uri>").append("\n");
-                stream.append("<xqdoc:name>").append(refLocalName).append("</xqdoc:name>").append("\n");
-                stream.append("</xqdoc:invoked>").append("\n");
+                StringBuilder invoked = new StringBuilder();
+                String refLocalName = ((invocation.getPrefix() != null) ? (invocation.getPrefix() + ":") : "") + invocation.getLocalName();
+
+                invoked.append("<xqdoc:invoked arity=\"").append(invocation.getArity()).append("\">").append("\n");
+                invoked.append("<xqdoc:uri>").append(outputURI(invocation.getUri())).append("</xqdoc:uri>").append("\n");
+                invoked.append("<xqdoc:name>").append(refLocalName).append("</xqdoc:name>").append("\n");
+                invoked.append("</xqdoc:invoked>").append("\n");
+                stream.append(bindInvocation(invocation, invoked, moduleDeclaration.getInvocations()));
             }
 
-            for (String entry : referencedVariables)
+            if (profileTemplate != null)
+            {
+                stream.append(profileTemplate.references(referencedVariableNames, encodeURIs));
+                for (VariableReference reference : ProfileTemplate.resolve(referencedVariableNames, predefinedFunctionNamespaces, encodeURIs))
+                {
+                    moduleDeclaration.addVariableReference(reference);
+                }
+            }
+            else for (String entry : referencedVariables)
             {
                 String namespace = null;
                 String refLocalName = null;
                 String[] tmp = entry.split(" ", 2);
                 namespace = tmp[0];
                 refLocalName = tmp[1];
+                moduleDeclaration.addVariableReference(new VariableReference(trimQuotes(namespace), refLocalName));
                 stream.append("<xqdoc:ref-variable>").append("\n");
                 stream.append("<xqdoc:uri>").append(trimQuotes(namespace)).append("</xqdoc:uri>").append("\n");
                 stream.append("<xqdoc:name>").append(refLocalName).append("</xqdoc:name>").append("\n");
@@ -206,7 +504,10 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         buildVariables();
         buildFunctions();
         buildQueryBody();
-        stream.append("</xqdoc:xqdoc>").append("\n");
+        if (namespaceTable == null)
+        {
+            stream.append("</xqdoc:xqdoc>").append("\n");
+        }
         return null;
     }
 
@@ -217,6 +518,50 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         stream.append(queryBody);
     }
 
+    /**
+     * Record the namespace of a library module, so that the names of its
+     * declarations can be resolved.
+     *
+     * @param moduleDeclContext The Antlr4 parser context for the module declaration
+     */
+    public void declareModule(org.xqdoc.XQueryParser.ModuleDeclContext moduleDeclContext)
+    {
+        String prefixText = moduleDeclContext.ncName().getText();
+        String uriTrimText = trimQuotes(moduleDeclContext.uri.getText());
+        uriModuleMap.put(prefixText, uriTrimText);
+        moduleDeclaration.setModuleType(ModuleDeclaration.LIBRARY);
+        moduleDeclaration.setUri(uriTrimText);
+        moduleDeclaration.setPrefix(prefixText);
+    }
+
+    /**
+     * Record what links a module to the others from its header alone: the
+     * namespace of a library module, its namespace declarations and its
+     * imports.  No xqDoc is written.
+     *
+     * @param context The header parsed by {@link ModuleParser#parseHeader}
+     * @return null
+     */
+    @Override
+    public String visitModuleHeader(org.xqdoc.XQueryParser.ModuleHeaderContext context)
+    {
+        if (context.moduleDecl() != null) {
+            declareModule(context.moduleDecl());
+        } else {
+            moduleDeclaration.setModuleType(ModuleDeclaration.MAIN);
+        }
+        xqDocCommentContext = null;
+        for (int i = 0; i < context.getChildCount(); i++) {
+            ParseTree child = context.getChild(i);
+            if (child instanceof org.xqdoc.XQueryParser.ModuleImportContext
+                    || child instanceof org.xqdoc.XQueryParser.SchemaImportContext
+                    || child instanceof org.xqdoc.XQueryParser.NamespaceDeclContext) {
+                visit(child);
+            }
+        }
+        return null;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String visitProlog(org.xqdoc.XQueryParser.PrologContext context)
@@ -252,6 +597,13 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             stream.append("<xqdoc:namespaces>").append("\n");
             for (Map.Entry<String,String> namespaceEntry : declaredNamespaces.entrySet())
             {
+                if (namespaceTable != null)
+                {
+                    stream.append("<xqdoc:namespace ref=\"");
+                    stream.append(namespaceTable.id(namespaceEntry.getKey(), namespaceEntry.getValue()));
+                    stream.append("\"/>").append("\n");
+                    continue;
+                }
                 stream.append("<xqdoc:namespace prefix=\"");
                 stream.append(namespaceEntry.getKey());
                 stream.append("\" uri=\"");
@@ -268,7 +620,12 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
      */
     private void buildVariables()
     {
-        if (declaredVariables.length() > 0)
+        if (declaredVariables.length() > 0 && profileTemplate != null)
+        {
+            // Every variable may be one the profile does not bind
+            stream.append(profileTemplate.nonEmpty("<xqdoc:variables>\n", declaredVariables, "</xqdoc:variables>\n"));
+        }
+        else if (declaredVariables.length() > 0)
         {
             stream.append("<xqdoc:variables>").append("\n");
             stream.append(declaredVariables);
@@ -293,6 +650,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     @Override
     public String visitSchemaImport(org.xqdoc.XQueryParser.SchemaImportContext context)
     {
+        analyze(context);
         String prefix = context.schemaPrefix().ncName().getText();
         String uri = context.nsURI.getText();
         String location = null;
@@ -325,7 +683,11 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
 
         if (!imports.containsKey(prefix))
         {
-            imports.put(prefix, new ImportDeclaration(prefix, uriTrimText, "schema", location, xqDoc, printBody(context).toString()));
+            ImportDeclaration importDeclaration = new ImportDeclaration(prefix, uriTrimText, "schema", location, xqDoc, printBody(context).toString());
+            importDeclaration.setCommentDeclaration(lastComment);
+            importDeclaration.setBodyText(bodyText(context));
+            imports.put(prefix, importDeclaration);
+            moduleDeclaration.addImport(importDeclaration);
         }
         return null;
     }
@@ -334,7 +696,8 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     @Override
     public String visitModuleImport(org.xqdoc.XQueryParser.ModuleImportContext context)
     {
-        String prefix = context.ncName().getText();
+        analyze(context);
+        String prefix = (context.ncName() != null) ? context.ncName().getText() : null;
         String uri = context.nsURI.getText();
         String location = null;
         String uriTrimText;
@@ -364,11 +727,17 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
 
         String xqDoc = printXQDocumentation();
 
-        if (!imports.containsKey(prefix))
+        // Imports without a prefix are kept by namespace
+        String importKey = (prefix != null) ? prefix : uriTrimText;
+        if (!imports.containsKey(importKey))
         {
-            imports.put(prefix, new ImportDeclaration(prefix, uriTrimText, "library", location, xqDoc, printBody(context).toString()));
+            ImportDeclaration importDeclaration = new ImportDeclaration(prefix, uriTrimText, "library", location, xqDoc, printBody(context).toString());
+            importDeclaration.setCommentDeclaration(lastComment);
+            importDeclaration.setBodyText(bodyText(context));
+            imports.put(importKey, importDeclaration);
+            moduleDeclaration.addImport(importDeclaration);
         }
-        if (!importedModuleNamespaces.containsKey(prefix))
+        if (prefix != null && !importedModuleNamespaces.containsKey(prefix))
         {
             importedModuleNamespaces.put(prefix, uri);
         }
@@ -379,6 +748,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     @Override
     public String visitNamespaceDecl(org.xqdoc.XQueryParser.NamespaceDeclContext context)
     {
+        analyze(context);
         String prefix = context.ncName().getText();
         String uri = context.uriLiteral().getText();
 
@@ -389,6 +759,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         if (!declaredNamespaces.containsKey(prefix))
         {
             declaredNamespaces.put(prefix, uri);
+            moduleDeclaration.addNamespace(prefix, uri);
         }
         return null;
     }
@@ -429,6 +800,33 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         return buffer;
     }
 
+    /**
+     *
+     * @param annotations
+     *                  The Antlr4 parser context for the annotation of an XQuery function or variable
+     * @param declarations
+     *                  The list receiving the annotations
+     */
+    private void addAnnotations(org.xqdoc.XQueryParser.AnnotationsContext annotations, List<AnnotationDeclaration> declarations)
+    {
+        if (annotations != null && annotations.children != null) {
+            for (org.xqdoc.XQueryParser.AnnotationContext annotation: annotations.annotation())
+            {
+                AnnotationDeclaration annotationDeclaration = new AnnotationDeclaration(annotation.qName().getText());
+                if (annotation.annotList() != null) {
+                    for (org.xqdoc.XQueryParser.AnnotationParamContext annotationParam: annotation.annotList().annotationParam())
+                    {
+                        int a = annotationParam.start.getStartIndex();
+                        int b = annotationParam.stop.getStopIndex();
+                        Interval interval = new Interval(a,b);
+                        annotationDeclaration.addLiteral(trimQuotes(annotationParam.start.getInputStream().getText(interval)));
+                    }
+                }
+                declarations.add(annotationDeclaration);
+            }
+        }
+    }
+
     /**
      *
      * @param context
@@ -458,6 +856,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     @Override
     public String visitVarDecl(org.xqdoc.XQueryParser.VarDeclContext context)
     {
+        analyze(context);
         // Separate the variable name into namspace prefix and localname
         String namespacePrefix = null;
         String namespace = null;
@@ -485,21 +884,38 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             }
         }
 
+        // Declared in a namespace of the profile, which another profile may not bind
+        boolean bound = profileTemplate != null && !uriModuleMap.containsKey(namespacePrefix);
+
         // References a namespace we don't know about
-        if (namespace == null)
+        if (namespace == null && !bound)
             return null;
 
-        if (encodeURIs) {
+        if (encodeURIs && namespace != null) {
             namespace = encodeURI(namespace);
         }
-        declaredVariables.append("<xqdoc:variable>").append("\n");
-        declaredVariables.append("<xqdoc:uri>").append(trimQuotes(namespace)).append("</xqdoc:uri>").append("\n");
-        declaredVariables.append("<xqdoc:name>").append(localName).append("</xqdoc:name>").append("\n");
-        declaredVariables.append(printXQDocumentation());
-        declaredVariables.append(processAnnotations(context.annotations()));
-        declaredVariables.append(processTypeDeclaration(context.typeDeclaration()));
-        declaredVariables.append(printBody(context));
-        declaredVariables.append("</xqdoc:variable>").append("\n");
+        StringBuilder variable = new StringBuilder();
+        variable.append("<xqdoc:variable>").append("\n");
+        variable.append("<xqdoc:uri>").append(bound ? ProfileTemplate.UNBOUND : trimQuotes(namespace)).append("</xqdoc:uri>").append("\n");
+        variable.append("<xqdoc:name>").append(localName).append("</xqdoc:name>").append("\n");
+        variable.append(printXQDocumentation());
+        variable.append(processAnnotations(context.annotations()));
+        variable.append(processTypeDeclaration(context.typeDeclaration()));
+        variable.append(printBody(context));
+        variable.append("</xqdoc:variable>").append("\n");
+        declaredVariables.append(bound ? profileTemplate.bind(namespacePrefix, variable, encodeURIs) : variable);
+        if (namespace == null)
+            return null;
+
+        VariableDeclaration variableDeclaration = new VariableDeclaration(trimQuotes(namespace), localName);
+        variableDeclaration.setComment(lastComment);
+        addAnnotations(context.annotations(), variableDeclaration.getAnnotations());
+        if (context.typeDeclaration() != null && context.typeDeclaration().sequenceType() != null) {
+            org.xqdoc.XQueryParser.SequenceTypeContext sequenceType = context.typeDeclaration().sequenceType();
+            variableDeclaration.setType(sequenceItemType(sequenceType), (sequenceType.occurrence != null) ? sequenceType.occurrence.getText() : null);
+        }
+        variableDeclaration.setBody(bodyText(context));
+        moduleDeclaration.addVariable(variableDeclaration);
         return null;
     }
 
@@ -512,16 +928,25 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         String functionName = context.name.getText();
         String[] nameParts = functionName.split(":");
         String localName = nameParts[nameParts.length - 1];
-        invokedFunctions = new HashSet<>();
+        String functionPrefix = (nameParts.length > 1) ? nameParts[0] : null;
+        int arity = (functionParamsContext != null) ? functionParamsContext.functionParam().size() : 0;
+        FunctionDeclaration functionDeclaration = new FunctionDeclaration(functionNamespace(functionPrefix), functionPrefix, localName, arity);
+        moduleDeclaration.addFunction(functionDeclaration);
+        invokedFunctions = new LinkedHashSet<>();
         referencedVariables = new HashSet<>();
+        referencedVariableNames = new ArrayList<>();
 
         declaredFunctions.append("<xqdoc:function>").append("\n");
         declaredFunctions.append(printXQDocumentation());
+        functionDeclaration.setComment(lastComment);
+        addAnnotations(context.annotations(), functionDeclaration.getAnnotations());
         declaredFunctions.append("<xqdoc:name>");
         declaredFunctions.append(localName);
         declaredFunctions.append("</xqdoc:name>").append("\n");
         declaredFunctions.append(processAnnotations(context.annotations()));
-        declaredFunctions.append("<xqdoc:signature>declare function ");
+        declaredFunctions.append("<xqdoc:signature>");
+        int signatureStart = declaredFunctions.length();
+        declaredFunctions.append("declare function ");
         declaredFunctions.append(localName);
         declaredFunctions.append("(");
         if (functionParamsContext != null)
@@ -540,6 +965,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             Interval interval = new Interval(a, b);
             declaredFunctions.append(context.start.getInputStream().getText(interval));
         }
+        functionDeclaration.setSignature(declaredFunctions.substring(signatureStart));
         declaredFunctions.append("</xqdoc:signature>").append("\n");
         if (functionParamsContext != null)
         {
@@ -552,6 +978,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
                 declaredFunctions.append("</xqdoc:name>").append("\n");
                 declaredFunctions.append(processTypeDeclaration(functionParam.type));
                 declaredFunctions.append("</xqdoc:parameter>").append("\n");
+                functionDeclaration.addParameter(parameterDeclaration(functionParam));
             }
             declaredFunctions.append("</xqdoc:parameters>").append("\n");
         }
@@ -570,41 +997,42 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             {
                 declaredFunctions.append(functionReturnContext.sequenceType().itemType().getText());
             }
+            functionDeclaration.setReturnType(sequenceItemType(functionReturnContext.sequenceType()),
+                    (functionReturnContext.sequenceType().occurrence != null) ? functionReturnContext.sequenceType().occurrence.getText() : null);
             declaredFunctions.append("</xqdoc:type>").append("\n");
             declaredFunctions.append("</xqdoc:return>").append("\n");
         }
         visitChildren(context);
 
-        for (String entry : invokedFunctions)
+        for (FunctionInvocation invocation : invokedFunctions)
         {
-            String namespace = null;
-            String refPrefixName = null;
-            String refLocalName = null;
-            String[] tmp = entry.split(" ", 2);
-            namespace = tmp[0];
-            refLocalName = tmp[1];
-
-            if (refLocalName.contains(":")) {
-                String[] tmp2 = refLocalName.split(":");
-                refPrefixName = tmp2[0];
-                refLocalName = tmp2[1];
-            }
-            declaredFunctions.append("<xqdoc:invoked>").append("\n");
-            declaredFunctions.append("<xqdoc:uri>").append(trimQuotes(namespace)).append("</xqdoc:uri>").append("\n");
-            if (refPrefixName != null) {
-                declaredFunctions.append("<xqdoc:prefix>").append(refPrefixName).append("</xqdoc:prefix>").append("\n");
+            StringBuilder invoked = new StringBuilder();
+            invoked.append("<xqdoc:invoked arity=\"").append(invocation.getArity()).append("\">").append("\n");
+            invoked.append("<xqdoc:uri>").append(outputURI(invocation.getUri())).append("</xqdoc:uri>").append("\n");
+            if (invocation.getPrefix() != null) {
+                invoked.append("<xqdoc:prefix>").append(invocation.getPrefix()).append("</xqdoc:prefix>").append("\n");
             }
-            declaredFunctions.append("<xqdoc:name>").append(refLocalName).append("</xqdoc:name>").append("\n");
-            declaredFunctions.append("</xqdoc:invoked>").append("\n");
+            invoked.append("<xqdoc:name>").append(invocation.getLocalName()).append("</xqdoc:name>").append("\n");
+            invoked.append("</xqdoc:invoked>").append("\n");
+            declaredFunctions.append(bindInvocation(invocation, invoked, functionDeclaration.getInvocations()));
         }
 
-        for (String entry : referencedVariables)
+        if (profileTemplate != null)
+        {
+            declaredFunctions.append(profileTemplate.references(referencedVariableNames, encodeURIs));
+            for (VariableReference reference : ProfileTemplate.resolve(referencedVariableNames, predefinedFunctionNamespaces, encodeURIs))
+            {
+                functionDeclaration.addVariableReference(reference);
+            }
+        }
+        else for (String entry : referencedVariables)
         {
             String namespace = null;
             String refLocalName = null;
             String[] tmp = entry.split(" ", 2);
             namespace = tmp[0];
             refLocalName = tmp[1];
+            functionDeclaration.addVariableReference(new VariableReference(trimQuotes(namespace), refLocalName));
             declaredFunctions.append("<xqdoc:ref-variable>").append("\n");
             declaredFunctions.append("<xqdoc:uri>").append(trimQuotes(namespace)).append("</xqdoc:uri>").append("\n");
             declaredFunctions.append("<xqdoc:name>").append(refLocalName).append("</xqdoc:name>").append("\n");
@@ -612,11 +1040,44 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
         }
 
         declaredFunctions.append(printBody(context));
+        functionDeclaration.setBody(bodyText(context));
 
         declaredFunctions.append("</xqdoc:function>").append("\n");
         return null;
     }
 
+    /**
+     *
+     * @param functionParam
+     *                  The Antlr4 parser context for a parameter of an XQuery function
+     * @return
+     *                  The parameter
+     */
+    private ParameterDeclaration parameterDeclaration(org.xqdoc.XQueryParser.FunctionParamContext functionParam)
+    {
+        String type = null;
+        String occurrence = null;
+        if (functionParam.type != null && functionParam.type.sequenceType() != null) {
+            type = sequenceItemType(functionParam.type.sequenceType());
+            if (functionParam.type.sequenceType().occurrence != null) {
+                occurrence = functionParam.type.sequenceType().occurrence.getText();
+            }
+        }
+        return new ParameterDeclaration(functionParam.name.getText(), type, occurrence);
+    }
+
+    /**
+     *
+     * @param sequenceType
+     *                  The Antlr4 parser context for a sequence type
+     * @return
+     *                  The item type, or empty-sequence()
+     */
+    private String sequenceItemType(org.xqdoc.XQueryParser.SequenceTypeContext sequenceType)
+    {
+        return (sequenceType.itemType() != null) ? sequenceType.itemType().getText() : "empty-sequence()";
+    }
+
     /** {@inheritDoc} */
     @Override
     public String visitFunctionBody(org.xqdoc.XQueryParser.FunctionBodyContext context) {
@@ -627,11 +1088,13 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
     /** {@inheritDoc} */
     @Override
     public String visitQueryBody(org.xqdoc.XQueryParser.QueryBodyContext context) {
-        invokedFunctions = new HashSet<>();
+        invokedFunctions = new LinkedHashSet<>();
         referencedVariables = new HashSet<>();
+        referencedVariableNames = new ArrayList<>();
         visitChildren(context);
         queryBody.append("<xqdoc:queryBody>").append("\n");
         queryBody.append(printBody(context));
+        moduleDeclaration.setQueryBody(bodyText(context));
         queryBody.append("</xqdoc:queryBody>").append("\n");
         return null;
     }
@@ -645,20 +1108,32 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
      */
     private StringBuffer printBody(ParserRuleContext context) {
         StringBuffer bodyBuffer = new StringBuffer();
-        int a = context.start.getStartIndex();
-        int b = context.stop.getStopIndex();
-        Interval interval = new Interval(a,b);
+        BodyText body = bodyText(context);
 
         bodyBuffer.append("<xqdoc:body start=\"");
-        bodyBuffer.append(a + 1);
+        bodyBuffer.append(body.getStart());
         bodyBuffer.append("\" end=\"");
-        bodyBuffer.append(b + 1);
+        bodyBuffer.append(body.getEnd());
         bodyBuffer.append("\" xml:space=\"preserve\"><![CDATA[");
-        bodyBuffer.append(context.start.getInputStream().getText(interval).replaceAll("]]>", "] ] >"));
+        bodyBuffer.append(body.getText().replace("]]>", "] ] >"));
         bodyBuffer.append("]]></xqdoc:body>").append("\n");
         return bodyBuffer;
     }
 
+    /**
+     *
+     * @param context
+     *                  The Antlr4 parser context for a section of an XQuery module
+     * @return
+     *                  The source text of the section with its positions
+     */
+    private BodyText bodyText(ParserRuleContext context) {
+        int a = context.start.getStartIndex();
+        int b = context.stop.getStopIndex();
+        Interval interval = new Interval(a,b);
+        return new BodyText(a + 1, b + 1, context.start.getInputStream().getText(interval));
+    }
+
     /** {@inheritDoc} */
     @Override
     public String visitXqDocComment(org.xqdoc.XQueryParser.XqDocCommentContext context)
@@ -683,7 +1158,35 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             localName = tmp[0];
         }
 
-        // Get the actual namespace
+        // Get the actual namespace, left open for the template when the profile binds it
+        namespace = (profileTemplate != null && isPredefined(namespacePrefix))
+                ? ProfileTemplate.UNBOUND : functionNamespace(namespacePrefix);
+
+        // References a namespace we don't know about.  The call is not recorded, but its
+        // arguments are still visited for the calls and variable references they hold,
+        // which were missed when the visit stopped here
+        if (namespace == null) {
+            visitChildren(context);
+            return null;
+        }
+
+        int arity = context.argumentList().argument().size();
+
+        // The set keeps the first occurrence of each distinct call
+        invokedFunctions.add(new FunctionInvocation(namespace, namespacePrefix, localName, arity));
+        visitChildren(context);
+        return null;
+    }
+
+    /**
+     * Resolve the namespace of a function name.
+     *
+     * @param namespacePrefix The prefix of the function name, or null
+     * @return The namespace without quotes, or null when the prefix is unknown
+     */
+    private String functionNamespace(String namespacePrefix)
+    {
+        String namespace = null;
         if (namespacePrefix == null) {
             if (defaultModuleFunctionNamespace != null) {
                 namespace = defaultModuleFunctionNamespace;
@@ -700,29 +1203,57 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
                         .get(namespacePrefix));
             }
         }
+        return (namespace != null) ? trimQuotes(namespace) : null;
+    }
 
-        // References a namespace we don't know about
-        if (namespace == null)
-            return null;
+    /**
+     * @param namespacePrefix The prefix of a name, or null
+     * @return Whether the prefix can only be bound by the predefined function namespaces
+     */
+    private boolean isPredefined(String namespacePrefix)
+    {
+        return namespacePrefix != null && !uriModuleMap.containsKey(namespacePrefix)
+                && !importedModuleNamespaces.containsKey(namespacePrefix);
+    }
 
-        if (encodeURIs) {
-            namespace = encodeURI(namespace);
+    /**
+     * Add a call to the module declaration and return its element, which is
+     * left open in the template when the call is to a namespace of the profile.
+     *
+     * @param invocation The call, with {@link ProfileTemplate#UNBOUND} for a namespace of the profile
+     * @param invoked The <code>xqdoc:invoked</code> element of the call
+     * @param invocations The calls of the function or module
+     * @return The element, or the text standing for it in the template
+     */
+    private CharSequence bindInvocation(FunctionInvocation invocation, CharSequence invoked, List<FunctionInvocation> invocations)
+    {
+        if (!ProfileTemplate.UNBOUND.equals(invocation.getUri())) {
+            invocations.add(invocation);
+            return invoked;
         }
-
-        String invokedString = namespace + " " + ((namespacePrefix != null) ? (namespacePrefix + ":") : "") + localName;
-
-        // Check the invokedFunctions (to see if it is already there)
-        if (!invokedFunctions.contains(invokedString)) {
-            invokedFunctions.add(invokedString);
+        String namespace = (String) predefinedFunctionNamespaces.get(invocation.getPrefix());
+        if (namespace != null) {
+            invocations.add(new FunctionInvocation(trimQuotes(namespace), invocation.getPrefix(),
+                    invocation.getLocalName(), invocation.getArity()));
         }
-        visitChildren(context);
-        return null;
+        return profileTemplate.bind(invocation.getPrefix(), invoked, encodeURIs);
+    }
+
+    /**
+     *
+     * @param uri A namespace
+     * @return The namespace as written to the xqDoc XML
+     */
+    private String outputURI(String uri)
+    {
+        return encodeURIs ? encodeURI(uri) : uri;
     }
 
     /** {@inheritDoc} */
     @Override
     public String visitVarRef(org.xqdoc.XQueryParser.VarRefContext context)
     {
+        analyze(context);
         // Separate the variable name into namspace prefix and localname
         String namespacePrefix = null;
         String namespace = null;
@@ -753,6 +1284,15 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
             }
         }
 
+        if (profileTemplate != null) {
+            if (isPredefined(namespacePrefix)) {
+                referencedVariableNames.add(new String[] { null, namespacePrefix, localName });
+            } else if (namespace != null) {
+                referencedVariableNames.add(new String[] { encodeURIs ? encodeURI(namespace) : namespace, namespacePrefix, localName });
+            }
+            return null;
+        }
+
         // References a namespace we don't know about
         if (namespace == null)
             return null;
@@ -775,7 +1315,7 @@ public class XQueryVisitor extends org.xqdoc.XQueryParserBaseVisitor<String> {
      *            The string to encode.
      * @return The encoded string.
      */
-    private String encodeURI(String uri) {
+    static String encodeURI(String uri) {
         return uri.replaceAll("/", "~2F");
     }
 
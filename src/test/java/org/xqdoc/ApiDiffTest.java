@@ -0,0 +1,100 @@
+package org.xqdoc;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.xqdoc.TestModules.module;
+
+/**
+ * Unit tests for the public API differences between two versions of a repository.
+ */
+public class ApiDiffTest
+{
+    /**
+     *
+     * @param changes Changes
+     * @return The changes as text
+     */
+    private static List<String> lines(List<ApiDiff.Change> changes)
+    {
+        List<String> lines = new ArrayList<>();
+        for (ApiDiff.Change change : changes) {
+            lines.add(change.toString());
+        }
+        return lines;
+    }
+
+    @Test
+    public void signaturesAreNormalized()
+    {
+        assertEquals("declare function f($a as xs:string,$b) as item()*",
+                ApiDiff.normalizeSignature("declare  function f( $a (: the a :) as xs:string ,\n  $b )\tas item()*"));
+        assertEquals("", ApiDiff.normalizeSignature(null));
+    }
+
+    @Test
+    public void changesAreFoundByKey()
+    {
+        List<ModuleDeclaration> oldVersion = Arrays.asList(
+                module("a.xqm", "module namespace a=\"urn:a\";\n"
+                        + "declare variable $a:v as xs:string := '';\n"
+                        + "declare %public %updating function a:same($x) { () };\n"
+                        + "declare function a:typed($x as xs:string) { $x };\n"
+                        + "declare function a:old() { 1 };\n"
+                        + "declare function a:gone() { 1 };\n"
+                        + "declare function a:away($x) { $x };\n"
+                        + "declare %private function a:hidden() { 1 };\n"),
+                module("main.xq", "declare function local:f() { 1 };\nlocal:f()"));
+        List<ModuleDeclaration> newVersion = Arrays.asList(
+                module("a.xqm", "module namespace a=\"urn:a\";\n"
+                        + "declare variable $a:v as xs:string* := '';\n"
+                        + "declare %updating %public function a:same( $x ) { 2 };\n"
+                        + "declare function a:typed($x as xs:integer) { $x };\n"
+                        + "(:~\n : @deprecated use a:new\n :)\n"
+                        + "declare function a:old() { 1 };\n"
+                        + "declare function a:new() { 1 };\n"
+                        + "declare %private function a:hidden($x) { 1 };\n"),
+                module("b.xqm", "module namespace b=\"urn:b\";\n"
+                        + "declare function b:away($x) { 2 };\n"));
+
+        List<ApiDiff.Change> changes = ApiDiff.diff(oldVersion, newVersion);
+        assertEquals(Arrays.asList(
+                "signature Q{urn:a}$v: declare variable $v as xs:string -> declare variable $v as xs:string*",
+                "signature Q{urn:a}typed#1: declare function typed($x as xs:string) -> declare function typed($x as xs:integer)",
+                "deprecated Q{urn:a}old#0 (a.xqm)",
+                "added Q{urn:a}new#0 (a.xqm)",
+                "moved Q{urn:a}away#1 (a.xqm) -> Q{urn:b}away#1 (b.xqm)",
+                "removed Q{urn:a}gone#0 (a.xqm)"), lines(changes));
+        assertEquals(ApiDiff.Kind.MOVED, changes.get(4).getKind());
+
+        assertTrue(ApiDiff.diff(newVersion, newVersion).isEmpty());
+        ModuleDeclaration undeprecated = module("a.xqm", "module namespace a=\"urn:a\";\n"
+                + "declare variable $a:v as xs:string* := '';\n"
+                + "declare %updating %public function a:same($x) { () };\n"
+                + "declare function a:typed($x as xs:integer) { $x };\n"
+                + "declare function a:old() { 1 };\n"
+                + "declare function a:new() { 1 };\n");
+        assertEquals(Arrays.asList("undeprecated Q{urn:a}old#0 (a.xqm)"),
+                lines(ApiDiff.diff(newVersion.subList(0, 1), Arrays.asList(undeprecated))));
+    }
+
+    @Test
+    public void modulesMovedInTheirNamespaceAreReported() throws Exception
+    {
+        String text = "module namespace a=\"urn:a\";\ndeclare function a:f() { 1 };\n";
+        List<ApiDiff.Change> changes = ApiDiff.diff(Arrays.asList(module("a.xqm", text)),
+                Arrays.asList(module("lib/a.xqm", text)));
+        assertEquals(Arrays.asList("moved Q{urn:a}f#0 (a.xqm) -> Q{urn:a}f#0 (lib/a.xqm)"), lines(changes));
+
+        StringWriter json = new StringWriter();
+        ApiDiff.writeJson(changes, json);
+        assertEquals("[{\"kind\":\"moved\",\"key\":\"Q{urn:a}f#0\",\"oldSource\":\"a.xqm\",\"oldSignature\":\"declare function f()\","
+                + "\"newSource\":\"lib/a.xqm\",\"newSignature\":\"declare function f()\"}]", json.toString());
+    }
+}
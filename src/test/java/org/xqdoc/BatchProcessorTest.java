@@ -0,0 +1,261 @@
+package org.xqdoc;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the batch pipeline.
+ */
+public class BatchProcessorTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = folder.newFolder("repo").toPath();
+        for (int i = 10; i < 30; i++) {
+            String text = "module namespace m=\"urn:m" + i + "\";\ndeclare function m:f() { " + i + " };\n";
+            Files.write(root.resolve("m" + i + ".xqm"), text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void modulesInFlightStayWithinTheLimits() throws IOException
+    {
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setThreads(3);
+        batchProcessor.setMaxModulesInFlight(2);
+        batchProcessor.setOutputDirectory(folder.newFolder("out").toPath());
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+
+        assertEquals(20, modules.size());
+        for (int i = 0; i < modules.size(); i++) {
+            assertEquals("m" + (i + 10) + ".xqm", modules.get(i).getSource());
+        }
+        PipelineStatistics statistics = batchProcessor.getStatistics();
+        assertTrue(statistics.getPeakModulesInFlight() <= 2);
+        // The models of the completed modules are kept for the result, beyond the in-flight limit
+        assertEquals(20, statistics.getRetainedModules());
+        assertEquals(20, statistics.getRetainedFunctions());
+        assertTrue(statistics.getHeapAtEnd() > 0);
+        for (PipelineStatistics.Stage stage : statistics.getStages()) {
+            assertEquals(stage.getName(), 20, stage.getModules());
+        }
+        assertTrue(Files.exists(batchProcessor.getOutputDirectory().resolve("m29.xml")));
+
+        // A byte limit below the size of a module processes one module at a time
+        batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setThreads(3);
+        batchProcessor.setMaxBytesInFlight(1);
+        batchProcessor.processAll(root);
+        assertEquals(1, batchProcessor.getStatistics().getPeakModulesInFlight());
+    }
+
+    @Test
+    public void sourceTextIsReleased() throws IOException
+    {
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+        assertNotNull(modules.get(0).getBody());
+
+        batchProcessor.setRetainSourceText(false);
+        modules = batchProcessor.processAll(root);
+        assertNull(modules.get(0).getBody());
+        assertNull(modules.get(0).getFunctions().get(0).getBody());
+        assertEquals("f", modules.get(0).getFunctions().get(0).getLocalName());
+    }
+
+    @Test
+    public void onlyLinkDataIsRetained() throws IOException
+    {
+        Files.write(root.resolve("a.xqm"), ("(:~ The module a :)\nmodule namespace a=\"urn:a\";\n"
+                + "import module namespace m=\"urn:m10\" at \"m10.xqm\";\n"
+                + "(:~ Call m:f\n @param $x the argument :)\n"
+                + "declare function a:g($x as xs:string) as item()* { m:f(), m:h() };\n").getBytes(StandardCharsets.UTF_8));
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setRetainDocumentation(false);
+        batchProcessor.setOutputDirectory(folder.newFolder("out").toPath());
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+
+        ModuleDeclaration a = modules.get(0);
+        assertEquals("a.xqm", a.getSource());
+        assertNull(a.getComment());
+        assertEquals("urn:m10", a.getImports().get(0).getUri());
+        FunctionDeclaration g = a.getFunctions().get(0);
+        assertEquals("g", g.getLocalName());
+        assertEquals(1, g.getArity());
+        assertNull(g.getComment());
+        assertTrue(g.getParameters().isEmpty());
+        assertEquals(2, g.getInvocations().size());
+
+        // The calls still resolve against the other modules, and the documentation was written in full
+        Map<ModuleDeclaration, List<FunctionInvocation>> unresolved = batchProcessor.resolveCalls(modules);
+        assertEquals(1, unresolved.size());
+        assertEquals("h", unresolved.get(a).get(0).getLocalName());
+        assertEquals("m10.xqm", g.getInvocations().get(0).getDeclaration().getModule().getSource());
+        String xml = new String(Files.readAllBytes(batchProcessor.getOutputDirectory().resolve("a.xml")), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("the argument"));
+    }
+
+    @Test
+    public void everyProfileIsWritten() throws IOException
+    {
+        Files.write(root.resolve("main.xq"), "fn:count(1), local:f()".getBytes(StandardCharsets.UTF_8));
+        Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+        profiles.put("xquery", NamespaceProfiles.getDefault().get("xquery"));
+        profiles.put("exist-db", NamespaceProfiles.getDefault().get("exist-db"));
+        Path out = folder.newFolder("profiles").toPath();
+        BatchProcessor batchProcessor = new BatchProcessor(profiles.get("xquery"));
+        batchProcessor.setProfileOutputs(profiles);
+        batchProcessor.setOutputDirectory(out);
+        batchProcessor.processAll(root);
+
+        String xquery = new String(Files.readAllBytes(out.resolve("xquery").resolve("main.xml")), StandardCharsets.UTF_8);
+        String existDb = new String(Files.readAllBytes(out.resolve("exist-db").resolve("main.xml")), StandardCharsets.UTF_8);
+        assertTrue(Files.exists(out.resolve("exist-db").resolve("m29.xml")));
+        assertTrue(xquery.contains("http://www.w3.org/2005/xquery-local-functions"));
+        assertFalse(existDb.contains("http://www.w3.org/2005/xquery-local-functions"));
+    }
+
+    @Test
+    public void pathListsAreSplitOnLinesOrNul() throws IOException
+    {
+        List<String> lines = BatchProcessor.readPathList(new ByteArrayInputStream(
+                "m10.xqm\r\n# comment\n\n  m11.xqm \nREADME.md\nmissing.xqm\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("m10.xqm", "m11.xqm", "README.md", "missing.xqm"), lines);
+        List<String> nul = BatchProcessor.readPathList(new ByteArrayInputStream(
+                "m12.xqm\0dir with space/x.xq\0".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("m12.xqm", "dir with space/x.xq"), nul);
+
+        Files.write(root.resolve("README.md"), new byte[0]);
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        List<String> skipped = new ArrayList<>();
+        List<Path> files = batchProcessor.resolvePaths(root, lines, skipped);
+        assertEquals(Arrays.asList(root.resolve("m10.xqm"), root.resolve("m11.xqm")), files);
+        assertEquals(Arrays.asList("README.md", "missing.xqm"), skipped);
+    }
+
+    @Test
+    public void framesAreAnsweredInOrder() throws IOException
+    {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            byte[] module = ("module namespace m=\"urn:m" + i + "\";\ndeclare function m:f() { " + i + " };\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            in.write((module.length + " m" + i + ".xqm\n").getBytes(StandardCharsets.UTF_8));
+            in.write(module);
+        }
+        byte[] bad = "declare function local:f( { 1 };".getBytes(StandardCharsets.UTF_8);
+        in.write((bad.length + " bad.xq\n").getBytes(StandardCharsets.UTF_8));
+        in.write(bad);
+
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setThreads(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(21, batchProcessor.processFrames(new ByteArrayInputStream(in.toByteArray()), out, null));
+
+        DataInputStream frames = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < 21; i++) {
+            String[] header = readLine(frames).split(" ", 3);
+            byte[] document = new byte[Integer.parseInt(header[0])];
+            frames.readFully(document);
+            if (i < 20) {
+                assertEquals("m" + i + ".xqm", header[2]);
+                assertEquals("ok", header[1]);
+                assertTrue(new String(document, StandardCharsets.UTF_8).contains("urn:m" + i));
+            } else {
+                assertEquals("bad.xq", header[2]);
+                assertEquals("error", header[1]);
+            }
+        }
+        assertEquals(-1, frames.read());
+    }
+
+    @Test
+    public void oversizeFramesAreSkipped() throws IOException
+    {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        byte[] big = new byte[100000];
+        Arrays.fill(big, (byte) ' ');
+        in.write((big.length + " big.xq\n").getBytes(StandardCharsets.UTF_8));
+        in.write(big);
+        byte[] module = "module namespace m=\"urn:m\";\ndeclare function m:f() { 1 };\n".getBytes(StandardCharsets.UTF_8);
+        in.write((module.length + " m.xqm\n").getBytes(StandardCharsets.UTF_8));
+        in.write(module);
+
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.getModuleParser().getResourceLimits().setMaxInputBytes(1000);
+        // A stream that never skips, so the frame is read and discarded instead
+        FilterInputStream unskippable = new FilterInputStream(new ByteArrayInputStream(in.toByteArray())) {
+            @Override
+            public long skip(long n) {
+                return 0;
+            }
+        };
+        for (InputStream frames : Arrays.asList(new ByteArrayInputStream(in.toByteArray()), unskippable)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2, batchProcessor.processFrames(frames, out, null));
+            DataInputStream answers = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+            String[] header = readLine(answers).split(" ", 3);
+            assertEquals("fatal", header[1]);
+            assertEquals("big.xq", header[2]);
+            answers.readFully(new byte[Integer.parseInt(header[0])]);
+            header = readLine(answers).split(" ", 3);
+            assertEquals("ok", header[1]);
+            assertEquals("m.xqm", header[2]);
+        }
+
+        byte[] truncated = Arrays.copyOf(in.toByteArray(), 5000);
+        try {
+            batchProcessor.processFrames(new ByteArrayInputStream(truncated), new ByteArrayOutputStream(), null);
+            fail("A truncated frame is an error");
+        } catch (EOFException ex) {
+            assertTrue(ex.getMessage().contains("big.xq"));
+        }
+    }
+
+    /**
+     *
+     * @param in A stream of frames
+     * @return The next header line
+     * @throws IOException when the stream can not be read
+     */
+    private static String readLine(DataInputStream in) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+}
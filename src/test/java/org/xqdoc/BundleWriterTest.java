@@ -0,0 +1,100 @@
+package org.xqdoc;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the repository bundle.
+ */
+public class BundleWriterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    private void write(String name, String text) throws IOException
+    {
+        Files.write(root.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = folder.newFolder("repo").toPath();
+        for (int i = 0; i < 6; i++) {
+            write("m" + i + ".xqm", "module namespace m" + i + "=\"urn:m" + i + "\";\n"
+                    + "declare namespace http=\"http://expath.org/ns/http-client\";\n"
+                    + "declare function m" + i + ":f() { <a>&amp;</a> };\n");
+        }
+    }
+
+    @Test
+    public void modulesAreIndexedAndShareTheNamespaceTable() throws Exception
+    {
+        Path file = folder.getRoot().toPath().resolve("bundle.xml");
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setThreads(3);
+        try (BundleWriter bundleWriter = new BundleWriter(file)) {
+            batchProcessor.setBundleWriter(bundleWriter);
+            batchProcessor.processAll(root);
+            assertEquals(6, bundleWriter.getModuleCount());
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        Document bundle = DocumentUtility.getDocumentFromBuffer(new StringBuilder(new String(bytes, StandardCharsets.UTF_8)));
+        assertEquals(1, bundle.getElementsByTagName("xqdoc:control").getLength());
+        assertEquals(6, bundle.getElementsByTagName("xqdoc:xqdoc").getLength());
+
+        // The http declaration of every module is a single entry of the table
+        String httpId = null;
+        int refs = 0;
+        NodeList namespaces = bundle.getElementsByTagName("xqdoc:namespace");
+        for (int i = 0; i < namespaces.getLength(); i++) {
+            Element namespace = (Element) namespaces.item(i);
+            if (namespace.hasAttribute("ref")) {
+                refs++;
+            } else if (namespace.getAttribute("prefix").equals("http")) {
+                assertEquals(null, httpId);
+                httpId = namespace.getAttribute("id");
+            }
+        }
+        assertTrue(refs >= 6);
+        assertEquals(new NamespaceTable().id("http", "http://expath.org/ns/http-client"), httpId);
+
+        // The trailer leads to the table and the index leads to each module on its own
+        byte[] trailer = Arrays.copyOfRange(bytes, bytes.length - BundleWriter.TRAILER_LENGTH, bytes.length);
+        long tableOffset = BundleWriter.readIndexOffset(trailer);
+        assertTrue(new String(bytes, (int) tableOffset, 20, StandardCharsets.UTF_8).startsWith("<xqdoc:namespaces>"));
+        NodeList entries = bundle.getElementsByTagName("xqdoc:entry");
+        assertEquals(6, entries.getLength());
+        for (int i = 0; i < entries.getLength(); i++) {
+            Element entry = (Element) entries.item(i);
+            assertEquals("m" + i + ".xqm", entry.getAttribute("source"));
+            int offset = Integer.parseInt(entry.getAttribute("offset"));
+            int length = Integer.parseInt(entry.getAttribute("length"));
+            Document module = DocumentUtility.getDocumentFromBuffer(
+                    new StringBuilder(new String(bytes, offset, length, StandardCharsets.UTF_8)));
+            Element element = module.getDocumentElement();
+            assertEquals("m" + i + ".xqm", element.getAttribute("source"));
+            assertEquals("urn:m" + i, module.getElementsByTagName("xqdoc:uri").item(0).getTextContent());
+            assertEquals(0, module.getElementsByTagName("xqdoc:control").getLength());
+        }
+    }
+}
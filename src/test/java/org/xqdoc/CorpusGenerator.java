@@ -0,0 +1,300 @@
+package org.xqdoc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a repository of XQuery modules drawn from a seeded random generator,
+ * for the corpus regression test.  The same seed and module count always give
+ * the same files, on every JVM.  Library modules import earlier ones and call
+ * their functions; the function bodies combine FLWOR expressions (with window,
+ * count and group by clauses), switch and typeswitch, string constructors,
+ * eXist-db update expressions, try/catch, maps, arrays, arrows and direct and
+ * computed constructors, and the declarations carry xqDoc comments and
+ * annotations.  Every tenth module is a main module.
+ */
+public class CorpusGenerator
+{
+    private static final String[] WORDS = {
+        "account", "order", "item", "price", "customer", "invoice", "total", "name", "date", "status",
+        "report", "entry", "record", "value", "index", "label", "title", "summary", "line", "group"
+    };
+
+    private static final String[] TYPES = {
+        "xs:string", "xs:integer", "xs:decimal", "xs:boolean", "xs:date", "element()", "node()", "item()",
+        "map(*)", "array(*)", "element(entry)", "document-node()"
+    };
+
+    private static final String[] OCCURRENCES = { "", "", "?", "*", "+" };
+
+    private final Random random;
+
+    private final int modules;
+
+    /** The functions declared by each library module so far, as name#arity */
+    private final List<List<String>> libraryFunctions = new ArrayList<>();
+
+    /** The module number of each library module */
+    private final List<Integer> libraries = new ArrayList<>();
+
+    /**
+     * @param seed The random seed
+     * @param modules The number of modules
+     */
+    public CorpusGenerator(long seed, int modules)
+    {
+        this.random = new Random(seed);
+        this.modules = modules;
+    }
+
+    /**
+     * Write the modules below a directory.
+     *
+     * @param root The repository directory
+     * @return The module files, relative to the directory
+     * @throws IOException when a module can not be written
+     */
+    public List<String> write(Path root) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < modules; i++) {
+            String name = (i % 10 == 9) ? String.format("main/q%04d.xq", i) : String.format("lib/m%04d.xqm", i);
+            Path file = root.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.write(file, module(i).getBytes(StandardCharsets.UTF_8));
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @param number The number of the module
+     * @return The text of the module
+     */
+    public String module(int number)
+    {
+        boolean main = number % 10 == 9;
+        String prefix = "m" + number;
+        StringBuilder text = new StringBuilder();
+        text.append("xquery version \"3.1\";\n\n");
+        text.append("(:~\n : ").append(sentence(8)).append("\n : @author ").append(word()).append("\n : @version 1.").append(number).append("\n :)\n");
+        if (!main) {
+            text.append("module namespace ").append(prefix).append(" = \"urn:corpus:").append(prefix).append("\";\n\n");
+        }
+        text.append("declare namespace x = \"urn:corpus:x\";\n");
+
+        // Import up to three of the earlier library modules, by location
+        List<Integer> imported = new ArrayList<>();
+        int imports = libraries.isEmpty() ? 0 : random.nextInt(Math.min(3, libraries.size()) + 1);
+        for (int i = 0; i < imports; i++) {
+            int library = libraries.get(random.nextInt(libraries.size()));
+            if (!imported.contains(library)) {
+                imported.add(library);
+                text.append("import module namespace m").append(library).append(" = \"urn:corpus:m").append(library)
+                        .append("\" at \"").append(main ? "../lib/" : "").append(String.format("m%04d.xqm", library)).append("\";\n");
+            }
+        }
+        text.append('\n');
+
+        String declared = main ? "local" : prefix;
+        int variables = 1 + random.nextInt(3);
+        for (int i = 0; i < variables; i++) {
+            text.append("(:~ ").append(sentence(5)).append(" :)\n");
+            text.append("declare ").append(random.nextBoolean() ? "%private " : "").append("variable $")
+                    .append(declared).append(":v").append(i).append(" as ").append(type()).append(" := ")
+                    .append(expression(1, imported, new ArrayList<String>())).append(";\n\n");
+        }
+
+        List<String> functions = new ArrayList<>();
+        int count = 1 + random.nextInt(5);
+        for (int i = 0; i < count; i++) {
+            functions.add(function(text, declared, word() + "-" + number + "-" + i, imported));
+        }
+        if (main) {
+            text.append(expression(2, imported, new ArrayList<String>())).append('\n');
+        } else {
+            libraries.add(number);
+            libraryFunctions.add(functions);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param text The module text
+     * @param prefix The prefix of the functions
+     * @param name The local name of the function
+     * @param imported The imported library modules
+     * @return The name and arity of the function
+     */
+    private String function(StringBuilder text, String prefix, String name, List<Integer> imported)
+    {
+        int arity = random.nextInt(4);
+        List<String> parameters = new ArrayList<>();
+        for (int i = 0; i < arity; i++) {
+            parameters.add(word() + i);
+        }
+        text.append("(:~\n : ").append(sentence(12)).append("\n");
+        for (String parameter : parameters) {
+            text.append(" : @param $").append(parameter).append(' ').append(sentence(4)).append('\n');
+        }
+        text.append(" : @return ").append(sentence(5)).append("\n :)\n");
+        text.append("declare");
+        switch (random.nextInt(4)) {
+            case 0:
+                text.append(" %private");
+                break;
+            case 1:
+                text.append(" %rest:GET %rest:path(\"/").append(name);
+                for (String parameter : parameters) {
+                    text.append("/{$").append(parameter).append('}');
+                }
+                text.append("\") %rest:produces(\"application/xml\")");
+                break;
+            case 2:
+                text.append(" %public %x:cache(").append(random.nextInt(100)).append(", \"").append(word()).append("\")");
+                break;
+            default:
+                break;
+        }
+        text.append(" function ").append(prefix).append(':').append(name).append('(');
+        for (int i = 0; i < arity; i++) {
+            text.append(i == 0 ? "" : ", ").append('$').append(parameters.get(i));
+            if (random.nextBoolean()) {
+                text.append(" as ").append(type());
+            }
+        }
+        text.append(')');
+        if (random.nextBoolean()) {
+            text.append(" as ").append(type());
+        }
+        text.append("\n{\n    ").append(expression(2, imported, parameters)).append("\n};\n\n");
+        return name + "#" + arity;
+    }
+
+    /**
+     * @param depth The remaining nesting depth
+     * @param imported The imported library modules
+     * @param scope The variables in scope
+     * @return An expression
+     */
+    private String expression(int depth, List<Integer> imported, List<String> scope)
+    {
+        if (depth <= 0) {
+            return primary(imported, scope);
+        }
+        String e = expression(depth - 1, imported, scope);
+        String v = word();
+        switch (random.nextInt(16)) {
+            case 0:
+                return "for $" + v + " at $i in (" + e + ")\n    let $n := string($" + v + ")\n    where $i mod 2 = 0\n"
+                        + "    order by $n descending empty least\n    count $c\n    return <" + v + " n=\"{$c}\">{$n}</" + v + ">";
+            case 1:
+                return "for tumbling window $w in (" + e + ")\n    start $s at $p when fn:true()\n"
+                        + "    only end $e at $q when $q - $p eq 2\n    return <window>{$w}</window>";
+            case 2:
+                return "for sliding window $w in (1 to 10)\n    start $s previous $sp when $s > " + random.nextInt(5) + "\n"
+                        + "    end $e next $en when $e - $s eq 3\n    return sum($w)";
+            case 3:
+                return "for $" + v + " in (" + e + ")\n    group by $k := local-name($" + v + ")\n    return map { $k : count($" + v + ") }";
+            case 4:
+                return "switch (" + e + ")\n    case \"" + word() + "\" case \"" + word() + "\" return 1\n"
+                        + "    case \"" + word() + "\" return 2\n    default return 0";
+            case 5:
+                return "typeswitch (" + e + ")\n    case $s as xs:string return string-length($s)\n"
+                        + "    case element(" + v + ") | element(" + word() + ") return 1\n    default $d return count($d)";
+            case 6:
+                return "``[" + word() + " `{" + e + "}` and `{ $" + v + "-count }` items]``";
+            case 7:
+                return "update insert <" + v + ">{" + e + "}</" + v + "> into doc(\"/db/" + word() + ".xml\")/root";
+            case 8:
+                return "(update delete doc(\"/db/" + word() + ".xml\")//" + v + "[@id = " + random.nextInt(99) + "],\n"
+                        + "     update value doc(\"/db/" + word() + ".xml\")/root/@count with " + e + ",\n"
+                        + "     update replace doc(\"/db/a.xml\")//" + v + " with <" + v + "/>,\n"
+                        + "     update rename doc(\"/db/a.xml\")//" + v + " as \"" + word() + "\")";
+            case 9:
+                return "try {\n        " + e + "\n    } catch err:FOER0000 | x:" + v + " {\n        $err:description\n    }";
+            case 10:
+                return "if (some $" + v + " in (" + e + ") satisfies $" + v + " instance of xs:string)\n    then "
+                        + primary(imported, scope) + "\n    else ()";
+            case 11:
+                return "(" + e + ") ! string() => string-join(\", \") => upper-case()";
+            case 12:
+                return "map { \"" + v + "\" : " + e + ", \"" + word() + "\" : [" + primary(imported, scope) + ", " + random.nextInt(9) + "] }";
+            case 13:
+                return "element " + v + " { attribute " + word() + " { " + random.nextInt(99) + " }, text { " + e + " } }";
+            case 14:
+                return "let $" + v + " := " + e + "\n    return ($" + v + " + " + random.nextInt(99) + ") * 2 idiv 3";
+            default:
+                return "<" + v + " id=\"" + random.nextInt(999) + "\">{ " + e + " }<!-- " + word() + " --></" + v + ">";
+        }
+    }
+
+    /**
+     * @param imported The imported library modules
+     * @param scope The variables in scope
+     * @return A primary expression
+     */
+    private String primary(List<Integer> imported, List<String> scope)
+    {
+        switch (random.nextInt(6)) {
+            case 0:
+                return scope.isEmpty() ? "()" : "$" + scope.get(random.nextInt(scope.size()));
+            case 1:
+                if (!imported.isEmpty()) {
+                    int library = imported.get(random.nextInt(imported.size()));
+                    List<String> functions = libraryFunctions.get(libraries.indexOf(library));
+                    String function = functions.get(random.nextInt(functions.size()));
+                    int arity = Integer.parseInt(function.substring(function.indexOf('#') + 1));
+                    StringBuilder call = new StringBuilder("m").append(library).append(':')
+                            .append(function.substring(0, function.indexOf('#'))).append('(');
+                    for (int i = 0; i < arity; i++) {
+                        call.append(i == 0 ? "" : ", ").append(random.nextInt(9));
+                    }
+                    return call.append(')').toString();
+                }
+                return "fn:current-date()";
+            case 2:
+                return "\"" + sentence(3) + "\"";
+            case 3:
+                return "doc(\"/db/" + word() + ".xml\")//" + word() + "[@" + word() + " = " + random.nextInt(9) + "]";
+            case 4:
+                return String.valueOf(random.nextInt(1000));
+            default:
+                return "fn:count((1 to " + random.nextInt(20) + "))";
+        }
+    }
+
+    /**
+     * @return A sequence type
+     */
+    private String type()
+    {
+        return TYPES[random.nextInt(TYPES.length)] + OCCURRENCES[random.nextInt(OCCURRENCES.length)];
+    }
+
+    /**
+     * @return A word
+     */
+    private String word()
+    {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * @param words The number of words
+     * @return A sentence
+     */
+    private String sentence(int words)
+    {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(word());
+        }
+        return sentence.append('.').toString();
+    }
+}
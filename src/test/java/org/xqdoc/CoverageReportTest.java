@@ -0,0 +1,132 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the documentation coverage report.
+ */
+public class CoverageReportTest
+{
+    private static final String MODULE =
+            "(:~ The module :)\n"
+            + "module namespace m=\"urn:m\";\n"
+            + "(:~ The v\n : @deprecated use w\n :)\n"
+            + "declare variable $m:v := 1;\n"
+            + "declare variable $m:w := 2;\n"
+            + "(:~\n : The f\n : @param $a the a\n : @return a\n :)\n"
+            + "declare function m:f($a, $b) { 1 };\n"
+            + "(:~ The g :)\n"
+            + "declare %private function m:g() as empty-sequence() { () };\n"
+            + "(:~ The h\n : @deprecated\n :)\n"
+            + "declare function m:h($x) { $x };\n"
+            + "declare function m:i() { 1 };\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void declarationsAreCounted()
+    {
+        XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), new HashMap());
+        visitor.visit(new ModuleParser().parse(CharStreams.fromString(MODULE), "m.xqm"));
+        CoverageStatistics statistics = CoverageStatistics.of(visitor.getModuleDeclaration());
+        assertEquals(1, statistics.getCount("documentedModules"));
+        assertEquals(4, statistics.getFunctions());
+        assertEquals(3, statistics.getDocumentedFunctions());
+        assertEquals(1, statistics.getCount("privateFunctions"));
+        assertEquals(3, statistics.getCount("parameters"));
+        assertEquals(1, statistics.getCount("documentedParameters"));
+        // $b of m:f and $x of m:h
+        assertEquals(2, statistics.getFunctionsMissingParam());
+        // m:h; m:g returns the empty sequence
+        assertEquals(1, statistics.getFunctionsMissingReturn());
+        assertEquals(2, statistics.getVariables());
+        assertEquals(1, statistics.getDocumentedVariables());
+        assertEquals(2, statistics.getDeprecated());
+        assertEquals(4.0 / 6, statistics.getCoverage(), 1e-9);
+    }
+
+    @Test
+    public void shardsMergeIntoTheWholeReport() throws IOException
+    {
+        Path root = folder.newFolder("repo").toPath();
+        for (int i = 0; i < 6; i++) {
+            Path file = root.resolve((i % 2 == 0) ? "a" : "b").resolve("m" + i + ".xqm");
+            Files.createDirectories(file.getParent());
+            String module = (i % 3 == 0) ? MODULE : MODULE.replace("(:~ The g :)", "");
+            Files.write(file, module.getBytes(StandardCharsets.UTF_8));
+        }
+
+        BatchProcessor whole = new BatchProcessor(new HashMap());
+        whole.setThreads(3);
+        whole.setCoverageReport(new CoverageReport());
+        whole.processAll(root);
+        CoverageReport report = whole.getCoverageReport();
+        assertEquals(6, report.getModules().size());
+        assertEquals(6, report.getTotal().getModules());
+        // Three documented functions in m0 and m3, two in the others
+        assertEquals(14, report.getTotal().getDocumentedFunctions());
+
+        CoverageReport merged = new CoverageReport();
+        for (String shard : new String[] { "a", "b" }) {
+            BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+            batchProcessor.setThreads(2);
+            batchProcessor.setCoverageReport(new CoverageReport());
+            batchProcessor.process(root, batchProcessor.discover(root.resolve(shard)));
+            // Merged from the CSV, as separate runs would
+            StringWriter csv = new StringWriter();
+            batchProcessor.getCoverageReport().writeCsv(csv);
+            merged.merge(CoverageReport.readCsv(new StringReader(csv.toString())));
+        }
+        assertEquals(report.getModules(), merged.getModules());
+        assertEquals(report.getTotal(), merged.getTotal());
+
+        // A module counted again replaces its first statistics
+        merged.merge(report);
+        assertEquals(report.getTotal(), merged.getTotal());
+    }
+
+    @Test
+    public void reportsAreWrittenAsCsvAndJson() throws IOException
+    {
+        CoverageReport report = new CoverageReport();
+        long[] counts = new long[CoverageStatistics.COUNTS.size()];
+        counts[0] = 1;
+        counts[CoverageStatistics.COUNTS.indexOf("functions")] = 4;
+        counts[CoverageStatistics.COUNTS.indexOf("documentedFunctions")] = 1;
+        report.put("a,\"b\".xqm", new CoverageStatistics(counts));
+        report.put("c.xqm", new CoverageStatistics(counts));
+
+        Path csv = folder.getRoot().toPath().resolve("out").resolve("coverage.csv");
+        report.write(csv);
+        String text = new String(Files.readAllBytes(csv), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("\n\"a,\"\"b\"\".xqm\",1,0,4,1,"));
+        assertTrue(text, text.endsWith("\n,2,0,8,2,0,0,0,0,0,0,0,0,0,0.2500\n"));
+        assertEquals(report.getModules(), CoverageReport.read(csv).getModules());
+
+        StringWriter json = new StringWriter();
+        report.writeJson(json);
+        assertTrue(json.toString(), json.toString().startsWith("{\"total\":{\"coverage\":0.25,\"modules\":2,"));
+        assertTrue(json.toString(), json.toString().contains("{\"source\":\"c.xqm\",\"coverage\":0.25,"));
+    }
+
+    @Test(expected = XQDocRuntimeException.class)
+    public void otherFilesAreNotReadAsReports() throws IOException
+    {
+        CoverageReport.readCsv(new StringReader("name,functions\n"));
+    }
+}
@@ -0,0 +1,62 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for streaming the declarations out of the parser.
+ */
+public class DeclarationEmitterTest
+{
+    private String xqdoc(String text, boolean stream)
+    {
+        HashMap uriMap = new HashMap();
+        uriMap.put("fn", "http://www.w3.org/2003/05/xpath-functions");
+        StringBuilder buffer = new StringBuilder();
+        XQueryVisitor visitor = new XQueryVisitor(buffer, uriMap);
+        DeclarationEmitter emitter = stream ? new DeclarationEmitter(visitor) : null;
+        XQueryParser.ModuleContext module = new ModuleParser().parse(CharStreams.fromString(text), "test", emitter);
+        if (stream) {
+            assertTrue(emitter.getDeclarations() > 0);
+            XQueryParser.PrologContext prolog = module.libraryModule().prolog();
+            for (ParseTree child : prolog.children) {
+                assertFalse(child instanceof XQueryParser.FunctionDeclContext);
+            }
+        }
+        visitor.visit(module);
+        return buffer.toString().replaceAll("<xqdoc:date>[^<]*</xqdoc:date>", "");
+    }
+
+    @Test
+    public void streamedDeclarationsGiveTheSameXQDoc() throws IOException
+    {
+        String text;
+        try (InputStream in = getClass().getResourceAsStream("/XQuery/simple-library.xqm")) {
+            text = new String(readAll(in), StandardCharsets.UTF_8);
+        }
+        String expected = xqdoc(text, false);
+        assertTrue(expected.contains("<xqdoc:function>"));
+        assertEquals(expected, xqdoc(text, true));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
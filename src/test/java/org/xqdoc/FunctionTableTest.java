@@ -0,0 +1,100 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the arity of calls and the repository function table.
+ */
+public class FunctionTableTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(Path root, String name, String text) throws IOException
+    {
+        Files.write(root.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void invokedRecordsTheArityOfEachCall()
+    {
+        String module = "module namespace m=\"urn:m\";\n"
+                + "declare function m:f($a) { $a };\n"
+                + "declare function m:f($a, $b) { $a };\n"
+                + "declare function m:g() { m:f(1), m:f(1, 2), m:f(3) };\n";
+        StringBuilder buffer = new StringBuilder();
+        XQueryVisitor visitor = new XQueryVisitor(buffer, new HashMap());
+        visitor.visit(new ModuleParser().parse(CharStreams.fromString(module), "m.xqm"));
+
+        String xml = buffer.toString();
+        assertTrue(xml.contains("<xqdoc:invoked arity=\"1\">"));
+        assertTrue(xml.contains("<xqdoc:invoked arity=\"2\">"));
+        FunctionDeclaration g = visitor.getModuleDeclaration().getFunctions().get(2);
+        assertEquals(0, g.getArity());
+        assertEquals(2, g.getInvocations().size());
+        assertEquals("Q{urn:m}f#1", g.getInvocations().get(0).toString());
+        assertEquals("Q{urn:m}f#2", g.getInvocations().get(1).toString());
+    }
+
+    @Test
+    public void argumentsOfCallsIntoUnknownNamespacesAreVisited()
+    {
+        String module = "module namespace m=\"urn:m\";\n"
+                + "declare variable $m:v := 1;\n"
+                + "declare function m:f($a) { $a };\n"
+                + "declare function m:g() { unknown:h(m:f($m:v)) };\n";
+        StringBuilder buffer = new StringBuilder();
+        XQueryVisitor visitor = new XQueryVisitor(buffer, new HashMap());
+        visitor.visit(new ModuleParser().parse(CharStreams.fromString(module), "m.xqm"));
+
+        // The call of unknown:h is not recorded, the calls and references in its arguments are
+        FunctionDeclaration g = visitor.getModuleDeclaration().getFunctions().get(1);
+        assertEquals(1, g.getInvocations().size());
+        assertEquals("Q{urn:m}f#1", g.getInvocations().get(0).toString());
+        assertEquals(1, g.getVariableReferences().size());
+        assertTrue(buffer.toString().contains("<xqdoc:name>v</xqdoc:name>"));
+    }
+
+    @Test
+    public void callsAreResolvedAcrossModules() throws IOException
+    {
+        Path root = folder.getRoot().toPath();
+        write(root, "a.xqm", "module namespace a=\"urn:a\";\n"
+                + "declare function a:f($x) { $x };\n");
+        write(root, "b.xqm", "module namespace b=\"urn:b\";\n"
+                + "import module namespace a=\"urn:a\" at \"a.xqm\";\n"
+                + "declare function b:g() { a:f(1), a:f(1, 2), fn:count(()) };\n");
+        HashMap uriMap = new HashMap();
+        uriMap.put("fn", "http://www.w3.org/2003/05/xpath-functions");
+        BatchProcessor batchProcessor = new BatchProcessor(uriMap);
+        batchProcessor.setThreads(2);
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+
+        Map<ModuleDeclaration, List<FunctionInvocation>> unresolved = batchProcessor.resolveCalls(modules);
+        assertEquals(1, unresolved.size());
+        List<FunctionInvocation> calls = unresolved.get(modules.get(1));
+        assertEquals(1, calls.size());
+        assertEquals("Q{urn:a}f#2", calls.get(0).toString());
+
+        FunctionInvocation resolved = modules.get(1).getFunctions().get(0).getInvocations().get(0);
+        assertNotNull(resolved.getDeclaration());
+        assertEquals("a.xqm", resolved.getDeclaration().getModule().getSource());
+        assertNull(modules.get(1).getFunctions().get(0).getInvocations().get(2).getDeclaration());
+    }
+}
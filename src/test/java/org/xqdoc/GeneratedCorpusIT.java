@@ -0,0 +1,66 @@
+package org.xqdoc;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Documents the whole generated corpus, checking that every module parses and
+ * that the modules documented per second stay above a floor.  Not run by
+ * <code>mvn test</code>; run it with <code>mvn test -Pcorpus</code>.  The
+ * floor is set with <code>-Dxqdoc.corpus.minModulesPerSecond=n</code>; 0 turns
+ * the throughput check off on slow build machines.
+ */
+public class GeneratedCorpusIT
+{
+    private static final int MODULES = 2000;
+
+    /** About a quarter of the rate measured on a single processor build machine */
+    private static final double DEFAULT_MIN_MODULES_PER_SECOND = 20;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<ModuleDeclaration> modules;
+
+    private static double modulesPerSecond;
+
+    @BeforeClass
+    public static void document() throws IOException
+    {
+        Path root = folder.newFolder("corpus").toPath();
+        new CorpusGenerator(GeneratedCorpusTest.SEED, MODULES).write(root);
+
+        BatchProcessor batchProcessor = new BatchProcessor(NamespaceProfiles.getDefault().get("exist-db"));
+        batchProcessor.setOutputDirectory(folder.newFolder("xqDoc").toPath());
+        long start = System.nanoTime();
+        modules = batchProcessor.processAll(root);
+        modulesPerSecond = modules.size() * 1e9 / (System.nanoTime() - start);
+    }
+
+    @Test
+    public void everyModuleParses()
+    {
+        assertEquals(MODULES, modules.size());
+        for (ModuleDeclaration module : modules) {
+            assertTrue(module.getSource() + " " + module.getDiagnostics(), module.getDiagnostics().isEmpty());
+        }
+    }
+
+    @Test
+    public void throughputStaysAboveTheFloor()
+    {
+        double floor = Double.parseDouble(System.getProperty("xqdoc.corpus.minModulesPerSecond",
+                String.valueOf(DEFAULT_MIN_MODULES_PER_SECOND)));
+        assertTrue(String.format("%.1f modules per second, below the floor of %.1f", modulesPerSecond, floor),
+                modulesPerSecond >= floor);
+    }
+}
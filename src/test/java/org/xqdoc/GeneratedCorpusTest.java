@@ -0,0 +1,111 @@
+package org.xqdoc;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xmlunit.builder.DiffBuilder;
+import org.xmlunit.builder.Input;
+import org.xmlunit.diff.Diff;
+import org.xmlunit.util.Nodes;
+import org.xmlunit.util.Predicate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Documents a sample of the generated corpus and compares the xqDoc of every
+ * module with the golden XML in <code>src/test/resources/corpus/golden</code>.
+ * The XML is compared for similarity, ignoring whitespace and the date, so
+ * the golden files do not depend on how a JDK indents.
+ *
+ * After an intended change of the output, run the test with
+ * <code>-Dxqdoc.corpus.updateGolden=true</code> to record the new XML.  The
+ * whole corpus, with a throughput floor, is documented by
+ * {@link GeneratedCorpusIT} in the <code>corpus</code> profile.
+ */
+public class GeneratedCorpusTest
+{
+    static final long SEED = 38;
+
+    private static final int SAMPLE = 20;
+
+    private static final Path GOLDEN = Paths.get("src/test/resources/corpus/golden");
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static Path output;
+
+    private static List<String> sources;
+
+    private static List<ModuleDeclaration> modules;
+
+    @BeforeClass
+    public static void document() throws IOException
+    {
+        Path root = folder.newFolder("corpus").toPath();
+        output = folder.newFolder("xqDoc").toPath();
+        sources = new CorpusGenerator(SEED, SAMPLE).write(root);
+
+        BatchProcessor batchProcessor = new BatchProcessor(NamespaceProfiles.getDefault().get("exist-db"));
+        batchProcessor.setOutputDirectory(output);
+        modules = batchProcessor.processAll(root);
+    }
+
+    /**
+     *
+     * @param source A module of the corpus
+     * @return Its xqDoc, without the date it was written
+     * @throws IOException when the xqDoc can not be read
+     */
+    private static String outputXml(String source) throws IOException
+    {
+        String xml = new String(Files.readAllBytes(output.resolve(BatchProcessor.outputName(source))), StandardCharsets.UTF_8);
+        return xml.replaceFirst("\\s*<xqdoc:date>[^<]*</xqdoc:date>", "");
+    }
+
+    @Test
+    public void everyModuleParses()
+    {
+        assertEquals(SAMPLE, modules.size());
+        for (ModuleDeclaration module : modules) {
+            assertTrue(module.getSource() + " " + module.getDiagnostics(), module.getDiagnostics().isEmpty());
+        }
+    }
+
+    @Test
+    public void outputMatchesTheGoldenXml() throws IOException
+    {
+        for (String source : sources) {
+            Path golden = GOLDEN.resolve(BatchProcessor.outputName(source));
+            String actual = outputXml(source);
+            if (Boolean.getBoolean("xqdoc.corpus.updateGolden")) {
+                Files.createDirectories(golden.getParent());
+                Files.write(golden, actual.getBytes(StandardCharsets.UTF_8));
+            }
+            Diff diff = DiffBuilder.compare(Input.fromFile(golden.toFile()).build())
+                    .withTest(Input.fromString(actual).build())
+                    .withNodeFilter(new Predicate<Node>() {
+                        @Override
+                        public boolean test(Node n) {
+                            return !(n instanceof Element && "date".equals(Nodes.getQName(n).getLocalPart()));
+                        }
+                    })
+                    .checkForSimilar()
+                    .ignoreWhitespace()
+                    .build();
+            assertFalse(source + " differs from the golden XML: " + diff, diff.hasDifferences());
+        }
+    }
+}
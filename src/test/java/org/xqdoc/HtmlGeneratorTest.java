@@ -0,0 +1,103 @@
+package org.xqdoc;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the HTML site generator.
+ */
+public class HtmlGeneratorTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    private Path site;
+
+    private void write(String name, String text) throws IOException
+    {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String name) throws IOException
+    {
+        return new String(Files.readAllBytes(site.resolve(name)), StandardCharsets.UTF_8);
+    }
+
+    private HtmlGenerator generate() throws IOException
+    {
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+        batchProcessor.resolveCalls(modules);
+        HtmlGenerator htmlGenerator = new HtmlGenerator(site);
+        htmlGenerator.setThreads(2);
+        htmlGenerator.generate(modules);
+        return htmlGenerator;
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = folder.newFolder("repo").toPath();
+        site = folder.newFolder("site").toPath();
+        write("lib/a.xqm", "module namespace a=\"urn:a\";\n"
+                + "(:~\n : Says <hello>.\n : @param $name who to greet\n :)\n"
+                + "declare function a:hello($name as xs:string) as xs:string { $name };\n");
+        write("b.xqm", "module namespace b=\"urn:b\";\n"
+                + "import module namespace a=\"urn:a\" at \"lib/a.xqm\";\n"
+                + "declare function b:run() { a:hello(\"world\") };\n");
+        write("c.xqm", "module namespace c=\"urn:c\";\n"
+                + "declare function c:alone() { () };\n");
+    }
+
+    @Test
+    public void pagesAreCrossLinked() throws IOException
+    {
+        HtmlGenerator htmlGenerator = generate();
+        assertEquals(3, htmlGenerator.getPagesWritten());
+
+        String a = read("lib/a.html");
+        assertTrue(a.contains("<section class=\"function\" id=\"hello-1\">"));
+        assertTrue(a.contains("Says &lt;hello&gt;."));
+        assertTrue(a.contains("<li>$name who to greet</li>"));
+        assertTrue(a.contains("declare function a:hello($name as xs:string) as xs:string"));
+        assertTrue(a.contains("href=\"../b.html#run-0\""));
+        assertTrue(a.contains("href=\"../xqdoc.css\""));
+        assertTrue(read("b.html").contains("<a href=\"lib/a.html#hello-1\">a:hello#1</a>"));
+        assertTrue(read("functions.html").contains("href=\"lib/a.html#hello-1\""));
+        assertTrue(read("index.html").contains("href=\"c.html\""));
+    }
+
+    @Test
+    public void unchangedPagesAreSkipped() throws IOException
+    {
+        generate();
+        assertEquals(3, generate().getPagesSkipped());
+
+        // a.xqm appears on the page of b.xqm, c.xqm is unrelated
+        write("lib/a.xqm", "module namespace a=\"urn:a\";\n"
+                + "declare function a:hello($name) { $name };\n");
+        HtmlGenerator htmlGenerator = generate();
+        assertEquals(2, htmlGenerator.getPagesWritten());
+        assertEquals(1, htmlGenerator.getPagesSkipped());
+
+        Files.delete(root.resolve("c.xqm"));
+        generate();
+        assertTrue(!Files.exists(site.resolve("c.html")));
+    }
+}
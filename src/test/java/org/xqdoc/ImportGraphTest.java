@@ -0,0 +1,140 @@
+package org.xqdoc;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the repository import graph.
+ */
+public class ImportGraphTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    private ImportGraph graph;
+
+    private static String library(String prefix, String uri, String... imports)
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("xquery version \"3.1\";\n");
+        buffer.append("module namespace ").append(prefix).append("=\"").append(uri).append("\";\n");
+        for (String anImport : imports) {
+            buffer.append(anImport).append(";\n");
+        }
+        buffer.append("declare function ").append(prefix).append(":f() { 1 };\n");
+        return buffer.toString();
+    }
+
+    private void write(String name, String text) throws IOException
+    {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = folder.getRoot().toPath();
+        // c <- b <- a (by location), d <-> e (cycle by namespace), main imports a
+        write("lib/c.xqm", library("c", "urn:c"));
+        write("lib/b.xqm", library("b", "urn:b", "import module namespace c=\"urn:c\" at \"c.xqm\""));
+        write("a.xqm", library("a", "urn:a", "import module namespace b=\"urn:b\" at \"/db/apps/test/lib/b.xqm\""));
+        write("d.xqm", library("d", "urn:d", "import module namespace e=\"urn:e\""));
+        write("e.xqm", library("e", "urn:e", "import module namespace d=\"urn:d\""));
+        write("main.xq", "import module namespace a=\"urn:a\" at \"a.xqm\";\n"
+                + "import module namespace x=\"urn:missing\";\n"
+                + "a:f()\n");
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        graph = new ImportGraph(batchProcessor.processAll(root));
+    }
+
+    private List<String> sources(List<ModuleDeclaration> modules)
+    {
+        List<String> sources = new ArrayList<>();
+        for (ModuleDeclaration module : modules) {
+            sources.add(module.getSource());
+        }
+        return sources;
+    }
+
+    @Test
+    public void importsAreResolvedByLocationAndNamespace()
+    {
+        assertEquals(Arrays.asList("lib/b.xqm"), sources(graph.getImports(graph.getModule("a.xqm"))));
+        assertEquals(Arrays.asList("lib/c.xqm"), sources(graph.getImports(graph.getModule("lib/b.xqm"))));
+        assertEquals(Arrays.asList("e.xqm"), sources(graph.getImports(graph.getModule("d.xqm"))));
+        assertEquals(1, graph.getUnresolvedImports().size());
+        assertTrue(graph.getUnresolvedImports().get(0).contains("urn:missing"));
+    }
+
+    @Test
+    public void cyclesAreDetected()
+    {
+        List<List<ModuleDeclaration>> cycles = graph.getCycles();
+        assertEquals(1, cycles.size());
+        List<String> cycle = sources(cycles.get(0));
+        Collections.sort(cycle);
+        assertEquals(Arrays.asList("d.xqm", "e.xqm"), cycle);
+    }
+
+    @Test
+    public void importedModulesAreProcessedFirst()
+    {
+        List<String> order = sources(graph.getProcessingOrder());
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("lib/c.xqm") < order.indexOf("lib/b.xqm"));
+        assertTrue(order.indexOf("lib/b.xqm") < order.indexOf("a.xqm"));
+        assertTrue(order.indexOf("a.xqm") < order.indexOf("main.xq"));
+    }
+
+    @Test
+    public void dependentsOfAChangedModule()
+    {
+        List<String> dependents = sources(graph.getDependents(Collections.singletonList(graph.getModule("lib/b.xqm"))));
+        assertEquals(Arrays.asList("lib/b.xqm", "a.xqm", "main.xq"), dependents);
+    }
+
+    @Test
+    public void headersGiveTheSameGraph() throws IOException
+    {
+        // The declarations after the imports are not parsed, even when they are broken
+        write("f.xqm", library("f", "urn:f", "import module namespace c=\"urn:c\" at \"lib/c.xqm\"") + "declare function f:g( {");
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        List<Path> files = batchProcessor.discover(root);
+        ImportGraph headerGraph = new ImportGraph(batchProcessor.processHeaders(root, files));
+
+        ModuleDeclaration b = headerGraph.getModule("lib/b.xqm");
+        assertEquals("urn:b", b.getUri());
+        assertEquals("b", b.getPrefix());
+        assertTrue(b.isLibrary());
+        assertTrue(b.getFunctions().isEmpty());
+        assertFalse(headerGraph.getModule("main.xq").isLibrary());
+        assertEquals(Arrays.asList("lib/c.xqm"), sources(headerGraph.getImports(headerGraph.getModule("f.xqm"))));
+        assertEquals(Arrays.asList("lib/b.xqm"), sources(headerGraph.getImports(headerGraph.getModule("a.xqm"))));
+        assertEquals(1, headerGraph.getCycles().size());
+        assertEquals(1, headerGraph.getUnresolvedImports().size());
+        List<String> dependents = sources(headerGraph.getDependents(Collections.singletonList(headerGraph.getModule("lib/c.xqm"))));
+        assertEquals("lib/c.xqm", dependents.get(0));
+        Collections.sort(dependents);
+        assertEquals(Arrays.asList("a.xqm", "f.xqm", "lib/b.xqm", "lib/c.xqm", "main.xq"), dependents);
+    }
+}
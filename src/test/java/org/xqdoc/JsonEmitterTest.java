@@ -0,0 +1,46 @@
+package org.xqdoc;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the JSON output.
+ */
+public class JsonEmitterTest
+{
+    private String resource(String name) throws IOException, URISyntaxException
+    {
+        return new String(Files.readAllBytes(Paths.get(getClass().getClassLoader().getResource(name).toURI())), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void moduleIsWrittenWithTheInformationOfTheXml() throws Exception
+    {
+        StringBuilder buffer = new StringBuilder();
+        XQueryVisitor visitor = new XQueryVisitor(buffer, new HashMap());
+        visitor.visit(new ModuleParser().parse(org.antlr.v4.runtime.CharStreams.fromString(resource("json/json-module.xqm")), null));
+
+        String json = new JsonEmitter().toJson(visitor.getModuleDeclaration());
+        assertEquals(resource("json/json-module.json"), json.replaceFirst("\"date\":\"[^\"]*\"", "\"date\":\"\""));
+    }
+
+    @Test
+    public void stringsAreEscaped() throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        new JsonWriter(writer).beginObject()
+                .name("text").value("a\"b\\c\n\u0001 ")
+                .name("list").beginArray().value(1).value(true).value((String) null).endArray()
+                .endObject();
+        assertEquals("{\"text\":\"a\\\"b\\\\c\\n\\u0001\\u2028\",\"list\":[1,true,null]}", writer.toString());
+    }
+}
@@ -0,0 +1,204 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the expression grammar and the bounded error recovery of {@link ModuleParser}.
+ */
+public class ModuleParserTest
+{
+    private static final String VALID = "xquery version \"3.1\";\n"
+            + "module namespace s=\"http://example.com/s\";\n"
+            + "declare function s:hello() as xs:string { \"hello world\" };\n";
+
+    private static final String BROKEN = "xquery version \"3.1\";\n"
+            + "module namespace s=\"http://example.com/s\";\n"
+            + "declare function s:a() { <a><b></a> };\n"
+            + "declare function s:b() { ( ( ( };\n"
+            + "declare function s:c() { <c> };\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void validModuleHasNoDiagnostics()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        assertNotNull(moduleParser.parse(CharStreams.fromString(VALID), "valid.xqm"));
+        assertTrue(moduleParser.getDiagnostics().isEmpty());
+    }
+
+    /**
+     * @param expr An operator expression
+     * @return The expression with a pair of parentheses around every operator
+     */
+    private static String group(XQueryParser.OrExprContext expr)
+    {
+        if (expr.valueExpr() != null) {
+            return expr.getText();
+        }
+        StringBuilder buffer = new StringBuilder("(");
+        for (int i = 0; i < expr.getChildCount(); i++) {
+            ParseTree child = expr.getChild(i);
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            buffer.append((child instanceof XQueryParser.OrExprContext)
+                    ? group((XQueryParser.OrExprContext) child) : child.getText());
+        }
+        return buffer.append(')').toString();
+    }
+
+    private static String group(String query)
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        XQueryParser.ModuleContext module = moduleParser.parse(CharStreams.fromString(query), "query.xq");
+        assertTrue(moduleParser.getDiagnostics().toString(), moduleParser.getDiagnostics().isEmpty());
+        return group(module.mainModule(0).queryBody().expr().exprSingle(0).orExpr());
+    }
+
+    @Test
+    public void operatorsFollowXQueryPrecedence()
+    {
+        assertEquals("((1 + (2 * 3)) = 7)", group("1 + 2 * 3 = 7"));
+        assertEquals("(($a eq 1) or (($b < 2) and ($c || \"d\")))", group("$a eq 1 or $b < 2 and $c || \"d\""));
+        assertEquals("((1 - 2) - 3)", group("1 - 2 - 3"));
+        assertEquals("((1 + 2) to (3 * 4))", group("1 + 2 to 3 * 4"));
+        assertEquals("(($a union ($b intersect $c)) | $d)", group("$a union $b intersect $c | $d"));
+        assertEquals("((((- $x) => f:g ()) cast as xs:integer) instance of xs:integer*)",
+                group("-$x => f:g() cast as xs:integer instance of xs:integer*"));
+        assertEquals("(($x treat as node()) castable as xs:string?)", group("$x treat as node() castable as xs:string?"));
+        assertEquals("(a/b!c * (<e/>+1))", group("a/b!c * (<e/> + 1)"));
+    }
+
+    @Test
+    public void parserAndVisitorAreReusedAcrossModules() throws Exception
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.parse(CharStreams.fromString(BROKEN), "broken.xqm");
+        // A string template left open must not leak into the next module
+        moduleParser.parse(CharStreams.fromString("let $a := ``[ `{ 1 }` "), "open.xq");
+        assertNotNull(moduleParser.parse(CharStreams.fromString(VALID), "valid.xqm"));
+        assertTrue(moduleParser.getDiagnostics().isEmpty());
+
+        ExistDBProcessor processor = new ExistDBProcessor();
+        processor.process(BROKEN.replace("s:", "t:").replace("/s", "/t"), OutputFormat.JSON);
+        String reused = processor.process(VALID, OutputFormat.JSON);
+        String fresh = new ExistDBProcessor().process(VALID, OutputFormat.JSON);
+        assertEquals(fresh.replaceAll("\"date\":\"[^\"]*\"", ""), reused.replaceAll("\"date\":\"[^\"]*\"", ""));
+    }
+
+    @Test
+    public void processorIsSharedByThreads() throws Exception
+    {
+        final ExistDBProcessor processor = new ExistDBProcessor();
+        final String expected = processor.process(VALID, OutputFormat.JSON).replaceAll("\"date\":\"[^\"]*\"", "");
+        final String broken = BROKEN.replace("s:", "t:").replace("/s", "/t");
+        final String brokenExpected = processor.process(broken, OutputFormat.JSON).replaceAll("\"date\":\"[^\"]*\"", "");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final boolean valid = (i % 2 == 0);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        String json = processor.process(valid ? VALID : broken, OutputFormat.JSON);
+                        return json.replaceAll("\"date\":\"[^\"]*\"", "").equals(valid ? expected : brokenExpected)
+                                && processor.getDiagnostics().isEmpty() == valid;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void syntaxErrorsAreCollected()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.parse(CharStreams.fromString(BROKEN), "broken.xqm");
+        assertFalse(moduleParser.getDiagnostics().isEmpty());
+        XQDocDiagnostic first = moduleParser.getDiagnostics().get(0);
+        assertEquals("broken.xqm", first.getSource());
+        assertEquals(XQDocDiagnostic.Severity.ERROR, first.getSeverity());
+        assertTrue(first.getLine() >= 3);
+    }
+
+    @Test
+    public void recoveryAttemptsAreBounded()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setMaxRecoveryAttempts(1);
+        try {
+            moduleParser.parse(CharStreams.fromString(BROKEN), "broken.xqm");
+            fail("expected the parse to be abandoned");
+        } catch (XQDocParseAbortedException ex) {
+            XQDocDiagnostic last = moduleParser.getDiagnostics().get(moduleParser.getDiagnostics().size() - 1);
+            assertEquals(XQDocDiagnostic.Severity.FATAL, last.getSeverity());
+        }
+    }
+
+    @Test
+    public void diagnosticsAreCapped()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setMaxDiagnostics(1);
+        moduleParser.parse(CharStreams.fromString(BROKEN), "broken.xqm");
+        assertEquals(1, moduleParser.getDiagnostics().size());
+    }
+
+    @Test
+    public void slowModulesWithoutErrorsAreAbortedByTheTimeBudget() throws Exception
+    {
+        StringBuilder text = new StringBuilder("module namespace s=\"http://example.com/s\";\ndeclare function s:long() { (1");
+        for (int i = 0; i < 200000; i++) {
+            text.append(", ").append(i);
+        }
+        String module = text.append(") };\n").toString();
+
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setTimeBudgetMillis(1);
+        assertTimeBudgetExceeded(moduleParser, module);
+
+        // Lexed ahead of the parser for the token cache, the module is abandoned before it is cached
+        File cache = folder.newFolder("tokens");
+        moduleParser.setTokenCache(new TokenCache(cache.toPath()));
+        assertTimeBudgetExceeded(moduleParser, module);
+        assertEquals(0, cache.list().length);
+    }
+
+    private static void assertTimeBudgetExceeded(ModuleParser moduleParser, String module)
+    {
+        try {
+            moduleParser.parse(CharStreams.fromString(module), "long.xqm");
+            fail("expected the time budget to be exceeded");
+        } catch (XQDocLimitExceededException ex) {
+            assertEquals(ResourceLimits.Limit.TIME, ex.getLimit());
+        }
+        assertEquals(1, moduleParser.getDiagnostics().size());
+        assertEquals(XQDocDiagnostic.Severity.FATAL, moduleParser.getDiagnostics().get(0).getSeverity());
+    }
+}
@@ -0,0 +1,130 @@
+package org.xqdoc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the namespace profile registry.
+ */
+public class NamespaceProfilesTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(Path directory, String name, String text) throws IOException
+    {
+        Files.write(directory.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void builtInProfilesInheritAndOverride()
+    {
+        NamespaceProfiles profiles = NamespaceProfiles.getDefault();
+        assertSame(profiles, NamespaceProfiles.getDefault());
+        assertEquals("[exist-db, marklogic, xquery, xquery31]", profiles.getNames().toString());
+
+        NamespaceProfile marklogic = profiles.get("marklogic");
+        assertEquals(22, marklogic.size());
+        assertEquals("http://www.w3.org/2003/05/xpath-functions", marklogic.get("fn"));
+        assertEquals("http://marklogic.com/xdmp/map", marklogic.get("map"));
+        assertEquals("DAV:", marklogic.get("dav"));
+        assertNull(marklogic.get("lucene"));
+        assertNull(marklogic.get(null));
+
+        assertEquals("http://www.w3.org/2005/xpath-functions/map", profiles.get("xquery31").get("map"));
+        assertEquals("http://www.w3.org/2003/05/xpath-functions", profiles.get("xquery31").get("fn"));
+        assertEquals(21, profiles.get("exist-db").size());
+        assertEquals("http://exist-db.org/xquery/lucene", profiles.get("exist-db").get("lucene"));
+    }
+
+    @Test(timeout = 10000)
+    public void collidingPrefixesFallBackToAHashMap()
+    {
+        // "Aa" and "BB" have the same String.hashCode, which no seed separates
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        NamespaceProfile xquery = NamespaceProfiles.getDefault().get("xquery");
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("Aa", "urn:aa");
+        overrides.put("BB", "urn:bb");
+        NamespaceProfile profile = xquery.withOverrides(overrides);
+        assertTrue(xquery.isCollisionFree());
+        assertTrue(!profile.isCollisionFree());
+        assertEquals("urn:aa", profile.get("Aa"));
+        assertEquals("urn:bb", profile.get("BB"));
+        assertEquals(xquery.get("fn"), profile.get("fn"));
+        assertNull(profile.get("C#"));
+        assertEquals(xquery.size() + 2, profile.size());
+    }
+
+    @Test
+    public void profilesAreImmutable()
+    {
+        NamespaceProfile xquery = NamespaceProfiles.getDefault().get("xquery");
+        try {
+            xquery.put("x", "urn:x");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("fn", "urn:fn");
+        overrides.put("x", "urn:x");
+        NamespaceProfile overridden = xquery.withOverrides(overrides);
+        assertEquals("urn:fn", overridden.get("fn"));
+        assertEquals("urn:x", overridden.get("x"));
+        assertEquals("http://www.w3.org/2003/05/xpath-functions", xquery.get("fn"));
+        assertSame(xquery, xquery.withOverrides(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void directoryProfilesExtendTheBuiltInOnes() throws IOException
+    {
+        Path directory = folder.newFolder("profiles").toPath();
+        write(directory, "basex.properties", "@extends=xquery31\ndb=http://basex.org/modules/db\n");
+        write(directory, "xquery.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n"
+                + "<properties><entry key=\"fn\">urn:fn</entry></properties>\n");
+        NamespaceProfiles profiles = NamespaceProfiles.load(directory);
+
+        NamespaceProfile basex = profiles.get("basex");
+        assertEquals("http://basex.org/modules/db", basex.get("db"));
+        assertEquals("http://www.w3.org/2005/xpath-functions/math", basex.get("math"));
+        assertEquals("urn:fn", basex.get("fn"));
+        assertNull(basex.get("err"));
+        assertEquals("urn:fn", profiles.get("marklogic").get("fn"));
+    }
+
+    @Test
+    public void unknownAndCyclicProfilesAreRejected() throws IOException
+    {
+        try {
+            NamespaceProfiles.getDefault().get("saxon");
+            fail();
+        } catch (XQDocRuntimeException expected) {
+            assertTrue(expected.getMessage().contains("saxon"));
+        }
+        Path directory = folder.newFolder("cycle").toPath();
+        write(directory, "a.properties", "@extends=b\n");
+        write(directory, "b.properties", "@extends=xquery, a\n");
+        try {
+            NamespaceProfiles.load(directory);
+            fail();
+        } catch (XQDocRuntimeException expected) {
+            assertTrue(expected.getMessage().contains("[a, b] a"));
+        }
+    }
+}
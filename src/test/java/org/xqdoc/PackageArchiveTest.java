@@ -0,0 +1,83 @@
+package org.xqdoc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for reading modules from, and writing the documentation to, archives.
+ */
+public class PackageArchiveTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     *
+     * @return A package with two modules and its descriptor
+     * @throws IOException when the package can not be written
+     */
+    private Path writePackage() throws IOException
+    {
+        Path xar = folder.getRoot().toPath().resolve("app.xar");
+        try (OutputStream out = Files.newOutputStream(xar);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("expath-pkg.xml"));
+            zip.write("<package/>".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("content/a.xqm"));
+            zip.write("module namespace a=\"urn:a\";\ndeclare function a:f() { 1 };\n".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("modules/b.xql"));
+            zip.write("import module namespace a=\"urn:a\" at \"../content/a.xqm\";\na:f()\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return xar;
+    }
+
+    @Test
+    public void modulesAreReadFromThePackage() throws IOException
+    {
+        Path xar = writePackage();
+        assertTrue(PackageArchive.isArchive(xar));
+        assertFalse(PackageArchive.isArchive(folder.getRoot().toPath()));
+
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setThreads(2);
+        List<ModuleDeclaration> modules = batchProcessor.processArchive(xar);
+        assertEquals(2, modules.size());
+        assertEquals("content/a.xqm", modules.get(0).getSource());
+        assertEquals("modules/b.xql", modules.get(1).getSource());
+        assertEquals("f", modules.get(0).getFunctions().get(0).getLocalName());
+    }
+
+    @Test
+    public void documentationIsWrittenToAnArchive() throws IOException
+    {
+        Path xar = writePackage();
+        Path zip = folder.getRoot().toPath().resolve("out/xqdoc.zip");
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        try (PackageArchive input = PackageArchive.open(xar);
+             PackageArchive output = PackageArchive.create(zip)) {
+            batchProcessor.setOutputDirectory(output.getRoot());
+            batchProcessor.processAll(input.getRoot());
+        }
+
+        try (PackageArchive output = PackageArchive.open(zip)) {
+            String xml = new String(Files.readAllBytes(output.getRoot().resolve("content/a.xml")), StandardCharsets.UTF_8);
+            assertTrue(xml.contains("urn:a"));
+            assertTrue(Files.exists(output.getRoot().resolve("modules/b.xml")));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Measures the parse trees and the parse time of the modules below a
+ * directory.  Not a unit test; run it against a corpus with
+ * <code>java -cp target/classes:target/test-classes:... org.xqdoc.ParseBenchmark dir [rounds]</code>.
+ */
+public class ParseBenchmark
+{
+    public static void main(String[] args) throws IOException
+    {
+        Path root = Paths.get(args[0]);
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        List<CharStream> sources = new ArrayList<>();
+        long bytes = 0;
+        for (Path file : new BatchProcessor(new HashMap()).discover(root)) {
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            bytes += text.length();
+            sources.add(CharStreams.fromString(text, file.toString()));
+        }
+
+        ModuleParser moduleParser = new ModuleParser();
+        long nodes = 0;
+        int maxDepth = 0;
+        for (CharStream source : sources) {
+            source.seek(0);
+            XQueryParser.ModuleContext module = moduleParser.parse(source, source.getSourceName());
+            long[] counts = new long[2];
+            count(module, 1, counts);
+            nodes += counts[0];
+            maxDepth = Math.max(maxDepth, (int) counts[1]);
+        }
+        System.out.println(sources.size() + " modules, " + (bytes / 1024) + " KB, "
+                + nodes + " rule nodes, max depth " + maxDepth);
+
+        // The first round warms up the JIT and the ANTLR decision caches
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (CharStream source : sources) {
+                source.seek(0);
+                moduleParser.parse(source, source.getSourceName());
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println((round == 0 ? "warm-up " : "round " + round + " ") + millis + " ms");
+        }
+    }
+
+    /**
+     * @param tree A parse tree
+     * @param depth The depth of the tree
+     * @param counts The number of rule nodes and the greatest depth
+     */
+    private static void count(ParseTree tree, int depth, long[] counts)
+    {
+        if (!(tree instanceof ParserRuleContext)) {
+            return;
+        }
+        counts[0]++;
+        counts[1] = Math.max(counts[1], depth);
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            count(tree.getChild(i), depth + 1, counts);
+        }
+    }
+}
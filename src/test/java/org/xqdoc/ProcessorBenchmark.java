@@ -0,0 +1,62 @@
+package org.xqdoc;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Measures the time, the memory allocated and the garbage collections of
+ * {@link ExistDBProcessor} documenting the modules below a directory one at a
+ * time, as a database trigger does.  Not a unit test; run it against a corpus with
+ * <code>java -cp target/classes:target/test-classes:... org.xqdoc.ProcessorBenchmark dir [rounds] [xml|json]</code>.
+ */
+public class ProcessorBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        Path root = Paths.get(args[0]);
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        OutputFormat format = OutputFormat.forName((args.length > 2) ? args[2] : "json");
+        List<String> sources = new ArrayList<>();
+        for (Path file : new BatchProcessor(new HashMap()).discover(root)) {
+            sources.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        ExistDBProcessor processor = new ExistDBProcessor();
+        // The first round warms up the JIT and the ANTLR decision caches
+        for (int round = 0; round <= rounds; round++) {
+            long collections = collections();
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (String source : sources) {
+                processor.process(source, format);
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            long megabytes = (threads.getThreadAllocatedBytes(thread) - allocated) / (1024 * 1024);
+            System.out.println((round == 0 ? "warm-up " : "round " + round + " ") + sources.size() + " modules: "
+                    + millis + " ms, " + megabytes + " MB allocated, "
+                    + (megabytes * 1024 / Math.max(1, sources.size())) + " KB per module, "
+                    + (collections() - collections) + " collections");
+        }
+    }
+
+    /**
+     * @return The number of garbage collections so far
+     */
+    private static long collections()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,143 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the xqDoc of one visit filled in for several namespace profiles.
+ */
+public class ProfileTemplateTest
+{
+    private static final String LIBRARY = "module namespace s=\"urn:s/lib\";\n"
+            + "import module namespace i=\"urn:i\" at \"i.xqm\";\n"
+            + "declare variable $s:v := 1;\n"
+            + "(:~ Calls the engines :)\n"
+            + "declare function s:f($a) {\n"
+            + "  xdmp:log($a), util:log(\"info\", $a), map:get($a, 1), fn:count($a), i:g(), s:f(1),\n"
+            + "  $xdmp:x, $map:y, $s:v, $i:w, $xdmp:x, unknown:h()\n"
+            + "};\n"
+            + "declare function s:g() { xdmp:log(1), xdmp:log(2), xdmp:log(3, 4) };\n";
+
+    private static final String MAIN = "xquery version \"3.1\";\n"
+            + "(:~ A variable of the local namespace :)\n"
+            + "declare variable $local:v := 1;\n"
+            + "declare function local:f() { $local:v };\n"
+            + "local:f(), xdmp:log($local:v), $util:x\n";
+
+    /**
+     *
+     * @param stream The buffer receiving the xqDoc XML
+     * @param text The module
+     * @param profile The predefined function namespaces
+     * @param template The template to record or null
+     * @param encodeURIs Whether the URIs are encoded
+     * @return The module declaration
+     */
+    private static ModuleDeclaration visit(StringBuilder stream, String text, Map profile, ProfileTemplate template, boolean encodeURIs)
+    {
+        XQueryVisitor visitor = new XQueryVisitor(stream, profile);
+        visitor.setEncodeURIs(encodeURIs);
+        visitor.setProfileTemplate(template);
+        visitor.visit(new ModuleParser().parse(CharStreams.fromString(text), "m.xqm"));
+        return visitor.getModuleDeclaration();
+    }
+
+    /**
+     *
+     * @param xml xqDoc XML
+     * @return The XML without its date
+     */
+    private static String undated(String xml)
+    {
+        return xml.replaceFirst("<xqdoc:date>[^<]*</xqdoc:date>", "");
+    }
+
+    /**
+     *
+     * @param module A module
+     * @return Its variables, calls and variable references
+     */
+    private static String references(ModuleDeclaration module)
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(module.getVariables().size()).append(module.getInvocations()).append(module.getVariableReferences());
+        for (FunctionDeclaration function : module.getFunctions()) {
+            buffer.append(function.getInvocations()).append(function.getVariableReferences());
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Visit a module once recording a template and once for each profile, and compare.
+     *
+     * @param text The module
+     * @param encodeURIs Whether the URIs are encoded
+     */
+    private static void assertSameForEveryProfile(String text, boolean encodeURIs)
+    {
+        Map<String, String> bare = new HashMap<>();
+        bare.put("fn", "http://www.w3.org/2005/xpath-functions");
+        Map[] profiles = {
+            NamespaceProfiles.getDefault().get("exist-db"),
+            NamespaceProfiles.getDefault().get("marklogic"),
+            NamespaceProfiles.getDefault().get("xquery31"),
+            bare,
+            Collections.emptyMap()
+        };
+        StringBuilder recorded = new StringBuilder();
+        ProfileTemplate template = new ProfileTemplate();
+        ModuleDeclaration module = visit(recorded, text, profiles[0], template, encodeURIs);
+        StringBuilder direct = new StringBuilder();
+        assertEquals(references(visit(direct, text, profiles[0], null, encodeURIs)), references(module));
+
+        for (int i = 0; i < profiles.length; i++) {
+            direct.setLength(0);
+            visit(direct, text, profiles[i], null, encodeURIs);
+            String xml = template.toXml(recorded, profiles[i]);
+            assertEquals("profile " + i, undated(direct.toString()), undated(xml));
+            assertFalse(xml.contains("\u0000") || xml.contains(ProfileTemplate.UNBOUND));
+        }
+    }
+
+    @Test
+    public void libraryModule()
+    {
+        assertSameForEveryProfile(LIBRARY, false);
+        assertSameForEveryProfile(LIBRARY, true);
+    }
+
+    @Test
+    public void mainModule()
+    {
+        assertSameForEveryProfile(MAIN, false);
+        assertSameForEveryProfile(MAIN, true);
+    }
+
+    @Test
+    public void profilesDiffer()
+    {
+        StringBuilder recorded = new StringBuilder();
+        ProfileTemplate template = new ProfileTemplate();
+        visit(recorded, LIBRARY, NamespaceProfiles.getDefault().get("exist-db"), template, false);
+        String marklogic = template.toXml(recorded, NamespaceProfiles.getDefault().get("marklogic"));
+        String existdb = template.toXml(recorded, NamespaceProfiles.getDefault().get("exist-db"));
+        assertTrue(marklogic.contains("<xqdoc:prefix>xdmp</xqdoc:prefix>"));
+        assertFalse(existdb.contains("<xqdoc:prefix>xdmp</xqdoc:prefix>"));
+        assertTrue(existdb.contains("<xqdoc:prefix>util</xqdoc:prefix>"));
+
+        // Without a binding for local the variables element is left out
+        recorded.setLength(0);
+        template = new ProfileTemplate();
+        visit(recorded, MAIN, NamespaceProfiles.getDefault().get("exist-db"), template, false);
+        assertTrue(template.toXml(recorded, NamespaceProfiles.getDefault().get("xquery")).contains("<xqdoc:variables>"));
+        assertFalse(template.toXml(recorded, Collections.emptyMap()).contains("<xqdoc:variables>"));
+    }
+}
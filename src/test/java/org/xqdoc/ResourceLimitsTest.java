@@ -0,0 +1,235 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the resource limits of the lexer, parser and visitor.
+ */
+public class ResourceLimitsTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String VALID = "module namespace s=\"http://example.com/s\";\n"
+            + "declare function s:hello() as xs:string { \"hello world\" };\n";
+
+    /**
+     * @param levels The number of nested parentheses
+     * @return A module with a deeply nested function body
+     */
+    private static String nested(int levels)
+    {
+        StringBuilder text = new StringBuilder("module namespace s=\"http://example.com/s\";\ndeclare function s:deep() { ");
+        for (int i = 0; i < levels; i++) {
+            text.append('(');
+        }
+        text.append('1');
+        for (int i = 0; i < levels; i++) {
+            text.append(')');
+        }
+        return text.append(" };\n").toString();
+    }
+
+    /**
+     * @param moduleParser The parser
+     * @param text The module
+     * @param limit The limit expected to be exceeded
+     */
+    private static void assertExceeds(ModuleParser moduleParser, String text, ResourceLimits.Limit limit)
+    {
+        try {
+            moduleParser.parse(CharStreams.fromString(text), "limited.xqm");
+            fail("expected " + limit + " to be exceeded");
+        } catch (XQDocLimitExceededException ex) {
+            assertEquals(limit, ex.getLimit());
+            List<XQDocDiagnostic> diagnostics = moduleParser.getDiagnostics();
+            assertEquals(XQDocDiagnostic.Severity.FATAL, diagnostics.get(diagnostics.size() - 1).getSeverity());
+        }
+    }
+
+    @Test
+    public void untrustedLimitsAcceptOrdinaryModules()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setResourceLimits(ResourceLimits.untrusted());
+        moduleParser.parse(CharStreams.fromString(VALID), "valid.xqm");
+        moduleParser.parse(CharStreams.fromString(nested(50)), "nested.xqm");
+        assertTrue(moduleParser.getDiagnostics().isEmpty());
+    }
+
+    @Test
+    public void sizeTokensAndDepthAreLimited()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.getResourceLimits().setMaxInputBytes(VALID.length() - 1);
+        assertExceeds(moduleParser, VALID, ResourceLimits.Limit.INPUT_BYTES);
+
+        moduleParser = new ModuleParser();
+        moduleParser.getResourceLimits().setMaxTokens(20);
+        assertExceeds(moduleParser, VALID, ResourceLimits.Limit.TOKENS);
+        // The counter starts again for the next module
+        moduleParser.getResourceLimits().setMaxTokens(1000);
+        moduleParser.parse(CharStreams.fromString(VALID), "valid.xqm");
+
+        moduleParser = new ModuleParser();
+        moduleParser.getResourceLimits().setMaxDepth(500);
+        assertExceeds(moduleParser, nested(5000), ResourceLimits.Limit.DEPTH);
+        moduleParser.parse(CharStreams.fromString(nested(10)), "nested.xqm");
+        assertTrue(moduleParser.getDiagnostics().isEmpty());
+    }
+
+    @Test
+    public void nestedStringInterpolationIsLimited()
+    {
+        StringBuilder text = new StringBuilder("module namespace s=\"http://example.com/s\";\ndeclare function s:f() { <a b=\"");
+        for (int i = 0; i < 200; i++) {
+            text.append("{'{\"");
+        }
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.getResourceLimits().setMaxDepth(100);
+        assertExceeds(moduleParser, text.toString(), ResourceLimits.Limit.DEPTH);
+    }
+
+    @Test
+    public void depthIsLimitedOnceAnyLimitIsSet()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        assertEquals(0, moduleParser.getResourceLimits().getEffectiveMaxDepth());
+        moduleParser.getResourceLimits().setMaxTokens(10000000);
+        assertEquals(ResourceLimits.DEFAULT_MAX_DEPTH, moduleParser.getResourceLimits().getEffectiveMaxDepth());
+        assertExceeds(moduleParser, nested(20000), ResourceLimits.Limit.DEPTH);
+
+        StringBuilder text = new StringBuilder("module namespace s=\"http://example.com/s\";\ndeclare function s:f() { <a b=\"");
+        for (int i = 0; i < 2000; i++) {
+            text.append("{'{\"");
+        }
+        assertExceeds(moduleParser, text.toString(), ResourceLimits.Limit.DEPTH);
+    }
+
+    @Test
+    public void visitingIsTimeLimited()
+    {
+        StringBuilder text = new StringBuilder("module namespace s=\"http://example.com/s\";\ndeclare function s:wide() { (1");
+        for (int i = 0; i < 1000; i++) {
+            text.append(", 1");
+        }
+        ModuleParser moduleParser = new ModuleParser();
+        XQueryParser.ModuleContext module = moduleParser.parse(CharStreams.fromString(text.append(") };\n").toString()), "wide.xqm");
+        XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), new HashMap());
+        visitor.setDeadline(System.currentTimeMillis() - 1, 250);
+        try {
+            visitor.visit(module);
+            fail("expected the time limit to be exceeded");
+        } catch (XQDocLimitExceededException ex) {
+            assertEquals(ResourceLimits.Limit.TIME, ex.getLimit());
+            assertEquals(250, ex.getMaximum());
+            assertEquals("Time budget of 250 ms exceeded while visiting the module", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void visitingIsDepthLimited()
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        XQueryParser.ModuleContext module = moduleParser.parse(CharStreams.fromString(nested(200)), "nested.xqm");
+        XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), new HashMap());
+        visitor.setMaxDepth(50);
+        try {
+            visitor.visit(module);
+            fail("expected the depth limit to be exceeded");
+        } catch (XQDocLimitExceededException ex) {
+            assertEquals(ResourceLimits.Limit.DEPTH, ex.getLimit());
+            assertEquals(50, ex.getMaximum());
+        }
+
+        // Without limits neither the parser nor the walk is held to a depth
+        visitor.reset(new StringBuilder());
+        visitor.setMaxDepth(moduleParser.getResourceLimits().getEffectiveMaxDepth());
+        visitor.visit(moduleParser.parse(CharStreams.fromString(nested(80)), "nested.xqm"));
+
+        // With limits the walk has the depth limit of the parser, so it accepts every tree the parser does
+        moduleParser.setResourceLimits(ResourceLimits.untrusted());
+        for (int levels = 10; ; levels += 10) {
+            try {
+                module = moduleParser.parse(CharStreams.fromString(nested(levels)), "nested.xqm");
+            } catch (XQDocLimitExceededException ex) {
+                assertEquals(ResourceLimits.DEFAULT_MAX_DEPTH, ex.getMaximum());
+                break;
+            }
+            visitor.reset(new StringBuilder());
+            visitor.setMaxDepth(moduleParser.getResourceLimits().getEffectiveMaxDepth());
+            visitor.visit(module);
+        }
+    }
+
+    @Test
+    public void streamedDeclarationsAreTimeLimited() throws IOException
+    {
+        StringBuilder text = new StringBuilder("module namespace s=\"http://example.com/s\";\ndeclare function s:wide() { (1");
+        for (int i = 0; i < 3000; i++) {
+            text.append(", 1");
+        }
+        Path root = folder.newFolder("repo").toPath();
+        Files.write(root.resolve("wide.xqm"), text.append(") };\n").toString().getBytes(StandardCharsets.UTF_8));
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setStreamDeclarations(true);
+        batchProcessor.getModuleParser().setTimeBudgetMillis(1000);
+        // Spends the time budget as the function is entered, so that the rest of its walk is over time
+        batchProcessor.setAnalyzers(Collections.<XQueryAnalyzer>singletonList(new XQueryAnalyzer("slow", "functionDecl") {
+            @Override
+            public XQueryAnalyzer copy()
+            {
+                return this;
+            }
+
+            @Override
+            public void enter(ParserRuleContext context, ModuleDeclaration module)
+            {
+                try {
+                    Thread.sleep(1500);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+        List<XQDocDiagnostic> diagnostics = batchProcessor.processAll(root).get(0).getDiagnostics();
+        assertEquals(1, diagnostics.size());
+        assertEquals(XQDocDiagnostic.Severity.FATAL, diagnostics.get(0).getSeverity());
+        assertEquals("Time budget of 1000 ms exceeded while visiting the module", diagnostics.get(0).getMessage());
+    }
+
+    @Test
+    public void batchModulesOverALimitAreReported() throws IOException
+    {
+        Path root = folder.newFolder("repo").toPath();
+        Files.write(root.resolve("a.xqm"), VALID.getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("b.xqm"), (VALID + "(: a longer module :)\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("c.xqm"), nested(200).getBytes(StandardCharsets.UTF_8));
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.getModuleParser().getResourceLimits().setMaxInputBytes(VALID.length() + 10);
+        batchProcessor.getModuleParser().getResourceLimits().setMaxDepth(1000);
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+
+        assertTrue(modules.get(0).getDiagnostics().isEmpty());
+        assertEquals(1, modules.get(0).getFunctions().size());
+        assertEquals("b.xqm:0:0: FATAL Module of " + (VALID.length() + 22) + " bytes exceeds the limit of "
+                + (VALID.length() + 10) + " bytes", modules.get(1).getDiagnostics().get(0).toString());
+        assertEquals(XQDocDiagnostic.Severity.FATAL, modules.get(2).getDiagnostics().get(0).getSeverity());
+    }
+}
@@ -0,0 +1,96 @@
+package org.xqdoc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.xqdoc.TestModules.module;
+
+/**
+ * Unit tests for the RESTXQ route table.
+ */
+public class RouteTableTest
+{
+    private static final String MODULE =
+            "module namespace u=\"urn:users\";\n"
+            + "declare namespace rest=\"http://exquery.org/ns/restxq\";\n"
+            + "declare %rest:GET %rest:path(\"/users\") function u:list() { () };\n"
+            + "declare %rest:POST %rest:path(\"/users\") %rest:consumes(\"application/json\") function u:create($body) { () };\n"
+            + "declare %rest:POST %rest:path(\"/users\") %rest:consumes(\"application/xml\", \"text/xml\") function u:createXml($body) { () };\n"
+            + "declare %rest:GET %rest:path(\"/users/{$id}\") %rest:produces(\"application/json\") function u:get($id) { () };\n"
+            + "declare %rest:GET %rest:path(\"/users/{$id}\") %rest:produces(\"text/html\") function u:page($id) { () };\n"
+            + "declare %rest:GET %rest:path(\"/users/me\") function u:me() { () };\n"
+            + "declare %rest:path(\"/users/{$id}/groups/{ $group }\") function u:group($id, $group) { () };\n"
+            + "declare function u:helper() { () };\n";
+
+    /**
+     *
+     * @param match A match or null
+     * @return The local name of the function matched, or null
+     */
+    private static String name(RouteTable.Match match)
+    {
+        return (match != null) ? match.getRoute().getFunction().getLocalName() : null;
+    }
+
+    @Test
+    public void routesAreReadFromTheAnnotations()
+    {
+        RouteTable routeTable = new RouteTable(Collections.singletonList(module("users.xqm", MODULE)));
+        assertEquals(7, routeTable.getRoutes().size());
+        assertEquals("POST /users consumes application/xml,text/xml -> Q{urn:users}createXml#1 (users.xqm)",
+                routeTable.getRoutes().get(2).toString());
+        assertEquals("* /users/{$id}/groups/{ $group } -> Q{urn:users}group#2 (users.xqm)",
+                routeTable.getRoutes().get(6).toString());
+        assertTrue(routeTable.getConflicts().isEmpty());
+    }
+
+    @Test
+    public void requestsAreDispatched()
+    {
+        RouteTable routeTable = new RouteTable(Collections.singletonList(module("users.xqm", MODULE)));
+        assertEquals("list", name(routeTable.lookup("GET", "/users/", null, null)));
+        assertEquals("create", name(routeTable.lookup("post", "/users", "application/json; charset=UTF-8", null)));
+        assertEquals("createXml", name(routeTable.lookup("POST", "/users", "text/xml", null)));
+        assertNull(routeTable.lookup("POST", "/users", "text/plain", null));
+        assertNull(routeTable.lookup("DELETE", "/users", null, null));
+
+        // The literal segment is more specific than the variable
+        assertEquals("me", name(routeTable.lookup("GET", "/users/me", null, null)));
+        RouteTable.Match match = routeTable.lookup("GET", "/users/42?full=true", null, "text/html;q=0.9, application/json;q=0");
+        assertEquals("page", name(match));
+        assertEquals(Collections.singletonMap("id", "42"), match.getVariables());
+        assertEquals("get", name(routeTable.lookup("GET", "/users/42", null, "application/*")));
+
+        // Falls back to the variable when the literal branch has no route
+        match = routeTable.lookup("PUT", "/users/me/groups/admin", null, null);
+        assertEquals("group", name(match));
+        assertEquals("{id=me, group=admin}", match.getVariables().toString());
+        assertNull(routeTable.lookup("GET", "/users/42/groups", null, null));
+        assertNull(routeTable.lookup("GET", "/other", null, null));
+    }
+
+    @Test
+    public void conflictingRoutesAreReported()
+    {
+        ModuleDeclaration other = module("other.xqm", "module namespace o=\"urn:other\";\n"
+                + "declare namespace x=\"http://exquery.org/ns/restxq\";\n"
+                + "declare namespace rest=\"urn:not-restxq\";\n"
+                + "declare %x:GET %x:path(\"users/{$name}\") %x:produces(\"application/*\") function o:get($name) { () };\n"
+                + "declare %x:method(\"post\") %x:path(\"/users\") function o:post() { () };\n"
+                + "declare %rest:GET %rest:path(\"/ignored\") function o:ignored() { () };\n");
+        RouteTable routeTable = new RouteTable(Arrays.asList(module("users.xqm", MODULE), other));
+        assertEquals(9, routeTable.getRoutes().size());
+        assertEquals(1, routeTable.getConflicts().size());
+        assertTrue(routeTable.getConflicts().get(0),
+                routeTable.getConflicts().get(0).startsWith("conflicting routes GET /users/{$id} produces application/json"));
+        // Less specific than the POST routes consuming a media type
+        assertEquals("create", name(routeTable.lookup("POST", "/users", "application/json", null)));
+        assertEquals("post", name(routeTable.lookup("POST", "/users", "text/plain", null)));
+        assertNull(routeTable.lookup("GET", "/ignored", null, null));
+    }
+}
@@ -0,0 +1,105 @@
+package org.xqdoc;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the function search index.
+ */
+public class SearchIndexTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    private Path indexDirectory;
+
+    private BatchProcessor batchProcessor;
+
+    private static final String USERS = "module namespace u=\"urn:users\";\n"
+            + "(:~\n"
+            + " : Find a user account by its identifier.\n"
+            + " : @param $id the account identifier\n"
+            + " : @return the matching account element\n"
+            + " :)\n"
+            + "declare %rest:GET %rest:path(\"/users/{$id}\") function u:get-user($id as xs:string) as element(account)? { () };\n"
+            + "declare function u:delete-user($id as xs:integer) { () };\n";
+
+    private void write(String name, String text) throws IOException
+    {
+        Files.write(root.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> names(List<SearchHit> hits)
+    {
+        List<String> names = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            names.add(hit.getLocalName() + "#" + hit.getArity() + " " + hit.getField());
+        }
+        return names;
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = folder.newFolder("repo").toPath();
+        indexDirectory = folder.newFolder("index").toPath();
+        write("users.xqm", USERS);
+        batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setSearchIndex(SearchIndex.open(indexDirectory));
+        batchProcessor.processAll(root);
+    }
+
+    @Test
+    public void namesParametersTypesCommentsAndAnnotationsAreSearchable()
+    {
+        SearchIndex index = batchProcessor.getSearchIndex();
+        assertEquals("[get-user#1 name, get-user#1 description, delete-user#1 name, get-user#1 annotation]",
+                names(index.search("USER", 10)).toString());
+        assertEquals("[get-user#1 name, get-user#1 annotation]", names(index.search("get", 10)).toString());
+        List<String> id = names(index.search("id", 10));
+        assertTrue(id.contains("get-user#1 parameter"));
+        assertTrue(id.contains("delete-user#1 parameter"));
+        assertTrue(id.contains("get-user#1 param"));
+        assertEquals("[delete-user#1 type]", names(index.search("xs:int", 10)).toString());
+        assertTrue(names(index.search("account", 10)).contains("get-user#1 type"));
+        assertEquals("[get-user#1 description]", names(index.search("identifi", 1)).toString());
+        assertEquals("[get-user#1 annotation]", names(index.search("rest:path", 10)).toString());
+        assertEquals("[get-user#1 return]", names(index.search("matching", 10)).toString());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    public void modulesAreReindexedIncrementallyAndReopenedFromDisk() throws IOException
+    {
+        write("users.xqm", USERS.replace("delete-user", "remove-user"));
+        write("other.xqm", "module namespace o=\"urn:other\";\ndeclare function o:ping() { () };\n");
+        List<Path> changed = new ArrayList<>();
+        changed.add(root.resolve("users.xqm"));
+        changed.add(root.resolve("other.xqm"));
+        batchProcessor.process(root, changed);
+
+        SearchIndex reopened = SearchIndex.open(indexDirectory);
+        assertEquals(batchProcessor.getSearchIndex().getTermCount(), reopened.getTermCount());
+        assertTrue(reopened.search("delete", 10).isEmpty());
+        assertEquals("[remove-user#1 name]", names(reopened.search("remove", 10)).toString());
+        assertEquals("[ping#0 name]", names(reopened.search("pi", 10)).toString());
+
+        reopened.remove("other.xqm");
+        assertTrue(SearchIndex.open(indexDirectory).search("ping", 10).isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package org.xqdoc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the synthetic module generator.
+ */
+public class SyntheticModuleGeneratorTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SyntheticModuleGenerator generator(long seed)
+    {
+        SyntheticModuleGenerator generator = new SyntheticModuleGenerator();
+        generator.setSeed(seed);
+        generator.setFunctions(30);
+        generator.setDepth(10);
+        generator.setCommentDensity(1);
+        generator.setImports(2);
+        generator.setNamespaces(5);
+        generator.setStringLength(200);
+        return generator;
+    }
+
+    @Test
+    public void generatedModulesParseAndImportEachOther() throws IOException
+    {
+        Path root = folder.newFolder("synthetic").toPath();
+        generator(7).write(root, 3, 1);
+
+        BatchProcessor batchProcessor = new BatchProcessor(NamespaceProfiles.getDefault().get("xquery"));
+        List<ModuleDeclaration> modules = batchProcessor.processAll(root);
+        assertEquals(4, modules.size());
+        for (ModuleDeclaration module : modules) {
+            assertTrue(module.getSource() + " " + module.getDiagnostics(), module.getDiagnostics().isEmpty());
+            assertEquals(30, module.getFunctions().size());
+            assertNotNull(module.getFunctions().get(29).getComment());
+            assertEquals("urn:synthetic:namespace:4", module.getNamespaces().get("n4"));
+        }
+        assertEquals("lib/s2.xqm", modules.get(2).getSource());
+        assertEquals(2, modules.get(2).getImports().size());
+        assertEquals("main/q0.xq", modules.get(3).getSource());
+        assertEquals("main", modules.get(3).getModuleType());
+        assertEquals(120, batchProcessor.getFunctionTable().size());
+    }
+
+    @Test
+    public void sameSeedGivesTheSameModule() throws IOException
+    {
+        StringWriter first = new StringWriter();
+        StringWriter second = new StringWriter();
+        generator(7).writeLibrary(first, 3);
+        generator(7).writeLibrary(second, 3);
+        assertEquals(first.toString(), second.toString());
+        assertTrue(first.toString().contains("import module namespace s1 = \"urn:synthetic:s1\" at \"s1.xqm\";"));
+    }
+}
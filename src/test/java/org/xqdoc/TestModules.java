@@ -0,0 +1,30 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import java.util.HashMap;
+
+/**
+ * Modules for the unit tests, parsed and visited without a batch run.
+ */
+final class TestModules
+{
+    private TestModules()
+    {
+    }
+
+    /**
+     *
+     * @param source The module source
+     * @param text The module
+     * @return The module visited
+     */
+    static ModuleDeclaration module(String source, String text)
+    {
+        XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), new HashMap());
+        visitor.visit(new ModuleParser().parse(CharStreams.fromString(text), source));
+        ModuleDeclaration module = visitor.getModuleDeclaration();
+        module.setSource(source);
+        return module;
+    }
+}
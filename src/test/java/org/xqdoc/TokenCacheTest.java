@@ -0,0 +1,158 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the token cache.
+ */
+public class TokenCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String MODULE = "module namespace s=\"http://example.com/s\";\n"
+            + "(:~ Says hello\n : @return a 𝄞 greeting\n :)\n"
+            + "declare function s:hello() as xs:string {\n  ``[hello `{ \"world\" }`]``\n};\n";
+
+    private static final String BROKEN = "module namespace s=\"http://example.com/s\";\n"
+            + "declare function s:hello( { 1 };\n";
+
+    /**
+     *
+     * @param moduleParser The parser
+     * @param text The module
+     * @return The parse tree and diagnostics as text
+     */
+    private static String tree(ModuleParser moduleParser, String text)
+    {
+        XQueryParser.ModuleContext module = moduleParser.parse(CharStreams.fromString(text), "s.xqm");
+        return module.toStringTree() + "\n" + moduleParser.getDiagnostics();
+    }
+
+    /**
+     *
+     * @param moduleParser The parser
+     * @param text The module
+     * @return The parse tree, xqDoc and diagnostics as text
+     */
+    private static String parse(ModuleParser moduleParser, String text)
+    {
+        XQueryParser.ModuleContext module = moduleParser.parse(CharStreams.fromString(text), "s.xqm");
+        StringBuilder visited = new StringBuilder();
+        XQueryVisitor visitor = new XQueryVisitor(visited, new HashMap());
+        visitor.visit(module);
+        String xml = visited.toString().replaceFirst("<xqdoc:date>[^<]*</xqdoc:date>", "");
+        return module.toStringTree() + "\n" + xml + "\n" + moduleParser.getDiagnostics();
+    }
+
+    /**
+     *
+     * @param directory The cache directory
+     * @return The cache files
+     * @throws IOException when the directory can not be read
+     */
+    private static List<Path> files(Path directory) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> subdirectories = Files.newDirectoryStream(directory)) {
+            for (Path subdirectory : subdirectories) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(subdirectory)) {
+                    for (Path file : stream) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    @Test
+    public void cachedTokensParseTheSame() throws IOException
+    {
+        String lexed = parse(new ModuleParser(), MODULE);
+        String broken = parse(new ModuleParser(), BROKEN);
+        assertTrue(broken.contains("ERROR"));
+
+        TokenCache tokenCache = new TokenCache(folder.getRoot().toPath());
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setTokenCache(tokenCache);
+        assertEquals(lexed, parse(moduleParser, MODULE));
+        assertEquals(broken, parse(moduleParser, BROKEN));
+        assertEquals(0, tokenCache.getHits());
+        assertEquals(lexed, parse(moduleParser, MODULE));
+        assertEquals(broken, parse(moduleParser, BROKEN));
+        assertEquals(2, tokenCache.getHits());
+        assertEquals(2, files(tokenCache.getDirectory()).size());
+    }
+
+    @Test
+    public void lexerErrorsAreNotCached()
+    {
+        TokenCache tokenCache = new TokenCache(folder.getRoot().toPath());
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setTokenCache(tokenCache);
+        String text = "module namespace s=\"http://example.com/s\";\ndeclare variable $s:v := \"a &x b\";\n";
+        String first = tree(moduleParser, text);
+        assertTrue(first, first.contains("token recognition error"));
+        assertEquals(first, tree(moduleParser, text));
+        assertEquals(0, tokenCache.getHits());
+        assertEquals(2, tokenCache.getMisses());
+
+        // The parser stops before the error, which is not reported without a cache either
+        text = "xquery version \"3.1\";\n1 \"a &x b\"";
+        assertEquals(tree(new ModuleParser(), text), tree(moduleParser, text));
+        assertEquals("[]", moduleParser.getDiagnostics().toString());
+    }
+
+    @Test
+    public void damagedFilesAreWrittenAgain() throws IOException
+    {
+        TokenCache tokenCache = new TokenCache(folder.getRoot().toPath());
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setTokenCache(tokenCache);
+        String lexed = parse(moduleParser, MODULE);
+        Path file = files(tokenCache.getDirectory()).get(0);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length / 2));
+
+        assertEquals(lexed, parse(moduleParser, MODULE));
+        assertEquals(0, tokenCache.getHits());
+        assertEquals(lexed, parse(moduleParser, MODULE));
+        assertEquals(1, tokenCache.getHits());
+    }
+
+    @Test
+    public void cachedTokensKeepTheTokenLimit()
+    {
+        TokenCache tokenCache = new TokenCache(folder.getRoot().toPath());
+        ModuleParser moduleParser = new ModuleParser();
+        moduleParser.setTokenCache(tokenCache);
+        parse(moduleParser, MODULE);
+        moduleParser.getResourceLimits().setMaxTokens(20);
+        try {
+            moduleParser.parse(CharStreams.fromString(MODULE), "s.xqm");
+            fail("expected the token limit to be exceeded");
+        } catch (XQDocLimitExceededException ex) {
+            assertEquals(ResourceLimits.Limit.TOKENS, ex.getLimit());
+            assertEquals(1, tokenCache.getHits());
+        }
+        assertFalse(moduleParser.getDiagnostics().isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+package org.xqdoc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.xqdoc.TestModules.module;
+
+/**
+ * Unit tests for the index of the parameter and return types of the functions.
+ */
+public class TypeIndexTest
+{
+    private static final String MODULE =
+            "module namespace m=\"urn:m\";\n"
+            + "declare namespace s=\"http://www.w3.org/2001/XMLSchema\";\n"
+            + "declare namespace t=\"urn:types\";\n"
+            + "declare function m:find($name as xs:string) as element()* { () };\n"
+            + "declare function m:lookup($key as s:string, $n as integer?) as element(*)* { () };\n"
+            + "declare function m:custom($v as t:code) as  element( item ) { () };\n"
+            + "declare function m:apply($f as function(xs:string) as item()*) { () };\n"
+            + "declare function m:untyped($x) as empty-sequence() { () };\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     *
+     * @param entries Functions found
+     * @return Their local names
+     */
+    private static List<String> names(List<TypeIndex.Entry> entries)
+    {
+        List<String> names = new ArrayList<>();
+        for (TypeIndex.Entry entry : entries) {
+            names.add(entry.getLocalName());
+        }
+        return names;
+    }
+
+    @Test
+    public void typesAreNormalized()
+    {
+        assertEquals("element(*)*", TypeDescriptor.parse(" element( ) *").toString());
+        assertEquals("xs:string?", TypeDescriptor.parse("string?").toString());
+        assertEquals("function(xs:string) as item()*", TypeDescriptor.parse("function(xs:string) as item()*").toString());
+        assertEquals(TypeDescriptor.ANY, TypeDescriptor.of(null, null, Collections.<String, String>emptyMap()));
+        assertEquals("Q{urn:t}code", TypeDescriptor.of("t:code", null, Collections.singletonMap("t", "urn:t")).toString());
+        assertEquals("xs:date", TypeDescriptor.of("s:date", "", Collections.singletonMap("s", TypeDescriptor.XML_SCHEMA_NAMESPACE)).toString());
+    }
+
+    @Test
+    public void functionsAreFoundByTheirTypes() throws IOException
+    {
+        TypeIndex index = new TypeIndex();
+        index.update(module("m.xqm", MODULE));
+        assertEquals(Arrays.asList("find", "lookup"), names(index.search("returns element(*)*", 10)));
+        assertEquals(Arrays.asList("find", "lookup"), names(index.search("returns element(*)* takes xs:string", 10)));
+        assertEquals(Arrays.asList("lookup"), names(index.search("takes xs:string takes xs:integer?", 10)));
+        assertEquals(Arrays.asList("custom"), names(index.search("takes Q{urn:types}code returns element(item)", 10)));
+        assertEquals(Arrays.asList("apply"), names(index.search("takes function(xs:string) as item()* returns item()*", 10)));
+        assertEquals(Arrays.asList("untyped"), names(index.search("takes item()* returns empty-sequence()", 10)));
+        assertTrue(index.search("returns xs:string", 10).isEmpty());
+        assertEquals(1, index.search("takes xs:string", 1).size());
+        assertEquals("Q{urn:m}lookup(xs:string, xs:integer?) as element(*)* (m.xqm)",
+                index.search("takes xs:integer?", 10).get(0).toString());
+    }
+
+    @Test(expected = XQDocRuntimeException.class)
+    public void queriesNameTheirClauses()
+    {
+        new TypeIndex().search("element(*)", 10);
+    }
+
+    @Test
+    public void indexesArePersistedAndMerged() throws IOException
+    {
+        Path first = folder.newFolder("first").toPath();
+        TypeIndex index = TypeIndex.open(first);
+        index.update(module("lib/m.xqm", MODULE));
+        index.update(module("a.xqm", "module namespace a=\"urn:a\";\ndeclare function a:f($s as xs:string) as element()* { () };\n"));
+
+        TypeIndex reopened = TypeIndex.open(first);
+        assertEquals(index.getSources(), reopened.getSources());
+        assertEquals(index.getTermCount(), reopened.getTermCount());
+        assertEquals(Arrays.asList("f", "find", "lookup"), names(reopened.search("returns element(*)* takes xs:string", 10)));
+
+        // Another build changed a.xqm and added b.xqm
+        TypeIndex second = TypeIndex.open(folder.newFolder("second").toPath());
+        second.update(module("a.xqm", "module namespace a=\"urn:a\";\ndeclare function a:f($s as xs:string) as xs:string { $s };\n"));
+        second.update(module("b.xqm", "module namespace b=\"urn:b\";\ndeclare function b:g($s as xs:string) as element()* { () };\n"));
+        reopened.merge(second);
+        assertEquals(Arrays.asList("g", "find", "lookup"), names(reopened.search("returns element(*)* takes xs:string", 10)));
+
+        reopened.remove("lib/m.xqm");
+        TypeIndex merged = TypeIndex.open(first);
+        assertEquals(Arrays.asList("a.xqm", "b.xqm"), new ArrayList<>(merged.getSources()));
+        assertEquals(Arrays.asList("f"), names(merged.search("returns xs:string", 10)));
+    }
+
+    @Test
+    public void concurrentUpdatesOfAModuleLeaveTheFilesAndTheIndexInAgreement() throws Exception
+    {
+        final Path directory = folder.newFolder("concurrent").toPath();
+        final TypeIndex index = TypeIndex.open(directory);
+        final List<ModuleDeclaration> versions = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            versions.add(module("a.xqm", "module namespace a=\"urn:a\";\ndeclare function a:f" + i + "() as xs:string { \"\" };\n"));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                final ModuleDeclaration version = versions.get(i % versions.size());
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        index.update(version);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        List<String> found = names(index.search("returns xs:string", 10));
+        assertEquals(1, found.size());
+        assertEquals(found, names(TypeIndex.open(directory).search("returns xs:string", 10)));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                assertEquals("a.xqm" + TypeIndex.SEGMENT_EXTENSION, file.getFileName().toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.xqdoc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the validation of the xqDoc XML against the schema.
+ */
+public class XQDocValidatorTest
+{
+    private static final String VALID =
+            "<xqdoc:xqdoc xmlns:xqdoc=\"http://www.xqdoc.org/1.0\">\n"
+            + "<xqdoc:control><xqdoc:date>2019-05-13</xqdoc:date><xqdoc:version>1.0</xqdoc:version></xqdoc:control>\n"
+            + "<xqdoc:module type=\"library\"><xqdoc:uri>urn:a</xqdoc:uri></xqdoc:module>\n"
+            + "</xqdoc:xqdoc>\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void violationsAreReportedAtTheirLine()
+    {
+        XQDocValidator validator = XQDocValidator.getDefault();
+        assertSame(validator, XQDocValidator.getDefault());
+        assertTrue(validator.validate("a.xqm", VALID).isEmpty());
+
+        List<XQDocDiagnostic> violations = validator.validate("a.xqm", VALID.replace("type=\"library\"", "type=\"other\""));
+        assertTrue(violations.size() > 0);
+        XQDocDiagnostic violation = violations.get(0);
+        assertEquals(XQDocDiagnostic.Severity.WARNING, violation.getSeverity());
+        assertEquals(3, violation.getLine());
+        assertTrue(violation.toString(), violation.toString().startsWith("a.xqm:3:"));
+
+        // Not well-formed
+        assertEquals(1, validator.validate("a.xqm", "<xqdoc:xqdoc").size());
+    }
+
+    @Test
+    public void validatorsAreNotShared() throws Exception
+    {
+        final XQDocValidator validator = XQDocValidator.getDefault();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String xml = (i % 2 == 0) ? VALID : VALID.replace("1.0</xqdoc:version>", "2.0</xqdoc:version>");
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return validator.validate("m.xqm", xml).size();
+                    }
+                }));
+            }
+            int expected = validator.validate("m.xqm", VALID.replace("1.0</xqdoc:version>", "2.0</xqdoc:version>")).size();
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals((i % 2 == 0) ? 0 : expected, results.get(i).get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchModulesCarryTheViolations() throws IOException
+    {
+        Path root = folder.newFolder("repo").toPath();
+        Files.write(root.resolve("a.xqm"), ("xquery version \"3.1\";\n"
+                + "(:~ A module. :)\n"
+                + "module namespace a=\"urn:a\";\n"
+                + "import module namespace b=\"urn:b\" at \"b.xqm\";\n"
+                + "declare namespace x=\"urn:x\";\n"
+                + "(:~ A variable. :)\n"
+                + "declare variable $a:v as xs:string := \"v\";\n"
+                + "(:~ A function.\n : @param $n a number\n :)\n"
+                + "declare %private function a:f($n as xs:integer) as xs:integer { b:g($n, $a:v) };\n")
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("main.xq"), "import module namespace a=\"urn:a\" at \"a.xqm\";\n<r>{ 1 }</r>\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        // The bundled schema accepts the xqDoc 1.1 the visitor writes
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setValidator(XQDocValidator.getDefault());
+        for (ModuleDeclaration module : batchProcessor.processAll(root)) {
+            assertEquals(module.getDiagnostics().toString(), 0, module.getDiagnostics().size());
+        }
+        assertEquals(2, batchProcessor.getStatistics().getStage(PipelineStatistics.VALIDATE).getModules());
+
+        Path schema = folder.getRoot().toPath().resolve("control.xsd");
+        Files.write(schema, ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"http://www.xqdoc.org/1.0\">"
+                + "<xs:element name=\"xqdoc\"><xs:complexType><xs:sequence>"
+                + "<xs:any processContents=\"skip\"/>"
+                + "</xs:sequence></xs:complexType></xs:element></xs:schema>").getBytes(StandardCharsets.UTF_8));
+
+        batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setValidator(new XQDocValidator(XQDocValidator.compile(schema.toUri().toURL())));
+        for (ModuleDeclaration module : batchProcessor.processAll(root)) {
+            assertTrue(module.getDiagnostics().size() > 0);
+            assertTrue(module.getDiagnostics().get(0).getMessage().startsWith("xqDoc schema: "));
+        }
+    }
+
+    @Test
+    public void bundleEntriesAreValidated() throws IOException
+    {
+        Path root = folder.newFolder("repo").toPath();
+        Files.write(root.resolve("a.xqm"), ("module namespace a=\"urn:a\";\ndeclare namespace x=\"urn:x\";\n"
+                + "declare function a:f() { 1 };\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("main.xq"), "<r>{ 1 }</r>\n".getBytes(StandardCharsets.UTF_8));
+
+        BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+        batchProcessor.setValidator(XQDocValidator.getDefault());
+        Path bundle = folder.getRoot().toPath().resolve("bundle.xml");
+        try (BundleWriter bundleWriter = new BundleWriter(bundle)) {
+            batchProcessor.setBundleWriter(bundleWriter);
+            for (ModuleDeclaration module : batchProcessor.processAll(root)) {
+                assertEquals(module.getDiagnostics().toString(), 0, module.getDiagnostics().size());
+            }
+        }
+        assertEquals(2, batchProcessor.getStatistics().getStage(PipelineStatistics.VALIDATE).getModules());
+        // The whole bundle is valid as well
+        String text = new String(Files.readAllBytes(bundle), StandardCharsets.UTF_8);
+        assertTrue(XQDocValidator.getDefault().validate("bundle.xml", text).isEmpty());
+
+        // An entry is reported at its line
+        XQDocValidator validator = XQDocValidator.getDefault();
+        ModuleDeclaration module = new ModuleDeclaration();
+        module.setSource("a.xqm");
+        try (BundleWriter bundleWriter = new BundleWriter(folder.getRoot().toPath().resolve("other.xml"))) {
+            List<XQDocDiagnostic> violations = validator.validate("a.xqm", bundleWriter.getEntryDocumentStart(module),
+                    "<xqdoc:module type=\"library\">\n<xqdoc:uri>urn:a</xqdoc:uri>\n</xqdoc:module>\n"
+                            + "<xqdoc:namespaces>\n<xqdoc:namespace prefix=\"x\"/>\n</xqdoc:namespaces>\n",
+                    BundleWriter.ENTRY_DOCUMENT_END);
+            assertTrue(violations.size() > 0);
+            assertEquals(5, violations.get(0).getLine());
+        }
+    }
+
+    @Test
+    public void profileOutputsAreValidated() throws IOException
+    {
+        Path root = folder.newFolder("repo").toPath();
+        Files.write(root.resolve("a.xqm"), ("module namespace a=\"urn:a\";\n"
+                + "declare function a:f() { util:eval(\"1\"), xdmp:eval(\"1\") };\n").getBytes(StandardCharsets.UTF_8));
+        Map<String, Map> profiles = new LinkedHashMap<>();
+        profiles.put("exist-db", NamespaceProfiles.getDefault().get("exist-db"));
+        profiles.put("marklogic", NamespaceProfiles.getDefault().get("marklogic"));
+
+        BatchProcessor batchProcessor = new BatchProcessor(NamespaceProfiles.getDefault().get("exist-db"));
+        batchProcessor.setValidator(XQDocValidator.getDefault());
+        batchProcessor.setProfileOutputs(profiles);
+        batchProcessor.setOutputDirectory(folder.newFolder("out").toPath());
+        ModuleDeclaration module = batchProcessor.processAll(root).get(0);
+        assertEquals(module.getDiagnostics().toString(), 0, module.getDiagnostics().size());
+        assertEquals(1, batchProcessor.getStatistics().getStage(PipelineStatistics.VALIDATE).getModules());
+    }
+}
@@ -0,0 +1,168 @@
+package org.xqdoc;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the analyzers run in the walk of the visitor.
+ */
+public class XQueryAnalyzerTest
+{
+    private static final String MODULE =
+            "module namespace m=\"urn:m\";\n"
+            + "declare variable $m:v := if (1) then 2 else 3;\n"
+            + "(:~\n"
+            + " : @param $a the a\n"
+            + " : @param $b the b\n"
+            + " :)\n"
+            + "declare function m:f($a, $c) {\n"
+            + "  if ($a and $c or 1) then\n"
+            + "    for $x in 1 to 3 where $x > 1 return try { $x } catch * { 0 }\n"
+            + "  else switch ($a) case 1 return 1 case 2 case 3 return 2 default return 0\n"
+            + "};\n"
+            + "declare function m:g() { some $x in (1, 2) satisfies $x = 1 };\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Counts the <code>if</code> expressions of a module, registered as a service for the tests.
+     */
+    public static class IfCounter extends XQueryAnalyzer {
+        private int ifs = 0;
+
+        public IfCounter()
+        {
+            super("ifs", "ifExpr");
+        }
+
+        @Override
+        public XQueryAnalyzer copy()
+        {
+            return new IfCounter();
+        }
+
+        @Override
+        public void startModule(ModuleDeclaration module)
+        {
+            ifs = 0;
+        }
+
+        @Override
+        public void enter(ParserRuleContext context, ModuleDeclaration module)
+        {
+            ifs++;
+        }
+
+        @Override
+        public void endModule(ModuleDeclaration module)
+        {
+            module.addAnalysisResult(AnalysisResult.metric(getName(), null, "ifs", ifs));
+        }
+    }
+
+    /**
+     *
+     * @param text A module
+     * @param analyzers The analyzers
+     * @return The module visited with the analyzers
+     */
+    private static ModuleDeclaration analyze(String text, XQueryAnalyzer... analyzers)
+    {
+        ModuleParser moduleParser = new ModuleParser();
+        XQueryVisitor visitor = new XQueryVisitor(new StringBuilder(), new HashMap());
+        visitor.setAnalyzers(Arrays.asList(analyzers));
+        visitor.visit(moduleParser.parse(CharStreams.fromString(text), "m.xqm"));
+        return visitor.getModuleDeclaration();
+    }
+
+    /**
+     *
+     * @param module A module
+     * @param name The name of a metric or finding
+     * @return The results with the name, as text
+     */
+    private static List<String> results(ModuleDeclaration module, String name)
+    {
+        List<String> results = new ArrayList<>();
+        for (AnalysisResult result : module.getAnalysisResults()) {
+            if (result.getName().equals(name)) {
+                results.add(result.getSubject() + " " + (result.isFinding() ? result.getLine() + " " + result.getMessage() : result.getValue()));
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void complexityCountsTheDecisions()
+    {
+        ModuleDeclaration module = analyze(MODULE, new ComplexityAnalyzer());
+        // if, and, or, where, catch and three switch cases in two clauses
+        assertEquals(Arrays.asList("m:f#2 8", "m:g#0 2"), results(module, ComplexityAnalyzer.COMPLEXITY));
+
+        module = analyze("declare function local:f() { 1 };\nif (1) then local:f() else 2", new ComplexityAnalyzer());
+        assertEquals(Arrays.asList("local:f#0 1", "null 2"), results(module, ComplexityAnalyzer.COMPLEXITY));
+    }
+
+    @Test
+    public void paramTagsMatchTheParameters()
+    {
+        ModuleDeclaration module = analyze(MODULE, new ParamDocumentationAnalyzer());
+        assertEquals(Arrays.asList("m:f#2 7 @param $b of m:f#2 names no parameter"), results(module, "unknown-param"));
+        assertEquals(Arrays.asList("m:f#2 7 parameter $c of m:f#2 has no @param"), results(module, "undocumented-param"));
+        // m:g has no comment and no parameters
+        assertEquals(2, module.getAnalysisResults().size());
+    }
+
+    @Test
+    public void analyzersAreFoundAsServices()
+    {
+        XQueryAnalyzer analyzer = XQueryAnalyzer.forName("ifs");
+        assertTrue(analyzer instanceof IfCounter);
+        // The if of the variable is walked for the analyzers alone
+        assertEquals(Arrays.asList("null 2"), results(analyze(MODULE, analyzer, new ComplexityAnalyzer()), "ifs"));
+    }
+
+    @Test(expected = XQDocRuntimeException.class)
+    public void unknownAnalyzersAreRejected()
+    {
+        XQueryAnalyzer.forName("nonesuch");
+    }
+
+    @Test
+    public void batchModulesCarryTheResults() throws IOException
+    {
+        Path root = folder.newFolder("repo").toPath();
+        for (int i = 0; i < 8; i++) {
+            Files.write(root.resolve("m" + i + ".xqm"), MODULE.getBytes(StandardCharsets.UTF_8));
+        }
+        for (boolean stream : new boolean[] { false, true }) {
+            BatchProcessor batchProcessor = new BatchProcessor(new HashMap());
+            batchProcessor.setThreads(3);
+            batchProcessor.setStreamDeclarations(stream);
+            batchProcessor.setAnalyzers(Arrays.asList(new ComplexityAnalyzer(), new ParamDocumentationAnalyzer(), new IfCounter()));
+            for (ModuleDeclaration module : batchProcessor.processAll(root)) {
+                assertEquals(Arrays.asList("m:f#2 8", "m:g#0 2"), results(module, ComplexityAnalyzer.COMPLEXITY));
+                assertEquals(Arrays.asList("null 2"), results(module, "ifs"));
+                assertEquals(2, module.getDiagnostics().size());
+                assertTrue(module.getDiagnostics().get(0).toString(),
+                        module.getDiagnostics().get(0).toString().startsWith(module.getSource() + ":7:0: WARNING params unknown-param"));
+            }
+        }
+    }
+}